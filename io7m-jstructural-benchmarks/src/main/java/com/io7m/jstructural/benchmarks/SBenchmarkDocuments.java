@@ -0,0 +1,309 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jstructural.benchmarks;
+
+import com.io7m.jnull.Nullable;
+import com.io7m.jstructural.annotated.SADocument;
+import com.io7m.jstructural.annotated.SAnnotator;
+import com.io7m.jstructural.core.SDocument;
+import com.io7m.jstructural.core.SDocumentGenerator;
+import com.io7m.jstructural.xom.SDocumentParser;
+import com.io7m.jstructural.xom.SDocumentSerializer;
+import com.io7m.jstructural.xom.SDocumentXHTMLWriterCallbacks;
+import com.io7m.junreachable.UnreachableCodeException;
+import nu.xom.Attribute;
+import nu.xom.Document;
+import nu.xom.Element;
+import nu.xom.Elements;
+import nu.xom.Serializer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+
+/**
+ * Documents used by the benchmarks.
+ *
+ * <p>A document name is either the name of one of the documents in the test
+ * suite corpus (such as {@code documentation.xml}), or a name of the form
+ * {@code synthetic-N}, denoting a generated document with {@code N}
+ * sections.</p>
+ */
+
+public final class SBenchmarkDocuments
+{
+  private static final String SYNTHETIC_PREFIX = "synthetic-";
+  private static final String CORPUS_PATH      = "/com/io7m/jstructural/tests/";
+  private static final String XINCLUDE_URI     =
+    "http://www.w3.org/2001/XInclude";
+
+  private SBenchmarkDocuments()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * @param name The document name
+   *
+   * @return The base URI of the named document
+   */
+
+  public static URI uri(
+    final String name)
+  {
+    try {
+      if (name.startsWith(SBenchmarkDocuments.SYNTHETIC_PREFIX)) {
+        return new URI("http://example.com/" + name + ".xml");
+      }
+      final URL url = SBenchmarkDocuments.class.getResource(
+        SBenchmarkDocuments.CORPUS_PATH + name);
+      if (url == null) {
+        throw new IllegalArgumentException("No such document: " + name);
+      }
+      return url.toURI();
+    } catch (final URISyntaxException e) {
+      throw new UnreachableCodeException(e);
+    }
+  }
+
+  /**
+   * @param name The document name
+   *
+   * @return The raw bytes of the named document
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static byte[] bytes(
+    final String name)
+    throws IOException
+  {
+    if (name.startsWith(SBenchmarkDocuments.SYNTHETIC_PREFIX)) {
+      final int sections = Integer.parseInt(
+        name.substring(SBenchmarkDocuments.SYNTHETIC_PREFIX.length()));
+      return SBenchmarkDocuments.synthetic(sections);
+    }
+
+    final InputStream stream = SBenchmarkDocuments.uri(name).toURL()
+      .openStream();
+    try {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream(65536);
+      final byte[] buffer = new byte[8192];
+      while (true) {
+        final int r = stream.read(buffer);
+        if (r == -1) {
+          break;
+        }
+        out.write(buffer, 0, r);
+      }
+      return out.toByteArray();
+    } finally {
+      stream.close();
+    }
+  }
+
+  /**
+   * Parse the given document bytes.
+   *
+   * @param name The document name
+   * @param data The document bytes
+   *
+   * @return A parsed document
+   *
+   * @throws Exception On errors
+   */
+
+  public static SDocument parse(
+    final String name,
+    final byte[] data)
+    throws Exception
+  {
+    return SDocumentParser.fromStream(
+      new ByteArrayInputStream(data), SBenchmarkDocuments.uri(name));
+  }
+
+  /**
+   * Parse and annotate the named document.
+   *
+   * @param name The document name
+   *
+   * @return An annotated document
+   *
+   * @throws Exception On errors
+   */
+
+  public static SADocument annotated(
+    final String name)
+    throws Exception
+  {
+    final byte[] data = SBenchmarkDocuments.bytes(name);
+    return SAnnotator.document(SBenchmarkDocuments.parse(name, data));
+  }
+
+  /**
+   * Generate a document with the given number of sections. Each section
+   * contains three subsections of four paragraphs, with terms, links,
+   * footnotes, formal items, tables and a formal item list.
+   *
+   * @param sections The number of sections
+   *
+   * @return The bytes of the generated document
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static byte[] synthetic(
+    final int sections)
+    throws IOException
+  {
+    final ByteArrayOutputStream out =
+      new ByteArrayOutputStream(sections * 16384);
+    final Serializer s = new Serializer(out, "UTF-8");
+    s.write(new Document(SBenchmarkDocuments.syntheticElement(sections)));
+    s.flush();
+    return out.toByteArray();
+  }
+
+  /**
+   * Generate a document as {@link #synthetic(int)} does, writing each
+   * section to its own file in {@code directory}, and a document that
+   * includes every section with {@code xi:include} to {@code
+   * document.xml}.
+   *
+   * @param directory The output directory
+   * @param sections  The number of sections
+   *
+   * @return The file containing the including document
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static File syntheticIncluded(
+    final File directory,
+    final int sections)
+    throws IOException
+  {
+    final Element root = SBenchmarkDocuments.syntheticElement(sections);
+    final Elements children = root.getChildElements();
+    for (int index = 0; index < children.size(); ++index) {
+      final Element e = children.get(index);
+      if ("section".equals(e.getLocalName()) == false) {
+        continue;
+      }
+
+      final String name = String.format("section-%d.xml", index);
+      final Element include =
+        new Element("xi:include", SBenchmarkDocuments.XINCLUDE_URI);
+      include.addAttribute(new Attribute("href", name));
+      root.replaceChild(e, include);
+      SBenchmarkDocuments.write(new File(directory, name), new Document(e));
+    }
+
+    final File file = new File(directory, "document.xml");
+    SBenchmarkDocuments.write(file, new Document(root));
+    return file;
+  }
+
+  private static void write(
+    final File file,
+    final Document document)
+    throws IOException
+  {
+    final OutputStream out = new FileOutputStream(file);
+    try {
+      final Serializer s = new Serializer(out, "UTF-8");
+      s.write(document);
+      s.flush();
+    } finally {
+      out.close();
+    }
+  }
+
+  private static Element syntheticElement(
+    final int sections)
+  {
+    final SDocumentGenerator g = new SDocumentGenerator();
+    g.setSections(sections);
+    g.setSubsections(3);
+    g.setParagraphs(4);
+    g.setFootnotes(3);
+    g.setFormalItems(3);
+    g.setTables(1);
+    g.setLinks(1);
+    g.setIDs(2);
+    return SDocumentSerializer.document(g.generate());
+  }
+
+  /**
+   * @return A set of callbacks that make no changes to the output
+   */
+
+  public static SDocumentXHTMLWriterCallbacks callbacks()
+  {
+    return new SDocumentXHTMLWriterCallbacks()
+    {
+      @Override public void onBodyEnd(
+        final Element body)
+      {
+        // Nothing
+      }
+
+      @Override public @Nullable Element onBodyStart(
+        final Element body)
+      {
+        return null;
+      }
+
+      @Override public void onHead(
+        final Element head)
+      {
+        // Nothing
+      }
+    };
+  }
+
+  /**
+   * @return An output stream that discards all output
+   */
+
+  public static OutputStream nullOutputStream()
+  {
+    return new OutputStream()
+    {
+      @Override public void write(
+        final int b)
+      {
+        // Nothing
+      }
+
+      @Override public void write(
+        final byte[] b,
+        final int off,
+        final int len)
+      {
+        // Nothing
+      }
+    };
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jstructural.benchmarks;
+
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Some;
+import com.io7m.jstructural.annotated.SADocument;
+import com.io7m.jstructural.annotated.SASegmentNumber;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Navigation benchmarks: the segment queries made when rendering the
+ * navigation bars of multi-page output, and formal item lookups.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SNavigationBenchmark
+{
+  @Param({
+    "documentation.xml",
+    "synthetic-1000"})
+  public String document;
+
+  private SADocument annotated;
+
+  /**
+   * Construct a benchmark.
+   */
+
+  public SNavigationBenchmark()
+  {
+    // Nothing
+  }
+
+  /**
+   * Parse and annotate the document.
+   *
+   * @throws Exception On errors
+   */
+
+  @Setup public void setup()
+    throws Exception
+  {
+    this.annotated = SBenchmarkDocuments.annotated(this.document);
+  }
+
+  /**
+   * Walk every segment of the document, querying the previous and parent
+   * segments of each.
+   *
+   * @param bh A blackhole
+   */
+
+  @Benchmark public void navigateSegments(
+    final Blackhole bh)
+  {
+    final SADocument d = this.annotated;
+    SASegmentNumber current = d.segmentGetFirst();
+    while (true) {
+      bh.consume(d.segmentGetPrevious(current));
+      bh.consume(d.segmentGetUp(current));
+      final OptionType<SASegmentNumber> next = d.segmentGetNext(current);
+      if (next.isNone()) {
+        break;
+      }
+      current = ((Some<SASegmentNumber>) next).get();
+    }
+  }
+
+  /**
+   * Look up the formal items of a given kind.
+   *
+   * @param bh A blackhole
+   */
+
+  @Benchmark public void formalItems(
+    final Blackhole bh)
+  {
+    bh.consume(this.annotated.getFormals().get("example"));
+  }
+}
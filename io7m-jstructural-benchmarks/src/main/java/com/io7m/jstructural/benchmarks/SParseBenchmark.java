@@ -0,0 +1,232 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jstructural.benchmarks;
+
+import com.io7m.jstructural.core.SDocument;
+import com.io7m.jstructural.xom.SDocumentFragmentCache;
+import com.io7m.jstructural.xom.SDocumentParser;
+import com.io7m.jstructural.xom.SDocumentParserContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parser benchmarks.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SParseBenchmark
+{
+  @Param({
+    "documentation.xml",
+    "glowmaps.xml",
+    "jaux-documentation.xml",
+    "synthetic-1000"})
+  public String document;
+
+  private byte[]                 data;
+  private URI                    uri;
+  private SDocumentParserContext context;
+
+  /**
+   * Construct a benchmark.
+   */
+
+  public SParseBenchmark()
+  {
+    // Nothing
+  }
+
+  /**
+   * Load the document.
+   *
+   * @throws Exception On errors
+   */
+
+  @Setup public void setup()
+    throws Exception
+  {
+    this.data = SBenchmarkDocuments.bytes(this.document);
+    this.uri = SBenchmarkDocuments.uri(this.document);
+    this.context = SDocumentParserContext.newContext();
+  }
+
+  /**
+   * @return A document parsed with a shared parser context
+   *
+   * @throws Exception On errors
+   */
+
+  @Benchmark public SDocument parseSharedContext()
+    throws Exception
+  {
+    return SDocumentParser.fromStream(
+      this.context, new ByteArrayInputStream(this.data), this.uri);
+  }
+
+  /**
+   * @return A document parsed with a new parser context, compiling the schema
+   * for every document
+   *
+   * @throws Exception On errors
+   */
+
+  @Benchmark public SDocument parseFreshContext()
+    throws Exception
+  {
+    return SDocumentParser.fromStream(
+      SDocumentParserContext.newContext(),
+      new ByteArrayInputStream(this.data),
+      this.uri);
+  }
+
+  /**
+   * @return A document parsed with the streaming parser
+   *
+   * @throws Exception On errors
+   */
+
+  @Benchmark public SDocument parseStreaming()
+    throws Exception
+  {
+    return SDocumentParser.fromStreamStreaming(
+      this.context, new ByteArrayInputStream(this.data), this.uri);
+  }
+
+  /**
+   * @param i The included document
+   *
+   * @return A document split over many files, parsed as a whole with
+   * {@code xi:include} processed by the XML parser
+   *
+   * @throws Exception On errors
+   */
+
+  @Benchmark public SDocument parseIncludedWhole(
+    final Included i)
+    throws Exception
+  {
+    final InputStream stream = new FileInputStream(i.file);
+    try {
+      return SDocumentParser.fromStream(i.context, stream, i.file.toURI());
+    } finally {
+      stream.close();
+    }
+  }
+
+  /**
+   * @param i The included document
+   *
+   * @return A document split over many files, parsed one file at a time
+   * with an empty fragment cache
+   *
+   * @throws Exception On errors
+   */
+
+  @Benchmark public SDocument parseIncludedFragments(
+    final Included i)
+    throws Exception
+  {
+    final InputStream stream = new FileInputStream(i.file);
+    try {
+      return SDocumentParser.fromStreamFragments(
+        i.context, SDocumentFragmentCache.newCache(), stream, i.file.toURI());
+    } finally {
+      stream.close();
+    }
+  }
+
+  /**
+   * A synthetic document with one file per section.
+   */
+
+  @State(Scope.Benchmark)
+  public static class Included
+  {
+    @Param({"200", "300"})
+    public int files;
+
+    private File                   directory;
+    private File                   file;
+    private SDocumentParserContext context;
+
+    /**
+     * Construct the state.
+     */
+
+    public Included()
+    {
+      // Nothing
+    }
+
+    /**
+     * Write the document files.
+     *
+     * @throws Exception On errors
+     */
+
+    @Setup public void setup()
+      throws Exception
+    {
+      this.directory = File.createTempFile("jstructural-benchmark", "");
+      if (this.directory.delete() == false
+        || this.directory.mkdirs() == false) {
+        throw new IOException("Could not create " + this.directory);
+      }
+      this.file =
+        SBenchmarkDocuments.syntheticIncluded(this.directory, this.files);
+      this.context = SDocumentParserContext.newContext();
+    }
+
+    /**
+     * Delete the document files.
+     */
+
+    @TearDown public void tearDown()
+    {
+      final File[] entries = this.directory.listFiles();
+      if (entries != null) {
+        for (final File e : entries) {
+          e.delete();
+        }
+      }
+      this.directory.delete();
+    }
+  }
+}
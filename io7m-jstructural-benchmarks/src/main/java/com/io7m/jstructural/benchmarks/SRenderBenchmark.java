@@ -0,0 +1,222 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jstructural.benchmarks;
+
+import com.io7m.jstructural.annotated.SADocument;
+import com.io7m.jstructural.xom.SDocumentXHTMLPageSink;
+import com.io7m.jstructural.xom.SDocumentXHTMLWriter;
+import com.io7m.jstructural.xom.SDocumentXHTMLWriterCallbacks;
+import com.io7m.jstructural.xom.SDocumentXHTMLWriterMulti;
+import com.io7m.jstructural.xom.SDocumentXHTMLWriterSingle;
+import nu.xom.Document;
+import nu.xom.Serializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * XHTML rendering benchmarks. The {@code ToBytes} benchmarks also write each
+ * page with the XOM serializer, as {@code jsc} does.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SRenderBenchmark
+{
+  @Param({
+    "documentation.xml",
+    "glowmaps.xml",
+    "jaux-documentation.xml",
+    "synthetic-1000"})
+  public String document;
+
+  private SADocument                    annotated;
+  private SDocumentXHTMLWriterCallbacks callbacks;
+  private SDocumentXHTMLWriterSingle    single;
+  private OutputStream                  output;
+
+  /**
+   * Construct a benchmark.
+   */
+
+  public SRenderBenchmark()
+  {
+    // Nothing
+  }
+
+  /**
+   * Parse and annotate the document.
+   *
+   * @throws Exception On errors
+   */
+
+  @Setup public void setup()
+    throws Exception
+  {
+    this.annotated = SBenchmarkDocuments.annotated(this.document);
+    this.callbacks = SBenchmarkDocuments.callbacks();
+    this.single = new SDocumentXHTMLWriterSingle();
+    this.output = SBenchmarkDocuments.nullOutputStream();
+  }
+
+  private void toBytes(
+    final SDocumentXHTMLWriter writer)
+    throws IOException
+  {
+    final OutputStream out = this.output;
+    writer.writeDocumentsTo(
+      this.callbacks, this.annotated, new SDocumentXHTMLPageSink()
+      {
+        @Override public void onPage(
+          final String name,
+          final Document page)
+          throws IOException
+        {
+          final Serializer s = new Serializer(out);
+          s.write(page);
+          s.flush();
+        }
+      });
+  }
+
+  /**
+   * @return The rendered single-page document
+   */
+
+  @Benchmark public SortedMap<String, Document> renderSingle()
+  {
+    return this.single.writeDocuments(this.callbacks, this.annotated);
+  }
+
+  /**
+   * @param m The multi-page writer
+   *
+   * @return The rendered multi-page document
+   */
+
+  @Benchmark public SortedMap<String, Document> renderMulti(
+    final Multi m)
+  {
+    return m.writer.writeDocuments(this.callbacks, this.annotated);
+  }
+
+  /**
+   * Render the multi-page document, discarding each page as it is produced.
+   *
+   * @param m  The multi-page writer
+   * @param bh A blackhole
+   *
+   * @throws Exception On errors
+   */
+
+  @Benchmark public void renderMultiSink(
+    final Multi m,
+    final Blackhole bh)
+    throws Exception
+  {
+    m.writer.writeDocumentsTo(
+      this.callbacks, this.annotated, new SDocumentXHTMLPageSink()
+      {
+        @Override public void onPage(
+          final String name,
+          final Document page)
+        {
+          bh.consume(page);
+        }
+      });
+  }
+
+  /**
+   * Render the single-page document and write it with the XOM serializer.
+   *
+   * @throws Exception On errors
+   */
+
+  @Benchmark public void renderSingleToBytes()
+    throws Exception
+  {
+    this.toBytes(this.single);
+  }
+
+  /**
+   * Render the multi-page document and write each page with the XOM
+   * serializer.
+   *
+   * @param m The multi-page writer
+   *
+   * @throws Exception On errors
+   */
+
+  @Benchmark public void renderMultiToBytes(
+    final Multi m)
+    throws Exception
+  {
+    this.toBytes(m.writer);
+  }
+
+  /**
+   * The multi-page writer, which is the only writer that uses threads.
+   * Keeping the thread count here means that the single-page benchmarks are
+   * not repeated for each thread count.
+   */
+
+  @State(Scope.Benchmark)
+  public static class Multi
+  {
+    @Param({"1", "4"})
+    public int threads;
+
+    private SDocumentXHTMLWriterMulti writer;
+
+    /**
+     * Construct the state.
+     */
+
+    public Multi()
+    {
+      // Nothing
+    }
+
+    /**
+     * Create the writer.
+     */
+
+    @Setup public void setup()
+    {
+      this.writer = new SDocumentXHTMLWriterMulti(
+        SDocumentXHTMLWriterMulti.DEFAULT_FRONT_PAGE_NAME, this.threads);
+    }
+  }
+}
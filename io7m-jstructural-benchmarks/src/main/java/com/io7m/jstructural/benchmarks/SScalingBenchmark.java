@@ -0,0 +1,112 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jstructural.benchmarks;
+
+import com.io7m.jstructural.annotated.SADocument;
+import com.io7m.jstructural.annotated.SAnnotator;
+import com.io7m.jstructural.xom.SDocumentXHTMLWriterCallbacks;
+import com.io7m.jstructural.xom.SDocumentXHTMLWriterMulti;
+import nu.xom.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scaling benchmarks. Each benchmark is run over synthetic documents of
+ * increasing size, so that the time and allocation per operation reported
+ * for each size can be compared: both are expected to grow roughly linearly
+ * with the number of sections.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SScalingBenchmark
+{
+  @Param({"25", "50", "100", "200", "400"})
+  public int sections;
+
+  private String                        name;
+  private byte[]                        data;
+  private SDocumentXHTMLWriterCallbacks callbacks;
+  private SDocumentXHTMLWriterMulti     multi;
+
+  /**
+   * Construct a benchmark.
+   */
+
+  public SScalingBenchmark()
+  {
+    // Nothing
+  }
+
+  /**
+   * Generate the document.
+   *
+   * @throws Exception On errors
+   */
+
+  @Setup public void setup()
+    throws Exception
+  {
+    this.name = "synthetic-" + this.sections;
+    this.data = SBenchmarkDocuments.bytes(this.name);
+    this.callbacks = SBenchmarkDocuments.callbacks();
+    this.multi = new SDocumentXHTMLWriterMulti();
+  }
+
+  /**
+   * @return The parsed and annotated document
+   *
+   * @throws Exception On errors
+   */
+
+  @Benchmark public SADocument parseAnnotate()
+    throws Exception
+  {
+    return SAnnotator.document(
+      SBenchmarkDocuments.parse(this.name, this.data));
+  }
+
+  /**
+   * @return The parsed, annotated and rendered multi-page document
+   *
+   * @throws Exception On errors
+   */
+
+  @Benchmark public SortedMap<String, Document> parseAnnotateRender()
+    throws Exception
+  {
+    final SADocument a = SAnnotator.document(
+      SBenchmarkDocuments.parse(this.name, this.data));
+    return this.multi.writeDocuments(this.callbacks, a);
+  }
+}
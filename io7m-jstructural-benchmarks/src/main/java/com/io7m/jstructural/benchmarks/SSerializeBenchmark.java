@@ -0,0 +1,117 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jstructural.benchmarks;
+
+import com.io7m.jstructural.annotated.SADocument;
+import com.io7m.jstructural.core.SDocument;
+import com.io7m.jstructural.xom.SDocumentSerializer;
+import com.io7m.jstructural.xom.SDocumentXHTMLWriterSingle;
+import nu.xom.Document;
+import nu.xom.Element;
+import nu.xom.Serializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization benchmarks: serializing documents back to the
+ * {@code structural} XML format, and writing rendered XHTML to bytes.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SSerializeBenchmark
+{
+  @Param({
+    "documentation.xml",
+    "glowmaps.xml",
+    "jaux-documentation.xml",
+    "synthetic-1000"})
+  public String document;
+
+  private SDocument    parsed;
+  private Document     xhtml;
+  private OutputStream output;
+
+  /**
+   * Construct a benchmark.
+   */
+
+  public SSerializeBenchmark()
+  {
+    // Nothing
+  }
+
+  /**
+   * Parse the document, and render it to a single XHTML page.
+   *
+   * @throws Exception On errors
+   */
+
+  @Setup public void setup()
+    throws Exception
+  {
+    final byte[] data = SBenchmarkDocuments.bytes(this.document);
+    this.parsed = SBenchmarkDocuments.parse(this.document, data);
+    final SADocument annotated =
+      SBenchmarkDocuments.annotated(this.document);
+    this.xhtml = new SDocumentXHTMLWriterSingle()
+      .writeDocuments(SBenchmarkDocuments.callbacks(), annotated)
+      .values()
+      .iterator()
+      .next();
+    this.output = SBenchmarkDocuments.nullOutputStream();
+  }
+
+  /**
+   * @return The document serialized to a XOM element
+   */
+
+  @Benchmark public Element serializeDocument()
+  {
+    return SDocumentSerializer.document(this.parsed);
+  }
+
+  /**
+   * Write the rendered XHTML page with the XOM serializer.
+   *
+   * @throws Exception On errors
+   */
+
+  @Benchmark public void serializeXHTML()
+    throws Exception
+  {
+    final Serializer s = new Serializer(this.output);
+    s.write(this.xhtml);
+    s.flush();
+  }
+}
@@ -21,10 +21,12 @@ import com.io7m.jnull.NullCheck;
 import com.io7m.jnull.Nullable;
 import com.io7m.jstructural.core.SDocumentContents;
 import com.io7m.jstructural.core.SDocumentStyle;
+import com.io7m.jstructural.core.SSection;
 import net.jcip.annotations.Immutable;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 /**
  * A document.
@@ -32,12 +34,13 @@ import java.util.List;
 
 @Immutable public abstract class SADocument implements SASegmentsReadable
 {
-  private final OptionType<SDocumentContents> contents;
-  private final List<SAFootnote>              footnotes;
-  private final SAFormalItemsByKind           formals;
-  private final SAIDMap                       ids;
-  private final OptionType<SDocumentStyle>    style;
-  private final SADocumentTitle               title;
+  private final OptionType<SDocumentContents>  contents;
+  private final List<SAFootnote>               footnotes;
+  private final SAFormalItemsIndex             formals;
+  private final SAIDMap                        ids;
+  private final Map<SASectionNumber, SSection> sources;
+  private final OptionType<SDocumentStyle>     style;
+  private final SADocumentTitle                title;
 
   protected SADocument(
     final SAIDMap in_ids,
@@ -46,13 +49,34 @@ import java.util.List;
     final OptionType<SDocumentStyle> in_style,
     final List<SAFootnote> in_footnotes,
     final SAFormalItemsByKind in_formals)
+  {
+    this(
+      in_ids,
+      in_title,
+      in_contents,
+      in_style,
+      in_footnotes,
+      in_formals,
+      Collections.<SASectionNumber, SSection>emptyMap());
+  }
+
+  SADocument(
+    final SAIDMap in_ids,
+    final SADocumentTitle in_title,
+    final OptionType<SDocumentContents> in_contents,
+    final OptionType<SDocumentStyle> in_style,
+    final List<SAFootnote> in_footnotes,
+    final SAFormalItemsByKind in_formals,
+    final Map<SASectionNumber, SSection> in_sources)
   {
     this.ids = NullCheck.notNull(in_ids, "ID mappings");
     this.title = NullCheck.notNull(in_title, "Title");
     this.contents = NullCheck.notNull(in_contents, "Contents");
     this.style = NullCheck.notNull(in_style, "Style");
     this.footnotes = NullCheck.notNull(in_footnotes, "Footnotes");
-    this.formals = NullCheck.notNull(in_formals, "Formals");
+    this.formals =
+      new SAFormalItemsIndex(NullCheck.notNull(in_formals, "Formals"));
+    this.sources = NullCheck.notNull(in_sources, "Sources");
   }
 
   /**
@@ -91,6 +115,15 @@ import java.util.List;
            && this.title.equals(other.title);
   }
 
+  /**
+   * @return The formal items of the document
+   */
+
+  final SAFormalItemsIndex formals()
+  {
+    return this.formals;
+  }
+
   /**
    * @return The document contents
    */
@@ -138,6 +171,28 @@ import java.util.List;
   public abstract OptionType<SASection> getSection(
     final SASectionNumber n);
 
+  /**
+   * @return The ID mappings of the document
+   */
+
+  final SAIDMap ids()
+  {
+    return this.ids;
+  }
+
+  /**
+   * @param n The section number
+   *
+   * @return The section from which the section with the given number was
+   * annotated, if known
+   */
+
+  final @Nullable SSection source(
+    final SASectionNumber n)
+  {
+    return this.sources.get(n);
+  }
+
   /**
    * @return The document style
    */
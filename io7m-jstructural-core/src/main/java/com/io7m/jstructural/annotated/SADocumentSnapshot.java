@@ -0,0 +1,1605 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jstructural.annotated;
+
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Some;
+import com.io7m.jfunctional.Unit;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jranges.RangeCheckException;
+import com.io7m.jstructural.core.SDocumentContents;
+import com.io7m.jstructural.core.SDocumentStyle;
+import com.io7m.jstructural.core.SNonEmptyList;
+import com.io7m.jstructural.core.SPartContents;
+import com.io7m.jstructural.core.SSectionContents;
+import com.io7m.junreachable.UnreachableCodeException;
+import net.jcip.annotations.Immutable;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * <p>A compact, versioned binary snapshot format for annotated documents.</p>
+ *
+ * <p>A snapshot holds everything produced by the annotator: the document
+ * tree, the complete footnote list, the ID mappings and the formal items
+ * organized by kind. Loading a snapshot is a single sequential pass over the
+ * data and does not involve any parsing, validation or annotation, so a
+ * service can restore a fully annotated document far more quickly than it
+ * could recreate it from the original sources. The segment index used for
+ * navigation is derived from the document tree when the document is
+ * constructed, and so is not stored separately.</p>
+ *
+ * <p>Nodes that are shared in the original document (footnotes that appear
+ * both in content and in the footnote lists, and the targets of the ID and
+ * formal item mappings) are stored once and remain shared after loading. A
+ * snapshot loaded from a document is {@link SADocument#equals(Object)
+ * equal} to that document.</p>
+ *
+ * <p>Snapshots begin with the 32-bit {@link #MAGIC} number followed by the
+ * 32-bit format {@link #VERSION}. Snapshots written with a different version
+ * are rejected; callers should treat a rejected snapshot as a cache miss and
+ * recreate it from the original sources.</p>
+ */
+
+@Immutable public final class SADocumentSnapshot
+{
+  /**
+   * The magic number that begins every snapshot: The ASCII string {@code
+   * JSAD}.
+   */
+
+  public static final int MAGIC = 0x4A534144;
+
+  /**
+   * The version of the snapshot format written by this implementation.
+   */
+
+  public static final int VERSION = 1;
+
+  private static final String ENCODING = "UTF-8";
+
+  private static final int DOCUMENT_WITH_PARTS    = 0;
+  private static final int DOCUMENT_WITH_SECTIONS = 1;
+
+  private static final int SECTION_WITH_PARAGRAPHS  = 0;
+  private static final int SECTION_WITH_SUBSECTIONS = 1;
+
+  private static final int CONTENT_PARAGRAPH   = 0;
+  private static final int CONTENT_FORMAL_ITEM = 1;
+
+  private static final int NUMBER_S    = 0;
+  private static final int NUMBER_PS   = 1;
+  private static final int NUMBER_SS   = 2;
+  private static final int NUMBER_PSS  = 3;
+  private static final int NUMBER_SP   = 4;
+  private static final int NUMBER_PSP  = 5;
+  private static final int NUMBER_SSP  = 6;
+  private static final int NUMBER_PSSP = 7;
+  private static final int NUMBER_SF   = 8;
+  private static final int NUMBER_PSF  = 9;
+  private static final int NUMBER_SSF  = 10;
+  private static final int NUMBER_PSSF = 11;
+
+  private static final int INLINE_FOOTNOTE         = 0;
+  private static final int INLINE_FORMAL_ITEM_LIST = 1;
+  private static final int INLINE_IMAGE            = 2;
+  private static final int INLINE_LINK             = 3;
+  private static final int INLINE_LINK_EXTERNAL    = 4;
+  private static final int INLINE_LIST_ORDERED     = 5;
+  private static final int INLINE_LIST_UNORDERED   = 6;
+  private static final int INLINE_TABLE            = 7;
+  private static final int INLINE_TERM             = 8;
+  private static final int INLINE_TEXT             = 9;
+  private static final int INLINE_VERBATIM         = 10;
+
+  private SADocumentSnapshot()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * Write a snapshot of the given document to the given stream. The stream
+   * is not closed.
+   *
+   * @param document The document
+   * @param out      The output stream
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static void write(
+    final SADocument document,
+    final OutputStream out)
+    throws IOException
+  {
+    NullCheck.notNull(document, "Document");
+    NullCheck.notNull(out, "Output");
+
+    final Encoder e = new Encoder(document);
+    try {
+      document.documentAccept(e);
+    } catch (final IOException x) {
+      throw x;
+    } catch (final RuntimeException x) {
+      throw x;
+    } catch (final Exception x) {
+      throw new UnreachableCodeException(x);
+    }
+    e.finish(out);
+  }
+
+  /**
+   * Write a snapshot of the given document to the given file. The snapshot
+   * is written to a temporary file that then replaces {@code file}, so
+   * readers never observe a partially written snapshot.
+   *
+   * @param document The document
+   * @param file     The output file
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static void save(
+    final SADocument document,
+    final File file)
+    throws IOException
+  {
+    NullCheck.notNull(document, "Document");
+    NullCheck.notNull(file, "File");
+
+    final File file_tmp = new File(file.getPath() + ".tmp");
+    final OutputStream out =
+      new BufferedOutputStream(new FileOutputStream(file_tmp));
+    try {
+      SADocumentSnapshot.write(document, out);
+      out.flush();
+    } finally {
+      out.close();
+    }
+
+    if (file.isFile() && file.delete() == false) {
+      throw new IOException("Could not delete " + file);
+    }
+    if (file_tmp.renameTo(file) == false) {
+      throw new IOException("Could not rename " + file_tmp);
+    }
+  }
+
+  /**
+   * Read a snapshot from the given buffer. The snapshot is read from the
+   * buffer's current position, and the snapshot must extend exactly to the
+   * buffer's limit. The buffer's position is advanced past the snapshot.
+   *
+   * @param data The snapshot data
+   *
+   * @return The document
+   *
+   * @throws IOException If the data is not a snapshot, was written by a
+   *                     different version of the format, or is malformed
+   */
+
+  public static SADocument read(
+    final ByteBuffer data)
+    throws IOException
+  {
+    NullCheck.notNull(data, "Data");
+
+    try {
+      final Decoder d = new Decoder(data);
+      d.header();
+      return d.document();
+    } catch (final BufferUnderflowException e) {
+      throw new IOException("Malformed snapshot: Unexpected end of data", e);
+    } catch (final RangeCheckException e) {
+      throw new IOException("Malformed snapshot: " + e.getMessage(), e);
+    } catch (final IllegalArgumentException e) {
+      throw new IOException("Malformed snapshot: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Load a snapshot from the given file. The file is memory-mapped and read
+   * in a single pass.
+   *
+   * @param file The snapshot file
+   *
+   * @return The document
+   *
+   * @throws IOException On I/O errors, or if the file does not contain a
+   *                     valid snapshot
+   * @see #read(ByteBuffer)
+   */
+
+  public static SADocument load(
+    final File file)
+    throws IOException
+  {
+    NullCheck.notNull(file, "File");
+
+    final RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      final FileChannel channel = raf.getChannel();
+      final ByteBuffer data =
+        channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size());
+      assert data != null;
+      return SADocumentSnapshot.read(data);
+    } finally {
+      raf.close();
+    }
+  }
+
+  private static void writeVarint(
+    final ByteArrayOutputStream out,
+    final int x)
+  {
+    int v = x;
+    while ((v & ~0x7f) != 0) {
+      out.write((v & 0x7f) | 0x80);
+      v >>>= 7;
+    }
+    out.write(v);
+  }
+
+  /**
+   * An encoder that writes the body of a snapshot while accumulating the
+   * string table. Nodes that may be the targets of ID or formal item
+   * mappings are numbered in the order in which they are written, which is
+   * also the order in which the decoder encounters them.
+   */
+
+  private static final class Encoder implements
+    SADocumentVisitor<Unit>,
+    SASectionVisitor<Unit>,
+    SASubsectionContentVisitor<Unit>,
+    SAParagraphContentVisitor<Unit>,
+    SAFootnoteContentVisitor<Unit>,
+    SAListItemContentVisitor<Unit>,
+    SATableCellContentVisitor<Unit>,
+    SALinkContentVisitor<Unit>,
+    SAFormalItemContentVisitor<Unit>,
+    SASectionNumberVisitor<Unit>,
+    SASubsectionNumberVisitor<Unit>,
+    SAParagraphNumberVisitor<Unit>,
+    SAFormalItemNumberVisitor<Unit>
+  {
+    private final ByteArrayOutputStream            body;
+    private final SADocument                       document;
+    private final Map<SAFootnote, Integer>         footnotes;
+    private final Map<String, Integer>             strings;
+    private final List<String>                     strings_ordered;
+    private final Map<SAIDTargetContent, Integer> targets;
+
+    Encoder(
+      final SADocument in_document)
+    {
+      this.document = in_document;
+      this.body = new ByteArrayOutputStream(1 << 16);
+      this.strings = new HashMap<String, Integer>(1024);
+      this.strings_ordered = new ArrayList<String>(1024);
+      this.targets = new IdentityHashMap<SAIDTargetContent, Integer>(1024);
+      this.footnotes = new IdentityHashMap<SAFootnote, Integer>(128);
+    }
+
+    private void varint(
+      final int x)
+    {
+      SADocumentSnapshot.writeVarint(this.body, x);
+    }
+
+    private void tag(
+      final int x)
+    {
+      this.body.write(x);
+    }
+
+    private void flag(
+      final boolean x)
+    {
+      this.body.write(x ? 1 : 0);
+    }
+
+    private void string(
+      final String s)
+    {
+      final Integer existing = this.strings.get(s);
+      if (existing != null) {
+        this.varint(existing.intValue());
+      } else {
+        final int index = this.strings_ordered.size();
+        this.strings.put(s, Integer.valueOf(index));
+        this.strings_ordered.add(s);
+        this.varint(index);
+      }
+    }
+
+    private void optionString(
+      final OptionType<String> s)
+    {
+      this.flag(s.isSome());
+      if (s.isSome()) {
+        this.string(((Some<String>) s).get());
+      }
+    }
+
+    private void optionID(
+      final OptionType<SAID> id)
+    {
+      this.flag(id.isSome());
+      if (id.isSome()) {
+        this.string(((Some<SAID>) id).get().getActual());
+      }
+    }
+
+    private void optionInteger(
+      final OptionType<Integer> x)
+    {
+      this.flag(x.isSome());
+      if (x.isSome()) {
+        this.varint(((Some<Integer>) x).get().intValue());
+      }
+    }
+
+    private void target(
+      final SAIDTargetContent t)
+    {
+      this.targets.put(t, Integer.valueOf(this.targets.size()));
+    }
+
+    private int targetIndex(
+      final SAIDTargetContent t)
+    {
+      final Integer index = this.targets.get(t);
+      if (index == null) {
+        throw new IllegalArgumentException(
+          "Mapped content is not part of the document");
+      }
+      return index.intValue();
+    }
+
+    private void footnoteReferences(
+      final List<SAFootnote> notes)
+    {
+      this.varint(notes.size());
+      for (final SAFootnote f : notes) {
+        this.footnoteReference(f);
+      }
+    }
+
+    private void footnoteReference(
+      final SAFootnote f)
+    {
+      final Integer index = this.footnotes.get(f);
+      if (index == null) {
+        throw new IllegalArgumentException(
+          "Footnote is not part of the document footnote list");
+      }
+      this.varint(index.intValue());
+    }
+
+    private void footnoteTable()
+      throws Exception
+    {
+      final List<SAFootnote> notes = this.document.getFootnotes();
+      this.varint(notes.size());
+      for (final SAFootnote f : notes) {
+        this.varint(f.getNumber());
+        this.varint(f.getContent().size());
+        for (final SAFootnoteContent c : f.getContent().getElements()) {
+          c.footnoteContentAccept(this);
+        }
+        this.footnotes.put(f, Integer.valueOf(this.footnotes.size()));
+      }
+    }
+
+    private void mappingTables()
+    {
+      final SAIDMap ids = this.document.ids();
+      final SortedMap<String, SAIDTargetContent> sorted_ids =
+        new TreeMap<String, SAIDTargetContent>();
+      for (final Map.Entry<SAID, SAIDTargetContent> e : ids.entries()) {
+        sorted_ids.put(e.getKey().getActual(), e.getValue());
+      }
+
+      this.varint(sorted_ids.size());
+      for (final String id : sorted_ids.keySet()) {
+        this.string(id);
+        this.varint(this.targetIndex(sorted_ids.get(id)));
+      }
+
+      final SAFormalItemsIndex formals = this.document.formals();
+      final List<String> kinds = new ArrayList<String>(formals.kinds());
+      Collections.sort(kinds);
+
+      this.varint(kinds.size());
+      for (final String kind : kinds) {
+        final SortedMap<SAFormalItemNumber, SAFormalItem> items =
+          formals.get(kind);
+        this.string(kind);
+        this.varint(items.size());
+        for (final SAFormalItem f : items.values()) {
+          this.varint(this.targetIndex(f));
+        }
+      }
+    }
+
+    private void documentHeader(
+      final SADocument d,
+      final int kind)
+      throws Exception
+    {
+      this.tag(kind);
+      this.footnoteTable();
+      this.string(d.getTitle().getActual());
+      this.flag(d.getContents().isSome());
+
+      final OptionType<SDocumentStyle> style = d.getStyle();
+      this.flag(style.isSome());
+      if (style.isSome()) {
+        this.string(
+          ((Some<SDocumentStyle>) style).get().getActual().toString());
+      }
+    }
+
+    @Override public Unit visitDocumentWithParts(
+      final SADocumentWithParts d)
+      throws Exception
+    {
+      this.documentHeader(d, SADocumentSnapshot.DOCUMENT_WITH_PARTS);
+
+      final SNonEmptyList<SAPart> parts = d.getParts();
+      this.varint(parts.size());
+      for (final SAPart p : parts.getElements()) {
+        this.target(p);
+        this.varint(p.getNumber().getActual());
+        this.optionString(p.getType());
+        this.optionID(p.getID());
+        this.string(p.getTitle().getActual());
+        this.flag(p.getContents().isSome());
+
+        final SNonEmptyList<SASection> sections = p.getSections();
+        this.varint(sections.size());
+        for (final SASection s : sections.getElements()) {
+          s.sectionAccept(this);
+        }
+      }
+
+      this.mappingTables();
+      return Unit.unit();
+    }
+
+    @Override public Unit visitDocumentWithSections(
+      final SADocumentWithSections d)
+      throws Exception
+    {
+      this.documentHeader(d, SADocumentSnapshot.DOCUMENT_WITH_SECTIONS);
+
+      final SNonEmptyList<SASection> sections = d.getSections();
+      this.varint(sections.size());
+      for (final SASection s : sections.getElements()) {
+        s.sectionAccept(this);
+      }
+
+      this.mappingTables();
+      return Unit.unit();
+    }
+
+    private void sectionHeader(
+      final SASection s,
+      final int kind)
+      throws Exception
+    {
+      this.tag(kind);
+      this.target(s);
+      s.getNumber().sectionNumberAccept(this);
+      this.optionString(s.getType());
+      this.optionID(s.getID());
+      this.string(s.getTitle().getActual());
+      this.flag(s.getContents().isSome());
+      this.footnoteReferences(s.getFootnotes());
+    }
+
+    @Override public Unit visitSectionWithParagraphs(
+      final SASectionWithParagraphs s)
+      throws Exception
+    {
+      this.sectionHeader(s, SADocumentSnapshot.SECTION_WITH_PARAGRAPHS);
+      this.subsectionContent(s.getSectionContent());
+      return Unit.unit();
+    }
+
+    @Override public Unit visitSectionWithSubsections(
+      final SASectionWithSubsections s)
+      throws Exception
+    {
+      this.sectionHeader(s, SADocumentSnapshot.SECTION_WITH_SUBSECTIONS);
+
+      final SNonEmptyList<SASubsection> subsections = s.getSubsections();
+      this.varint(subsections.size());
+      for (final SASubsection ss : subsections.getElements()) {
+        this.target(ss);
+        ss.getNumber().subsectionNumberAccept(this);
+        this.optionString(ss.getType());
+        this.optionID(ss.getID());
+        this.string(ss.getTitle().getActual());
+        this.subsectionContent(ss.getContent());
+      }
+      return Unit.unit();
+    }
+
+    private void subsectionContent(
+      final SNonEmptyList<SASubsectionContent> content)
+      throws Exception
+    {
+      this.varint(content.size());
+      for (final SASubsectionContent c : content.getElements()) {
+        c.subsectionContentAccept(this);
+      }
+    }
+
+    @Override public Unit visitParagraph(
+      final SAParagraph p)
+      throws Exception
+    {
+      this.tag(SADocumentSnapshot.CONTENT_PARAGRAPH);
+      this.target(p);
+      p.getNumber().paragraphNumberAccept(this);
+      this.optionString(p.getType());
+      this.optionID(p.getID());
+
+      final SNonEmptyList<SAParagraphContent> content = p.getContent();
+      this.varint(content.size());
+      for (final SAParagraphContent c : content.getElements()) {
+        c.paragraphContentAccept(this);
+      }
+      return Unit.unit();
+    }
+
+    @Override public Unit visitFormalItem(
+      final SAFormalItem f)
+      throws Exception
+    {
+      this.tag(SADocumentSnapshot.CONTENT_FORMAL_ITEM);
+      this.target(f);
+      f.getNumber().formalItemNumberAccept(this);
+      this.string(f.getTitle().getActual());
+      this.string(f.getKind());
+      this.optionString(f.getType());
+      f.getContent().formalItemContentAccept(this);
+      this.varint(f.getFormalNumber());
+      this.optionID(f.getID());
+      return Unit.unit();
+    }
+
+    @Override public Unit visitFootnote(
+      final SAFootnote f)
+    {
+      this.tag(SADocumentSnapshot.INLINE_FOOTNOTE);
+      this.footnoteReference(f);
+      return Unit.unit();
+    }
+
+    @Override public Unit visitFormalItemList(
+      final SAFormalItemList list)
+    {
+      this.tag(SADocumentSnapshot.INLINE_FORMAL_ITEM_LIST);
+      this.string(list.getKind());
+      return Unit.unit();
+    }
+
+    @Override public Unit visitImage(
+      final SAImage image)
+    {
+      this.tag(SADocumentSnapshot.INLINE_IMAGE);
+      this.string(image.getURI().toString());
+      this.optionString(image.getType());
+      this.optionInteger(image.getWidth());
+      this.optionInteger(image.getHeight());
+      this.string(image.getText());
+      return Unit.unit();
+    }
+
+    private void linkContent(
+      final SNonEmptyList<SALinkContent> content)
+      throws Exception
+    {
+      this.varint(content.size());
+      for (final SALinkContent c : content.getElements()) {
+        c.linkContentAccept(this);
+      }
+    }
+
+    @Override public Unit visitLink(
+      final SALink link)
+      throws Exception
+    {
+      this.tag(SADocumentSnapshot.INLINE_LINK);
+      this.string(link.getTarget());
+      this.linkContent(link.getContent());
+      return Unit.unit();
+    }
+
+    @Override public Unit visitLinkExternal(
+      final SALinkExternal link)
+      throws Exception
+    {
+      this.tag(SADocumentSnapshot.INLINE_LINK_EXTERNAL);
+      this.string(link.getTarget().toString());
+      this.linkContent(link.getContent());
+      return Unit.unit();
+    }
+
+    private void listItems(
+      final SNonEmptyList<SAListItem> items)
+      throws Exception
+    {
+      this.varint(items.size());
+      for (final SAListItem i : items.getElements()) {
+        this.optionString(i.getType());
+
+        final SNonEmptyList<SAListItemContent> content = i.getContent();
+        this.varint(content.size());
+        for (final SAListItemContent c : content.getElements()) {
+          c.listItemContentAccept(this);
+        }
+      }
+    }
+
+    @Override public Unit visitListOrdered(
+      final SAListOrdered list)
+      throws Exception
+    {
+      this.tag(SADocumentSnapshot.INLINE_LIST_ORDERED);
+      this.optionString(list.getType());
+      this.listItems(list.getItems());
+      return Unit.unit();
+    }
+
+    @Override public Unit visitListUnordered(
+      final SAListUnordered list)
+      throws Exception
+    {
+      this.tag(SADocumentSnapshot.INLINE_LIST_UNORDERED);
+      this.optionString(list.getType());
+      this.listItems(list.getItems());
+      return Unit.unit();
+    }
+
+    @Override public Unit visitTable(
+      final SATable table)
+      throws Exception
+    {
+      this.tag(SADocumentSnapshot.INLINE_TABLE);
+      this.string(table.getSummary().getText());
+
+      final OptionType<SATableHead> header = table.getHeader();
+      this.flag(header.isSome());
+      if (header.isSome()) {
+        final SNonEmptyList<SATableColumnName> names =
+          ((Some<SATableHead>) header).get().getHeader();
+        this.varint(names.size());
+        for (final SATableColumnName n : names.getElements()) {
+          this.string(n.getText());
+        }
+      }
+
+      final SNonEmptyList<SATableRow> rows = table.getBody().getRows();
+      this.varint(rows.size());
+      for (final SATableRow r : rows.getElements()) {
+        final SNonEmptyList<SATableCell> cells = r.getColumns();
+        this.varint(cells.size());
+        for (final SATableCell cell : cells.getElements()) {
+          final List<SATableCellContent> content = cell.getContent();
+          this.varint(content.size());
+          for (final SATableCellContent c : content) {
+            c.tableCellContentAccept(this);
+          }
+        }
+      }
+      return Unit.unit();
+    }
+
+    @Override public Unit visitTerm(
+      final SATerm term)
+    {
+      this.tag(SADocumentSnapshot.INLINE_TERM);
+      this.string(term.getText().getText());
+      this.optionString(term.getType());
+      return Unit.unit();
+    }
+
+    @Override public Unit visitText(
+      final SAText text)
+    {
+      this.tag(SADocumentSnapshot.INLINE_TEXT);
+      this.string(text.getText());
+      return Unit.unit();
+    }
+
+    @Override public Unit visitVerbatim(
+      final SAVerbatim text)
+    {
+      this.tag(SADocumentSnapshot.INLINE_VERBATIM);
+      this.string(text.getText());
+      this.optionString(text.getType());
+      return Unit.unit();
+    }
+
+    @Override public Unit visitSectionNumberWithoutPart(
+      final SASectionNumberS p)
+    {
+      this.tag(SADocumentSnapshot.NUMBER_S);
+      this.varint(p.getSection());
+      return Unit.unit();
+    }
+
+    @Override public Unit visitSectionNumberWithPart(
+      final SASectionNumberPS p)
+    {
+      this.tag(SADocumentSnapshot.NUMBER_PS);
+      this.varint(p.getPart());
+      this.varint(p.getSection());
+      return Unit.unit();
+    }
+
+    @Override public Unit visitSubsectionNumberPSS(
+      final SASubsectionNumberPSS p)
+    {
+      this.tag(SADocumentSnapshot.NUMBER_PSS);
+      this.varint(p.getPart());
+      this.varint(p.getSection());
+      this.varint(p.getSubsection());
+      return Unit.unit();
+    }
+
+    @Override public Unit visitSubsectionNumberSS(
+      final SASubsectionNumberSS p)
+    {
+      this.tag(SADocumentSnapshot.NUMBER_SS);
+      this.varint(p.getSection());
+      this.varint(p.getSubsection());
+      return Unit.unit();
+    }
+
+    @Override public Unit visitParagraphNumberPSP(
+      final SAParagraphNumberPSP p)
+    {
+      this.tag(SADocumentSnapshot.NUMBER_PSP);
+      this.varint(p.getPart());
+      this.varint(p.getSection());
+      this.varint(p.getParagraph());
+      return Unit.unit();
+    }
+
+    @Override public Unit visitParagraphNumberPSSP(
+      final SAParagraphNumberPSSP p)
+    {
+      this.tag(SADocumentSnapshot.NUMBER_PSSP);
+      this.varint(p.getPart());
+      this.varint(p.getSection());
+      this.varint(p.getSubsection());
+      this.varint(p.getParagraph());
+      return Unit.unit();
+    }
+
+    @Override public Unit visitParagraphNumberSP(
+      final SAParagraphNumberSP p)
+    {
+      this.tag(SADocumentSnapshot.NUMBER_SP);
+      this.varint(p.getSection());
+      this.varint(p.getParagraph());
+      return Unit.unit();
+    }
+
+    @Override public Unit visitParagraphNumberSSP(
+      final SAParagraphNumberSSP p)
+    {
+      this.tag(SADocumentSnapshot.NUMBER_SSP);
+      this.varint(p.getSection());
+      this.varint(p.getSubsection());
+      this.varint(p.getParagraph());
+      return Unit.unit();
+    }
+
+    @Override public Unit visitFormalItemNumberPSF(
+      final SAFormalItemNumberPSF f)
+    {
+      this.tag(SADocumentSnapshot.NUMBER_PSF);
+      this.varint(f.getPart());
+      this.varint(f.getSection());
+      this.varint(f.getFormalItem());
+      return Unit.unit();
+    }
+
+    @Override public Unit visitFormalItemNumberPSSF(
+      final SAFormalItemNumberPSSF f)
+    {
+      this.tag(SADocumentSnapshot.NUMBER_PSSF);
+      this.varint(f.getPart());
+      this.varint(f.getSection());
+      this.varint(f.getSubsection());
+      this.varint(f.getFormalItem());
+      return Unit.unit();
+    }
+
+    @Override public Unit visitFormalItemNumberSF(
+      final SAFormalItemNumberSF f)
+    {
+      this.tag(SADocumentSnapshot.NUMBER_SF);
+      this.varint(f.getSection());
+      this.varint(f.getFormalItem());
+      return Unit.unit();
+    }
+
+    @Override public Unit visitFormalItemNumberSSF(
+      final SAFormalItemNumberSSF f)
+    {
+      this.tag(SADocumentSnapshot.NUMBER_SSF);
+      this.varint(f.getSection());
+      this.varint(f.getSubsection());
+      this.varint(f.getFormalItem());
+      return Unit.unit();
+    }
+
+    void finish(
+      final OutputStream out)
+      throws IOException
+    {
+      final ByteArrayOutputStream table =
+        new ByteArrayOutputStream(this.strings_ordered.size() * 16);
+      SADocumentSnapshot.writeVarint(table, this.strings_ordered.size());
+      for (final String s : this.strings_ordered) {
+        final byte[] bytes = s.getBytes(SADocumentSnapshot.ENCODING);
+        SADocumentSnapshot.writeVarint(table, bytes.length);
+        table.write(bytes, 0, bytes.length);
+      }
+
+      final DataOutputStream data = new DataOutputStream(out);
+      data.writeInt(SADocumentSnapshot.MAGIC);
+      data.writeInt(SADocumentSnapshot.VERSION);
+      table.writeTo(data);
+      this.body.writeTo(data);
+      data.flush();
+    }
+  }
+
+  /**
+   * A decoder that reads a snapshot in a single sequential pass.
+   */
+
+  private static final class Decoder
+  {
+    private final ByteBuffer              data;
+    private final List<SAFootnote>        footnotes;
+    private final List<SAIDTargetContent> targets;
+    private       String[]                strings;
+
+    Decoder(
+      final ByteBuffer in_data)
+    {
+      this.data = in_data;
+      this.footnotes = new ArrayList<SAFootnote>(128);
+      this.targets = new ArrayList<SAIDTargetContent>(1024);
+      this.strings = new String[0];
+    }
+
+    private static IOException malformed(
+      final String message)
+    {
+      return new IOException("Malformed snapshot: " + message);
+    }
+
+    private int tag()
+    {
+      return this.data.get() & 0xff;
+    }
+
+    private int varint()
+      throws IOException
+    {
+      int r = 0;
+      int shift = 0;
+      while (true) {
+        final int b = this.tag();
+        r |= (b & 0x7f) << shift;
+        if ((b & 0x80) == 0) {
+          return r;
+        }
+        shift += 7;
+        if (shift > 28) {
+          throw Decoder.malformed("Integer too large");
+        }
+      }
+    }
+
+    private int count()
+      throws IOException
+    {
+      final int n = this.varint();
+      if (n < 0 || n > this.data.remaining()) {
+        throw Decoder.malformed("Invalid element count " + n);
+      }
+      return n;
+    }
+
+    private int countNonEmpty()
+      throws IOException
+    {
+      final int n = this.count();
+      if (n == 0) {
+        throw Decoder.malformed("Empty list in a non-empty position");
+      }
+      return n;
+    }
+
+    private int index(
+      final int size)
+      throws IOException
+    {
+      final int i = this.varint();
+      if (i < 0 || i >= size) {
+        throw Decoder.malformed("Invalid reference " + i);
+      }
+      return i;
+    }
+
+    private boolean flag()
+      throws IOException
+    {
+      final int b = this.tag();
+      if (b > 1) {
+        throw Decoder.malformed("Invalid flag " + b);
+      }
+      return b == 1;
+    }
+
+    private String string()
+      throws IOException
+    {
+      return this.strings[this.index(this.strings.length)];
+    }
+
+    private OptionType<String> optionString()
+      throws IOException
+    {
+      if (this.flag()) {
+        return Option.some(this.string());
+      }
+      return Option.none();
+    }
+
+    private OptionType<SAID> optionID()
+      throws IOException
+    {
+      if (this.flag()) {
+        return Option.some(new SAID(this.string()));
+      }
+      return Option.none();
+    }
+
+    private OptionType<Integer> optionInteger()
+      throws IOException
+    {
+      if (this.flag()) {
+        return Option.some(Integer.valueOf(this.varint()));
+      }
+      return Option.none();
+    }
+
+    private URI uri()
+      throws IOException
+    {
+      final String s = this.string();
+      try {
+        return new URI(s);
+      } catch (final URISyntaxException e) {
+        throw new IOException("Malformed snapshot: Invalid URI " + s, e);
+      }
+    }
+
+    private int reserve()
+    {
+      final int index = this.targets.size();
+      this.targets.add(null);
+      return index;
+    }
+
+    void header()
+      throws IOException
+    {
+      final int magic = this.data.getInt();
+      if (magic != SADocumentSnapshot.MAGIC) {
+        throw new IOException(
+          String.format(
+            "Not a document snapshot (magic number 0x%08x, expected 0x%08x)",
+            Integer.valueOf(magic),
+            Integer.valueOf(SADocumentSnapshot.MAGIC)));
+      }
+
+      final int version = this.data.getInt();
+      if (version != SADocumentSnapshot.VERSION) {
+        throw new IOException(
+          String.format(
+            "Unsupported snapshot version %d (expected %d)",
+            Integer.valueOf(version),
+            Integer.valueOf(SADocumentSnapshot.VERSION)));
+      }
+
+      final int count = this.count();
+      final String[] s = new String[count];
+      byte[] buffer = new byte[256];
+      for (int index = 0; index < count; ++index) {
+        final int size = this.count();
+        if (size > buffer.length) {
+          buffer = new byte[size];
+        }
+        this.data.get(buffer, 0, size);
+        s[index] = Decoder.decodeString(buffer, size);
+      }
+      this.strings = s;
+    }
+
+    private static String decodeString(
+      final byte[] buffer,
+      final int size)
+    {
+      try {
+        return new String(buffer, 0, size, SADocumentSnapshot.ENCODING);
+      } catch (final UnsupportedEncodingException e) {
+        throw new UnreachableCodeException(e);
+      }
+    }
+
+    SADocument document()
+      throws IOException
+    {
+      final int kind = this.tag();
+      this.footnoteTable();
+
+      final SADocumentTitle title =
+        SADocumentTitle.documentTitle(this.string());
+
+      final OptionType<SDocumentContents> contents;
+      if (this.flag()) {
+        contents = Option.some(SDocumentContents.get());
+      } else {
+        contents = Option.none();
+      }
+
+      final OptionType<SDocumentStyle> style;
+      if (this.flag()) {
+        style = Option.some(SDocumentStyle.documentStyle(this.uri()));
+      } else {
+        style = Option.none();
+      }
+
+      final SADocument d;
+      switch (kind) {
+        case SADocumentSnapshot.DOCUMENT_WITH_PARTS: {
+          final SNonEmptyList<SAPart> parts = this.parts();
+          final SAIDMap ids = this.ids();
+          d = new SADocumentWithParts(
+            ids,
+            title,
+            contents,
+            style,
+            parts,
+            this.footnotes,
+            this.formals());
+          break;
+        }
+        case SADocumentSnapshot.DOCUMENT_WITH_SECTIONS: {
+          final SNonEmptyList<SASection> sections = this.sections();
+          final SAIDMap ids = this.ids();
+          d = new SADocumentWithSections(
+            ids,
+            title,
+            contents,
+            style,
+            sections,
+            this.footnotes,
+            this.formals());
+          break;
+        }
+        default: {
+          throw Decoder.malformed("Unknown document kind " + kind);
+        }
+      }
+
+      if (this.data.hasRemaining()) {
+        throw Decoder.malformed("Trailing data after document");
+      }
+      return d;
+    }
+
+    private void footnoteTable()
+      throws IOException
+    {
+      final int count = this.count();
+      for (int index = 0; index < count; ++index) {
+        final int number = this.varint();
+        final int size = this.countNonEmpty();
+        final List<SAFootnoteContent> content =
+          new ArrayList<SAFootnoteContent>(size);
+        for (int c = 0; c < size; ++c) {
+          content.add(this.inline(SAFootnoteContent.class));
+        }
+        this.footnotes.add(
+          new SAFootnote(number, SNonEmptyList.newList(content)));
+      }
+    }
+
+    private SAIDMap ids()
+      throws IOException
+    {
+      final SAIDMap ids = new SAIDMap();
+      final int count = this.count();
+      for (int index = 0; index < count; ++index) {
+        final SAID id = new SAID(this.string());
+        final SAIDTargetContent t =
+          this.targets.get(this.index(this.targets.size()));
+        ids.put(id, t);
+      }
+      return ids;
+    }
+
+    private SAFormalItemsByKind formals()
+      throws IOException
+    {
+      final SAFormalItemsByKind formals = new SAFormalItemsByKind();
+      final int kinds = this.count();
+      for (int index = 0; index < kinds; ++index) {
+        final String kind = this.string();
+        final int count = this.count();
+        for (int item = 0; item < count; ++item) {
+          final SAIDTargetContent t =
+            this.targets.get(this.index(this.targets.size()));
+          if (t instanceof SAFormalItem) {
+            formals.put(kind, (SAFormalItem) t);
+          } else {
+            throw Decoder.malformed("Reference to a non-formal item");
+          }
+        }
+      }
+      return formals;
+    }
+
+    private SNonEmptyList<SAPart> parts()
+      throws IOException
+    {
+      final int count = this.countNonEmpty();
+      final List<SAPart> parts = new ArrayList<SAPart>(count);
+      for (int index = 0; index < count; ++index) {
+        final int target = this.reserve();
+        final SAPartNumber number = new SAPartNumber(this.varint());
+        final OptionType<String> type = this.optionString();
+        final OptionType<SAID> id = this.optionID();
+        final SAPartTitle title = new SAPartTitle(number, this.string());
+
+        final OptionType<SPartContents> contents;
+        if (this.flag()) {
+          contents = Option.some(SPartContents.get());
+        } else {
+          contents = Option.none();
+        }
+
+        final SAPart p =
+          new SAPart(number, type, id, title, contents, this.sections());
+        this.targets.set(target, p);
+        parts.add(p);
+      }
+      return SNonEmptyList.newList(parts);
+    }
+
+    private SNonEmptyList<SASection> sections()
+      throws IOException
+    {
+      final int count = this.countNonEmpty();
+      final List<SASection> sections = new ArrayList<SASection>(count);
+      for (int index = 0; index < count; ++index) {
+        sections.add(this.section());
+      }
+      return SNonEmptyList.newList(sections);
+    }
+
+    private SASection section()
+      throws IOException
+    {
+      final int kind = this.tag();
+      final int target = this.reserve();
+      final SASectionNumber number = this.sectionNumber();
+      final OptionType<String> type = this.optionString();
+      final OptionType<SAID> id = this.optionID();
+      final SASectionTitle title = new SASectionTitle(number, this.string());
+
+      final OptionType<SSectionContents> contents;
+      if (this.flag()) {
+        contents = Option.some(SSectionContents.get());
+      } else {
+        contents = Option.none();
+      }
+
+      final int note_count = this.count();
+      final List<SAFootnote> notes = new ArrayList<SAFootnote>(note_count);
+      for (int index = 0; index < note_count; ++index) {
+        notes.add(this.footnotes.get(this.index(this.footnotes.size())));
+      }
+
+      final SASection s;
+      switch (kind) {
+        case SADocumentSnapshot.SECTION_WITH_PARAGRAPHS: {
+          s = new SASectionWithParagraphs(
+            number, type, id, title, contents, this.subsectionContent(), notes);
+          break;
+        }
+        case SADocumentSnapshot.SECTION_WITH_SUBSECTIONS: {
+          s = new SASectionWithSubsections(
+            number, type, id, title, contents, this.subsections(), notes);
+          break;
+        }
+        default: {
+          throw Decoder.malformed("Unknown section kind " + kind);
+        }
+      }
+
+      this.targets.set(target, s);
+      return s;
+    }
+
+    private SNonEmptyList<SASubsection> subsections()
+      throws IOException
+    {
+      final int count = this.countNonEmpty();
+      final List<SASubsection> subsections =
+        new ArrayList<SASubsection>(count);
+      for (int index = 0; index < count; ++index) {
+        final int target = this.reserve();
+        final SASubsectionNumber number = this.subsectionNumber();
+        final OptionType<String> type = this.optionString();
+        final OptionType<SAID> id = this.optionID();
+        final SASubsectionTitle title =
+          new SASubsectionTitle(number, this.string());
+
+        final SASubsection ss = new SASubsection(
+          number, type, id, title, this.subsectionContent());
+        this.targets.set(target, ss);
+        subsections.add(ss);
+      }
+      return SNonEmptyList.newList(subsections);
+    }
+
+    private SNonEmptyList<SASubsectionContent> subsectionContent()
+      throws IOException
+    {
+      final int count = this.countNonEmpty();
+      final List<SASubsectionContent> content =
+        new ArrayList<SASubsectionContent>(count);
+      for (int index = 0; index < count; ++index) {
+        final int kind = this.tag();
+        switch (kind) {
+          case SADocumentSnapshot.CONTENT_PARAGRAPH: {
+            content.add(this.paragraph());
+            break;
+          }
+          case SADocumentSnapshot.CONTENT_FORMAL_ITEM: {
+            content.add(this.formalItem());
+            break;
+          }
+          default: {
+            throw Decoder.malformed("Unknown subsection content " + kind);
+          }
+        }
+      }
+      return SNonEmptyList.newList(content);
+    }
+
+    private SAParagraph paragraph()
+      throws IOException
+    {
+      final int target = this.reserve();
+      final SAParagraphNumber number = this.paragraphNumber();
+      final OptionType<String> type = this.optionString();
+      final OptionType<SAID> id = this.optionID();
+
+      final int count = this.countNonEmpty();
+      final List<SAParagraphContent> content =
+        new ArrayList<SAParagraphContent>(count);
+      for (int index = 0; index < count; ++index) {
+        content.add(this.inline(SAParagraphContent.class));
+      }
+
+      final SAParagraph p =
+        new SAParagraph(number, type, SNonEmptyList.newList(content), id);
+      this.targets.set(target, p);
+      return p;
+    }
+
+    private SAFormalItem formalItem()
+      throws IOException
+    {
+      final int target = this.reserve();
+      final SAFormalItemNumber number = this.formalItemNumber();
+      final SAFormalItemTitle title =
+        new SAFormalItemTitle(number, this.string());
+      final String kind = this.string();
+      final OptionType<String> type = this.optionString();
+      final SAFormalItemContent content =
+        this.inline(SAFormalItemContent.class);
+      final int formal_number = this.varint();
+      final OptionType<SAID> id = this.optionID();
+
+      final SAFormalItem f = new SAFormalItem(
+        number, title, kind, type, content, formal_number, id);
+      this.targets.set(target, f);
+      return f;
+    }
+
+    private <T> T inline(
+      final Class<T> c)
+      throws IOException
+    {
+      final Object o = this.inlineAny();
+      if (c.isInstance(o)) {
+        return c.cast(o);
+      }
+      throw Decoder.malformed(
+        String.format(
+          "%s is not permitted in %s",
+          o.getClass().getSimpleName(),
+          c.getSimpleName()));
+    }
+
+    private Object inlineAny()
+      throws IOException
+    {
+      final int kind = this.tag();
+      switch (kind) {
+        case SADocumentSnapshot.INLINE_FOOTNOTE:
+          return this.footnotes.get(this.index(this.footnotes.size()));
+        case SADocumentSnapshot.INLINE_FORMAL_ITEM_LIST:
+          return new SAFormalItemList(this.string());
+        case SADocumentSnapshot.INLINE_IMAGE:
+          return this.image();
+        case SADocumentSnapshot.INLINE_LINK:
+          return new SALink(this.string(), this.linkContent());
+        case SADocumentSnapshot.INLINE_LINK_EXTERNAL:
+          return new SALinkExternal(this.uri(), this.linkContent());
+        case SADocumentSnapshot.INLINE_LIST_ORDERED:
+          return new SAListOrdered(this.optionString(), this.listItems());
+        case SADocumentSnapshot.INLINE_LIST_UNORDERED:
+          return new SAListUnordered(this.optionString(), this.listItems());
+        case SADocumentSnapshot.INLINE_TABLE:
+          return this.table();
+        case SADocumentSnapshot.INLINE_TERM:
+          return new SATerm(new SAText(this.string()), this.optionString());
+        case SADocumentSnapshot.INLINE_TEXT:
+          return new SAText(this.string());
+        case SADocumentSnapshot.INLINE_VERBATIM:
+          return new SAVerbatim(this.string(), this.optionString());
+        default:
+          throw Decoder.malformed("Unknown content kind " + kind);
+      }
+    }
+
+    private SAImage image()
+      throws IOException
+    {
+      final URI uri = this.uri();
+      final OptionType<String> type = this.optionString();
+      final OptionType<Integer> width = this.optionInteger();
+      final OptionType<Integer> height = this.optionInteger();
+      return new SAImage(uri, type, width, height, this.string());
+    }
+
+    private SNonEmptyList<SALinkContent> linkContent()
+      throws IOException
+    {
+      final int count = this.countNonEmpty();
+      final List<SALinkContent> content = new ArrayList<SALinkContent>(count);
+      for (int index = 0; index < count; ++index) {
+        content.add(this.inline(SALinkContent.class));
+      }
+      return SNonEmptyList.newList(content);
+    }
+
+    private SNonEmptyList<SAListItem> listItems()
+      throws IOException
+    {
+      final int count = this.countNonEmpty();
+      final List<SAListItem> items = new ArrayList<SAListItem>(count);
+      for (int index = 0; index < count; ++index) {
+        final OptionType<String> type = this.optionString();
+        final int size = this.countNonEmpty();
+        final List<SAListItemContent> content =
+          new ArrayList<SAListItemContent>(size);
+        for (int c = 0; c < size; ++c) {
+          content.add(this.inline(SAListItemContent.class));
+        }
+        items.add(new SAListItem(type, SNonEmptyList.newList(content)));
+      }
+      return SNonEmptyList.newList(items);
+    }
+
+    private SATable table()
+      throws IOException
+    {
+      final SATableSummary summary = new SATableSummary(this.string());
+
+      final OptionType<SATableHead> header;
+      if (this.flag()) {
+        final int count = this.countNonEmpty();
+        final List<SATableColumnName> names =
+          new ArrayList<SATableColumnName>(count);
+        for (int index = 0; index < count; ++index) {
+          names.add(new SATableColumnName(this.string()));
+        }
+        header = Option.some(new SATableHead(SNonEmptyList.newList(names)));
+      } else {
+        header = Option.none();
+      }
+
+      final int row_count = this.countNonEmpty();
+      final List<SATableRow> rows = new ArrayList<SATableRow>(row_count);
+      for (int row = 0; row < row_count; ++row) {
+        final int cell_count = this.countNonEmpty();
+        final List<SATableCell> cells = new ArrayList<SATableCell>(cell_count);
+        for (int cell = 0; cell < cell_count; ++cell) {
+          cells.add(new SATableCell(this.tableCellContent()));
+        }
+        rows.add(new SATableRow(SNonEmptyList.newList(cells)));
+      }
+
+      return new SATable(
+        summary, header, new SATableBody(SNonEmptyList.newList(rows)));
+    }
+
+    private List<SATableCellContent> tableCellContent()
+      throws IOException
+    {
+      final int count = this.count();
+      final List<SATableCellContent> content =
+        new ArrayList<SATableCellContent>(count);
+      for (int index = 0; index < count; ++index) {
+        content.add(this.inline(SATableCellContent.class));
+      }
+      return content;
+    }
+
+    private SASectionNumber sectionNumber()
+      throws IOException
+    {
+      final int kind = this.tag();
+      switch (kind) {
+        case SADocumentSnapshot.NUMBER_S: {
+          return new SASectionNumberS(this.varint());
+        }
+        case SADocumentSnapshot.NUMBER_PS: {
+          final int part = this.varint();
+          return new SASectionNumberPS(part, this.varint());
+        }
+        default: {
+          throw Decoder.malformed("Unknown section number kind " + kind);
+        }
+      }
+    }
+
+    private SASubsectionNumber subsectionNumber()
+      throws IOException
+    {
+      final int kind = this.tag();
+      switch (kind) {
+        case SADocumentSnapshot.NUMBER_SS: {
+          final int section = this.varint();
+          return new SASubsectionNumberSS(section, this.varint());
+        }
+        case SADocumentSnapshot.NUMBER_PSS: {
+          final int part = this.varint();
+          final int section = this.varint();
+          return new SASubsectionNumberPSS(part, section, this.varint());
+        }
+        default: {
+          throw Decoder.malformed("Unknown subsection number kind " + kind);
+        }
+      }
+    }
+
+    private SAParagraphNumber paragraphNumber()
+      throws IOException
+    {
+      final int kind = this.tag();
+      switch (kind) {
+        case SADocumentSnapshot.NUMBER_SP: {
+          final int section = this.varint();
+          return new SAParagraphNumberSP(section, this.varint());
+        }
+        case SADocumentSnapshot.NUMBER_SSP: {
+          final int section = this.varint();
+          final int subsection = this.varint();
+          return new SAParagraphNumberSSP(section, subsection, this.varint());
+        }
+        case SADocumentSnapshot.NUMBER_PSP: {
+          final int part = this.varint();
+          final int section = this.varint();
+          return new SAParagraphNumberPSP(part, section, this.varint());
+        }
+        case SADocumentSnapshot.NUMBER_PSSP: {
+          final int part = this.varint();
+          final int section = this.varint();
+          final int subsection = this.varint();
+          return new SAParagraphNumberPSSP(
+            part, section, subsection, this.varint());
+        }
+        default: {
+          throw Decoder.malformed("Unknown paragraph number kind " + kind);
+        }
+      }
+    }
+
+    private SAFormalItemNumber formalItemNumber()
+      throws IOException
+    {
+      final int kind = this.tag();
+      switch (kind) {
+        case SADocumentSnapshot.NUMBER_SF: {
+          final int section = this.varint();
+          return new SAFormalItemNumberSF(section, this.varint());
+        }
+        case SADocumentSnapshot.NUMBER_SSF: {
+          final int section = this.varint();
+          final int subsection = this.varint();
+          return new SAFormalItemNumberSSF(section, subsection, this.varint());
+        }
+        case SADocumentSnapshot.NUMBER_PSF: {
+          final int part = this.varint();
+          final int section = this.varint();
+          return new SAFormalItemNumberPSF(part, section, this.varint());
+        }
+        case SADocumentSnapshot.NUMBER_PSSF: {
+          final int part = this.varint();
+          final int section = this.varint();
+          final int subsection = this.varint();
+          return new SAFormalItemNumberPSSF(
+            part, section, subsection, this.varint());
+        }
+        default: {
+          throw Decoder.malformed("Unknown formal item number kind " + kind);
+        }
+      }
+    }
+  }
+}
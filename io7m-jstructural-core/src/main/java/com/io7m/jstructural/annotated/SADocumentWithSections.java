@@ -23,10 +23,11 @@ import com.io7m.jnull.Nullable;
 import com.io7m.jstructural.core.SDocumentContents;
 import com.io7m.jstructural.core.SDocumentStyle;
 import com.io7m.jstructural.core.SNonEmptyList;
-import com.io7m.junreachable.UnreachableCodeException;
+import com.io7m.jstructural.core.SSection;
 import net.jcip.annotations.Immutable;
 
 import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -38,6 +39,7 @@ import java.util.Map;
 {
   private final Map<SASectionNumber, SASection> numbered_sections;
   private final SNonEmptyList<SASection>        sections;
+  private final SASegmentIndex                  segments;
 
   /**
    * Construct a new document with sections.
@@ -60,7 +62,35 @@ import java.util.Map;
     final List<SAFootnote> in_footnotes,
     final SAFormalItemsByKind in_formals)
   {
-    super(in_ids, in_title, in_contents, in_style, in_footnotes, in_formals);
+    this(
+      in_ids,
+      in_title,
+      in_contents,
+      in_style,
+      in_content,
+      in_footnotes,
+      in_formals,
+      Collections.<SASectionNumber, SSection>emptyMap());
+  }
+
+  SADocumentWithSections(
+    final SAIDMap in_ids,
+    final SADocumentTitle in_title,
+    final OptionType<SDocumentContents> in_contents,
+    final OptionType<SDocumentStyle> in_style,
+    final SNonEmptyList<SASection> in_content,
+    final List<SAFootnote> in_footnotes,
+    final SAFormalItemsByKind in_formals,
+    final Map<SASectionNumber, SSection> in_sources)
+  {
+    super(
+      in_ids,
+      in_title,
+      in_contents,
+      in_style,
+      in_footnotes,
+      in_formals,
+      in_sources);
     this.sections = NullCheck.notNull(in_content, "Content");
 
     this.numbered_sections = new HashMap<SASectionNumber, SASection>();
@@ -68,6 +98,7 @@ import java.util.Map;
       assert this.numbered_sections.containsKey(s.getNumber()) == false;
       this.numbered_sections.put(s.getNumber(), s);
     }
+    this.segments = SASegmentIndex.fromSections(this.sections);
   }
 
   @Override public <A> A documentAccept(
@@ -127,117 +158,24 @@ import java.util.Map;
 
   @Override public SASegmentNumber segmentGetFirst()
   {
-    return this.sections.getElements().get(0).getNumber();
+    return this.segments.getFirst();
   }
 
   @Override public OptionType<SASegmentNumber> segmentGetNext(
     final SASegmentNumber n)
   {
-    try {
-      final List<SASection> section_list = this.sections.getElements();
-
-      return n.segmentNumberAccept(
-        new SASegmentNumberVisitor<OptionType<SASegmentNumber>>()
-        {
-          @Override public OptionType<SASegmentNumber> visitPartNumber(
-            final SAPartNumber pn)
-            throws Exception
-          {
-            throw new UnreachableCodeException();
-          }
-
-          @Override public OptionType<SASegmentNumber> visitSectionNumber(
-            final SASectionNumber pn)
-            throws Exception
-          {
-            return pn.sectionNumberAccept(
-              new SASectionNumberVisitor<OptionType<SASegmentNumber>>()
-              {
-                @Override
-                public OptionType<SASegmentNumber>
-                visitSectionNumberWithoutPart(
-                  final SASectionNumberS p)
-                  throws Exception
-                {
-                  if (p.getSection() >= section_list.size()) {
-                    return Option.none();
-                  }
-
-                  final SASectionNumberS next =
-                    new SASectionNumberS(p.getSection() + 1);
-                  return Option.some((SASegmentNumber) next);
-                }
-
-                @Override
-                public OptionType<SASegmentNumber> visitSectionNumberWithPart(
-                  final SASectionNumberPS p)
-                  throws Exception
-                {
-                  throw new UnreachableCodeException();
-                }
-              });
-          }
-        });
-    } catch (final Exception e) {
-      throw new UnreachableCodeException(e);
-    }
+    return this.segments.getNext(n);
   }
 
   @Override public OptionType<SASegmentNumber> segmentGetPrevious(
     final SASegmentNumber n)
   {
-    try {
-      return n.segmentNumberAccept(
-        new SASegmentNumberVisitor<OptionType<SASegmentNumber>>()
-        {
-          @Override public OptionType<SASegmentNumber> visitPartNumber(
-            final SAPartNumber pn)
-            throws Exception
-          {
-            throw new UnreachableCodeException();
-          }
-
-          @Override public OptionType<SASegmentNumber> visitSectionNumber(
-            final SASectionNumber pn)
-            throws Exception
-          {
-            return pn.sectionNumberAccept(
-              new SASectionNumberVisitor<OptionType<SASegmentNumber>>()
-              {
-                @Override
-                public OptionType<SASegmentNumber>
-                visitSectionNumberWithoutPart(
-                  final SASectionNumberS p)
-                  throws Exception
-                {
-                  if (p.getSection() == 1) {
-                    return Option.none();
-                  }
-
-                  final SASectionNumberS prev =
-                    new SASectionNumberS(p.getSection() - 1);
-                  return Option.some((SASegmentNumber) prev);
-
-                }
-
-                @Override
-                public OptionType<SASegmentNumber> visitSectionNumberWithPart(
-                  final SASectionNumberPS p)
-                  throws Exception
-                {
-                  throw new UnreachableCodeException();
-                }
-              });
-          }
-        });
-    } catch (final Exception e) {
-      throw new UnreachableCodeException(e);
-    }
+    return this.segments.getPrevious(n);
   }
 
   @Override public OptionType<SASegmentNumber> segmentGetUp(
     final SASegmentNumber n)
   {
-    return Option.none();
+    return this.segments.getUp(n);
   }
 }
@@ -101,6 +101,15 @@ import net.jcip.annotations.Immutable;
     return this.formal_number;
   }
 
+  /**
+   * @return The formal item's ID.
+   */
+
+  public OptionType<SAID> getID()
+  {
+    return this.id;
+  }
+
   /**
    * @return The kind of formal item
    */
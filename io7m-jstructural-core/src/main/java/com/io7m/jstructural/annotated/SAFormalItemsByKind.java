@@ -16,7 +16,8 @@
 
 package com.io7m.jstructural.annotated;
 
-import net.jcip.annotations.Immutable;
+import com.io7m.jnull.Nullable;
+import net.jcip.annotations.NotThreadSafe;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -29,10 +30,15 @@ import java.util.SortedMap;
 import java.util.TreeMap;
 
 /**
- * The set of formal items organized by kind.
+ * <p>The mutable set of formal items organized by kind, as collected during
+ * annotation.</p>
+ *
+ * <p>Annotated documents do not retain this set: each document builds an
+ * immutable sorted index of the items when it is constructed, and that index
+ * is what {@link SADocument#getFormals()} returns.</p>
  */
 
-@Immutable public final class SAFormalItemsByKind
+@NotThreadSafe public final class SAFormalItemsByKind
   implements SAFormalItemsByKindReadable, SAFormalItemsByKindWritable
 {
   private static final Logger LOG;
@@ -60,6 +66,22 @@ import java.util.TreeMap;
     this.map = new HashMap<String, Set<SAFormalItem>>(128);
   }
 
+  @Override public boolean equals(
+    final @Nullable Object obj)
+  {
+    if (this == obj) {
+      return true;
+    }
+    if (obj == null) {
+      return false;
+    }
+    if (this.getClass() != obj.getClass()) {
+      return false;
+    }
+    final SAFormalItemsByKind other = (SAFormalItemsByKind) obj;
+    return this.map.equals(other.map);
+  }
+
   @Override public SortedMap<SAFormalItemNumber, SAFormalItem> get(
     final String kind)
   {
@@ -82,6 +104,42 @@ import java.util.TreeMap;
     return rm;
   }
 
+  @Override public int hashCode()
+  {
+    return this.map.hashCode();
+  }
+
+  /**
+   * @return The set of kinds for which at least one formal item exists
+   */
+
+  Set<String> kinds()
+  {
+    final Set<String> r = Collections.unmodifiableSet(this.map.keySet());
+    assert r != null;
+    return r;
+  }
+
+  /**
+   * @param kind The kind
+   *
+   * @return The unordered formal items of the given kind
+   */
+
+  Set<SAFormalItem> items(
+    final String kind)
+  {
+    final Set<SAFormalItem> set = this.map.get(kind);
+    if (set == null) {
+      final Set<SAFormalItem> r = Collections.emptySet();
+      assert r != null;
+      return r;
+    }
+    final Set<SAFormalItem> r = Collections.unmodifiableSet(set);
+    assert r != null;
+    return r;
+  }
+
   @Override public void put(
     final String kind,
     final SAFormalItem item)
@@ -0,0 +1,101 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jstructural.annotated;
+
+import com.io7m.jnull.Nullable;
+import net.jcip.annotations.Immutable;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+
+/**
+ * <p>The formal items of an annotated document organized by kind.</p>
+ *
+ * <p>The index is built once, when the document is constructed, from the
+ * items collected during annotation. The sorted items of each kind are held
+ * in arrays and never change afterwards.</p>
+ */
+
+@Immutable final class SAFormalItemsIndex
+  implements SAFormalItemsByKindReadable
+{
+  private static final SortedMap<SAFormalItemNumber, SAFormalItem> EMPTY;
+
+  static {
+    EMPTY = SAFormalItemsSorted.sorted(Collections.<SAFormalItem>emptySet());
+  }
+
+  private final Map<String, SAFormalItemsSorted> map;
+
+  SAFormalItemsIndex(
+    final SAFormalItemsByKind in_formals)
+  {
+    final Set<String> kinds = in_formals.kinds();
+    final Map<String, SAFormalItemsSorted> m =
+      new HashMap<String, SAFormalItemsSorted>(kinds.size() * 2);
+    for (final String kind : kinds) {
+      assert kind != null;
+      m.put(kind, SAFormalItemsSorted.sorted(in_formals.items(kind)));
+    }
+    this.map = m;
+  }
+
+  @Override public boolean equals(
+    final @Nullable Object obj)
+  {
+    if (this == obj) {
+      return true;
+    }
+    if (obj == null) {
+      return false;
+    }
+    if (this.getClass() != obj.getClass()) {
+      return false;
+    }
+    final SAFormalItemsIndex other = (SAFormalItemsIndex) obj;
+    return this.map.equals(other.map);
+  }
+
+  @Override public SortedMap<SAFormalItemNumber, SAFormalItem> get(
+    final String kind)
+  {
+    final SortedMap<SAFormalItemNumber, SAFormalItem> r = this.map.get(kind);
+    if (r == null) {
+      return SAFormalItemsIndex.EMPTY;
+    }
+    return r;
+  }
+
+  @Override public int hashCode()
+  {
+    return this.map.hashCode();
+  }
+
+  /**
+   * @return The set of kinds for which at least one formal item exists
+   */
+
+  Set<String> kinds()
+  {
+    final Set<String> r = Collections.unmodifiableSet(this.map.keySet());
+    assert r != null;
+    return r;
+  }
+}
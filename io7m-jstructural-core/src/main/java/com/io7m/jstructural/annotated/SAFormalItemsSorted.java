@@ -0,0 +1,249 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jstructural.annotated;
+
+import com.io7m.jnull.Nullable;
+import net.jcip.annotations.Immutable;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+
+/**
+ * <p>An unmodifiable sorted map of formal items, backed by a pair of arrays
+ * sorted by formal item number.</p>
+ *
+ * <p>Sub-maps share the arrays of the map from which they were taken.</p>
+ */
+
+@Immutable final class SAFormalItemsSorted
+  extends AbstractMap<SAFormalItemNumber, SAFormalItem>
+  implements SortedMap<SAFormalItemNumber, SAFormalItem>
+{
+  private final SAFormalItemNumber[] keys;
+  private final SAFormalItem[]       values;
+  private final int                  lower;
+  private final int                  upper;
+
+  private SAFormalItemsSorted(
+    final SAFormalItemNumber[] in_keys,
+    final SAFormalItem[] in_values,
+    final int in_lower,
+    final int in_upper)
+  {
+    this.keys = in_keys;
+    this.values = in_values;
+    this.lower = in_lower;
+    this.upper = in_upper;
+  }
+
+  /**
+   * Construct a sorted map from the given items.
+   *
+   * @param items The formal items
+   *
+   * @return A new sorted map
+   */
+
+  static SAFormalItemsSorted sorted(
+    final Collection<SAFormalItem> items)
+  {
+    final SAFormalItem[] vs = items.toArray(new SAFormalItem[items.size()]);
+    Arrays.sort(
+      vs, new Comparator<SAFormalItem>()
+      {
+        @Override public int compare(
+          final @Nullable SAFormalItem a,
+          final @Nullable SAFormalItem b)
+        {
+          assert a != null;
+          assert b != null;
+          return a.getNumber().compareTo(b.getNumber());
+        }
+      });
+
+    final SAFormalItemNumber[] ks = new SAFormalItemNumber[vs.length];
+    for (int index = 0; index < vs.length; ++index) {
+      ks[index] = vs[index].getNumber();
+      if (index > 0 && ks[index - 1].compareTo(ks[index]) == 0) {
+        throw new IllegalArgumentException(
+          "Duplicate formal item number: " + ks[index].formalItemNumberFormat());
+      }
+    }
+    return new SAFormalItemsSorted(ks, vs, 0, vs.length);
+  }
+
+  private int position(
+    final @Nullable SAFormalItemNumber key)
+  {
+    if (key == null) {
+      throw new NullPointerException("Key");
+    }
+    final int r = Arrays.binarySearch(this.keys, this.lower, this.upper, key);
+    if (r < 0) {
+      return -(r + 1);
+    }
+    return r;
+  }
+
+  private int find(
+    final @Nullable Object key)
+  {
+    if (key instanceof SAFormalItemNumber) {
+      final int r = Arrays.binarySearch(
+        this.keys, this.lower, this.upper, key);
+      if (r >= 0) {
+        return r;
+      }
+    }
+    return -1;
+  }
+
+  private SAFormalItemsSorted range(
+    final int in_lower,
+    final int in_upper)
+  {
+    if (in_lower > in_upper) {
+      throw new IllegalArgumentException("Lower key exceeds upper key");
+    }
+    return new SAFormalItemsSorted(
+      this.keys, this.values, in_lower, in_upper);
+  }
+
+  @Override public @Nullable Comparator<? super SAFormalItemNumber> comparator()
+  {
+    return null;
+  }
+
+  @Override public boolean containsKey(
+    final @Nullable Object key)
+  {
+    return this.find(key) >= 0;
+  }
+
+  @Override public Set<Entry<SAFormalItemNumber, SAFormalItem>> entrySet()
+  {
+    return new AbstractSet<Entry<SAFormalItemNumber, SAFormalItem>>()
+    {
+      @Override public Iterator<Entry<SAFormalItemNumber, SAFormalItem>>
+      iterator()
+      {
+        return new Iterator<Entry<SAFormalItemNumber, SAFormalItem>>()
+        {
+          private int index = SAFormalItemsSorted.this.lower;
+
+          @Override public boolean hasNext()
+          {
+            return this.index < SAFormalItemsSorted.this.upper;
+          }
+
+          @Override public Entry<SAFormalItemNumber, SAFormalItem> next()
+          {
+            if (this.hasNext() == false) {
+              throw new NoSuchElementException();
+            }
+            final int i = this.index;
+            this.index = i + 1;
+            return new SimpleImmutableEntry<SAFormalItemNumber, SAFormalItem>(
+              SAFormalItemsSorted.this.keys[i],
+              SAFormalItemsSorted.this.values[i]);
+          }
+
+          @Override public void remove()
+          {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+
+      @Override public int size()
+      {
+        return SAFormalItemsSorted.this.size();
+      }
+    };
+  }
+
+  @Override public SAFormalItemNumber firstKey()
+  {
+    if (this.isEmpty()) {
+      throw new NoSuchElementException();
+    }
+    return this.keys[this.lower];
+  }
+
+  @Override public @Nullable SAFormalItem get(
+    final @Nullable Object key)
+  {
+    final int r = this.find(key);
+    if (r >= 0) {
+      return this.values[r];
+    }
+    return null;
+  }
+
+  @Override public SortedMap<SAFormalItemNumber, SAFormalItem> headMap(
+    final @Nullable SAFormalItemNumber to)
+  {
+    return this.range(this.lower, this.position(to));
+  }
+
+  @Override public boolean isEmpty()
+  {
+    return this.lower == this.upper;
+  }
+
+  @Override public SAFormalItemNumber lastKey()
+  {
+    if (this.isEmpty()) {
+      throw new NoSuchElementException();
+    }
+    return this.keys[this.upper - 1];
+  }
+
+  @Override public int size()
+  {
+    return this.upper - this.lower;
+  }
+
+  @Override public SortedMap<SAFormalItemNumber, SAFormalItem> subMap(
+    final @Nullable SAFormalItemNumber from,
+    final @Nullable SAFormalItemNumber to)
+  {
+    return this.range(this.position(from), this.position(to));
+  }
+
+  @Override public SortedMap<SAFormalItemNumber, SAFormalItem> tailMap(
+    final @Nullable SAFormalItemNumber from)
+  {
+    return this.range(this.position(from), this.upper);
+  }
+
+  @Override public Collection<SAFormalItem> values()
+  {
+    final Collection<SAFormalItem> r = Collections.unmodifiableList(
+      Arrays.asList(this.values).subList(this.lower, this.upper));
+    assert r != null;
+    return r;
+  }
+}
@@ -22,8 +22,10 @@ import net.jcip.annotations.Immutable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Mappings from IDs to content.
@@ -49,6 +51,34 @@ import java.util.Map;
     this.map = new HashMap<SAID, SAIDTargetContent>(128);
   }
 
+  /**
+   * @return A read-only view of the entries of the map
+   */
+
+  Set<Map.Entry<SAID, SAIDTargetContent>> entries()
+  {
+    final Set<Map.Entry<SAID, SAIDTargetContent>> r =
+      Collections.unmodifiableSet(this.map.entrySet());
+    assert r != null;
+    return r;
+  }
+
+  @Override public boolean equals(
+    final @Nullable Object obj)
+  {
+    if (this == obj) {
+      return true;
+    }
+    if (obj == null) {
+      return false;
+    }
+    if (this.getClass() != obj.getClass()) {
+      return false;
+    }
+    final SAIDMap other = (SAIDMap) obj;
+    return this.map.equals(other.map);
+  }
+
   @Override public @Nullable SAIDTargetContent get(
     final SAID id)
   {
@@ -61,6 +91,11 @@ import java.util.Map;
     return this.map.get(id);
   }
 
+  @Override public int hashCode()
+  {
+    return this.map.hashCode();
+  }
+
   @Override public void put(
     final SAID id,
     final SAIDTargetContent c)
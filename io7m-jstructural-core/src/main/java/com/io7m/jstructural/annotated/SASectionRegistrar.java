@@ -0,0 +1,95 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jstructural.annotated;
+
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Some;
+import com.io7m.jfunctional.Unit;
+import com.io7m.jnull.NullCheck;
+
+/**
+ * Register the IDs and formal items of a reused section, exactly as they
+ * were registered when the section was annotated.
+ */
+
+final class SASectionRegistrar
+  implements SASectionVisitor<Unit>, SASubsectionContentVisitor<Unit>
+{
+  private final SAFormalItemsByKind formals;
+  private final SAIDMap             ids;
+
+  SASectionRegistrar(
+    final SAIDMap in_ids,
+    final SAFormalItemsByKind in_formals)
+  {
+    this.ids = NullCheck.notNull(in_ids, "IDs");
+    this.formals = NullCheck.notNull(in_formals, "Formals");
+  }
+
+  private void link(
+    final OptionType<SAID> id,
+    final SAIDTargetContent content)
+  {
+    if (id.isSome()) {
+      this.ids.put(((Some<SAID>) id).get(), content);
+    }
+  }
+
+  @Override
+  public Unit visitFormalItem(
+    final SAFormalItem formal)
+    throws Exception
+  {
+    this.link(formal.getID(), formal);
+    this.formals.put(formal.getKind(), formal);
+    return Unit.unit();
+  }
+
+  @Override
+  public Unit visitParagraph(
+    final SAParagraph paragraph)
+    throws Exception
+  {
+    this.link(paragraph.getID(), paragraph);
+    return Unit.unit();
+  }
+
+  @Override
+  public Unit visitSectionWithParagraphs(
+    final SASectionWithParagraphs s)
+    throws Exception
+  {
+    for (final SASubsectionContent c : s.getSectionContent().getElements()) {
+      c.subsectionContentAccept(this);
+    }
+    return Unit.unit();
+  }
+
+  @Override
+  public Unit visitSectionWithSubsections(
+    final SASectionWithSubsections s)
+    throws Exception
+  {
+    for (final SASubsection ss : s.getSubsections().getElements()) {
+      for (final SASubsectionContent c : ss.getContent().getElements()) {
+        c.subsectionContentAccept(this);
+      }
+      this.link(ss.getID(), ss);
+    }
+    return Unit.unit();
+  }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jstructural.annotated;
+
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jstructural.core.SNonEmptyList;
+import net.jcip.annotations.Immutable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>A precomputed, immutable index of the segments of a document in
+ * document order.</p>
+ *
+ * <p>The next, previous and parent segments of every segment are computed
+ * once when the index is constructed, so that navigation queries are a single
+ * map lookup and do not allocate.</p>
+ */
+
+@Immutable final class SASegmentIndex
+{
+  private final SASegmentNumber[]           order;
+  private final Map<SASegmentNumber, Entry> entries;
+
+  private SASegmentIndex(
+    final List<SASegmentNumber> in_order,
+    final List<OptionType<SASegmentNumber>> in_ups)
+  {
+    assert in_order.isEmpty() == false;
+    assert in_order.size() == in_ups.size();
+
+    final int count = in_order.size();
+    this.order = in_order.toArray(new SASegmentNumber[count]);
+    this.entries = new HashMap<SASegmentNumber, Entry>(count * 2);
+
+    final OptionType<SASegmentNumber> none = Option.none();
+    for (int index = 0; index < count; ++index) {
+      final SASegmentNumber n = this.order[index];
+
+      final OptionType<SASegmentNumber> previous;
+      if (index > 0) {
+        previous = Option.some(this.order[index - 1]);
+      } else {
+        previous = none;
+      }
+
+      final OptionType<SASegmentNumber> next;
+      if ((index + 1) < count) {
+        next = Option.some(this.order[index + 1]);
+      } else {
+        next = none;
+      }
+
+      assert this.entries.containsKey(n) == false;
+      this.entries.put(
+        n, new Entry(next, previous, in_ups.get(index)));
+    }
+  }
+
+  /**
+   * Construct an index for the given parts. Each part is followed by its
+   * sections, and the parent of each section is its part.
+   *
+   * @param parts The parts
+   *
+   * @return A new index
+   */
+
+  static SASegmentIndex fromParts(
+    final SNonEmptyList<SAPart> parts)
+  {
+    NullCheck.notNull(parts, "Parts");
+
+    final List<SASegmentNumber> order = new ArrayList<SASegmentNumber>(64);
+    final List<OptionType<SASegmentNumber>> ups =
+      new ArrayList<OptionType<SASegmentNumber>>(64);
+
+    final OptionType<SASegmentNumber> none = Option.none();
+    for (final SAPart p : parts.getElements()) {
+      final SAPartNumber pn = p.getNumber();
+      order.add(pn);
+      ups.add(none);
+
+      final OptionType<SASegmentNumber> up =
+        Option.some((SASegmentNumber) pn);
+      for (final SASection s : p.getSections().getElements()) {
+        order.add(s.getNumber());
+        ups.add(up);
+      }
+    }
+
+    return new SASegmentIndex(order, ups);
+  }
+
+  /**
+   * Construct an index for the given sections. Sections have no parent.
+   *
+   * @param sections The sections
+   *
+   * @return A new index
+   */
+
+  static SASegmentIndex fromSections(
+    final SNonEmptyList<SASection> sections)
+  {
+    NullCheck.notNull(sections, "Sections");
+
+    final int count = sections.size();
+    final List<SASegmentNumber> order = new ArrayList<SASegmentNumber>(count);
+    final List<OptionType<SASegmentNumber>> ups =
+      new ArrayList<OptionType<SASegmentNumber>>(count);
+
+    final OptionType<SASegmentNumber> none = Option.none();
+    for (int index = 0; index < count; ++index) {
+      order.add(sections.get(index).getNumber());
+      ups.add(none);
+    }
+
+    return new SASegmentIndex(order, ups);
+  }
+
+  private static OptionType<SASegmentNumber> none()
+  {
+    return Option.none();
+  }
+
+  /**
+   * @return The first segment
+   */
+
+  SASegmentNumber getFirst()
+  {
+    final SASegmentNumber r = this.order[0];
+    assert r != null;
+    return r;
+  }
+
+  /**
+   * @param n The segment number
+   *
+   * @return The next segment, if any
+   */
+
+  OptionType<SASegmentNumber> getNext(
+    final SASegmentNumber n)
+  {
+    final Entry e = this.entries.get(NullCheck.notNull(n, "Number"));
+    if (e == null) {
+      return SASegmentIndex.none();
+    }
+    return e.next;
+  }
+
+  /**
+   * @param n The segment number
+   *
+   * @return The previous segment, if any
+   */
+
+  OptionType<SASegmentNumber> getPrevious(
+    final SASegmentNumber n)
+  {
+    final Entry e = this.entries.get(NullCheck.notNull(n, "Number"));
+    if (e == null) {
+      return SASegmentIndex.none();
+    }
+    return e.previous;
+  }
+
+  /**
+   * @param n The segment number
+   *
+   * @return The parent segment, if any
+   */
+
+  OptionType<SASegmentNumber> getUp(
+    final SASegmentNumber n)
+  {
+    final Entry e = this.entries.get(NullCheck.notNull(n, "Number"));
+    if (e == null) {
+      return SASegmentIndex.none();
+    }
+    return e.up;
+  }
+
+  @Immutable private static final class Entry
+  {
+    private final OptionType<SASegmentNumber> next;
+    private final OptionType<SASegmentNumber> previous;
+    private final OptionType<SASegmentNumber> up;
+
+    Entry(
+      final OptionType<SASegmentNumber> in_next,
+      final OptionType<SASegmentNumber> in_previous,
+      final OptionType<SASegmentNumber> in_up)
+    {
+      this.next = in_next;
+      this.previous = in_previous;
+      this.up = in_up;
+    }
+  }
+}
@@ -19,8 +19,10 @@ package com.io7m.jstructural.annotated;
 import com.io7m.jfunctional.FunctionType;
 import com.io7m.jfunctional.OptionType;
 import com.io7m.jfunctional.PartialFunctionType;
+import com.io7m.jfunctional.Some;
 import com.io7m.jfunctional.Unit;
 import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
 import com.io7m.jstructural.core.SDocument;
 import com.io7m.jstructural.core.SDocumentVisitor;
 import com.io7m.jstructural.core.SDocumentWithParts;
@@ -66,17 +68,25 @@ import com.io7m.jstructural.core.STableSummary;
 import com.io7m.jstructural.core.STerm;
 import com.io7m.jstructural.core.SText;
 import com.io7m.jstructural.core.SVerbatim;
+import com.io7m.jstructural.events.SEventAnnotate;
+import com.io7m.jstructural.events.SEvents;
 import com.io7m.junreachable.UnreachableCodeException;
 import net.jcip.annotations.Immutable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * A document annotator.
+ * <p>A document annotator.</p>
+ *
+ * <p>The annotator holds no state between calls, and any number of documents
+ * may be annotated concurrently. The resulting documents are not modified
+ * after they have been returned, and may be shared between threads.</p>
  */
 
 @Immutable
@@ -88,11 +98,17 @@ public final class SAnnotator
     LOG = LoggerFactory.getLogger(SAnnotator.class);
   }
 
-  private final SDocument document;
+  private final SDocument            document;
+  private final @Nullable SADocument previous;
+  private final boolean              retain;
 
   private SAnnotator(
+    final @Nullable SADocument in_previous,
+    final boolean in_retain,
     final SDocument d)
   {
+    this.previous = in_previous;
+    this.retain = in_retain;
     this.document = NullCheck.notNull(d, "Document");
   }
 
@@ -107,7 +123,88 @@ public final class SAnnotator
   public static SADocument document(
     final SDocument d)
   {
-    return new SAnnotator(d).process();
+    return SAnnotator.annotate(new SAnnotator(null, false, d));
+  }
+
+  /**
+   * <p>Annotate the given document, recording the sections from which the
+   * result was annotated so that it can later be passed to {@link
+   * #documentIncremental(SADocument, SDocument)}.</p>
+   *
+   * <p>The result refers to the sections of {@code d}, and so keeps {@code
+   * d} reachable for as long as the result is.</p>
+   *
+   * @param d The document
+   *
+   * @return An annotated document
+   */
+
+  public static SADocument documentRetainingSources(
+    final SDocument d)
+  {
+    return SAnnotator.annotate(new SAnnotator(null, true, d));
+  }
+
+  /**
+   * <p>Annotate the given document, reusing the annotated sections of a
+   * previously annotated version of the document where possible.</p>
+   *
+   * <p>A section of {@code previous} is reused if the section at the same
+   * position in {@code d} is equal to the section from which it was
+   * annotated, and the footnotes that precede it in {@code d} are the same
+   * in number. All other sections, such as those that have changed or that
+   * have moved, are annotated again. The result is equal to that produced
+   * by {@link #document(SDocument)}.</p>
+   *
+   * <p>Only documents produced by this method and by {@link
+   * #documentRetainingSources(SDocument)} record the sections from which
+   * they were annotated; if {@code previous} was produced in some other way,
+   * no sections are reused. The result records the sections of {@code d},
+   * so that it may in turn be passed to this method.</p>
+   *
+   * @param previous A previously annotated version of the document
+   * @param d        The document
+   *
+   * @return An annotated document
+   */
+
+  public static SADocument documentIncremental(
+    final SADocument previous,
+    final SDocument d)
+  {
+    NullCheck.notNull(previous, "Previous");
+    return SAnnotator.annotate(new SAnnotator(previous, true, d));
+  }
+
+  private static SADocument annotate(
+    final SAnnotator a)
+  {
+    final SEventAnnotate event =
+      SEvents.AVAILABLE ? SEventAnnotate.start() : null;
+    final SADocument r = a.process();
+
+    if (event != null) {
+      event.end();
+      if (event.shouldCommit()) {
+        event.setSegments(SAnnotator.countSegments(r));
+        event.setIDs(r.getIDMappings().size());
+        event.setFootnotes(r.getFootnotes().size());
+        event.commit();
+      }
+    }
+    return r;
+  }
+
+  private static int countSegments(
+    final SADocument d)
+  {
+    int count = 1;
+    OptionType<SASegmentNumber> next = d.segmentGetNext(d.segmentGetFirst());
+    while (next.isSome()) {
+      ++count;
+      next = d.segmentGetNext(((Some<SASegmentNumber>) next).get());
+    }
+    return count;
   }
 
   private static SAFootnote transformFootnote(
@@ -857,7 +954,8 @@ public final class SAnnotator
   private SADocument process()
   {
     try {
-      return this.document.documentAccept(new DocumentAnnotator());
+      return this.document.documentAccept(
+        new DocumentAnnotator(this.previous, this.retain));
     } catch (final Exception e) {
       throw new UnreachableCodeException(e);
     }
@@ -869,12 +967,78 @@ public final class SAnnotator
     private final List<SAFootnote> footnotes;
     private final SAFormalItemsByKind formals;
     private final SAIDMap ids;
+    private final @Nullable SADocument previous;
+    private final Map<SASectionNumber, SSection> sources;
+    private final boolean retain;
 
-    private DocumentAnnotator()
+    private DocumentAnnotator(
+      final @Nullable SADocument in_previous,
+      final boolean in_retain)
     {
       this.ids = new SAIDMap();
       this.footnotes = new ArrayList<SAFootnote>();
       this.formals = new SAFormalItemsByKind();
+      this.previous = in_previous;
+      this.retain = in_retain;
+      this.sources = new HashMap<SASectionNumber, SSection>(64);
+    }
+
+    /**
+     * Annotate the given section, or reuse the section annotated from it
+     * in the previous document.
+     */
+
+    private SASection section(
+      final SSection s,
+      final SASectionNumber number,
+      final SSectionVisitor<SASection> annotator)
+      throws Exception
+    {
+      SASection r = this.reuse(s, number);
+      if (r == null) {
+        r = s.sectionAccept(annotator);
+      }
+
+      if (this.retain) {
+        this.sources.put(number, s);
+      }
+      r.getID().map(new SAIDLinkCreator(this.ids, r));
+      return r;
+    }
+
+    private @Nullable SASection reuse(
+      final SSection s,
+      final SASectionNumber number)
+      throws Exception
+    {
+      final SADocument p = this.previous;
+      if (p == null) {
+        return null;
+      }
+      final SSection source = p.source(number);
+      if (source == null || source.equals(s) == false) {
+        return null;
+      }
+      final OptionType<SASection> previous_opt = p.getSection(number);
+      if (previous_opt.isNone()) {
+        return null;
+      }
+
+      final SASection r = ((Some<SASection>) previous_opt).get();
+      final List<SAFootnote> r_footnotes = r.getFootnotes();
+      if (r_footnotes.isEmpty() == false
+        && r_footnotes.get(0).getNumber() != this.footnotes.size()) {
+        return null;
+      }
+
+      if (SAnnotator.LOG.isDebugEnabled()) {
+        SAnnotator.LOG.debug(
+          "reusing section {}", number.sectionNumberFormat());
+      }
+
+      this.footnotes.addAll(r_footnotes);
+      r.sectionAccept(new SASectionRegistrar(this.ids, this.formals));
+      return r;
     }
 
     public SAPart part(
@@ -891,11 +1055,11 @@ public final class SAnnotator
         final SASectionNumberPS number =
           new SASectionNumberPS(part_no.getActual(), sections_r.size() + 1);
 
-        final SASection sp = s.sectionAccept(
+        final SASection sp = this.section(
+          s,
+          number,
           new PartSectionAnnotator(
             this.ids, this.formals, this.footnotes, number));
-
-        sp.getID().map(new SAIDLinkCreator(this.ids, sp));
         sections_r.add(sp);
       }
 
@@ -929,7 +1093,8 @@ public final class SAnnotator
         dp.getStyle(),
         parts,
         this.footnotes,
-        this.formals);
+        this.formals,
+        this.sources);
     }
 
     @Override
@@ -939,11 +1104,9 @@ public final class SAnnotator
     {
       final List<SASection> sections_r = new ArrayList<SASection>();
       for (final SSection s : ds.getSections().getElements()) {
-        final SASection ss = s.sectionAccept(
-          new NoPartSectionAnnotator(
-            this.ids, this.formals, this.footnotes, sections_r.size() + 1));
-
-        ss.getID().map(new SAIDLinkCreator(this.ids, ss));
+        final NoPartSectionAnnotator annotator = new NoPartSectionAnnotator(
+          this.ids, this.formals, this.footnotes, sections_r.size() + 1);
+        final SASection ss = this.section(s, annotator.number, annotator);
         sections_r.add(ss);
       }
       final SNonEmptyList<SASection> sections =
@@ -959,7 +1122,8 @@ public final class SAnnotator
         ds.getStyle(),
         sections,
         this.footnotes,
-        this.formals);
+        this.formals,
+        this.sources);
     }
   }
 
@@ -0,0 +1,472 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jstructural.core;
+
+import com.io7m.jranges.RangeCheck;
+import com.io7m.jranges.Ranges;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * <p>A generator of synthetic documents, for stress and scaling tests.</p>
+ *
+ * <p>The generator produces valid documents containing the configured numbers
+ * of parts, sections, subsections, paragraphs, footnotes, formal items,
+ * tables, links and {@code xml:id} targets. The text of the document and the
+ * targets of links are chosen by a pseudo-random number generator seeded
+ * with the configured seed, so a given configuration always produces the
+ * same document.</p>
+ *
+ * <p>Every part, section and subsection has an ID, and links only refer to
+ * IDs that exist in the document, so generated documents can always be
+ * annotated.</p>
+ */
+
+public final class SDocumentGenerator
+{
+  private static final String[] WORDS = {
+    "lorem",
+    "ipsum",
+    "dolor",
+    "sit",
+    "amet",
+    "consectetur",
+    "adipiscing",
+    "elit",
+    "sed",
+    "do",
+    "eiusmod",
+    "tempor",
+    "incididunt",
+    "ut",
+    "labore",
+    "et",
+    "dolore",
+    "magna",
+    "aliqua",
+    "enim",
+    "minim",
+    "veniam",
+    "quis",
+    "nostrud",
+    "exercitation",
+    "ullamco",
+    "laboris",
+    "nisi",
+    "aliquip",
+    "commodo",
+    "consequat", };
+
+  private long seed;
+  private int  parts;
+  private int  sections;
+  private int  subsections;
+  private int  paragraphs;
+  private int  footnotes;
+  private int  formal_items;
+  private int  tables;
+  private int  links;
+  private int  ids;
+
+  /**
+   * Construct a new generator. By default, the generator produces a document
+   * without parts, containing 10 sections of 4 paragraphs each, with a seed
+   * of {@code 0}.
+   */
+
+  public SDocumentGenerator()
+  {
+    this.seed = 0L;
+    this.parts = 0;
+    this.sections = 10;
+    this.subsections = 0;
+    this.paragraphs = 4;
+    this.footnotes = 0;
+    this.formal_items = 0;
+    this.tables = 0;
+    this.links = 0;
+    this.ids = 0;
+  }
+
+  /**
+   * Generate a document.
+   *
+   * @return A new document
+   */
+
+  public SDocument generate()
+  {
+    final Generation g = new Generation(new Random(this.seed));
+    final SDocumentTitle title =
+      SDocumentTitle.documentTitle("Synthetic document " + this.seed);
+
+    if (this.parts > 0) {
+      final List<SPart> ps = new ArrayList<SPart>(this.parts);
+      for (int p = 1; p <= this.parts; ++p) {
+        final String id = "p" + p;
+        final List<SSection> ss = new ArrayList<SSection>(this.sections);
+        for (int s = 1; s <= this.sections; ++s) {
+          ss.add(g.section(id + "_s" + s, (p == 1) && (s == 1)));
+        }
+        ps.add(
+          SPart.partWithContentsID(
+            SID.newID(id),
+            SPartTitle.partTitle("Part " + p),
+            SNonEmptyList.newList(ss)));
+      }
+      return SDocumentWithParts.documentContents(
+        title, SNonEmptyList.newList(ps));
+    }
+
+    final List<SSection> ss = new ArrayList<SSection>(this.sections);
+    for (int s = 1; s <= this.sections; ++s) {
+      ss.add(g.section("s" + s, s == 1));
+    }
+    return SDocumentWithSections.documentContents(
+      title, SNonEmptyList.newList(ss));
+  }
+
+  /**
+   * @param s The number of footnotes in each section
+   */
+
+  public void setFootnotes(
+    final int s)
+  {
+    this.footnotes = RangeCheck.checkIncludedInInteger(
+      s, "Footnotes", Ranges.NATURAL_INTEGER, "Valid footnote counts");
+  }
+
+  /**
+   * @param s The number of formal items in each section
+   */
+
+  public void setFormalItems(
+    final int s)
+  {
+    this.formal_items = RangeCheck.checkIncludedInInteger(
+      s, "Formal items", Ranges.NATURAL_INTEGER, "Valid formal item counts");
+  }
+
+  /**
+   * @param s The number of paragraphs in each section that have IDs
+   */
+
+  public void setIDs(
+    final int s)
+  {
+    this.ids = RangeCheck.checkIncludedInInteger(
+      s, "IDs", Ranges.NATURAL_INTEGER, "Valid ID counts");
+  }
+
+  /**
+   * @param s The number of links in each paragraph
+   */
+
+  public void setLinks(
+    final int s)
+  {
+    this.links = RangeCheck.checkIncludedInInteger(
+      s, "Links", Ranges.NATURAL_INTEGER, "Valid link counts");
+  }
+
+  /**
+   * @param s The number of paragraphs in each section, or in each subsection
+   *          if sections have subsections
+   */
+
+  public void setParagraphs(
+    final int s)
+  {
+    this.paragraphs = RangeCheck.checkIncludedInInteger(
+      s, "Paragraphs", Ranges.POSITIVE_INTEGER, "Valid paragraph counts");
+  }
+
+  /**
+   * @param s The number of parts, or {@code 0} for a document without parts
+   */
+
+  public void setParts(
+    final int s)
+  {
+    this.parts = RangeCheck.checkIncludedInInteger(
+      s, "Parts", Ranges.NATURAL_INTEGER, "Valid part counts");
+  }
+
+  /**
+   * @param s The number of sections in the document, or in each part if the
+   *          document has parts
+   */
+
+  public void setSections(
+    final int s)
+  {
+    this.sections = RangeCheck.checkIncludedInInteger(
+      s, "Sections", Ranges.POSITIVE_INTEGER, "Valid section counts");
+  }
+
+  /**
+   * @param s The seed for the pseudo-random number generator
+   */
+
+  public void setSeed(
+    final long s)
+  {
+    this.seed = s;
+  }
+
+  /**
+   * @param s The number of subsections in each section, or {@code 0} for
+   *          sections without subsections
+   */
+
+  public void setSubsections(
+    final int s)
+  {
+    this.subsections = RangeCheck.checkIncludedInInteger(
+      s, "Subsections", Ranges.NATURAL_INTEGER, "Valid subsection counts");
+  }
+
+  /**
+   * @param s The number of tables in each section
+   */
+
+  public void setTables(
+    final int s)
+  {
+    this.tables = RangeCheck.checkIncludedInInteger(
+      s, "Tables", Ranges.NATURAL_INTEGER, "Valid table counts");
+  }
+
+  /**
+   * The state of a single run of the generator.
+   */
+
+  private final class Generation
+  {
+    private final Random       random;
+    private final List<String> targets;
+
+    Generation(
+      final Random in_random)
+    {
+      this.random = in_random;
+      this.targets = this.makeTargets();
+    }
+
+    private List<String> makeTargets()
+    {
+      final SDocumentGenerator c = SDocumentGenerator.this;
+      final List<String> section_ids = new ArrayList<String>(64);
+      if (c.parts > 0) {
+        for (int p = 1; p <= c.parts; ++p) {
+          for (int s = 1; s <= c.sections; ++s) {
+            section_ids.add("p" + p + "_s" + s);
+          }
+        }
+      } else {
+        for (int s = 1; s <= c.sections; ++s) {
+          section_ids.add("s" + s);
+        }
+      }
+
+      final int paragraph_ids = Math.min(c.ids, this.paragraphsPerSection());
+      final List<String> t = new ArrayList<String>(section_ids.size() * 4);
+      for (final String s : section_ids) {
+        t.add(s);
+        for (int ss = 1; ss <= c.subsections; ++ss) {
+          t.add(s + "_ss" + ss);
+        }
+        for (int p = 1; p <= paragraph_ids; ++p) {
+          t.add(s + "_para" + p);
+        }
+      }
+      for (int p = 1; p <= c.parts; ++p) {
+        t.add("p" + p);
+      }
+      return t;
+    }
+
+    private int paragraphsPerSection()
+    {
+      final SDocumentGenerator c = SDocumentGenerator.this;
+      if (c.subsections > 0) {
+        return c.subsections * c.paragraphs;
+      }
+      return c.paragraphs;
+    }
+
+    SSection section(
+      final String id,
+      final boolean first)
+    {
+      final SDocumentGenerator c = SDocumentGenerator.this;
+      final int total = this.paragraphsPerSection();
+      final int[] notes = new int[total];
+      for (int f = 0; f < c.footnotes; ++f) {
+        notes[this.random.nextInt(total)] += 1;
+      }
+
+      final List<SSubsectionContent> items =
+        this.formalItems(id, first && (c.formal_items > 0));
+      final SSectionTitle title = SSectionTitle.sectionTitle(this.words(3));
+
+      if (c.subsections == 0) {
+        for (int p = 0; p < total; ++p) {
+          items.add(this.paragraph(id, p, notes[p]));
+        }
+        return SSectionWithParagraphs.sectionWithContentsID(
+          SID.newID(id), title, SNonEmptyList.newList(items));
+      }
+
+      final List<SSubsection> subs = new ArrayList<SSubsection>(c.subsections);
+      for (int ss = 0; ss < c.subsections; ++ss) {
+        final List<SSubsectionContent> content;
+        if (ss == 0) {
+          content = items;
+        } else {
+          content = new ArrayList<SSubsectionContent>(c.paragraphs);
+        }
+        for (int p = 0; p < c.paragraphs; ++p) {
+          final int index = (ss * c.paragraphs) + p;
+          content.add(this.paragraph(id, index, notes[index]));
+        }
+        subs.add(
+          SSubsection.subsectionID(
+            SID.newID(id + "_ss" + (ss + 1)),
+            SSubsectionTitle.subsectionTitle(this.words(2)),
+            SNonEmptyList.newList(content)));
+      }
+      return SSectionWithSubsections.sectionWithContentsID(
+        SID.newID(id), title, SNonEmptyList.newList(subs));
+    }
+
+    private List<SSubsectionContent> formalItems(
+      final String id,
+      final boolean with_list)
+    {
+      final SDocumentGenerator c = SDocumentGenerator.this;
+      final List<SSubsectionContent> items =
+        new ArrayList<SSubsectionContent>(c.paragraphs + c.formal_items);
+
+      if (with_list) {
+        items.add(
+          SFormalItem.formalItem(
+            SFormalItemTitle.formalItemTitle("Examples"),
+            "index",
+            SFormalItemList.formalItemList("example")));
+      }
+
+      for (int f = 0; f < c.formal_items; ++f) {
+        items.add(
+          SFormalItem.formalItem(
+            SFormalItemTitle.formalItemTitle(this.words(3)),
+            "example",
+            SVerbatim.verbatim(id + ": " + this.words(12))));
+      }
+      for (int t = 0; t < c.tables; ++t) {
+        items.add(
+          SFormalItem.formalItem(
+            SFormalItemTitle.formalItemTitle(this.words(3)),
+            "table",
+            this.table()));
+      }
+      return items;
+    }
+
+    private STable table()
+    {
+      final List<STableColumnName> names = new ArrayList<STableColumnName>(3);
+      for (int column = 0; column < 3; ++column) {
+        names.add(STableColumnName.tableColumnName(this.words(1)));
+      }
+
+      final List<STableRow> rows = new ArrayList<STableRow>(4);
+      for (int row = 0; row < 4; ++row) {
+        final List<STableCell> cells = new ArrayList<STableCell>(3);
+        for (int column = 0; column < 3; ++column) {
+          final List<STableCellContent> content =
+            new ArrayList<STableCellContent>(1);
+          content.add(SText.text(this.words(2)));
+          cells.add(STableCell.tableCell(content));
+        }
+        rows.add(STableRow.tableRow(SNonEmptyList.newList(cells)));
+      }
+
+      return STable.tableHeader(
+        STableSummary.tableSummary(this.words(4)),
+        STableHead.tableHead(SNonEmptyList.newList(names)),
+        STableBody.tableBody(SNonEmptyList.newList(rows)));
+    }
+
+    private SParagraph paragraph(
+      final String section_id,
+      final int index,
+      final int notes)
+    {
+      final SDocumentGenerator c = SDocumentGenerator.this;
+      final List<SParagraphContent> content =
+        new ArrayList<SParagraphContent>(4 + (c.links * 2) + notes);
+
+      content.add(SText.text(this.words(8 + this.random.nextInt(16))));
+      content.add(
+        STerm.termTyped(SText.text(this.words(1)), "term"));
+      content.add(SText.text(this.words(4 + this.random.nextInt(16))));
+
+      for (int k = 0; k < c.links; ++k) {
+        final String target =
+          this.targets.get(this.random.nextInt(this.targets.size()));
+        final List<SLinkContent> link_content = new ArrayList<SLinkContent>(1);
+        link_content.add(SText.text(this.words(2)));
+        content.add(SLink.link(target, SNonEmptyList.newList(link_content)));
+        content.add(SText.text(this.words(4)));
+      }
+
+      for (int k = 0; k < notes; ++k) {
+        final List<SFootnoteContent> note_content =
+          new ArrayList<SFootnoteContent>(1);
+        note_content.add(SText.text(this.words(6)));
+        content.add(SFootnote.footnote(SNonEmptyList.newList(note_content)));
+      }
+
+      final SNonEmptyList<SParagraphContent> list =
+        SNonEmptyList.newList(content);
+      if (index < c.ids) {
+        return SParagraph.paragraphID(
+          SID.newID(section_id + "_para" + (index + 1)), list);
+      }
+      return SParagraph.paragraph(list);
+    }
+
+    private String words(
+      final int count)
+    {
+      final StringBuilder b = new StringBuilder(count * 8);
+      for (int k = 0; k < count; ++k) {
+        if (k > 0) {
+          b.append(' ');
+        }
+        b.append(
+          SDocumentGenerator.WORDS[
+            this.random.nextInt(SDocumentGenerator.WORDS.length)]);
+      }
+      return b.toString();
+    }
+  }
+}
@@ -22,34 +22,47 @@ import com.io7m.jranges.RangeCheck;
 import com.io7m.jranges.Ranges;
 import net.jcip.annotations.Immutable;
 
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 
 /**
- * The type of non-empty lists.
+ * <p>The type of non-empty lists.</p>
+ *
+ * <p>Lists are backed by an array copied from the list given at construction
+ * time, so {@link #get(int)} and {@link #size()} are constant-time and do not
+ * allocate. The hash code is computed on first use and cached.</p>
  *
  * @param <T> The type of elements
  */
 
 @Immutable public final class SNonEmptyList<T>
 {
-  private final List<T> elements;
+  private final Object[] elements;
+  private final List<T>  view;
+  private int            hash;
 
-  private SNonEmptyList(
-    final List<T> in_elements)
+  @SuppressWarnings("unchecked") private SNonEmptyList(
+    final Object[] in_elements)
   {
     this.elements = NullCheck.notNull(in_elements, "Elements");
 
     RangeCheck.checkIncludedInInteger(
-      in_elements.size(),
+      in_elements.length,
       "List size",
       Ranges.POSITIVE_INTEGER,
       "Valid list size range");
+
+    final List<T> v = Collections.unmodifiableList(
+      (List<T>) Arrays.asList(this.elements));
+    assert v != null;
+    this.view = v;
+    this.hash = 0;
   }
 
   /**
-   * Construct a new non-empty list from the given list
+   * Construct a new non-empty list from the given list. The elements of the
+   * given list are copied.
    *
    * @param elements The list of elements
    * @param <T>      The type of elements
@@ -60,7 +73,10 @@ import java.util.List;
   public static <T> SNonEmptyList<T> newList(
     final List<T> elements)
   {
-    return new SNonEmptyList<T>(elements);
+    NullCheck.notNull(elements, "Elements");
+    final Object[] es = elements.toArray();
+    assert es != null;
+    return new SNonEmptyList<T>(es);
   }
 
   /**
@@ -75,8 +91,8 @@ import java.util.List;
   public static <T> SNonEmptyList<T> one(
     final T e)
   {
-    final List<T> es = new LinkedList<T>();
-    es.add(e);
+    final Object[] es = new Object[1];
+    es[0] = e;
     return new SNonEmptyList<T>(es);
   }
 
@@ -93,7 +109,33 @@ import java.util.List;
       return false;
     }
     final SNonEmptyList<?> other = (SNonEmptyList<?>) obj;
-    return this.elements.equals(other.elements);
+    if (this.hash != 0 && other.hash != 0 && this.hash != other.hash) {
+      return false;
+    }
+    return Arrays.equals(this.elements, other.elements);
+  }
+
+  /**
+   * @param index The index of the element
+   *
+   * @return The element at {@code index}
+   *
+   * @throws IndexOutOfBoundsException If {@code index} is not in the range
+   *                                   {@code [0, size())}
+   */
+
+  @SuppressWarnings("unchecked") public T get(
+    final int index)
+    throws IndexOutOfBoundsException
+  {
+    if (index < 0 || index >= this.elements.length) {
+      throw new IndexOutOfBoundsException(
+        String.format(
+          "Index %d not in range [0, %d)",
+          Integer.valueOf(index),
+          Integer.valueOf(this.elements.length)));
+    }
+    return (T) this.elements[index];
   }
 
   /**
@@ -102,21 +144,34 @@ import java.util.List;
 
   public List<T> getElements()
   {
-    final List<T> r = Collections.unmodifiableList(this.elements);
-    assert r != null;
-    return r;
+    return this.view;
   }
 
   @Override public int hashCode()
   {
-    return this.elements.hashCode();
+    int h = this.hash;
+    if (h == 0) {
+      h = this.view.hashCode();
+      this.hash = h;
+    }
+    return h;
+  }
+
+  /**
+   * @return The number of elements in the list, which is always at least
+   * {@code 1}
+   */
+
+  public int size()
+  {
+    return this.elements.length;
   }
 
   @Override public String toString()
   {
     final StringBuilder builder = new StringBuilder();
     builder.append("[SNonEmptyList ");
-    builder.append(this.elements);
+    builder.append(this.view);
     builder.append("]");
     final String r = builder.toString();
     assert r != null;
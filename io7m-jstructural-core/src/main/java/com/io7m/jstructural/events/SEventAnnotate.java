@@ -0,0 +1,110 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jstructural.events;
+
+import com.io7m.jnull.Nullable;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A document was annotated.
+ */
+
+@Name("com.io7m.jstructural.Annotate")
+@Label("Annotate")
+@Description("A document was annotated.")
+@Category("jstructural")
+@StackTrace(false)
+public final class SEventAnnotate extends Event
+{
+  @Label("Segments")
+  @Description("The number of segments in the document")
+  private int segments;
+
+  @Label("IDs")
+  @Description("The number of IDs in the document")
+  private int ids;
+
+  @Label("Footnotes")
+  @Description("The number of footnotes in the document")
+  private int footnotes;
+
+  /**
+   * Construct an event. Callers should normally use {@link #start()}.
+   */
+
+  public SEventAnnotate()
+  {
+    // Nothing
+  }
+
+  /**
+   * Begin timing a new event, if the event is enabled.
+   *
+   * @return A started event, or {@code null} if the event is not enabled
+   */
+
+  public static @Nullable SEventAnnotate start()
+  {
+    final SEventAnnotate e = new SEventAnnotate();
+    if (e.isEnabled()) {
+      e.begin();
+      return e;
+    }
+    return null;
+  }
+
+  /**
+   * Set the number of segments in the document.
+   *
+   * @param in_segments The number of segments in the document
+   */
+
+  public void setSegments(
+    final int in_segments)
+  {
+    this.segments = in_segments;
+  }
+
+  /**
+   * Set the number of IDs in the document.
+   *
+   * @param in_ids The number of IDs in the document
+   */
+
+  public void setIDs(
+    final int in_ids)
+  {
+    this.ids = in_ids;
+  }
+
+  /**
+   * Set the number of footnotes in the document.
+   *
+   * @param in_footnotes The number of footnotes in the document
+   */
+
+  public void setFootnotes(
+    final int in_footnotes)
+  {
+    this.footnotes = in_footnotes;
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jstructural.events;
+
+import com.io7m.jnull.Nullable;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A document was parsed, validated and converted to the document model.
+ */
+
+@Name("com.io7m.jstructural.Parse")
+@Label("Parse")
+@Description("A document was parsed, validated and converted to the document model.")
+@Category("jstructural")
+@StackTrace(false)
+public final class SEventParse extends Event
+{
+  @Label("URI")
+  @Description("The URI of the document")
+  private String uri;
+
+  @Label("Bytes")
+  @Description("The number of bytes read from the document stream, excluding included files")
+  @DataAmount
+  private long bytes;
+
+  /**
+   * Construct an event. Callers should normally use {@link #start()}.
+   */
+
+  public SEventParse()
+  {
+    this.uri = "";
+  }
+
+  /**
+   * Begin timing a new event, if the event is enabled.
+   *
+   * @return A started event, or {@code null} if the event is not enabled
+   */
+
+  public static @Nullable SEventParse start()
+  {
+    final SEventParse e = new SEventParse();
+    if (e.isEnabled()) {
+      e.begin();
+      return e;
+    }
+    return null;
+  }
+
+  /**
+   * Set the URI of the document.
+   *
+   * @param in_uri The URI of the document
+   */
+
+  public void setURI(
+    final String in_uri)
+  {
+    this.uri = in_uri;
+  }
+
+  /**
+   * Set the number of bytes read from the document stream, excluding included files.
+   *
+   * @param in_bytes The number of bytes read from the document stream, excluding included files
+   */
+
+  public void setBytes(
+    final long in_bytes)
+  {
+    this.bytes = in_bytes;
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jstructural.events;
+
+import com.io7m.jnull.Nullable;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * An XHTML page was rendered.
+ */
+
+@Name("com.io7m.jstructural.RenderPage")
+@Label("Render Page")
+@Description("An XHTML page was rendered.")
+@Category("jstructural")
+@StackTrace(false)
+public final class SEventRenderPage extends Event
+{
+  @Label("Page")
+  @Description("The file name of the page")
+  private String page;
+
+  @Label("Segment")
+  @Description("The number of the segment shown on the page, if any")
+  private String segment;
+
+  @Label("Elements")
+  @Description("The number of elements in the page")
+  private int elements;
+
+  /**
+   * Construct an event. Callers should normally use {@link #start()}.
+   */
+
+  public SEventRenderPage()
+  {
+    this.page = "";
+    this.segment = "";
+  }
+
+  /**
+   * Begin timing a new event, if the event is enabled.
+   *
+   * @return A started event, or {@code null} if the event is not enabled
+   */
+
+  public static @Nullable SEventRenderPage start()
+  {
+    final SEventRenderPage e = new SEventRenderPage();
+    if (e.isEnabled()) {
+      e.begin();
+      return e;
+    }
+    return null;
+  }
+
+  /**
+   * Set the file name of the page.
+   *
+   * @param in_page The file name of the page
+   */
+
+  public void setPage(
+    final String in_page)
+  {
+    this.page = in_page;
+  }
+
+  /**
+   * Set the number of the segment shown on the page, if any.
+   *
+   * @param in_segment The number of the segment shown on the page, if any
+   */
+
+  public void setSegment(
+    final String in_segment)
+  {
+    this.segment = in_segment;
+  }
+
+  /**
+   * Set the number of elements in the page.
+   *
+   * @param in_elements The number of elements in the page
+   */
+
+  public void setElements(
+    final int in_elements)
+  {
+    this.elements = in_elements;
+  }
+}
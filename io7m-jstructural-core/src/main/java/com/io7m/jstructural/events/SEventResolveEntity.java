@@ -0,0 +1,99 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jstructural.events;
+
+import com.io7m.jnull.Nullable;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * <p>The XML parser resolved an external resource.</p>
+ *
+ * <p>The event is emitted for every external resource that the parser asks
+ * to have resolved, including files included via XInclude and external
+ * DTDs. The resource is opened and read by the parser itself, after the
+ * event has been emitted.</p>
+ */
+
+@Name("com.io7m.jstructural.ResolveEntity")
+@Label("Resolve Entity")
+@Description("The XML parser resolved an external resource.")
+@Category("jstructural")
+@StackTrace(false)
+public final class SEventResolveEntity extends Event
+{
+  @Label("URI")
+  @Description("The system ID of the resource")
+  private String uri;
+
+  @Label("Public ID")
+  @Description("The public ID of the resource, if any")
+  private @Nullable String public_id;
+
+  /**
+   * Construct an event. Callers should normally use {@link #start()}.
+   */
+
+  public SEventResolveEntity()
+  {
+    this.uri = "";
+  }
+
+  /**
+   * Begin timing a new event, if the event is enabled.
+   *
+   * @return A started event, or {@code null} if the event is not enabled
+   */
+
+  public static @Nullable SEventResolveEntity start()
+  {
+    final SEventResolveEntity e = new SEventResolveEntity();
+    if (e.isEnabled()) {
+      e.begin();
+      return e;
+    }
+    return null;
+  }
+
+  /**
+   * Set the system ID of the resource.
+   *
+   * @param in_uri The system ID of the resource
+   */
+
+  public void setURI(
+    final String in_uri)
+  {
+    this.uri = in_uri;
+  }
+
+  /**
+   * Set the public ID of the resource.
+   *
+   * @param in_public_id The public ID of the resource, if any
+   */
+
+  public void setPublicID(
+    final @Nullable String in_public_id)
+  {
+    this.public_id = in_public_id;
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jstructural.events;
+
+import com.io7m.jnull.Nullable;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A document was parsed and validated, and its XIncludes were resolved.
+ */
+
+@Name("com.io7m.jstructural.Validate")
+@Label("Validate")
+@Description("A document was parsed and validated, and its XIncludes were resolved.")
+@Category("jstructural")
+@StackTrace(false)
+public final class SEventValidate extends Event
+{
+  @Label("URI")
+  @Description("The URI of the document")
+  private String uri;
+
+  @Label("Elements")
+  @Description("The number of elements in the validated document")
+  private int elements;
+
+  /**
+   * Construct an event. Callers should normally use {@link #start()}.
+   */
+
+  public SEventValidate()
+  {
+    this.uri = "";
+  }
+
+  /**
+   * Begin timing a new event, if the event is enabled.
+   *
+   * @return A started event, or {@code null} if the event is not enabled
+   */
+
+  public static @Nullable SEventValidate start()
+  {
+    final SEventValidate e = new SEventValidate();
+    if (e.isEnabled()) {
+      e.begin();
+      return e;
+    }
+    return null;
+  }
+
+  /**
+   * Set the URI of the document.
+   *
+   * @param in_uri The URI of the document
+   */
+
+  public void setURI(
+    final String in_uri)
+  {
+    this.uri = in_uri;
+  }
+
+  /**
+   * Set the number of elements in the validated document.
+   *
+   * @param in_elements The number of elements in the validated document
+   */
+
+  public void setElements(
+    final int in_elements)
+  {
+    this.elements = in_elements;
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jstructural.events;
+
+import com.io7m.jnull.Nullable;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A file was written.
+ */
+
+@Name("com.io7m.jstructural.WriteFile")
+@Label("Write File")
+@Description("A file was written.")
+@Category("jstructural")
+@StackTrace(false)
+public final class SEventWriteFile extends Event
+{
+  @Label("Path")
+  @Description("The file")
+  private String path;
+
+  @Label("Bytes")
+  @Description("The number of bytes written")
+  @DataAmount
+  private long bytes;
+
+  /**
+   * Construct an event. Callers should normally use {@link #start()}.
+   */
+
+  public SEventWriteFile()
+  {
+    this.path = "";
+  }
+
+  /**
+   * Begin timing a new event, if the event is enabled.
+   *
+   * @return A started event, or {@code null} if the event is not enabled
+   */
+
+  public static @Nullable SEventWriteFile start()
+  {
+    final SEventWriteFile e = new SEventWriteFile();
+    if (e.isEnabled()) {
+      e.begin();
+      return e;
+    }
+    return null;
+  }
+
+  /**
+   * Set the file.
+   *
+   * @param in_path The file
+   */
+
+  public void setPath(
+    final String in_path)
+  {
+    this.path = in_path;
+  }
+
+  /**
+   * Set the number of bytes written.
+   *
+   * @param in_bytes The number of bytes written
+   */
+
+  public void setBytes(
+    final long in_bytes)
+  {
+    this.bytes = in_bytes;
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jstructural.events;
+
+import com.io7m.junreachable.UnreachableCodeException;
+
+/**
+ * <p>Functions to determine whether events can be emitted.</p>
+ *
+ * <p>The event classes in this package extend {@code jdk.jfr.Event} and so
+ * cannot be loaded on virtual machines that do not provide the Java Flight
+ * Recorder API. Code that emits events must check {@link #AVAILABLE} before
+ * referring to any event class.</p>
+ */
+
+public final class SEvents
+{
+  /**
+   * {@code true} iff the Java Flight Recorder API is available.
+   */
+
+  public static final boolean AVAILABLE;
+
+  static {
+    AVAILABLE = SEvents.isFlightRecorderAvailable();
+  }
+
+  private SEvents()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  private static boolean isFlightRecorderAvailable()
+  {
+    try {
+      Class.forName("jdk.jfr.Event", false, SEvents.class.getClassLoader());
+      return true;
+    } catch (final ClassNotFoundException e) {
+      return false;
+    } catch (final LinkageError e) {
+      return false;
+    }
+  }
+}
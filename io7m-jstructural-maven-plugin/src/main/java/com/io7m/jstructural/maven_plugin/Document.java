@@ -0,0 +1,95 @@
+/*
+ * Copyright © 2015 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jstructural.maven_plugin;
+
+import com.io7m.jnull.Nullable;
+
+/**
+ * A document to be transformed, as configured in a {@code documents}
+ * element.
+ */
+
+public final class Document
+{
+  /**
+   * The pagination type.
+   */
+
+  private @Nullable XHTMLPagination pagination = XHTMLPagination.XHTML_MULTI;
+
+  /**
+   * The input document. All other files referenced from this document are
+   * resolved relative to the document's location.
+   */
+
+  private @Nullable String documentFile;
+
+  /**
+   * The directory that will be used to contain generated XHTML files.
+   */
+
+  private @Nullable String outputDirectory;
+
+  /**
+   * An XML file containing branding for the generated documents.
+   */
+
+  private @Nullable String brandFile;
+
+  /**
+   * Construct a document.
+   */
+
+  public Document()
+  {
+
+  }
+
+  static Document document(
+    final String in_document_file,
+    final @Nullable String in_output_directory,
+    final @Nullable String in_brand_file,
+    final @Nullable XHTMLPagination in_pagination)
+  {
+    final Document d = new Document();
+    d.documentFile = in_document_file;
+    d.outputDirectory = in_output_directory;
+    d.brandFile = in_brand_file;
+    d.pagination = in_pagination;
+    return d;
+  }
+
+  @Nullable String getBrandFile()
+  {
+    return this.brandFile;
+  }
+
+  @Nullable String getDocumentFile()
+  {
+    return this.documentFile;
+  }
+
+  @Nullable String getOutputDirectory()
+  {
+    return this.outputDirectory;
+  }
+
+  @Nullable XHTMLPagination getPagination()
+  {
+    return this.pagination;
+  }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright © 2015 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jstructural.maven_plugin;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.junreachable.UnreachableCodeException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * <p>A record of the inputs and outputs of a transform.</p>
+ *
+ * <p>The inputs are the SHA-256 hashes of every file that was read, and the
+ * settings that affect the generated output. The outputs are the names of the
+ * files, relative to the output directory, that were produced. A transform
+ * does not need to be repeated if its inputs match those of the previous
+ * transform and all of the previous outputs still exist.</p>
+ */
+
+final class JStructuralManifest
+{
+  private static final String HASH_MISSING = "missing";
+
+  private final SortedMap<String, String> inputs;
+  private final SortedSet<String>         outputs;
+  private final SortedMap<String, String> settings;
+
+  JStructuralManifest()
+  {
+    this.inputs = new TreeMap<String, String>();
+    this.outputs = new TreeSet<String>();
+    this.settings = new TreeMap<String, String>();
+  }
+
+  private static String hex(
+    final byte[] data)
+  {
+    final StringBuilder sb = new StringBuilder(data.length * 2);
+    for (final byte b : data) {
+      sb.append(String.format("%02x", Integer.valueOf(b & 0xff)));
+    }
+    return sb.toString();
+  }
+
+  private static MessageDigest newDigest()
+  {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (final NoSuchAlgorithmException e) {
+      throw new UnreachableCodeException(e);
+    }
+  }
+
+  /**
+   * @param text The text
+   *
+   * @return The SHA-256 hash of the UTF-8 encoding of {@code text}
+   */
+
+  static String hashText(
+    final String text)
+  {
+    try {
+      final MessageDigest digest = JStructuralManifest.newDigest();
+      return JStructuralManifest.hex(digest.digest(text.getBytes("UTF-8")));
+    } catch (final IOException e) {
+      throw new UnreachableCodeException(e);
+    }
+  }
+
+  private static String hashFile(
+    final File file)
+    throws IOException
+  {
+    if (file.isFile() == false) {
+      return JStructuralManifest.HASH_MISSING;
+    }
+
+    final MessageDigest digest = JStructuralManifest.newDigest();
+    final InputStream stream =
+      new BufferedInputStream(new FileInputStream(file));
+    try {
+      final byte[] buffer = new byte[8192];
+      while (true) {
+        final int r = stream.read(buffer);
+        if (r == -1) {
+          break;
+        }
+        digest.update(buffer, 0, r);
+      }
+    } finally {
+      stream.close();
+    }
+    return JStructuralManifest.hex(digest.digest());
+  }
+
+  /**
+   * Read a manifest written by {@link #write(File)}.
+   *
+   * @param file The file
+   *
+   * @return The manifest, or {@code null} if the file does not exist or is
+   * not a valid manifest
+   *
+   * @throws IOException On I/O errors
+   */
+
+  static @Nullable JStructuralManifest read(
+    final File file)
+    throws IOException
+  {
+    if (file.isFile() == false) {
+      return null;
+    }
+
+    final JStructuralManifest m = new JStructuralManifest();
+    final BufferedReader reader = new BufferedReader(
+      new InputStreamReader(new FileInputStream(file), "UTF-8"));
+    try {
+      while (true) {
+        final String line = reader.readLine();
+        if (line == null) {
+          break;
+        }
+        if (line.isEmpty()) {
+          continue;
+        }
+        if (m.parseLine(line) == false) {
+          return null;
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return m;
+  }
+
+  private boolean parseLine(
+    final String line)
+  {
+    final int space = line.indexOf(' ');
+    if (space <= 0) {
+      return false;
+    }
+
+    final String kind = line.substring(0, space);
+    final String rest = line.substring(space + 1);
+    if ("output".equals(kind)) {
+      this.outputs.add(rest);
+      return true;
+    }
+
+    final int rest_space = rest.indexOf(' ');
+    if (rest_space <= 0) {
+      return false;
+    }
+    final String key = rest.substring(0, rest_space);
+    final String value = rest.substring(rest_space + 1);
+    if ("input".equals(kind)) {
+      this.inputs.put(value, key);
+      return true;
+    }
+    if ("setting".equals(kind)) {
+      this.settings.put(key, value);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Record the current content of the given input file.
+   *
+   * @param file The file
+   *
+   * @throws IOException On I/O errors
+   */
+
+  void addInput(
+    final File file)
+    throws IOException
+  {
+    NullCheck.notNull(file, "File");
+    this.inputs.put(
+      file.getAbsolutePath(), JStructuralManifest.hashFile(file));
+  }
+
+  /**
+   * Record an output file.
+   *
+   * @param name The name of the file, relative to the output directory
+   */
+
+  void addOutput(
+    final String name)
+  {
+    this.outputs.add(NullCheck.notNull(name, "Name"));
+  }
+
+  /**
+   * Record a setting that affects the generated output.
+   *
+   * @param name  The name of the setting
+   * @param value The value of the setting
+   */
+
+  void addSetting(
+    final String name,
+    final String value)
+  {
+    NullCheck.notNull(name, "Name");
+    NullCheck.notNull(value, "Value");
+    if (name.indexOf(' ') >= 0 || value.indexOf('\n') >= 0) {
+      throw new IllegalArgumentException(
+        String.format("Unrepresentable setting: %s", name));
+    }
+    this.settings.put(name, value);
+  }
+
+  /**
+   * @return The names of the output files, relative to the output directory
+   */
+
+  SortedSet<String> getOutputs()
+  {
+    return Collections.unmodifiableSortedSet(this.outputs);
+  }
+
+  /**
+   * @param other The manifest of the previous transform
+   *
+   * @return {@code true} iff the inputs and settings of this manifest are
+   * identical to those of {@code other}
+   */
+
+  boolean inputsMatch(
+    final JStructuralManifest other)
+  {
+    NullCheck.notNull(other, "Other");
+    return this.inputs.equals(other.inputs)
+           && this.settings.equals(other.settings);
+  }
+
+  /**
+   * Write the manifest to the given file. The manifest is first written to a
+   * temporary file and then renamed.
+   *
+   * @param file The file
+   *
+   * @throws IOException On I/O errors
+   */
+
+  void write(
+    final File file)
+    throws IOException
+  {
+    final File file_tmp = new File(file.getPath() + ".tmp");
+    final Writer writer = new BufferedWriter(
+      new OutputStreamWriter(new FileOutputStream(file_tmp), "UTF-8"));
+    try {
+      for (final Map.Entry<String, String> e : this.settings.entrySet()) {
+        writer.write(String.format("setting %s %s\n", e.getKey(), e.getValue()));
+      }
+      for (final Map.Entry<String, String> e : this.inputs.entrySet()) {
+        writer.write(String.format("input %s %s\n", e.getValue(), e.getKey()));
+      }
+      for (final String name : this.outputs) {
+        writer.write(String.format("output %s\n", name));
+      }
+      writer.flush();
+    } finally {
+      writer.close();
+    }
+
+    if (file.isFile() && file.delete() == false) {
+      throw new IOException("Could not delete " + file);
+    }
+    if (file_tmp.renameTo(file) == false) {
+      throw new IOException("Could not rename " + file_tmp);
+    }
+  }
+}
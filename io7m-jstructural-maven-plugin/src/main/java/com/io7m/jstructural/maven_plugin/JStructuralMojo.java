@@ -16,7 +16,15 @@
 
 package com.io7m.jstructural.maven_plugin;
 
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Some;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.jstructural.tools.JSCCompilation;
+import com.io7m.jstructural.tools.JSCCompiler;
 import com.io7m.jstructural.tools.JSCMain;
+import com.io7m.jstructural.tools.JSCPagination;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.logging.Log;
@@ -24,24 +32,45 @@ import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
 
 /**
- * Goal which generates XHTML documentation from the given documentation
- * sources.
+ * <p>Goal which generates XHTML documentation from the given documentation
+ * sources.</p>
+ *
+ * <p>A single document may be configured with the {@code documentFile},
+ * {@code outputDirectory}, {@code brandFile} and {@code pagination}
+ * parameters, and any number of further documents with the {@code
+ * documents} parameter. Documents are compiled in the same process, sharing
+ * one compiler, and independent documents are compiled concurrently.</p>
+ *
+ * <p>A manifest recording the hashes of each document, every file that it
+ * includes, and the brand file, along with the plugin version and the
+ * pagination type, is kept in the build directory. The transform of a
+ * document is skipped if none of these have changed since the previous
+ * transform and all of the files it produced still exist. Otherwise, the
+ * files produced by the previous transform are deleted before the document
+ * is transformed again.</p>
  */
 
-@Mojo(name = "transform", defaultPhase = LifecyclePhase.PREPARE_PACKAGE)
+@Mojo(
+  name = "transform",
+  defaultPhase = LifecyclePhase.PREPARE_PACKAGE,
+  threadSafe = true)
 public final class JStructuralMojo extends AbstractMojo
 {
   /**
    * The pagination type.
    */
 
-  @Parameter(name = "pagination", required = true)
+  @Parameter(name = "pagination")
   private XHTMLPagination pagination = XHTMLPagination.XHTML_MULTI;
 
   /**
@@ -49,22 +78,65 @@ public final class JStructuralMojo extends AbstractMojo
    * resolved relative to the document's location.
    */
 
-  @Parameter(name = "documentFile", required = true)
-  private String documentFile;
+  @Parameter(name = "documentFile")
+  private @Nullable String documentFile;
 
   /**
    * The directory that will be used to contain generated XHTML files.
    */
 
-  @Parameter(name = "outputDirectory", required = true)
-  private String outputDirectory;
+  @Parameter(name = "outputDirectory")
+  private @Nullable String outputDirectory;
 
   /**
    * An XML file containing branding for the generated documents.
    */
 
-  @Parameter(name = "brandFile", required = true)
-  private String brandFile;
+  @Parameter(name = "brandFile")
+  private @Nullable String brandFile;
+
+  /**
+   * Further documents to be transformed.
+   */
+
+  @Parameter(name = "documents")
+  private @Nullable List<Document> documents;
+
+  /**
+   * The number of threads that will be used to render pages. Only applies to
+   * the {@link XHTMLPagination#XHTML_MULTI} pagination type.
+   */
+
+  @Parameter(name = "threads", defaultValue = "1")
+  private int threads = 1;
+
+  /**
+   * The maximum number of documents that will be transformed at once. The
+   * default is the number of available processors.
+   */
+
+  @Parameter(name = "documentThreads")
+  private int documentThreads = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * The project build directory, in which manifests are kept.
+   */
+
+  @Parameter(
+    defaultValue = "${project.build.directory}",
+    required = true,
+    readonly = true)
+  private String buildDirectory;
+
+  /**
+   * The version of this plugin.
+   */
+
+  @Parameter(
+    defaultValue = "${plugin.version}",
+    required = true,
+    readonly = true)
+  private String pluginVersion;
 
   /**
    * Parameter to allow skipping of the generation.
@@ -82,58 +154,209 @@ public final class JStructuralMojo extends AbstractMojo
 
   }
 
-  @Override public void execute()
-    throws MojoExecutionException
+  private static void deleteOutputs(
+    final Log log,
+    final File outdir,
+    final JStructuralManifest previous)
+    throws IOException
   {
-    try {
-      if (this.documentFile == null) {
+    for (final String name : previous.getOutputs()) {
+      final File file = new File(outdir, name);
+      if (outdir.equals(file.getParentFile()) && file.isFile()) {
+        log.debug("Deleting " + file);
+        if (file.delete() == false) {
+          throw new IOException("Could not delete " + file);
+        }
+      }
+    }
+  }
+
+  private static boolean outputsExist(
+    final File outdir,
+    final JStructuralManifest previous)
+  {
+    for (final String name : previous.getOutputs()) {
+      if (new File(outdir, name).isFile() == false) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static JSCPagination pagination(
+    final XHTMLPagination p)
+  {
+    switch (p) {
+      case XHTML_SINGLE:
+        return JSCPagination.XHTML_SINGLE;
+      case XHTML_MULTI:
+        return JSCPagination.XHTML_MULTI;
+    }
+    throw new IllegalArgumentException("Unknown pagination: " + p);
+  }
+
+  private static JSCCompilation compilation(
+    final Document d)
+  {
+    final OptionType<File> brand;
+    final String brand_file = d.getBrandFile();
+    if (brand_file != null) {
+      brand = Option.some(new File(brand_file));
+    } else {
+      brand = Option.none();
+    }
+
+    return JSCCompilation.compilation(
+      new File(NullCheck.notNull(d.getDocumentFile(), "Document file")),
+      new File(NullCheck.notNull(d.getOutputDirectory(), "Output directory")),
+      JStructuralMojo.pagination(
+        NullCheck.notNull(d.getPagination(), "Pagination")),
+      brand,
+      Option.<File>none());
+  }
+
+  private List<Document> getDocuments()
+  {
+    final List<Document> ds = new ArrayList<Document>(8);
+    if (this.documentFile != null) {
+      ds.add(
+        Document.document(
+          this.documentFile,
+          this.outputDirectory,
+          this.brandFile,
+          this.pagination));
+    }
+    if (this.documents != null) {
+      ds.addAll(this.documents);
+    }
+
+    if (ds.isEmpty()) {
+      throw new IllegalArgumentException("no input documents specified");
+    }
+
+    final Set<File> outdirs = new HashSet<File>(ds.size());
+    for (final Document d : ds) {
+      if (d.getDocumentFile() == null) {
         throw new IllegalArgumentException("input document not specified");
       }
-      if (this.outputDirectory == null) {
+      final String outdir = d.getOutputDirectory();
+      if (outdir == null) {
         throw new IllegalArgumentException("output directory not specified");
       }
-      if (this.pagination == null) {
+      if (d.getPagination() == null) {
         throw new IllegalArgumentException("pagination type not specified");
       }
+      if (outdirs.add(new File(outdir).getAbsoluteFile()) == false) {
+        throw new IllegalArgumentException(
+          "output directory used by more than one document: " + outdir);
+      }
+    }
+    return ds;
+  }
+
+  private File getManifestFile(
+    final File outdir)
+    throws IOException
+  {
+    final File dir = new File(this.buildDirectory, "jstructural");
+    if (dir.mkdirs() == false && dir.isDirectory() == false) {
+      throw new IOException("Could not create " + dir);
+    }
+
+    final String hash =
+      JStructuralManifest.hashText(outdir.getAbsolutePath());
+    return new File(dir, hash.substring(0, 16) + ".manifest");
+  }
+
+  private JStructuralManifest newManifest(
+    final JSCCompilation c)
+    throws Exception
+  {
+    final JStructuralManifest m = new JStructuralManifest();
+    m.addSetting("pagination", c.getPagination().toString());
+    m.addSetting("plugin-version", this.pluginVersion);
+
+    for (final File file : JSCMain.findDocumentFiles(c.getDocument())) {
+      m.addInput(file);
+    }
+    if (c.getBodyStart().isSome()) {
+      m.addInput(((Some<File>) c.getBodyStart()).get());
+    }
+    return m;
+  }
+
+  /**
+   * Determine whether the given document needs to be transformed, deleting
+   * the outputs of the previous transform if it does.
+   *
+   * @return The pending transform, or {@code null} if the document is up to
+   * date
+   */
+
+  private @Nullable Pending prepare(
+    final JSCCompilation c)
+    throws Exception
+  {
+    final Log log = this.getLog();
+    log.info("Transform document   : " + c.getDocument());
+    log.info("Transform directory  : " + c.getOutputDirectory());
+    log.info("Transform pagination : " + c.getPagination());
+
+    final File outdir = c.getOutputDirectory();
+    final File manifest_file = this.getManifestFile(outdir);
+    final JStructuralManifest manifest = this.newManifest(c);
+    final JStructuralManifest previous =
+      JStructuralManifest.read(manifest_file);
 
+    if (previous != null) {
+      if (manifest.inputsMatch(previous)
+          && JStructuralMojo.outputsExist(outdir, previous)) {
+        log.info("Transform is up to date: " + c.getDocument());
+        return null;
+      }
+      JStructuralMojo.deleteOutputs(log, outdir, previous);
+    }
+
+    if (manifest_file.isFile() && manifest_file.delete() == false) {
+      throw new IOException("Could not delete " + manifest_file);
+    }
+
+    return new Pending(c, manifest, manifest_file);
+  }
+
+  @Override public void execute()
+    throws MojoExecutionException
+  {
+    try {
       final Log log = this.getLog();
-      log.info("Transform document   : " + this.documentFile);
-      log.info("Transform directory  : " + this.outputDirectory);
-      log.info("Transform brand      : " + this.brandFile);
-      log.info("Transform pagination : " + this.pagination);
+      log.info("Transform threads    : " + this.threads);
       log.info("Skipping             : " + this.skip);
 
       if (this.skip) {
         return;
       }
 
-      final List<String> args = new ArrayList<String>();
-      switch (this.pagination) {
-        case XHTML_SINGLE: {
-          args.add("--xhtml-single");
-          break;
-        }
-        case XHTML_MULTI: {
-          args.add("--xhtml-multi");
-          break;
+      final List<Pending> pending = new ArrayList<Pending>(8);
+      for (final Document d : this.getDocuments()) {
+        final Pending p = this.prepare(JStructuralMojo.compilation(d));
+        if (p != null) {
+          pending.add(p);
         }
       }
-      args.add(this.documentFile);
-      args.add(this.outputDirectory);
 
-      if (this.brandFile != null) {
-        args.add("--xhtml-body-start");
-        args.add(this.brandFile);
+      final List<JSCCompilation> cs =
+        new ArrayList<JSCCompilation>(pending.size());
+      for (final Pending p : pending) {
+        cs.add(p.compilation);
       }
 
-      final String[] args_array = new String[args.size()];
-      for (int index = 0; index < args_array.length; ++index) {
-        args_array[index] = args.get(index);
-      }
+      final JSCCompiler compiler = JSCCompiler.newCompiler(
+        Math.max(1, this.documentThreads), this.threads, false);
+      final List<SortedSet<String>> outputs = compiler.compileAll(cs);
 
-      log.debug("executing: " + args);
-
-      JSCMain.run(args_array);
+      for (int index = 0; index < pending.size(); ++index) {
+        pending.get(index).finish(outputs.get(index));
+      }
 
     } catch (final FileNotFoundException e) {
       throw new MojoExecutionException("File not found", e);
@@ -143,4 +366,38 @@ public final class JStructuralMojo extends AbstractMojo
       throw new MojoExecutionException("Transform error", e);
     }
   }
+
+  private static final class Pending
+  {
+    private final JSCCompilation      compilation;
+    private final JStructuralManifest manifest;
+    private final File                manifest_file;
+
+    Pending(
+      final JSCCompilation in_compilation,
+      final JStructuralManifest in_manifest,
+      final File in_manifest_file)
+    {
+      this.compilation = in_compilation;
+      this.manifest = in_manifest;
+      this.manifest_file = in_manifest_file;
+    }
+
+    /**
+     * Record the files produced by the transform, and write the manifest.
+     *
+     * @param outputs The names of the files that the compiler produced,
+     *                relative to the output directory
+     */
+
+    void finish(
+      final SortedSet<String> outputs)
+      throws IOException
+    {
+      for (final String name : outputs) {
+        this.manifest.addOutput(name);
+      }
+      this.manifest.write(this.manifest_file);
+    }
+  }
 }
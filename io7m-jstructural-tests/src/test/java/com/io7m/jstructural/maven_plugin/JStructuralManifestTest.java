@@ -0,0 +1,153 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jstructural.maven_plugin;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.TreeSet;
+
+@SuppressWarnings("static-method")
+public final class JStructuralManifestTest
+{
+  private static File directory()
+    throws IOException
+  {
+    final File d = File.createTempFile("jstructural manifest", "");
+    Assert.assertTrue(d.delete());
+    Assert.assertTrue(d.mkdirs());
+    d.deleteOnExit();
+    return d;
+  }
+
+  private static File write(
+    final File directory,
+    final String name,
+    final String text)
+    throws IOException
+  {
+    final File file = new File(directory, name);
+    file.deleteOnExit();
+    final OutputStream out = new FileOutputStream(file);
+    try {
+      out.write(text.getBytes("UTF-8"));
+    } finally {
+      out.close();
+    }
+    return file;
+  }
+
+  private static JStructuralManifest manifest(
+    final File... inputs)
+    throws IOException
+  {
+    final JStructuralManifest m = new JStructuralManifest();
+    m.addSetting("pagination", "XHTML_MULTI");
+    m.addSetting("plugin-version", "1.0.0 (with spaces)");
+    for (final File file : inputs) {
+      m.addInput(file);
+    }
+    return m;
+  }
+
+  @Test public void testRoundTrip()
+    throws Exception
+  {
+    final File d = JStructuralManifestTest.directory();
+    final File doc = JStructuralManifestTest.write(d, "my document.xml", "A");
+    final File inc = JStructuralManifestTest.write(d, "a section.xml", "B");
+    final File missing = new File(d, "not here.xml");
+
+    final JStructuralManifest m =
+      JStructuralManifestTest.manifest(doc, inc, missing);
+    m.addOutput("index-m.xhtml");
+    m.addOutput("a page with spaces.xhtml");
+
+    final File file = new File(d, "out.manifest");
+    file.deleteOnExit();
+    m.write(file);
+
+    final JStructuralManifest r = JStructuralManifest.read(file);
+    Assert.assertNotNull(r);
+    Assert.assertTrue(m.inputsMatch(r));
+    Assert.assertTrue(r.inputsMatch(m));
+    Assert.assertEquals(
+      new TreeSet<String>(
+        Arrays.asList("a page with spaces.xhtml", "index-m.xhtml")),
+      r.getOutputs());
+
+    final File again = new File(d, "again.manifest");
+    again.deleteOnExit();
+    r.write(again);
+    Assert.assertEquals(file.length(), again.length());
+  }
+
+  @Test public void testInputChanged()
+    throws Exception
+  {
+    final File d = JStructuralManifestTest.directory();
+    final File doc = JStructuralManifestTest.write(d, "my document.xml", "A");
+    final JStructuralManifest m0 = JStructuralManifestTest.manifest(doc);
+
+    JStructuralManifestTest.write(d, "my document.xml", "B");
+    final JStructuralManifest m1 = JStructuralManifestTest.manifest(doc);
+    Assert.assertFalse(m0.inputsMatch(m1));
+
+    Assert.assertTrue(doc.delete());
+    final JStructuralManifest m2 = JStructuralManifestTest.manifest(doc);
+    Assert.assertFalse(m1.inputsMatch(m2));
+  }
+
+  @Test public void testSettingChanged()
+    throws Exception
+  {
+    final JStructuralManifest m0 = JStructuralManifestTest.manifest();
+    final JStructuralManifest m1 = JStructuralManifestTest.manifest();
+    m1.addSetting("pagination", "XHTML_SINGLE");
+    Assert.assertFalse(m0.inputsMatch(m1));
+  }
+
+  @Test public void testReadMissing()
+    throws Exception
+  {
+    final File d = JStructuralManifestTest.directory();
+    Assert.assertNull(JStructuralManifest.read(new File(d, "nonexistent")));
+  }
+
+  @Test public void testReadCorrupt()
+    throws Exception
+  {
+    final File d = JStructuralManifestTest.directory();
+    Assert.assertNull(JStructuralManifest.read(
+      JStructuralManifestTest.write(d, "a.manifest", "garbage\n")));
+    Assert.assertNull(JStructuralManifest.read(
+      JStructuralManifestTest.write(d, "b.manifest", "input nohash\n")));
+    Assert.assertNull(JStructuralManifest.read(
+      JStructuralManifestTest.write(d, "c.manifest", "unknown x y\n")));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSettingUnrepresentable()
+  {
+    new JStructuralManifest().addSetting("a name", "value");
+  }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jstructural.tests.annotated;
+
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Some;
+import com.io7m.jstructural.annotated.SADocument;
+import com.io7m.jstructural.annotated.SADocumentSnapshot;
+import com.io7m.jstructural.annotated.SAFootnote;
+import com.io7m.jstructural.annotated.SAFormalItem;
+import com.io7m.jstructural.annotated.SAFormalItemNumber;
+import com.io7m.jstructural.annotated.SAID;
+import com.io7m.jstructural.annotated.SAIDTargetContent;
+import com.io7m.jstructural.annotated.SASection;
+import com.io7m.jstructural.annotated.SASectionNumber;
+import com.io7m.jstructural.annotated.SASegmentNumber;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedMap;
+
+@SuppressWarnings("static-method") public final class SADocumentSnapshotTest
+{
+  private static final String[] DOCUMENTS = {
+    "basic-0.xml",
+    "basic-1.xml",
+    "basic-2.xml",
+    "bug-151733738209.xml",
+    "documentation.xml",
+    "formal-id-0.xml",
+    "glowmaps.xml",
+    "jaux-documentation.xml",
+    "resolve-0.xml",
+  };
+
+  private static byte[] snapshot(
+    final SADocument d)
+    throws IOException
+  {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    SADocumentSnapshot.write(d, out);
+    return out.toByteArray();
+  }
+
+  private static void checkSameDocument(
+    final SADocument expected,
+    final SADocument received)
+  {
+    Assert.assertEquals(expected, received);
+    Assert.assertEquals(expected.hashCode(), received.hashCode());
+    Assert.assertEquals(
+      expected.getIDMappings().size(), received.getIDMappings().size());
+
+    /*
+     * Footnotes that appear in section footnote lists must be the same
+     * instances as those in the document footnote list.
+     */
+
+    final List<SAFootnote> footnotes = received.getFootnotes();
+    OptionType<SASegmentNumber> n = Option.some(received.segmentGetFirst());
+    while (n.isSome()) {
+      final SASegmentNumber sn = ((Some<SASegmentNumber>) n).get();
+      if (sn instanceof SASectionNumber) {
+        final OptionType<SASection> so =
+          received.getSection((SASectionNumber) sn);
+        final SASection s = ((Some<SASection>) so).get();
+        for (final SAFootnote f : s.getFootnotes()) {
+          Assert.assertSame(footnotes.get(f.getNumber()), f);
+        }
+
+        /*
+         * Section IDs must map to the same instances as in the tree.
+         */
+
+        if (s.getID().isSome()) {
+          final SAID id = ((Some<SAID>) s.getID()).get();
+          final SAIDTargetContent t = received.getIDMappings().get(id);
+          Assert.assertSame(s, t);
+        }
+      }
+      n = received.segmentGetNext(sn);
+    }
+  }
+
+  /**
+   * Enable a custom URL handler so that XIncludes can use a structuraltest://
+   * URL scheme in order to include other files in the test resources.
+   */
+
+  @Before public void before()
+  {
+    System.setProperty(
+      "java.protocol.handler.pkgs",
+      "com.io7m.jstructural.tests.xom");
+  }
+
+  @Test public void testRoundTrip()
+    throws IOException
+  {
+    for (final String name : SADocumentSnapshotTest.DOCUMENTS) {
+      final SADocument d = SAnnotatorTest.annotate(name);
+      final byte[] data = SADocumentSnapshotTest.snapshot(d);
+      final SADocument r = SADocumentSnapshot.read(ByteBuffer.wrap(data));
+      SADocumentSnapshotTest.checkSameDocument(d, r);
+
+      /*
+       * Snapshots are deterministic, and snapshots of loaded documents are
+       * identical to the snapshots from which they were loaded.
+       */
+
+      Assert.assertArrayEquals(data, SADocumentSnapshotTest.snapshot(d));
+      Assert.assertArrayEquals(data, SADocumentSnapshotTest.snapshot(r));
+    }
+  }
+
+  @Test public void testRoundTripFormals()
+    throws IOException
+  {
+    final SADocument d = SAnnotatorTest.annotate("documentation.xml");
+    final SADocument r = SADocumentSnapshot.read(
+      ByteBuffer.wrap(SADocumentSnapshotTest.snapshot(d)));
+
+    final SortedMap<SAFormalItemNumber, SAFormalItem> fe =
+      d.getFormals().get("example");
+    final SortedMap<SAFormalItemNumber, SAFormalItem> fr =
+      r.getFormals().get("example");
+    Assert.assertFalse(fe.isEmpty());
+    Assert.assertEquals(fe, fr);
+
+    for (final SAFormalItem f : fr.values()) {
+      if (f.getID().isSome()) {
+        final SAID id = ((Some<SAID>) f.getID()).get();
+        Assert.assertSame(f, r.getIDMappings().get(id));
+      }
+    }
+  }
+
+  @Test public void testSaveLoad()
+    throws IOException
+  {
+    final SADocument d = SAnnotatorTest.annotate("jaux-documentation.xml");
+    final File file = File.createTempFile("jstructural-snapshot", ".bin");
+    file.deleteOnExit();
+
+    SADocumentSnapshot.save(d, file);
+    SADocumentSnapshotTest.checkSameDocument(
+      d, SADocumentSnapshot.load(file));
+
+    /*
+     * Saving over an existing snapshot replaces it.
+     */
+
+    final SADocument e = SAnnotatorTest.annotate("basic-0.xml");
+    SADocumentSnapshot.save(e, file);
+    SADocumentSnapshotTest.checkSameDocument(
+      e, SADocumentSnapshot.load(file));
+  }
+
+  @Test(expected = IOException.class) public void testBadMagic()
+    throws IOException
+  {
+    final byte[] data = SADocumentSnapshotTest.snapshot(
+      SAnnotatorTest.annotate("basic-0.xml"));
+    data[0] = (byte) 'X';
+    SADocumentSnapshot.read(ByteBuffer.wrap(data));
+  }
+
+  @Test(expected = IOException.class) public void testBadVersion()
+    throws IOException
+  {
+    final byte[] data = SADocumentSnapshotTest.snapshot(
+      SAnnotatorTest.annotate("basic-0.xml"));
+    data[7] = (byte) (SADocumentSnapshot.VERSION + 1);
+    SADocumentSnapshot.read(ByteBuffer.wrap(data));
+  }
+
+  @Test(expected = IOException.class) public void testTrailingData()
+    throws IOException
+  {
+    final byte[] data = SADocumentSnapshotTest.snapshot(
+      SAnnotatorTest.annotate("basic-0.xml"));
+    SADocumentSnapshot.read(
+      ByteBuffer.wrap(Arrays.copyOf(data, data.length + 1)));
+  }
+
+  @Test public void testTruncated()
+  {
+    final byte[] data;
+    try {
+      data = SADocumentSnapshotTest.snapshot(
+        SAnnotatorTest.annotate("basic-2.xml"));
+    } catch (final IOException e) {
+      throw new AssertionError(e);
+    }
+
+    for (int size = 0; size < data.length; ++size) {
+      try {
+        SADocumentSnapshot.read(ByteBuffer.wrap(Arrays.copyOf(data, size)));
+        Assert.fail("Truncated snapshot of " + size + " bytes was accepted");
+      } catch (final IOException e) {
+        // Expected
+      }
+    }
+  }
+}
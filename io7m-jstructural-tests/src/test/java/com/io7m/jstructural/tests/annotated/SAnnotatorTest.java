@@ -16,26 +16,46 @@
 
 package com.io7m.jstructural.tests.annotated;
 
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Some;
 import com.io7m.jstructural.annotated.SADocument;
+import com.io7m.jstructural.annotated.SADocumentWithParts;
+import com.io7m.jstructural.annotated.SADocumentWithSections;
 import com.io7m.jstructural.annotated.SAFootnote;
 import com.io7m.jstructural.annotated.SAFootnoteContent;
+import com.io7m.jstructural.annotated.SAFormalItem;
+import com.io7m.jstructural.annotated.SAFormalItemNumber;
+import com.io7m.jstructural.annotated.SAFormalItemsByKindReadable;
+import com.io7m.jstructural.annotated.SAFormalItemsByKindWritable;
 import com.io7m.jstructural.annotated.SAID;
 import com.io7m.jstructural.annotated.SAIDMapReadable;
 import com.io7m.jstructural.annotated.SALinkExternal;
 import com.io7m.jstructural.annotated.SAParagraph;
+import com.io7m.jstructural.annotated.SAPart;
+import com.io7m.jstructural.annotated.SASection;
+import com.io7m.jstructural.annotated.SASectionNumber;
+import com.io7m.jstructural.annotated.SASectionNumberS;
 import com.io7m.jstructural.annotated.SASectionWithParagraphs;
 import com.io7m.jstructural.annotated.SASectionWithSubsections;
+import com.io7m.jstructural.annotated.SASegmentNumber;
 import com.io7m.jstructural.annotated.SASubsection;
 import com.io7m.jstructural.annotated.SAText;
 import com.io7m.jstructural.annotated.SAnnotator;
 import com.io7m.jstructural.core.SDocument;
 import com.io7m.jstructural.core.SNonEmptyList;
 import com.io7m.jstructural.tests.xom.SDocumentParserTest;
+import com.io7m.jstructural.xom.SDocumentParser;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 @SuppressWarnings("static-method") public final class SAnnotatorTest
 {
@@ -46,6 +66,31 @@ import java.util.List;
     return SAnnotator.document(d);
   }
 
+  private static SDocument parseSections(
+    final String... sections)
+    throws Exception
+  {
+    final StringBuilder b = new StringBuilder(256);
+    b.append("<s:document xmlns:s=\"http://schemas.io7m.com/structural/2.1.0\">");
+    b.append("<s:document-title>Document</s:document-title>");
+    for (final String section : sections) {
+      b.append("<s:section><s:section-title>T</s:section-title>");
+      b.append(section);
+      b.append("</s:section>");
+    }
+    b.append("</s:document>");
+
+    return SDocumentParser.fromStream(
+      new ByteArrayInputStream(b.toString().getBytes("UTF-8")),
+      URI.create("urn:test"));
+  }
+
+  private static List<SASection> sections(
+    final SADocument d)
+  {
+    return ((SADocumentWithSections) d).getSections().getElements();
+  }
+
   /**
    * Enable a custom URL handler so that XIncludes can use a structuraltest://
    * URL scheme in order to include other files in the test resources.
@@ -124,4 +169,275 @@ import java.util.List;
       .assertTrue(m.get(new SAID("section_0")) instanceof SASectionWithParagraphs);
     Assert.assertTrue(m.get(new SAID("paragraph_0")) instanceof SAParagraph);
   }
+
+  private static SASegmentNumber get(
+    final OptionType<SASegmentNumber> o)
+  {
+    Assert.assertTrue(o.isSome());
+    return ((Some<SASegmentNumber>) o).get();
+  }
+
+  private static void checkNavigation(
+    final SADocument a,
+    final List<SASegmentNumber> expected)
+  {
+    final List<SASegmentNumber> forward = new ArrayList<SASegmentNumber>();
+    SASegmentNumber current = a.segmentGetFirst();
+    forward.add(current);
+    while (true) {
+      final OptionType<SASegmentNumber> next = a.segmentGetNext(current);
+      if (next.isNone()) {
+        break;
+      }
+      final SASegmentNumber n = SAnnotatorTest.get(next);
+      Assert.assertEquals(current, SAnnotatorTest.get(a.segmentGetPrevious(n)));
+      current = n;
+      forward.add(current);
+    }
+
+    Assert.assertEquals(expected, forward);
+    Assert.assertTrue(a.segmentGetPrevious(a.segmentGetFirst()).isNone());
+  }
+
+  @Test public void testSegmentsParts()
+  {
+    final SADocumentWithParts a =
+      (SADocumentWithParts) SAnnotatorTest.annotate("documentation.xml");
+
+    final List<SASegmentNumber> expected = new ArrayList<SASegmentNumber>();
+    for (final SAPart p : a.getParts().getElements()) {
+      expected.add(p.getNumber());
+      Assert.assertTrue(a.segmentGetUp(p.getNumber()).isNone());
+      for (final SASection s : p.getSections().getElements()) {
+        expected.add(s.getNumber());
+        Assert.assertEquals(
+          p.getNumber(),
+          SAnnotatorTest.get(a.segmentGetUp(s.getNumber())));
+      }
+    }
+
+    Assert.assertTrue(expected.size() > 2);
+    SAnnotatorTest.checkNavigation(a, expected);
+  }
+
+  @Test public void testSegmentsSections()
+  {
+    final SADocumentWithSections a =
+      (SADocumentWithSections) SAnnotatorTest.annotate("glowmaps.xml");
+
+    final List<SASegmentNumber> expected = new ArrayList<SASegmentNumber>();
+    for (final SASection s : a.getSections().getElements()) {
+      expected.add(s.getNumber());
+      Assert.assertTrue(a.segmentGetUp(s.getNumber()).isNone());
+    }
+
+    Assert.assertTrue(expected.size() > 1);
+    SAnnotatorTest.checkNavigation(a, expected);
+    Assert.assertTrue(
+      a.segmentGetNext(new SASectionNumberS(1000)).isNone());
+  }
+
+  @Test public void testFormalsFrozen()
+  {
+    final SADocument a = SAnnotatorTest.annotate("documentation.xml");
+    final SAFormalItemsByKindReadable f = a.getFormals();
+
+    final SortedMap<SAFormalItemNumber, SAFormalItem> e0 = f.get("example");
+    final SortedMap<SAFormalItemNumber, SAFormalItem> e1 = f.get("example");
+    Assert.assertSame(e0, e1);
+    Assert.assertFalse(e0.isEmpty());
+    Assert.assertTrue(f.get("nonexistent").isEmpty());
+  }
+
+  @Test public void testFormalsFrozenNotWritable()
+  {
+    final SADocument a = SAnnotatorTest.annotate("documentation.xml");
+    Assert.assertFalse(
+      a.getFormals() instanceof SAFormalItemsByKindWritable);
+  }
+
+  @Test public void testFormalsFrozenSorted()
+  {
+    final SADocument a = SAnnotatorTest.annotate("documentation.xml");
+    final SortedMap<SAFormalItemNumber, SAFormalItem> e =
+      a.getFormals().get("example");
+    final SortedMap<SAFormalItemNumber, SAFormalItem> t =
+      new TreeMap<SAFormalItemNumber, SAFormalItem>(e);
+
+    Assert.assertEquals(t, e);
+    Assert.assertEquals(t.firstKey(), e.firstKey());
+    Assert.assertEquals(t.lastKey(), e.lastKey());
+    Assert.assertEquals(
+      new ArrayList<SAFormalItem>(t.values()),
+      new ArrayList<SAFormalItem>(e.values()));
+
+    final SAFormalItemNumber last = e.lastKey();
+    Assert.assertEquals(t.headMap(last), e.headMap(last));
+    Assert.assertEquals(t.tailMap(last), e.tailMap(last));
+    Assert.assertEquals(1, e.tailMap(last).size());
+    Assert.assertEquals(
+      t.subMap(e.firstKey(), last), e.subMap(e.firstKey(), last));
+    Assert.assertSame(e.get(last), t.get(last));
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testFormalsFrozenPut()
+  {
+    final SADocument a = SAnnotatorTest.annotate("documentation.xml");
+    final SortedMap<SAFormalItemNumber, SAFormalItem> e =
+      a.getFormals().get("example");
+    e.put(e.firstKey(), e.get(e.firstKey()));
+  }
+
+  @Test public void testIncrementalUnchanged()
+  {
+    final String[] names = {
+      "basic-2.xml",
+      "documentation.xml",
+      "formal-id-0.xml",
+      "jaux-documentation.xml",
+    };
+
+    for (final String name : names) {
+      final SDocument d = SDocumentParserTest.roundTripParse(name);
+      final SADocument a0 = SAnnotator.documentRetainingSources(d);
+      Assert.assertEquals(name, SAnnotator.document(d), a0);
+      final SADocument a1 = SAnnotator.documentIncremental(a0, d);
+      Assert.assertEquals(name, a0, a1);
+
+      final SADocument a2 = SAnnotator.documentIncremental(
+        a1, SDocumentParserTest.roundTripParse(name));
+      Assert.assertEquals(name, a0, a2);
+
+      OptionType<SASegmentNumber> n = Option.some(a0.segmentGetFirst());
+      while (n.isSome()) {
+        final SASegmentNumber sn = ((Some<SASegmentNumber>) n).get();
+        if (sn instanceof SASectionNumber) {
+          final SASectionNumber k = (SASectionNumber) sn;
+          Assert.assertSame(
+            ((Some<SASection>) a0.getSection(k)).get(),
+            ((Some<SASection>) a2.getSection(k)).get());
+        }
+        n = a0.segmentGetNext(sn);
+      }
+    }
+  }
+
+  @Test public void testIncrementalChanged()
+    throws Exception
+  {
+    final String a = "<s:paragraph>A<s:footnote>FA</s:footnote></s:paragraph>";
+    final String b = "<s:paragraph>B<s:footnote>FB</s:footnote></s:paragraph>";
+    final String c = "<s:paragraph xml:id=\"c\">C<s:footnote>FC</s:footnote>"
+      + "</s:paragraph><s:formal-item s:kind=\"example\" xml:id=\"e\">"
+      + "<s:formal-item-title>E</s:formal-item-title>"
+      + "<s:verbatim>E</s:verbatim></s:formal-item>";
+
+    final SADocument a0 = SAnnotator.documentRetainingSources(
+      SAnnotatorTest.parseSections(a, b, c));
+    final List<SASection> s0 = SAnnotatorTest.sections(a0);
+
+    /*
+     * Changing the content of one section without changing the number of
+     * footnotes in it reuses the other sections.
+     */
+
+    final SDocument d1 = SAnnotatorTest.parseSections(
+      a, "<s:paragraph>X<s:footnote>FX</s:footnote></s:paragraph>", c);
+    final SADocument a1 = SAnnotator.documentIncremental(a0, d1);
+    Assert.assertEquals(SAnnotator.document(d1), a1);
+    final List<SASection> s1 = SAnnotatorTest.sections(a1);
+    Assert.assertSame(s0.get(0), s1.get(0));
+    Assert.assertNotSame(s0.get(1), s1.get(1));
+    Assert.assertSame(s0.get(2), s1.get(2));
+
+    /*
+     * Adding a footnote renumbers the footnotes of every following section.
+     */
+
+    final SDocument d2 = SAnnotatorTest.parseSections(
+      a, "<s:paragraph>B<s:footnote>F</s:footnote>"
+        + "<s:footnote>F</s:footnote></s:paragraph>", c);
+    final SADocument a2 = SAnnotator.documentIncremental(a1, d2);
+    Assert.assertEquals(SAnnotator.document(d2), a2);
+    final List<SASection> s2 = SAnnotatorTest.sections(a2);
+    Assert.assertSame(s0.get(0), s2.get(0));
+    Assert.assertNotSame(s1.get(2), s2.get(2));
+    Assert.assertEquals(3, s2.get(2).getFootnotes().get(0).getNumber());
+
+    /*
+     * Inserting a section renumbers every following section.
+     */
+
+    final SDocument d3 = SAnnotatorTest.parseSections(
+      "<s:paragraph>N</s:paragraph>", a, b, c);
+    final SADocument a3 = SAnnotator.documentIncremental(a0, d3);
+    Assert.assertEquals(SAnnotator.document(d3), a3);
+    for (final SASection s : SAnnotatorTest.sections(a3)) {
+      Assert.assertFalse(s0.contains(s));
+    }
+  }
+
+  @Test public void testIncrementalNoSources()
+    throws Exception
+  {
+    final SDocument d = SAnnotatorTest.parseSections(
+      "<s:paragraph>A</s:paragraph>", "<s:paragraph>B</s:paragraph>");
+
+    /*
+     * Documents that do not retain their sources are annotated again in
+     * full.
+     */
+
+    final SADocument a0 = SAnnotator.document(d);
+    final SADocument a1 = SAnnotator.documentIncremental(a0, d);
+    Assert.assertEquals(a0, a1);
+    final List<SASection> s0 = SAnnotatorTest.sections(a0);
+    final List<SASection> s1 = SAnnotatorTest.sections(a1);
+    for (int index = 0; index < s0.size(); ++index) {
+      Assert.assertNotSame(s0.get(index), s1.get(index));
+    }
+
+    /*
+     * The result of an incremental annotation does retain its sources.
+     */
+
+    final SADocument a2 = SAnnotator.documentIncremental(a1, d);
+    final List<SASection> s2 = SAnnotatorTest.sections(a2);
+    for (int index = 0; index < s1.size(); ++index) {
+      Assert.assertSame(s1.get(index), s2.get(index));
+    }
+  }
+
+  @Test public void testFootnotesNumbered()
+    throws Exception
+  {
+    final String list = "<s:list-unordered><s:list-item>L"
+      + "<s:footnote>FL</s:footnote></s:list-item></s:list-unordered>";
+    final String table = "<s:formal-item s:kind=\"table\">"
+      + "<s:formal-item-title>T</s:formal-item-title><s:table>"
+      + "<s:table-summary>S</s:table-summary><s:table-body><s:table-row>"
+      + "<s:table-cell>C<s:footnote>FC</s:footnote></s:table-cell>"
+      + "</s:table-row></s:table-body></s:table></s:formal-item>";
+    final String nested = "<s:paragraph>N<s:footnote>F<s:footnote>G"
+      + "</s:footnote></s:footnote></s:paragraph>";
+    final String sub = "<s:subsection xml:id=\"ss\">"
+      + "<s:subsection-title>S</s:subsection-title>" + nested
+      + "</s:subsection>";
+
+    final SDocument d = SAnnotatorTest.parseSections(
+      "<s:paragraph>" + list + "</s:paragraph>",
+      table,
+      nested,
+      "<s:paragraph>P</s:paragraph>",
+      sub,
+      "<s:paragraph xml:id=\"last\">Z<s:footnote>FZ</s:footnote>"
+        + "</s:paragraph>" + table);
+
+    final SADocument r = SAnnotator.document(d);
+    Assert.assertEquals(8, r.getFootnotes().size());
+    for (int index = 0; index < 8; ++index) {
+      Assert.assertEquals(index, r.getFootnotes().get(index).getNumber());
+    }
+  }
 }
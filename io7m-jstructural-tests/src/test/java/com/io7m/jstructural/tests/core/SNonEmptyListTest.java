@@ -0,0 +1,159 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jstructural.tests.core;
+
+import com.io7m.jranges.RangeCheckException;
+import com.io7m.jstructural.core.SNonEmptyList;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@SuppressWarnings("static-method") public final class SNonEmptyListTest
+{
+  private static List<String> abc()
+  {
+    return new ArrayList<String>(Arrays.asList("a", "b", "c"));
+  }
+
+  @Test public void testGetEnds()
+  {
+    final SNonEmptyList<String> l = SNonEmptyList.newList(
+      SNonEmptyListTest.abc());
+    Assert.assertEquals(3, l.size());
+    Assert.assertEquals("a", l.get(0));
+    Assert.assertEquals("b", l.get(1));
+    Assert.assertEquals("c", l.get(l.size() - 1));
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testGetNegative()
+  {
+    SNonEmptyList.newList(SNonEmptyListTest.abc()).get(-1);
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testGetSize()
+  {
+    final SNonEmptyList<String> l = SNonEmptyList.newList(
+      SNonEmptyListTest.abc());
+    l.get(l.size());
+  }
+
+  @Test public void testOne()
+  {
+    final SNonEmptyList<String> l = SNonEmptyList.one("x");
+    Assert.assertEquals(1, l.size());
+    Assert.assertEquals("x", l.get(0));
+    Assert.assertEquals(Arrays.asList("x"), l.getElements());
+  }
+
+  @Test(expected = RangeCheckException.class)
+  public void testEmpty()
+  {
+    SNonEmptyList.newList(new ArrayList<String>());
+  }
+
+  @Test public void testCopied()
+  {
+    final List<String> source = SNonEmptyListTest.abc();
+    final SNonEmptyList<String> l = SNonEmptyList.newList(source);
+    source.set(0, "z");
+    source.add("d");
+
+    Assert.assertEquals(3, l.size());
+    Assert.assertEquals("a", l.get(0));
+    Assert.assertEquals(Arrays.asList("a", "b", "c"), l.getElements());
+  }
+
+  @Test public void testElementsView()
+  {
+    final SNonEmptyList<String> l = SNonEmptyList.newList(
+      SNonEmptyListTest.abc());
+    final List<String> v = l.getElements();
+    Assert.assertEquals(l.size(), v.size());
+    for (int index = 0; index < l.size(); ++index) {
+      Assert.assertSame(l.get(index), v.get(index));
+    }
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testElementsViewSet()
+  {
+    SNonEmptyList.newList(SNonEmptyListTest.abc()).getElements().set(0, "z");
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testElementsViewAdd()
+  {
+    SNonEmptyList.newList(SNonEmptyListTest.abc()).getElements().add("d");
+  }
+
+  @Test public void testEqualsHashCode()
+  {
+    final SNonEmptyList<String> a = SNonEmptyList.newList(
+      SNonEmptyListTest.abc());
+    final SNonEmptyList<String> b = SNonEmptyList.newList(
+      SNonEmptyListTest.abc());
+    final SNonEmptyList<String> c = SNonEmptyList.newList(
+      Arrays.asList("a", "b", "d"));
+
+    /*
+     * Compare before and after the hash codes are cached, as equals() uses
+     * the cached values when both are present.
+     */
+
+    Assert.assertEquals(a, b);
+    Assert.assertNotEquals(a, c);
+
+    final int h = a.hashCode();
+    Assert.assertEquals(SNonEmptyListTest.abc().hashCode(), h);
+    for (int index = 0; index < 3; ++index) {
+      Assert.assertEquals(h, a.hashCode());
+    }
+    Assert.assertEquals(a, b);
+    Assert.assertEquals(b, a);
+
+    Assert.assertEquals(h, b.hashCode());
+    Assert.assertNotEquals(h, c.hashCode());
+    Assert.assertEquals(a, b);
+    Assert.assertNotEquals(a, c);
+    Assert.assertNotEquals(c, a);
+
+    Assert.assertEquals(a, a);
+    Assert.assertNotEquals(a, null);
+    Assert.assertNotEquals(a, "a");
+  }
+
+  @Test public void testHashCodeZero()
+  {
+    /*
+     * A list whose hash is zero cannot be cached, and so is recomputed on
+     * each call; the result must still be stable.
+     */
+
+    final SNonEmptyList<Object> l = SNonEmptyList.newList(
+      Arrays.<Object>asList(Integer.valueOf(-31), Integer.valueOf(0)));
+    Assert.assertEquals(0, l.hashCode());
+    Assert.assertEquals(0, l.hashCode());
+    Assert.assertEquals(
+      l, SNonEmptyList.newList(
+        Arrays.<Object>asList(Integer.valueOf(-31), Integer.valueOf(0))));
+  }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jstructural.tests.xom;
+
+import com.io7m.jnull.Nullable;
+import com.io7m.jstructural.annotated.SADocument;
+import com.io7m.jstructural.annotated.SAnnotator;
+import com.io7m.jstructural.core.SDocument;
+import com.io7m.jstructural.xom.SDocumentParser;
+import com.io7m.jstructural.xom.SDocumentParserContext;
+import com.io7m.jstructural.xom.SDocumentXHTMLPageSink;
+import com.io7m.jstructural.xom.SDocumentXHTMLWriter;
+import com.io7m.jstructural.xom.SDocumentXHTMLWriterCallbacks;
+import com.io7m.jstructural.xom.SDocumentXHTMLWriterMulti;
+import com.io7m.jstructural.xom.SDocumentXHTMLWriterSingle;
+import com.io7m.jstructural.xom.SXHTML;
+import nu.xom.Attribute;
+import nu.xom.Document;
+import nu.xom.Element;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Check that shared parser contexts, annotators and writers produce the same
+ * output when used from many threads at once as when used from one.
+ */
+
+@SuppressWarnings("static-method") public final class SConcurrencyTest
+{
+  private static final String[] NAMES = {
+    "basic-0.xml",
+    "basic-1.xml",
+    "basic-2.xml",
+    "bug-151733738209.xml",
+    "bug-ebbe752c4e.xml",
+    "documentation.xml",
+    "formal-id-0.xml",
+    "glowmaps.xml",
+    "jaux-documentation.xml",
+    "lightweight-static-exceptions.xml",
+    "resolve-0.xml",
+  };
+
+  private static final int ROUNDS  = 4;
+  private static final int THREADS = 8;
+
+  /**
+   * Callbacks that are safe for concurrent use, because they hold no state.
+   */
+
+  private static final class Callbacks implements
+    SDocumentXHTMLWriterCallbacks
+  {
+    Callbacks()
+    {
+
+    }
+
+    @Override public void onBodyEnd(
+      final Element body)
+    {
+      final Element e = new Element("div", SXHTML.XHTML_URI.toString());
+      e.addAttribute(new Attribute("class", "footer"));
+      body.appendChild(e);
+    }
+
+    @Override public @Nullable Element onBodyStart(
+      final Element body)
+    {
+      return null;
+    }
+
+    @Override public void onHead(
+      final Element head)
+    {
+      // Nothing
+    }
+  }
+
+  /**
+   * The pipeline, using only shared objects.
+   */
+
+  private static final class Pipeline
+  {
+    private final SDocumentXHTMLWriterCallbacks callbacks;
+    private final SDocumentParserContext        context;
+    private final SDocumentXHTMLWriter          multi;
+    private final SDocumentXHTMLWriter          single;
+
+    Pipeline()
+    {
+      this.context = SDocumentParserContext.getDefault();
+      this.callbacks = new Callbacks();
+      this.single = new SDocumentXHTMLWriterSingle();
+      this.multi = new SDocumentXHTMLWriterMulti(
+        SDocumentXHTMLWriterMulti.DEFAULT_FRONT_PAGE_NAME, 2);
+    }
+
+    private static void render(
+      final List<String> out,
+      final SDocumentXHTMLWriter writer,
+      final SDocumentXHTMLWriterCallbacks callbacks,
+      final SADocument doc)
+      throws IOException
+    {
+      writer.writeDocumentsTo(callbacks, doc, new SDocumentXHTMLPageSink()
+      {
+        @Override public void onPage(
+          final String name,
+          final Document page)
+        {
+          out.add(name);
+          out.add(page.toXML());
+        }
+      });
+    }
+
+    List<String> run(
+      final String name)
+      throws Exception
+    {
+      final String file = "/com/io7m/jstructural/tests/" + name;
+      final URI uri = SConcurrencyTest.class.getResource(file).toURI();
+      final InputStream stream =
+        SConcurrencyTest.class.getResourceAsStream(file);
+
+      final SDocument d;
+      try {
+        d = SDocumentParser.fromStream(this.context, stream, uri);
+      } finally {
+        stream.close();
+      }
+
+      final SADocument a = SAnnotator.document(d);
+      final List<String> out = new ArrayList<String>(128);
+      Pipeline.render(out, this.single, this.callbacks, a);
+      Pipeline.render(out, this.multi, this.callbacks, a);
+      return out;
+    }
+  }
+
+  /**
+   * Enable a custom URL handler so that XIncludes can use a structuraltest://
+   * URL scheme in order to include other files in the test resources.
+   */
+
+  @Before public void before()
+  {
+    System.setProperty(
+      "java.protocol.handler.pkgs",
+      "com.io7m.jstructural.tests.xom");
+  }
+
+  @Test public void testConcurrentIdentical()
+    throws Exception
+  {
+    final Pipeline p = new Pipeline();
+
+    final List<List<String>> expected = new ArrayList<List<String>>();
+    for (final String name : SConcurrencyTest.NAMES) {
+      expected.add(p.run(name));
+    }
+
+    final ExecutorService exec =
+      Executors.newFixedThreadPool(SConcurrencyTest.THREADS);
+    try {
+      final List<Future<List<String>>> futures =
+        new ArrayList<Future<List<String>>>();
+      for (int round = 0; round < SConcurrencyTest.ROUNDS; ++round) {
+        for (final String name : SConcurrencyTest.NAMES) {
+          futures.add(exec.submit(new Callable<List<String>>()
+          {
+            @Override public List<String> call()
+              throws Exception
+            {
+              return p.run(name);
+            }
+          }));
+        }
+      }
+
+      final int count = SConcurrencyTest.NAMES.length;
+      for (int index = 0; index < futures.size(); ++index) {
+        Assert.assertEquals(
+          SConcurrencyTest.NAMES[index % count],
+          expected.get(index % count),
+          futures.get(index).get());
+      }
+    } finally {
+      exec.shutdown();
+    }
+  }
+}
@@ -0,0 +1,598 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jstructural.tests.xom;
+
+import com.io7m.jstructural.core.SDocument;
+import com.io7m.jstructural.core.SDocumentWithSections;
+import com.io7m.jstructural.core.SSection;
+import com.io7m.jstructural.xom.SDocumentFragmentCache;
+import com.io7m.jstructural.xom.SDocumentParser;
+import com.io7m.jstructural.xom.SDocumentParserContext;
+import nu.xom.ParsingException;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xml.sax.SAXParseException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.List;
+
+@SuppressWarnings("static-method")
+public final class SDocumentFragmentCacheTest
+{
+  private static final String[] DOCUMENTS = {
+    "basic-0.xml",
+    "basic-1.xml",
+    "basic-2.xml",
+    "bug-151733738209.xml",
+    "documentation.xml",
+    "formal-id-0.xml",
+    "glowmaps.xml",
+    "jaux-documentation.xml",
+    "resolve-0.xml",
+  };
+
+  private static final String HEADER =
+    "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n";
+  private static final String NAMESPACES =
+    "xmlns:s=\"http://schemas.io7m.com/structural/2.1.0\" "
+    + "xmlns:xi=\"http://www.w3.org/2001/XInclude\"";
+
+  private static File directory()
+    throws IOException
+  {
+    final File d = File.createTempFile("jstructural-fragments", "");
+    Assert.assertTrue(d.delete());
+    Assert.assertTrue(d.mkdirs());
+    d.deleteOnExit();
+    return d;
+  }
+
+  private static void write(
+    final File directory,
+    final String name,
+    final String text)
+    throws IOException
+  {
+    final File file = new File(directory, name);
+    file.deleteOnExit();
+    final OutputStream out = new FileOutputStream(file);
+    try {
+      out.write(text.getBytes("UTF-8"));
+    } finally {
+      out.close();
+    }
+  }
+
+  private static void writeSection(
+    final File directory,
+    final String name,
+    final String title,
+    final String content)
+    throws IOException
+  {
+    SDocumentFragmentCacheTest.write(
+      directory,
+      name,
+      SDocumentFragmentCacheTest.HEADER
+      + "<s:section " + SDocumentFragmentCacheTest.NAMESPACES + ">"
+      + "<s:section-title>" + title + "</s:section-title>"
+      + content
+      + "</s:section>");
+  }
+
+  private static void writeDocument(
+    final File directory,
+    final String content)
+    throws IOException
+  {
+    SDocumentFragmentCacheTest.write(
+      directory,
+      "doc.xml",
+      SDocumentFragmentCacheTest.HEADER
+      + "<s:document " + SDocumentFragmentCacheTest.NAMESPACES + ">"
+      + "<s:document-title>Document</s:document-title>"
+      + content
+      + "</s:document>");
+  }
+
+  private static SDocument parseClassic(
+    final File directory)
+    throws Exception
+  {
+    final File file = new File(directory, "doc.xml");
+    final InputStream s = new FileInputStream(file);
+    try {
+      return SDocumentParser.fromStream(s, file.toURI());
+    } finally {
+      s.close();
+    }
+  }
+
+  private static SDocument parseFragments(
+    final SDocumentFragmentCache cache,
+    final File directory)
+    throws Exception
+  {
+    final File file = new File(directory, "doc.xml");
+    final InputStream s = new FileInputStream(file);
+    try {
+      return SDocumentParser.fromStreamFragments(cache, s, file.toURI());
+    } finally {
+      s.close();
+    }
+  }
+
+  private static void checkFailure(
+    final File directory,
+    final Class<? extends Exception> expected)
+  {
+    try {
+      SDocumentFragmentCacheTest.parseFragments(
+        SDocumentFragmentCache.newCache(), directory);
+    } catch (final Exception e) {
+      Assert.assertTrue(e.toString(), expected.isInstance(e));
+      return;
+    }
+    throw new AssertionError("Expected an exception");
+  }
+
+  private static String firstLine(
+    final File file)
+    throws IOException
+  {
+    final BufferedReader r = new BufferedReader(
+      new InputStreamReader(new FileInputStream(file), "UTF-8"));
+    try {
+      return r.readLine();
+    } finally {
+      r.close();
+    }
+  }
+
+  private static List<SSection> sections(
+    final SDocument d)
+  {
+    return ((SDocumentWithSections) d).getSections().getElements();
+  }
+
+  /**
+   * Enable a custom URL handler so that XIncludes can use a structuraltest://
+   * URL scheme in order to include other files in the test resources.
+   */
+
+  @Before public void before()
+  {
+    System.setProperty(
+      "java.protocol.handler.pkgs",
+      "com.io7m.jstructural.tests.xom");
+  }
+
+  @Test public void testEquivalent()
+    throws Exception
+  {
+    final SDocumentParserContext context = SDocumentParserContext.newContext();
+    final SDocumentFragmentCache cache = SDocumentFragmentCache.newCache();
+
+    for (final String name : SDocumentFragmentCacheTest.DOCUMENTS) {
+      final String file = "/com/io7m/jstructural/tests/" + name;
+      final URI uri =
+        SDocumentFragmentCacheTest.class.getResource(file).toURI();
+
+      final SDocument expected = SDocumentParser.fromStream(
+        context,
+        SDocumentFragmentCacheTest.class.getResourceAsStream(file),
+        uri);
+
+      for (int index = 0; index < 2; ++index) {
+        final SDocument received = SDocumentParser.fromStreamFragments(
+          context,
+          cache,
+          SDocumentFragmentCacheTest.class.getResourceAsStream(file),
+          uri);
+        Assert.assertEquals(name, expected, received);
+      }
+    }
+  }
+
+  @Test public void testReparseChanged()
+    throws Exception
+  {
+    final File d = SDocumentFragmentCacheTest.directory();
+    SDocumentFragmentCacheTest.writeSection(
+      d, "a.xml", "A", "<s:paragraph>A</s:paragraph>");
+    SDocumentFragmentCacheTest.writeSection(
+      d, "b.xml", "B", "<s:paragraph>B</s:paragraph>");
+    SDocumentFragmentCacheTest.writeDocument(
+      d, "<xi:include href=\"a.xml\"/><xi:include href=\"b.xml\"/>");
+
+    final SDocumentFragmentCache cache = SDocumentFragmentCache.newCache();
+    final SDocument d0 = SDocumentFragmentCacheTest.parseFragments(cache, d);
+    Assert.assertEquals(SDocumentFragmentCacheTest.parseClassic(d), d0);
+    Assert.assertEquals(3, cache.size());
+
+    /*
+     * Parsing an unchanged document yields the same document.
+     */
+
+    final SDocument d1 = SDocumentFragmentCacheTest.parseFragments(cache, d);
+    Assert.assertSame(d0, d1);
+    Assert.assertEquals(3, cache.size());
+
+    /*
+     * Changing one file reparses that file and the document that includes
+     * it, but reuses the sections from unchanged files.
+     */
+
+    SDocumentFragmentCacheTest.writeSection(
+      d, "b.xml", "B", "<s:paragraph>B changed</s:paragraph>");
+
+    final SDocument d2 = SDocumentFragmentCacheTest.parseFragments(cache, d);
+    Assert.assertEquals(SDocumentFragmentCacheTest.parseClassic(d), d2);
+    Assert.assertNotEquals(d0, d2);
+
+    /*
+     * The fragments of the old versions of the changed files are evicted.
+     */
+
+    Assert.assertEquals(3, cache.size());
+
+    final List<SSection> s0 = SDocumentFragmentCacheTest.sections(d0);
+    final List<SSection> s2 = SDocumentFragmentCacheTest.sections(d2);
+    Assert.assertSame(s0.get(0), s2.get(0));
+    Assert.assertNotEquals(s0.get(1), s2.get(1));
+  }
+
+  @Test public void testDirectory()
+    throws Exception
+  {
+    final File d = SDocumentFragmentCacheTest.directory();
+    final File c = new File(SDocumentFragmentCacheTest.directory(), "cache");
+    SDocumentFragmentCacheTest.writeSection(
+      d, "a.xml", "A", "<s:paragraph xml:id=\"a\">A</s:paragraph>");
+    SDocumentFragmentCacheTest.writeDocument(
+      d,
+      "<xi:include href=\"a.xml\"/>"
+      + "<s:section><s:section-title>B</s:section-title>"
+      + "<s:paragraph><s:link s:target=\"a\">A</s:link></s:paragraph>"
+      + "</s:section>");
+
+    final SDocument expected = SDocumentFragmentCacheTest.parseClassic(d);
+
+    final SDocumentFragmentCache c0 =
+      SDocumentFragmentCache.newCacheWithDirectory(c);
+    Assert.assertEquals(
+      expected, SDocumentFragmentCacheTest.parseFragments(c0, d));
+
+    final File[] entries = c.listFiles();
+    Assert.assertNotNull(entries);
+    Assert.assertEquals(2, entries.length);
+    for (final File e : entries) {
+      e.deleteOnExit();
+    }
+    c.deleteOnExit();
+
+    final SDocumentFragmentCache c1 =
+      SDocumentFragmentCache.newCacheWithDirectory(c);
+    Assert.assertEquals(
+      expected, SDocumentFragmentCacheTest.parseFragments(c1, d));
+    Assert.assertEquals(2, c.listFiles().length);
+  }
+
+  @Test public void testDirectoryStaleHeader()
+    throws Exception
+  {
+    final File d = SDocumentFragmentCacheTest.directory();
+    final File c = new File(SDocumentFragmentCacheTest.directory(), "cache");
+    SDocumentFragmentCacheTest.writeSection(
+      d, "a.xml", "A", "<s:paragraph>A</s:paragraph>");
+    SDocumentFragmentCacheTest.writeDocument(
+      d, "<xi:include href=\"a.xml\"/>");
+
+    SDocumentFragmentCacheTest.parseFragments(
+      SDocumentFragmentCache.newCacheWithDirectory(c), d);
+
+    final File[] entries = c.listFiles();
+    Assert.assertNotNull(entries);
+    Assert.assertEquals(2, entries.length);
+
+    final String header = SDocumentFragmentCacheTest.firstLine(entries[0]);
+    Assert.assertTrue(
+      header, header.matches("jstructural-fragment 2 [0-9a-f]{64}"));
+
+    /*
+     * Entries written against another schema are not trusted, and are
+     * replaced when the fragments are validated again.
+     */
+
+    for (final File e : entries) {
+      e.deleteOnExit();
+      SDocumentFragmentCacheTest.write(
+        c,
+        e.getName(),
+        "jstructural-fragment 1 http://schemas.io7m.com/structural/2.1.0\n");
+    }
+    c.deleteOnExit();
+
+    SDocumentFragmentCacheTest.parseFragments(
+      SDocumentFragmentCache.newCacheWithDirectory(c), d);
+    for (final File e : entries) {
+      Assert.assertEquals(header, SDocumentFragmentCacheTest.firstLine(e));
+    }
+  }
+
+  @Test public void testEvictUnreached()
+    throws Exception
+  {
+    final File d = SDocumentFragmentCacheTest.directory();
+    SDocumentFragmentCacheTest.writeSection(
+      d, "a.xml", "A", "<s:paragraph>A</s:paragraph>");
+    SDocumentFragmentCacheTest.writeSection(
+      d, "b.xml", "B", "<s:paragraph>B</s:paragraph>");
+    SDocumentFragmentCacheTest.writeDocument(
+      d, "<xi:include href=\"a.xml\"/><xi:include href=\"b.xml\"/>");
+
+    final SDocumentFragmentCache cache = SDocumentFragmentCache.newCache();
+    final SDocument d0 = SDocumentFragmentCacheTest.parseFragments(cache, d);
+    Assert.assertEquals(3, cache.size());
+
+    /*
+     * A file that is no longer included is evicted.
+     */
+
+    SDocumentFragmentCacheTest.writeDocument(
+      d, "<xi:include href=\"a.xml\"/>");
+    SDocumentFragmentCacheTest.parseFragments(cache, d);
+    Assert.assertEquals(2, cache.size());
+
+    /*
+     * A failed parse evicts nothing, so that the unchanged files are not
+     * parsed again once the failure is corrected.
+     */
+
+    SDocumentFragmentCacheTest.writeDocument(
+      d, "<xi:include href=\"a.xml\"/><xi:include href=\"missing.xml\"/>");
+    try {
+      SDocumentFragmentCacheTest.parseFragments(cache, d);
+      Assert.fail("Expected an exception");
+    } catch (final Exception e) {
+      // Expected
+    }
+    Assert.assertEquals(2, cache.size());
+
+    SDocumentFragmentCacheTest.writeDocument(
+      d, "<xi:include href=\"a.xml\"/><xi:include href=\"b.xml\"/>");
+    final SDocument d1 = SDocumentFragmentCacheTest.parseFragments(cache, d);
+    Assert.assertEquals(d0, d1);
+    Assert.assertSame(
+      SDocumentFragmentCacheTest.sections(d0).get(0),
+      SDocumentFragmentCacheTest.sections(d1).get(0));
+    Assert.assertEquals(3, cache.size());
+  }
+
+  @Test public void testTextInclude()
+    throws Exception
+  {
+    final File d = SDocumentFragmentCacheTest.directory();
+    SDocumentFragmentCacheTest.write(d, "t.txt", "included\ntext");
+    SDocumentFragmentCacheTest.write(d, "e.txt", "");
+    SDocumentFragmentCacheTest.writeDocument(
+      d,
+      "<s:section xml:id=\" s0 \" s:type=\" x  y \">"
+      + "<s:section-title>A</s:section-title>"
+      + "<s:paragraph>before <xi:include href=\"t.txt\" parse=\"text\"/>"
+      + " after <xi:include href=\"e.txt\" parse=\"text\"/> end</s:paragraph>"
+      + "<s:paragraph><s:verbatim>"
+      + "<xi:include href=\"t.txt\" parse=\"text\"/></s:verbatim>"
+      + "<s:link s:target=\"s0 \">A</s:link></s:paragraph>"
+      + "</s:section>");
+
+    Assert.assertEquals(
+      SDocumentFragmentCacheTest.parseClassic(d),
+      SDocumentFragmentCacheTest.parseFragments(
+        SDocumentFragmentCache.newCache(), d));
+  }
+
+  @Test(expected = ParsingException.class) public void testIncludeLoop()
+    throws Exception
+  {
+    final File d = SDocumentFragmentCacheTest.directory();
+    SDocumentFragmentCacheTest.writeSection(
+      d,
+      "a.xml",
+      "A",
+      "<s:paragraph>A</s:paragraph><xi:include href=\"b.xml\"/>");
+    SDocumentFragmentCacheTest.write(
+      d,
+      "b.xml",
+      SDocumentFragmentCacheTest.HEADER
+      + "<s:paragraph " + SDocumentFragmentCacheTest.NAMESPACES + ">"
+      + "<xi:include href=\"a.xml\"/></s:paragraph>");
+    SDocumentFragmentCacheTest.writeDocument(
+      d, "<xi:include href=\"a.xml\"/>");
+
+    SDocumentFragmentCacheTest.parseFragments(
+      SDocumentFragmentCache.newCache(), d);
+  }
+
+  @Test(expected = ParsingException.class) public void testIncludeMissing()
+    throws Exception
+  {
+    final File d = SDocumentFragmentCacheTest.directory();
+    SDocumentFragmentCacheTest.writeDocument(
+      d, "<xi:include href=\"nonexistent.xml\"/>");
+
+    SDocumentFragmentCacheTest.parseFragments(
+      SDocumentFragmentCache.newCache(), d);
+  }
+
+  @Test(expected = SAXParseException.class) public void testInvalidFragment()
+    throws Exception
+  {
+    final File d = SDocumentFragmentCacheTest.directory();
+    SDocumentFragmentCacheTest.writeSection(d, "a.xml", "A", "");
+    SDocumentFragmentCacheTest.writeDocument(
+      d, "<xi:include href=\"a.xml\"/>");
+
+    SDocumentFragmentCacheTest.parseFragments(
+      SDocumentFragmentCache.newCache(), d);
+  }
+
+  @Test(expected = SAXParseException.class) public void testDuplicateID()
+    throws Exception
+  {
+    final File d = SDocumentFragmentCacheTest.directory();
+    SDocumentFragmentCacheTest.writeSection(
+      d, "a.xml", "A", "<s:paragraph xml:id=\"x\">A</s:paragraph>");
+    SDocumentFragmentCacheTest.writeDocument(
+      d, "<xi:include href=\"a.xml\"/><xi:include href=\"a.xml\"/>");
+
+    SDocumentFragmentCacheTest.parseFragments(
+      SDocumentFragmentCache.newCache(), d);
+  }
+
+  @Test(expected = SAXParseException.class) public void testMissingID()
+    throws Exception
+  {
+    final File d = SDocumentFragmentCacheTest.directory();
+    SDocumentFragmentCacheTest.writeSection(
+      d,
+      "a.xml",
+      "A",
+      "<s:paragraph><s:link s:target=\"x\">A</s:link></s:paragraph>");
+    SDocumentFragmentCacheTest.writeDocument(
+      d, "<xi:include href=\"a.xml\"/>");
+
+    SDocumentFragmentCacheTest.parseFragments(
+      SDocumentFragmentCache.newCache(), d);
+  }
+
+  @Test public void testUnsupportedInclude()
+    throws Exception
+  {
+    final File d = SDocumentFragmentCacheTest.directory();
+    SDocumentFragmentCacheTest.writeSection(
+      d, "a.xml", "A", "<s:paragraph>A</s:paragraph>");
+    SDocumentFragmentCacheTest.writeDocument(
+      d,
+      "<xi:include href=\"a.xml\" xpointer=\"element(/1)\"/>");
+
+    Assert.assertEquals(
+      SDocumentFragmentCacheTest.parseClassic(d),
+      SDocumentFragmentCacheTest.parseFragments(
+        SDocumentFragmentCache.newCache(), d));
+  }
+
+  @Test public void testMany()
+    throws Exception
+  {
+    final File d = SDocumentFragmentCacheTest.directory();
+    SDocumentFragmentCacheTest.write(
+      d,
+      "p.xml",
+      SDocumentFragmentCacheTest.HEADER
+      + "<s:paragraph " + SDocumentFragmentCacheTest.NAMESPACES + ">"
+      + "Shared <xi:include href=\"t.txt\" parse=\"text\"/></s:paragraph>");
+    SDocumentFragmentCacheTest.write(d, "t.txt", "text");
+
+    final StringBuilder content = new StringBuilder(1024);
+    for (int index = 0; index < 64; ++index) {
+      final String name = String.format("s%d.xml", Integer.valueOf(index));
+      SDocumentFragmentCacheTest.writeSection(
+        d,
+        name,
+        "S" + index,
+        String.format(
+          "<s:paragraph xml:id=\"p%d\"><s:link s:target=\"p%d\">%d</s:link>"
+          + "</s:paragraph><xi:include href=\"p.xml\"/>",
+          Integer.valueOf(index),
+          Integer.valueOf((index + 1) % 64),
+          Integer.valueOf(index)));
+      content.append(String.format("<xi:include href=\"%s\"/>", name));
+    }
+    SDocumentFragmentCacheTest.writeDocument(d, content.toString());
+
+    final SDocument expected = SDocumentFragmentCacheTest.parseClassic(d);
+    final SDocumentFragmentCache cache = SDocumentFragmentCache.newCache();
+    Assert.assertEquals(
+      expected, SDocumentFragmentCacheTest.parseFragments(cache, d));
+
+    /*
+     * Parsing an unchanged document yields the same document.
+     */
+
+    Assert.assertSame(
+      SDocumentFragmentCacheTest.parseFragments(cache, d),
+      SDocumentFragmentCacheTest.parseFragments(cache, d));
+  }
+
+  @Test public void testIncludeLoopIndirect()
+    throws Exception
+  {
+    final File d = SDocumentFragmentCacheTest.directory();
+    SDocumentFragmentCacheTest.writeSection(
+      d,
+      "a.xml",
+      "A",
+      "<s:paragraph>A</s:paragraph><xi:include href=\"b.xml\"/>");
+    SDocumentFragmentCacheTest.write(
+      d,
+      "b.xml",
+      SDocumentFragmentCacheTest.HEADER
+      + "<s:paragraph " + SDocumentFragmentCacheTest.NAMESPACES + ">"
+      + "<xi:include href=\"a.xml\"/></s:paragraph>");
+    SDocumentFragmentCacheTest.writeSection(
+      d, "c.xml", "C", "<s:paragraph>C</s:paragraph>");
+    SDocumentFragmentCacheTest.writeDocument(
+      d, "<xi:include href=\"c.xml\"/><xi:include href=\"a.xml\"/>");
+
+    SDocumentFragmentCacheTest.checkFailure(
+      d, ParsingException.class);
+  }
+
+  @Test public void testFirstFailure()
+    throws Exception
+  {
+    final File d = SDocumentFragmentCacheTest.directory();
+    SDocumentFragmentCacheTest.writeSection(d, "a.xml", "A", "");
+    SDocumentFragmentCacheTest.writeSection(
+      d, "b.xml", "B", "<xi:include href=\"nonexistent.xml\"/>");
+    SDocumentFragmentCacheTest.writeDocument(
+      d, "<xi:include href=\"b.xml\"/><xi:include href=\"a.xml\"/>");
+
+    /*
+     * Whichever of the missing file and the invalid file is included first
+     * is reported.
+     */
+
+    SDocumentFragmentCacheTest.checkFailure(
+      d, ParsingException.class);
+
+    SDocumentFragmentCacheTest.writeDocument(
+      d, "<xi:include href=\"a.xml\"/><xi:include href=\"b.xml\"/>");
+    SDocumentFragmentCacheTest.checkFailure(
+      d, SAXParseException.class);
+  }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jstructural.tests.xom;
+
+import com.io7m.jranges.RangeCheckException;
+import com.io7m.jstructural.annotated.SADocument;
+import com.io7m.jstructural.annotated.SAnnotator;
+import com.io7m.jstructural.core.SDocument;
+import com.io7m.jstructural.core.SDocumentGenerator;
+import com.io7m.jstructural.core.SDocumentWithParts;
+import com.io7m.jstructural.core.SDocumentWithSections;
+import com.io7m.jstructural.xom.SDocumentParser;
+import com.io7m.jstructural.xom.SDocumentSerializer;
+import com.io7m.jstructural.xom.SDocumentXHTMLWriterCallbacks;
+import com.io7m.jstructural.xom.SDocumentXHTMLWriterMulti;
+import com.io7m.jstructural.xom.SDocumentXHTMLWriterSingle;
+import com.io7m.jnull.Nullable;
+import nu.xom.Document;
+import nu.xom.Element;
+import nu.xom.Serializer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.util.SortedMap;
+
+@SuppressWarnings("static-method") public final class SDocumentGeneratorTest
+{
+  private static final class Callbacks implements
+    SDocumentXHTMLWriterCallbacks
+  {
+    Callbacks()
+    {
+      // Nothing
+    }
+
+    @Override public void onBodyEnd(
+      final Element body)
+    {
+      // Nothing
+    }
+
+    @Override public @Nullable Element onBodyStart(
+      final Element body)
+    {
+      return null;
+    }
+
+    @Override public void onHead(
+      final Element head)
+    {
+      // Nothing
+    }
+  }
+
+  private static SDocumentGenerator generator(
+    final int sections)
+  {
+    final SDocumentGenerator g = new SDocumentGenerator();
+    g.setSeed(0x5eedL);
+    g.setSections(sections);
+    g.setSubsections(2);
+    g.setParagraphs(3);
+    g.setFootnotes(2);
+    g.setFormalItems(1);
+    g.setTables(1);
+    g.setLinks(2);
+    g.setIDs(2);
+    return g;
+  }
+
+  private static byte[] serialize(
+    final SDocument d)
+    throws Exception
+  {
+    final ByteArrayOutputStream bao = new ByteArrayOutputStream();
+    final Serializer s = new Serializer(bao, "UTF-8");
+    s.write(new Document(SDocumentSerializer.document(d)));
+    s.flush();
+    return bao.toByteArray();
+  }
+
+  private static SDocument parse(
+    final byte[] data)
+    throws Exception
+  {
+    return SDocumentParser.fromStream(
+      new ByteArrayInputStream(data), new URI("/temporary"));
+  }
+
+  @Test public void testDeterministic()
+  {
+    final SDocument d0 = SDocumentGeneratorTest.generator(10).generate();
+    final SDocument d1 = SDocumentGeneratorTest.generator(10).generate();
+    Assert.assertEquals(d0, d1);
+
+    final SDocumentGenerator g = SDocumentGeneratorTest.generator(10);
+    g.setSeed(23L);
+    Assert.assertNotEquals(d0, g.generate());
+  }
+
+  @Test public void testDefaults()
+  {
+    final SDocument d = new SDocumentGenerator().generate();
+    Assert.assertTrue(d instanceof SDocumentWithSections);
+    Assert.assertEquals(
+      10, ((SDocumentWithSections) d).getSections().getElements().size());
+  }
+
+  @Test public void testParts()
+  {
+    final SDocumentGenerator g = SDocumentGeneratorTest.generator(4);
+    g.setParts(3);
+    final SDocument d = g.generate();
+    Assert.assertTrue(d instanceof SDocumentWithParts);
+
+    final SDocumentWithParts dp = (SDocumentWithParts) d;
+    Assert.assertEquals(3, dp.getParts().getElements().size());
+    Assert.assertEquals(
+      4, dp.getParts().get(0).getSections().getElements().size());
+  }
+
+  @Test(expected = RangeCheckException.class) public void testSectionsZero()
+  {
+    new SDocumentGenerator().setSections(0);
+  }
+
+  @Test(expected = RangeCheckException.class) public void testLinksNegative()
+  {
+    new SDocumentGenerator().setLinks(-1);
+  }
+
+  @Test public void testRoundTrip()
+    throws Exception
+  {
+    final SDocumentGenerator g = SDocumentGeneratorTest.generator(8);
+    g.setParts(2);
+    final SDocument d0 = g.generate();
+    final SDocument d1 =
+      SDocumentGeneratorTest.parse(SDocumentGeneratorTest.serialize(d0));
+    Assert.assertEquals(d0, d1);
+  }
+
+  @Test public void testAnnotateRender()
+    throws Exception
+  {
+    final SDocumentGenerator g = SDocumentGeneratorTest.generator(6);
+    g.setParts(2);
+
+    final SADocument a = SAnnotator.document(g.generate());
+    final SortedMap<String, Document> multi =
+      new SDocumentXHTMLWriterMulti().writeDocuments(new Callbacks(), a);
+    Assert.assertTrue(multi.size() > 12);
+
+    final SortedMap<String, Document> single =
+      new SDocumentXHTMLWriterSingle().writeDocuments(new Callbacks(), a);
+    Assert.assertEquals(1, single.size());
+  }
+}
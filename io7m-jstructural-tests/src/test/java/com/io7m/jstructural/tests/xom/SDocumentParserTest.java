@@ -36,6 +36,7 @@ import com.io7m.jstructural.core.SText;
 import com.io7m.jstructural.core.SVerbatim;
 import com.io7m.jstructural.core.SXML;
 import com.io7m.jstructural.xom.SDocumentParser;
+import com.io7m.jstructural.xom.SDocumentParserContext;
 import com.io7m.jstructural.xom.SDocumentSerializer;
 import com.io7m.junreachable.UnreachableCodeException;
 import nu.xom.Attribute;
@@ -206,6 +207,104 @@ import java.util.List;
     Assert.assertEquals("Paragraph.", text.getText().trim());
   }
 
+  @Test public void testContextShared()
+    throws ValidityException,
+      SAXException,
+      ParserConfigurationException,
+      ParsingException,
+      IOException,
+      URISyntaxException,
+      BadParseAttributeException,
+      InclusionLoopException,
+      NoIncludeLocationException,
+      XIncludeException
+  {
+    Assert.assertSame(
+      SDocumentParserContext.getDefault(),
+      SDocumentParserContext.getDefault());
+
+    final SDocumentParserContext context = SDocumentParserContext.newContext();
+    final String[] names = {"basic-0.xml", "basic-1.xml", "resolve-0.xml"};
+    for (final String name : names) {
+      final String file = "/com/io7m/jstructural/tests/" + name;
+      final URI uri = SDocumentParserTest.class.getResource(file).toURI();
+      final SDocument d = SDocumentParser.fromStream(
+        context, SDocumentParserTest.class.getResourceAsStream(file), uri);
+      Assert.assertEquals(SDocumentParserTest.parse(name), d);
+    }
+  }
+
+  @Test public void testValidateSeparately()
+    throws ValidityException,
+      SAXException,
+      ParserConfigurationException,
+      ParsingException,
+      IOException,
+      URISyntaxException,
+      BadParseAttributeException,
+      InclusionLoopException,
+      NoIncludeLocationException,
+      XIncludeException
+  {
+    final SDocumentParserContext context = SDocumentParserContext.getDefault();
+    final String[] names = {"basic-0.xml", "basic-1.xml", "documentation.xml"};
+    for (final String name : names) {
+      final String file = "/com/io7m/jstructural/tests/" + name;
+      final URI uri = SDocumentParserTest.class.getResource(file).toURI();
+      final Document x = SDocumentParser.fromStreamValidate(
+        context, SDocumentParserTest.class.getResourceAsStream(file), uri);
+      final SDocument d = SDocumentParser.fromValidatedDocument(x);
+      Assert.assertEquals(SDocumentParserTest.parse(name), d);
+    }
+  }
+
+  @Test public void testStreamingEquivalent()
+    throws ValidityException,
+      SAXException,
+      ParserConfigurationException,
+      ParsingException,
+      IOException,
+      URISyntaxException,
+      BadParseAttributeException,
+      InclusionLoopException,
+      NoIncludeLocationException,
+      XIncludeException
+  {
+    final String[] names = {
+      "basic-0.xml",
+      "basic-1.xml",
+      "basic-2.xml",
+      "bug-151733738209.xml",
+      "bug-ebbe752c4e.xml",
+      "documentation.xml",
+      "formal-id-0.xml",
+      "glowmaps.xml",
+      "jaux-documentation.xml",
+      "lightweight-static-exceptions.xml",
+      "resolve-0.xml",
+    };
+
+    for (final String name : names) {
+      final String file = "/com/io7m/jstructural/tests/" + name;
+      final URI uri = SDocumentParserTest.class.getResource(file).toURI();
+      final SDocument d = SDocumentParser.fromStreamStreaming(
+        SDocumentParserTest.class.getResourceAsStream(file), uri);
+      Assert.assertEquals(name, SDocumentParserTest.parse(name), d);
+    }
+  }
+
+  @Test(expected = SAXParseException.class) public void testStreamingEmpty()
+    throws SAXException,
+      ParserConfigurationException,
+      IOException,
+      URISyntaxException
+  {
+    final String file = "/com/io7m/jstructural/tests/empty.xml";
+    final URI uri = SDocumentParserTest.class.getResource(file).toURI();
+    SDocumentParser.fromStreamStreaming(
+      SDocumentParserTest.class.getResourceAsStream(file), uri);
+  }
+
   @Test(expected = SAXParseException.class) public void testEmpty()
     throws ValidityException,
       SAXException,
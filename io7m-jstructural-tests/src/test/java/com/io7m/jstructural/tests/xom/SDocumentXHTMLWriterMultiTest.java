@@ -16,9 +16,18 @@
 
 package com.io7m.jstructural.tests.xom;
 
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Some;
 import com.io7m.jnull.Nullable;
+import com.io7m.jranges.RangeCheckException;
 import com.io7m.jstructural.annotated.SADocument;
+import com.io7m.jstructural.annotated.SASegmentNumber;
+import com.io7m.jstructural.annotated.SAnnotator;
+import com.io7m.jstructural.core.SDocumentGenerator;
 import com.io7m.jstructural.tests.annotated.SAnnotatorTest;
+import com.io7m.jstructural.xom.SDocumentXHTMLMultiPrepared;
+import com.io7m.jstructural.xom.SDocumentXHTMLPageSink;
 import com.io7m.jstructural.xom.SDocumentXHTMLWriterCallbacks;
 import com.io7m.jstructural.xom.SDocumentXHTMLWriterMulti;
 import com.io7m.jstructural.xom.SXHTML;
@@ -41,7 +50,14 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.SortedMap;
+import java.util.TreeSet;
 
 @SuppressWarnings("static-method") public final class SDocumentXHTMLWriterMultiTest
 {
@@ -167,6 +183,50 @@ import java.util.SortedMap;
    * URL scheme in order to include other files in the test resources.
    */
 
+  private static void checkPrepared(
+    final String file)
+  {
+    final SADocument d = SAnnotatorTest.annotate(file);
+    final SDocumentXHTMLWriterMulti writer = new SDocumentXHTMLWriterMulti();
+    final SDocumentXHTMLWriterCallbacks cb = new BodyReplacerExtra();
+    final SortedMap<String, Document> expected = writer.writeDocuments(cb, d);
+    final SDocumentXHTMLMultiPrepared prepared = writer.prepare(d);
+
+    Assert.assertSame(d, prepared.getDocument());
+    Assert.assertEquals(
+      new ArrayList<String>(expected.keySet()),
+      new ArrayList<String>(new TreeSet<String>(prepared.getPageNames())));
+    Assert.assertEquals(
+      expected.get(prepared.getFrontPageName()).toXML(),
+      prepared.writeFrontPage(cb).toXML());
+
+    for (final String name : prepared.getPageNames()) {
+      final OptionType<Document> r = prepared.writePage(cb, name);
+      Assert.assertTrue(r.isSome());
+      Assert.assertEquals(
+        expected.get(name).toXML(),
+        ((Some<Document>) r).get().toXML());
+    }
+
+    int count = 0;
+    OptionType<SASegmentNumber> n = Option.some(d.segmentGetFirst());
+    while (n.isSome()) {
+      final SASegmentNumber sn = ((Some<SASegmentNumber>) n).get();
+      final OptionType<String> name = prepared.getSegmentPageName(sn);
+      final OptionType<Document> r = prepared.writeSegment(cb, sn);
+      Assert.assertTrue(name.isSome());
+      Assert.assertTrue(r.isSome());
+      Assert.assertEquals(
+        expected.get(((Some<String>) name).get()).toXML(),
+        ((Some<Document>) r).get().toXML());
+      n = d.segmentGetNext(sn);
+      ++count;
+    }
+
+    Assert.assertEquals(expected.size() - 1, count);
+    Assert.assertTrue(prepared.writePage(cb, "nonexistent.xhtml").isNone());
+  }
+
   @Before public void before()
   {
     System.setProperty(
@@ -204,8 +264,8 @@ import java.util.SortedMap;
       URISyntaxException
   {
     final SADocument d = SAnnotatorTest.annotate("basic-0.xml");
-    final SDocumentXHTMLWriterMulti writer = new SDocumentXHTMLWriterMulti();
-    writer.setFrontPageName("CUSTOM.XHTML");
+    final SDocumentXHTMLWriterMulti writer =
+      new SDocumentXHTMLWriterMulti("CUSTOM.XHTML", 1);
     final Callbacks cb = new Callbacks();
     final SortedMap<String, Document> dr = writer.writeDocuments(cb, d);
     Assert.assertEquals(2, cb.on_head_called);
@@ -357,6 +417,92 @@ import java.util.SortedMap;
     }
   }
 
+  @Test public void testDocumentation_sink()
+    throws IOException
+  {
+    final SADocument da = SAnnotatorTest.annotate("documentation.xml");
+    final SDocumentXHTMLWriterMulti writer = new SDocumentXHTMLWriterMulti();
+    final SortedMap<String, Document> expected =
+      writer.writeDocuments(new Callbacks(), da);
+
+    final List<String> names = new ArrayList<String>();
+    writer.writeDocumentsTo(
+      new Callbacks(), da, new SDocumentXHTMLPageSink()
+      {
+        @Override public void onPage(
+          final String name,
+          final Document page)
+        {
+          Assert.assertFalse(names.contains(name));
+          Assert.assertTrue(expected.containsKey(name));
+          Assert.assertEquals(expected.get(name).toXML(), page.toXML());
+          names.add(name);
+        }
+      });
+
+    Assert.assertEquals(
+      SDocumentXHTMLWriterMultiTest.DOCUMENTATION_PAGES,
+      names.size());
+  }
+
+  @Test public void testDocumentation_threads()
+    throws IOException
+  {
+    final SADocument da = SAnnotatorTest.annotate("documentation.xml");
+    final SDocumentXHTMLWriterCallbacks cb = new BodyReplacerExtra();
+
+    final List<String> expected_names = new ArrayList<String>();
+    final List<String> expected_pages = new ArrayList<String>();
+    final SDocumentXHTMLWriterMulti w1 = new SDocumentXHTMLWriterMulti();
+    w1.writeDocumentsTo(cb, da, new SDocumentXHTMLPageSink()
+    {
+      @Override public void onPage(
+        final String name,
+        final Document page)
+      {
+        expected_names.add(name);
+        expected_pages.add(page.toXML());
+      }
+    });
+
+    final List<String> names = new ArrayList<String>();
+    final List<String> pages = new ArrayList<String>();
+    final SDocumentXHTMLWriterMulti w4 = new SDocumentXHTMLWriterMulti(
+      SDocumentXHTMLWriterMulti.DEFAULT_FRONT_PAGE_NAME, 4);
+    w4.writeDocumentsTo(cb, da, new SDocumentXHTMLPageSink()
+    {
+      @Override public void onPage(
+        final String name,
+        final Document page)
+      {
+        names.add(name);
+        pages.add(page.toXML());
+      }
+    });
+
+    Assert.assertEquals(
+      SDocumentXHTMLWriterMultiTest.DOCUMENTATION_PAGES,
+      names.size());
+    Assert.assertEquals(expected_names, names);
+    Assert.assertEquals(expected_pages, pages);
+  }
+
+  @Test public void testPrepared_basic2()
+  {
+    SDocumentXHTMLWriterMultiTest.checkPrepared("basic-2.xml");
+  }
+
+  @Test public void testPrepared_documentation()
+  {
+    SDocumentXHTMLWriterMultiTest.checkPrepared("documentation.xml");
+  }
+
+  @Test(expected = RangeCheckException.class) public void testThreadsInvalid()
+  {
+    new SDocumentXHTMLWriterMulti(
+      SDocumentXHTMLWriterMulti.DEFAULT_FRONT_PAGE_NAME, 0);
+  }
+
   /**
    * Ensure that validation is working in the test suite. Try to validate
    * something that is certainly not XHTML 1.0 Strict.
@@ -394,4 +540,59 @@ import java.util.SortedMap;
       SDocumentXHTMLWriterMultiTest.checkDocument(dr.get(name));
     }
   }
+
+  /**
+   * Check that every internal link in a rendered multi-page document refers
+   * to a page that exists and, if it has a fragment, to an element on that
+   * page with the given ID.
+   */
+
+  @Test public void testLinksResolve()
+    throws Exception
+  {
+    final SDocumentGenerator g = new SDocumentGenerator();
+    g.setSeed(0x5eedL);
+    g.setParts(2);
+    g.setSections(8);
+    g.setSubsections(2);
+    g.setParagraphs(3);
+    g.setFootnotes(2);
+    g.setFormalItems(2);
+    g.setTables(1);
+    g.setLinks(4);
+    g.setIDs(3);
+
+    final SADocument a = SAnnotator.document(g.generate());
+    final SortedMap<String, Document> multi =
+      new SDocumentXHTMLWriterMulti().writeDocuments(new Callbacks(), a);
+
+    final Map<String, Set<String>> ids = new HashMap<String, Set<String>>();
+    for (final String name : multi.keySet()) {
+      final Set<String> page_ids = new HashSet<String>();
+      final Nodes nodes = multi.get(name).query("//@id");
+      for (int index = 0; index < nodes.size(); ++index) {
+        page_ids.add(nodes.get(index).getValue());
+      }
+      ids.put(name, page_ids);
+    }
+
+    int checked = 0;
+    for (final String name : multi.keySet()) {
+      final Nodes nodes = multi.get(name).query("//*[local-name()='a']/@href");
+      for (int index = 0; index < nodes.size(); ++index) {
+        final String href = nodes.get(index).getValue();
+        final int hash = href.indexOf('#');
+        final String page = hash >= 0 ? href.substring(0, hash) : href;
+        final String target = page.isEmpty() ? name : page;
+        Assert.assertTrue(href, ids.containsKey(target));
+        if (hash >= 0) {
+          Assert.assertTrue(
+            href,
+            ids.get(target).contains(href.substring(hash + 1)));
+        }
+        ++checked;
+      }
+    }
+    Assert.assertTrue(checked > 0);
+  }
 }
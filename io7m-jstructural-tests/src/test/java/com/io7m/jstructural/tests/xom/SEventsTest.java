@@ -0,0 +1,188 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jstructural.tests.xom;
+
+import com.io7m.jnull.Nullable;
+import com.io7m.jstructural.annotated.SADocument;
+import com.io7m.jstructural.annotated.SAnnotator;
+import com.io7m.jstructural.core.SDocument;
+import com.io7m.jstructural.events.SEvents;
+import com.io7m.jstructural.xom.SDocumentFragmentCache;
+import com.io7m.jstructural.xom.SDocumentParser;
+import com.io7m.jstructural.xom.SDocumentParserContext;
+import com.io7m.jstructural.xom.SDocumentXHTMLWriterCallbacks;
+import com.io7m.jstructural.xom.SDocumentXHTMLWriterMulti;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import nu.xom.Element;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@SuppressWarnings("static-method") public final class SEventsTest
+{
+  private static final class Callbacks implements
+    SDocumentXHTMLWriterCallbacks
+  {
+    Callbacks()
+    {
+
+    }
+
+    @Override public void onBodyEnd(
+      final Element body)
+    {
+      // Nothing
+    }
+
+    @Override public @Nullable Element onBodyStart(
+      final Element body)
+    {
+      return null;
+    }
+
+    @Override public void onHead(
+      final Element head)
+    {
+      // Nothing
+    }
+  }
+
+  private static Map<String, Integer> countEvents(
+    final File file)
+    throws Exception
+  {
+    final Map<String, Integer> counts = new HashMap<String, Integer>();
+    final List<RecordedEvent> events = RecordingFile.readAllEvents(file.toPath());
+    for (final RecordedEvent e : events) {
+      final String name = e.getEventType().getName();
+      if (name.startsWith("com.io7m.jstructural.")) {
+        final Integer c = counts.get(name);
+        counts.put(name, Integer.valueOf(c == null ? 1 : c.intValue() + 1));
+      }
+    }
+    return counts;
+  }
+
+  /**
+   * Enable a custom URL handler so that XIncludes can use a structuraltest://
+   * URL scheme in order to include other files in the test resources.
+   */
+
+  @Before public void before()
+  {
+    System.setProperty(
+      "java.protocol.handler.pkgs",
+      "com.io7m.jstructural.tests.xom");
+  }
+
+  @Test public void testPipelineEvents()
+    throws Exception
+  {
+    Assume.assumeTrue(SEvents.AVAILABLE);
+
+    final String file = "/com/io7m/jstructural/tests/resolve-0.xml";
+    final URI uri = SEventsTest.class.getResource(file).toURI();
+    final File output = File.createTempFile("jstructural-events", ".jfr");
+    output.deleteOnExit();
+
+    final Recording recording = new Recording();
+    try {
+      recording.enable("com.io7m.jstructural.Parse");
+      recording.enable("com.io7m.jstructural.Validate");
+      recording.enable("com.io7m.jstructural.XInclude");
+      recording.enable("com.io7m.jstructural.ResolveEntity");
+      recording.enable("com.io7m.jstructural.Annotate");
+      recording.enable("com.io7m.jstructural.RenderPage");
+      recording.start();
+
+      final SDocument d = SDocumentParser.fromStream(
+        SDocumentParserContext.newContext(),
+        SEventsTest.class.getResourceAsStream(file),
+        uri);
+      final SADocument ad = SAnnotator.document(d);
+      final SDocumentXHTMLWriterMulti writer = new SDocumentXHTMLWriterMulti();
+      final int pages = writer.writeDocuments(new Callbacks(), ad).size();
+
+      recording.stop();
+      recording.dump(output.toPath());
+
+      final Map<String, Integer> counts = SEventsTest.countEvents(output);
+      Assert.assertEquals(
+        Integer.valueOf(1), counts.get("com.io7m.jstructural.Parse"));
+      Assert.assertEquals(
+        Integer.valueOf(1), counts.get("com.io7m.jstructural.Validate"));
+      Assert.assertEquals(
+        Integer.valueOf(1), counts.get("com.io7m.jstructural.ResolveEntity"));
+      Assert.assertNull(counts.get("com.io7m.jstructural.XInclude"));
+      Assert.assertEquals(
+        Integer.valueOf(1), counts.get("com.io7m.jstructural.Annotate"));
+      Assert.assertEquals(
+        Integer.valueOf(pages),
+        counts.get("com.io7m.jstructural.RenderPage"));
+    } finally {
+      recording.close();
+    }
+  }
+
+  /**
+   * When included files are read by the fragment parser rather than by the
+   * XML parser, an XInclude event is emitted for each included file.
+   */
+
+  @Test public void testFragmentEvents()
+    throws Exception
+  {
+    Assume.assumeTrue(SEvents.AVAILABLE);
+
+    final String file = "/com/io7m/jstructural/tests/resolve-0.xml";
+    final URI uri = SEventsTest.class.getResource(file).toURI();
+    final File output = File.createTempFile("jstructural-events", ".jfr");
+    output.deleteOnExit();
+
+    final Recording recording = new Recording();
+    try {
+      recording.enable("com.io7m.jstructural.XInclude");
+      recording.enable("com.io7m.jstructural.ResolveEntity");
+      recording.start();
+
+      SDocumentParser.fromStreamFragments(
+        SDocumentParserContext.newContext(),
+        SDocumentFragmentCache.newCache(),
+        SEventsTest.class.getResourceAsStream(file),
+        uri);
+
+      recording.stop();
+      recording.dump(output.toPath());
+
+      final Map<String, Integer> counts = SEventsTest.countEvents(output);
+      Assert.assertEquals(
+        Integer.valueOf(1), counts.get("com.io7m.jstructural.XInclude"));
+      Assert.assertNull(counts.get("com.io7m.jstructural.ResolveEntity"));
+    } finally {
+      recording.close();
+    }
+  }
+}
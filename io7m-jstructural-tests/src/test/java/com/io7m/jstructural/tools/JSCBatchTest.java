@@ -0,0 +1,187 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jstructural.tools;
+
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import org.apache.commons.cli.ParseException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+@SuppressWarnings("static-method")
+public final class JSCBatchTest
+{
+  private static File directory()
+    throws IOException
+  {
+    final File d = File.createTempFile("jstructural-batch", "");
+    Assert.assertTrue(d.delete());
+    Assert.assertTrue(d.mkdirs());
+    d.deleteOnExit();
+    return d;
+  }
+
+  private static File manifest(
+    final String... lines)
+    throws IOException
+  {
+    final File file = new File(JSCBatchTest.directory(), "batch.txt");
+    file.deleteOnExit();
+
+    final StringBuilder b = new StringBuilder();
+    for (final String line : lines) {
+      b.append(line);
+      b.append("\n");
+    }
+
+    final OutputStream out = new FileOutputStream(file);
+    try {
+      out.write(b.toString().getBytes("UTF-8"));
+    } finally {
+      out.close();
+    }
+    return file;
+  }
+
+  private static String parseError(
+    final String... lines)
+    throws IOException
+  {
+    final File file = JSCBatchTest.manifest(lines);
+    try {
+      JSCBatch.parseManifest(file);
+    } catch (final ParseException e) {
+      final String m = e.getMessage();
+      Assert.assertTrue(m, m.startsWith(file.toString()));
+      return m;
+    }
+    Assert.fail("Expected ParseException");
+    throw new AssertionError();
+  }
+
+  @Test public void testEntries()
+    throws Exception
+  {
+    final File file = JSCBatchTest.manifest(
+      "# A comment",
+      "",
+      "   ",
+      "multi doc.xml out",
+      "  # An indented comment",
+      "single\tsub/doc.xml   out-single  ");
+    final File base = file.getAbsoluteFile().getParentFile();
+    final OptionType<File> none = Option.none();
+
+    final List<JSCCompilation> r = JSCBatch.parseManifest(file);
+    Assert.assertEquals(2, r.size());
+    Assert.assertEquals(
+      JSCCompilation.compilation(
+        new File(base, "doc.xml"),
+        new File(base, "out"),
+        JSCPagination.XHTML_MULTI,
+        none,
+        none), r.get(0));
+    Assert.assertEquals(
+      JSCCompilation.compilation(
+        new File(base, "sub/doc.xml"),
+        new File(base, "out-single"),
+        JSCPagination.XHTML_SINGLE,
+        none,
+        none), r.get(1));
+  }
+
+  @Test public void testBodyInserts()
+    throws Exception
+  {
+    final File abs = new File(JSCBatchTest.directory(), "end.xml");
+    final File file = JSCBatchTest.manifest(
+      "multi doc.xml out body-start=inserts/start.xml body-end=" + abs,
+      "single doc.xml out body-end=end.xml",
+      "single doc.xml out body-start=start.xml");
+    final File base = file.getAbsoluteFile().getParentFile();
+
+    final List<JSCCompilation> r = JSCBatch.parseManifest(file);
+    Assert.assertEquals(3, r.size());
+
+    Assert.assertEquals(
+      Option.some(new File(base, "inserts/start.xml")),
+      r.get(0).getBodyStart());
+    Assert.assertEquals(Option.some(abs), r.get(0).getBodyEnd());
+
+    Assert.assertTrue(r.get(1).getBodyStart().isNone());
+    Assert.assertEquals(
+      Option.some(new File(base, "end.xml")), r.get(1).getBodyEnd());
+
+    Assert.assertEquals(
+      Option.some(new File(base, "start.xml")), r.get(2).getBodyStart());
+    Assert.assertTrue(r.get(2).getBodyEnd().isNone());
+  }
+
+  @Test public void testAbsolutePaths()
+    throws Exception
+  {
+    final File other = JSCBatchTest.directory();
+    final File doc = new File(other, "doc.xml");
+    final File out = new File(other, "out");
+    final File file = JSCBatchTest.manifest("single " + doc + " " + out);
+
+    final List<JSCCompilation> r = JSCBatch.parseManifest(file);
+    Assert.assertEquals(1, r.size());
+    Assert.assertEquals(doc, r.get(0).getDocument());
+    Assert.assertEquals(out, r.get(0).getOutputDirectory());
+  }
+
+  @Test public void testBadPagination()
+    throws Exception
+  {
+    final String m = JSCBatchTest.parseError(
+      "# Comment", "multi a.xml out", "paged doc.xml out");
+    Assert.assertTrue(m, m.contains(":3:"));
+    Assert.assertTrue(m, m.contains("Pagination must be"));
+    Assert.assertTrue(m, m.contains("paged"));
+  }
+
+  @Test public void testTooFewFields()
+    throws Exception
+  {
+    final String m = JSCBatchTest.parseError("multi doc.xml");
+    Assert.assertTrue(m, m.contains(":1:"));
+    Assert.assertTrue(m, m.contains("Expected"));
+  }
+
+  @Test public void testUnknownOption()
+    throws Exception
+  {
+    final String m = JSCBatchTest.parseError(
+      "", "multi doc.xml out body-middle=x.xml");
+    Assert.assertTrue(m, m.contains(":2:"));
+    Assert.assertTrue(m, m.contains("Unknown option: body-middle=x.xml"));
+  }
+
+  @Test public void testEmpty()
+    throws Exception
+  {
+    final String m = JSCBatchTest.parseError("# Only a comment", "", "  ");
+    Assert.assertTrue(m, m.contains("no entries"));
+  }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jstructural.tools;
+
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedSet;
+
+@SuppressWarnings("static-method")
+public final class JSCCompilerTest
+{
+  private static File directory()
+    throws IOException
+  {
+    final File d = File.createTempFile("jstructural-compiler", "");
+    Assert.assertTrue(d.delete());
+    Assert.assertTrue(d.mkdirs());
+    d.deleteOnExit();
+    return d;
+  }
+
+  private static File write(
+    final File file,
+    final String text)
+    throws IOException
+  {
+    file.deleteOnExit();
+    final OutputStream out = new FileOutputStream(file);
+    try {
+      out.write(text.getBytes("UTF-8"));
+    } finally {
+      out.close();
+    }
+    return file;
+  }
+
+  private static String read(
+    final File file)
+    throws IOException
+  {
+    final InputStream in = new FileInputStream(file);
+    try {
+      final byte[] data = new byte[(int) file.length()];
+      int offset = 0;
+      while (offset < data.length) {
+        final int r = in.read(data, offset, data.length - offset);
+        Assert.assertTrue(r > 0);
+        offset += r;
+      }
+      return new String(data, "UTF-8");
+    } finally {
+      in.close();
+    }
+  }
+
+  private static File document(
+    final File directory,
+    final String name,
+    final String title)
+    throws IOException
+  {
+    return JSCCompilerTest.write(
+      new File(directory, name),
+      "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+      + "<s:document xmlns:s=\"http://schemas.io7m.com/structural/2.1.0\">\n"
+      + "  <s:document-title>" + title + "</s:document-title>\n"
+      + "  <s:section>\n"
+      + "    <s:section-title>Section</s:section-title>\n"
+      + "    <s:paragraph>Paragraph.</s:paragraph>\n"
+      + "  </s:section>\n"
+      + "</s:document>\n");
+  }
+
+  private static File insert(
+    final File directory,
+    final String text)
+    throws IOException
+  {
+    return JSCCompilerTest.write(
+      new File(directory, "insert.xml"),
+      "<div xmlns=\"http://www.w3.org/1999/xhtml\">" + text + "</div>\n");
+  }
+
+  private static JSCCompilation compilation(
+    final File document,
+    final File outdir,
+    final JSCPagination pagination,
+    final OptionType<File> body_start)
+  {
+    final OptionType<File> none = Option.none();
+    return JSCCompilation.compilation(
+      document, outdir, pagination, body_start, none);
+  }
+
+  @Test public void testCompileAllOrder()
+    throws Exception
+  {
+    final File d = JSCCompilerTest.directory();
+    final OptionType<File> none = Option.none();
+
+    final List<JSCCompilation> cs = new ArrayList<JSCCompilation>(6);
+    for (int index = 0; index < 6; ++index) {
+      final JSCPagination p = index % 2 == 0
+        ? JSCPagination.XHTML_SINGLE : JSCPagination.XHTML_MULTI;
+      cs.add(
+        JSCCompilerTest.compilation(
+          JSCCompilerTest.document(d, "doc" + index + ".xml", "Doc " + index),
+          new File(d, "out" + index),
+          p,
+          none));
+    }
+
+    final JSCCompiler c = JSCCompiler.newCompiler(3, 1, false);
+    final List<SortedSet<String>> r = c.compileAll(cs);
+    Assert.assertEquals(cs.size(), r.size());
+
+    for (int index = 0; index < cs.size(); ++index) {
+      final SortedSet<String> names = r.get(index);
+      final File out = cs.get(index).getOutputDirectory();
+      for (final String name : names) {
+        Assert.assertTrue(name, new File(out, name).isFile());
+      }
+
+      /*
+       * Only multi-page output contains more than one page, so the order of
+       * the results can be checked against the pagination of each input.
+       */
+
+      if (index % 2 == 0) {
+        Assert.assertEquals(names.toString(), 3, names.size());
+        Assert.assertTrue(names.contains("index.xhtml"));
+      } else {
+        Assert.assertTrue(names.toString(), names.size() > 3);
+      }
+
+      for (final String name : names) {
+        if (name.endsWith(".xhtml")) {
+          final String page = JSCCompilerTest.read(new File(out, name));
+          Assert.assertTrue(name, page.contains("Doc " + index));
+        }
+      }
+    }
+  }
+
+  @Test public void testCompileAllFailureIsolated()
+    throws Exception
+  {
+    final File d = JSCCompilerTest.directory();
+    final OptionType<File> none = Option.none();
+    final File bad = JSCCompilerTest.write(
+      new File(d, "bad.xml"), "<?xml version=\"1.0\"?>\n<unclosed>\n");
+
+    final List<JSCCompilation> cs = new ArrayList<JSCCompilation>(3);
+    cs.add(
+      JSCCompilerTest.compilation(
+        bad, new File(d, "out0"), JSCPagination.XHTML_SINGLE, none));
+    cs.add(
+      JSCCompilerTest.compilation(
+        JSCCompilerTest.document(d, "doc1.xml", "Doc 1"),
+        new File(d, "out1"),
+        JSCPagination.XHTML_SINGLE,
+        none));
+    cs.add(
+      JSCCompilerTest.compilation(
+        new File(d, "nonexistent.xml"),
+        new File(d, "out2"),
+        JSCPagination.XHTML_MULTI,
+        none));
+
+    final JSCCompiler c = JSCCompiler.newCompiler(1, 1, false);
+    try {
+      c.compileAll(cs);
+      Assert.fail("Expected IOException");
+    } catch (final IOException e) {
+      Assert.assertEquals(
+        "2 of 3 documents failed to compile", e.getMessage());
+      Assert.assertNotNull(e.getCause());
+    }
+
+    /*
+     * The document after the first failure was still compiled.
+     */
+
+    Assert.assertTrue(new File(d, "out1/index.xhtml").isFile());
+  }
+
+  @Test public void testInsertReloaded()
+    throws Exception
+  {
+    final File d = JSCCompilerTest.directory();
+    final File insert = JSCCompilerTest.insert(d, "first insert");
+    final File out = new File(d, "out");
+    final File page = new File(out, "index.xhtml");
+    final JSCCompilation compilation =
+      JSCCompilerTest.compilation(
+        JSCCompilerTest.document(d, "doc.xml", "Doc"),
+        out,
+        JSCPagination.XHTML_SINGLE,
+        Option.some(insert));
+
+    final JSCCompiler c = JSCCompiler.newCompiler(1, 1, false);
+    c.compile(compilation);
+    Assert.assertTrue(JSCCompilerTest.read(page).contains("first insert"));
+
+    c.compile(compilation);
+    Assert.assertTrue(JSCCompilerTest.read(page).contains("first insert"));
+
+    final long modified = insert.lastModified();
+    JSCCompilerTest.insert(d, "the second, longer insert");
+    Assert.assertTrue(insert.setLastModified(modified + 2000L));
+
+    c.compile(compilation);
+    final String text = JSCCompilerTest.read(page);
+    Assert.assertTrue(text.contains("the second, longer insert"));
+    Assert.assertFalse(text.contains("first insert"));
+  }
+}
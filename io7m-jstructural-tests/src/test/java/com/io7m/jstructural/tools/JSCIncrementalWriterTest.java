@@ -0,0 +1,280 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jstructural.tools;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+@SuppressWarnings("static-method")
+public final class JSCIncrementalWriterTest
+{
+  private static File directory()
+    throws IOException
+  {
+    final File d = File.createTempFile("jstructural-incremental", "");
+    Assert.assertTrue(d.delete());
+    Assert.assertTrue(d.mkdirs());
+    d.deleteOnExit();
+    return d;
+  }
+
+  private static void write(
+    final File file,
+    final String text)
+    throws IOException
+  {
+    file.deleteOnExit();
+    final OutputStream out = new FileOutputStream(file);
+    try {
+      out.write(text.getBytes("UTF-8"));
+    } finally {
+      out.close();
+    }
+  }
+
+  private static String read(
+    final File file)
+    throws IOException
+  {
+    final InputStream in = new FileInputStream(file);
+    try {
+      final byte[] data = new byte[(int) file.length()];
+      int offset = 0;
+      while (offset < data.length) {
+        final int r = in.read(data, offset, data.length - offset);
+        Assert.assertTrue(r > 0);
+        offset += r;
+      }
+      return new String(data, "UTF-8");
+    } finally {
+      in.close();
+    }
+  }
+
+  private static SortedMap<String, String> pages(
+    final String... names_and_texts)
+  {
+    final SortedMap<String, String> m = new TreeMap<String, String>();
+    for (int index = 0; index < names_and_texts.length; index += 2) {
+      m.put(names_and_texts[index], names_and_texts[index + 1]);
+    }
+    return m;
+  }
+
+  private static JSCIncrementalWriter.Changes run(
+    final File directory,
+    final SortedMap<String, String> pages)
+    throws IOException
+  {
+    final JSCIncrementalWriter w = new JSCIncrementalWriter(directory);
+    for (final Map.Entry<String, String> e : pages.entrySet()) {
+      new File(directory, e.getKey()).deleteOnExit();
+      w.onPage(e.getKey(), e.getValue().getBytes("UTF-8"));
+    }
+    final JSCIncrementalWriter.Changes c = w.finish();
+    new File(directory, JSCIncrementalWriter.MANIFEST_NAME).deleteOnExit();
+    return c;
+  }
+
+  /**
+   * Move the modification time of the given file into the past, so that
+   * rewriting it is detectable regardless of the file system's timestamp
+   * granularity.
+   */
+
+  private static long age(
+    final File file)
+  {
+    final long time = file.lastModified() - 60000L;
+    Assert.assertTrue(file.setLastModified(time));
+    return file.lastModified();
+  }
+
+  @Test public void testFirstRun()
+    throws Exception
+  {
+    final File d = JSCIncrementalWriterTest.directory();
+    final JSCIncrementalWriter.Changes c = JSCIncrementalWriterTest.run(
+      d, JSCIncrementalWriterTest.pages("a.xhtml", "A", "b.xhtml", "B"));
+
+    Assert.assertEquals(Arrays.asList("a.xhtml", "b.xhtml"), c.getChanged());
+    Assert.assertEquals(Collections.emptyList(), c.getRemoved());
+    Assert.assertEquals("A", JSCIncrementalWriterTest.read(
+      new File(d, "a.xhtml")));
+    Assert.assertEquals("B", JSCIncrementalWriterTest.read(
+      new File(d, "b.xhtml")));
+  }
+
+  @Test public void testUnchanged()
+    throws Exception
+  {
+    final File d = JSCIncrementalWriterTest.directory();
+    final SortedMap<String, String> p =
+      JSCIncrementalWriterTest.pages("a.xhtml", "A", "b.xhtml", "B");
+    JSCIncrementalWriterTest.run(d, p);
+
+    final File a = new File(d, "a.xhtml");
+    final long time = JSCIncrementalWriterTest.age(a);
+
+    /*
+     * The first run hashes the file whose time no longer matches the
+     * manifest, and the second trusts the manifest written by the first.
+     */
+
+    JSCIncrementalWriterTest.run(d, p);
+    final JSCIncrementalWriter.Changes c = JSCIncrementalWriterTest.run(d, p);
+
+    Assert.assertEquals(Collections.emptyList(), c.getChanged());
+    Assert.assertEquals(Collections.emptyList(), c.getRemoved());
+    Assert.assertEquals(time, a.lastModified());
+  }
+
+  @Test public void testChanged()
+    throws Exception
+  {
+    final File d = JSCIncrementalWriterTest.directory();
+    JSCIncrementalWriterTest.run(
+      d, JSCIncrementalWriterTest.pages("a.xhtml", "A", "b.xhtml", "B"));
+
+    final File b = new File(d, "b.xhtml");
+    final long time = JSCIncrementalWriterTest.age(b);
+    final JSCIncrementalWriter.Changes c = JSCIncrementalWriterTest.run(
+      d, JSCIncrementalWriterTest.pages("a.xhtml", "A2", "b.xhtml", "B"));
+
+    Assert.assertEquals(Collections.singletonList("a.xhtml"), c.getChanged());
+    Assert.assertEquals("A2", JSCIncrementalWriterTest.read(
+      new File(d, "a.xhtml")));
+    Assert.assertEquals(time, b.lastModified());
+  }
+
+  @Test public void testRemoved()
+    throws Exception
+  {
+    final File d = JSCIncrementalWriterTest.directory();
+    JSCIncrementalWriterTest.run(
+      d, JSCIncrementalWriterTest.pages("a.xhtml", "A", "b.xhtml", "B"));
+
+    final JSCIncrementalWriter.Changes c = JSCIncrementalWriterTest.run(
+      d, JSCIncrementalWriterTest.pages("a.xhtml", "A"));
+
+    Assert.assertEquals(Collections.emptyList(), c.getChanged());
+    Assert.assertEquals(Collections.singletonList("b.xhtml"), c.getRemoved());
+    Assert.assertFalse(new File(d, "b.xhtml").exists());
+  }
+
+  @Test public void testOutputDeleted()
+    throws Exception
+  {
+    final File d = JSCIncrementalWriterTest.directory();
+    final SortedMap<String, String> p =
+      JSCIncrementalWriterTest.pages("a.xhtml", "A");
+    JSCIncrementalWriterTest.run(d, p);
+
+    final File a = new File(d, "a.xhtml");
+    Assert.assertTrue(a.delete());
+    final JSCIncrementalWriter.Changes c = JSCIncrementalWriterTest.run(d, p);
+
+    Assert.assertEquals(Collections.singletonList("a.xhtml"), c.getChanged());
+    Assert.assertEquals("A", JSCIncrementalWriterTest.read(a));
+  }
+
+  /**
+   * An output file that was modified after the previous run is rewritten,
+   * even though the page itself has not changed.
+   */
+
+  @Test public void testOutputModified()
+    throws Exception
+  {
+    final File d = JSCIncrementalWriterTest.directory();
+    final SortedMap<String, String> p =
+      JSCIncrementalWriterTest.pages("a.xhtml", "A", "b.xhtml", "B");
+    JSCIncrementalWriterTest.run(d, p);
+
+    final File a = new File(d, "a.xhtml");
+    JSCIncrementalWriterTest.write(a, "Modified");
+    final File b = new File(d, "b.xhtml");
+    JSCIncrementalWriterTest.write(b, "X");
+    JSCIncrementalWriterTest.age(b);
+
+    final JSCIncrementalWriter.Changes c = JSCIncrementalWriterTest.run(d, p);
+    Assert.assertEquals(Arrays.asList("a.xhtml", "b.xhtml"), c.getChanged());
+    Assert.assertEquals("A", JSCIncrementalWriterTest.read(a));
+    Assert.assertEquals("B", JSCIncrementalWriterTest.read(b));
+  }
+
+  @Test public void testManifestMissing()
+    throws Exception
+  {
+    final File d = JSCIncrementalWriterTest.directory();
+    JSCIncrementalWriterTest.run(
+      d, JSCIncrementalWriterTest.pages("a.xhtml", "A", "b.xhtml", "B"));
+    Assert.assertTrue(
+      new File(d, JSCIncrementalWriter.MANIFEST_NAME).delete());
+
+    final File a = new File(d, "a.xhtml");
+    final long time = JSCIncrementalWriterTest.age(a);
+    JSCIncrementalWriterTest.write(new File(d, "b.xhtml"), "Modified");
+
+    final JSCIncrementalWriter.Changes c = JSCIncrementalWriterTest.run(
+      d, JSCIncrementalWriterTest.pages("a.xhtml", "A", "b.xhtml", "B"));
+    Assert.assertEquals(Collections.singletonList("b.xhtml"), c.getChanged());
+    Assert.assertEquals(Collections.emptyList(), c.getRemoved());
+    Assert.assertEquals(time, a.lastModified());
+  }
+
+  @Test public void testManifestCorrupt()
+    throws Exception
+  {
+    final File d = JSCIncrementalWriterTest.directory();
+    final SortedMap<String, String> p =
+      JSCIncrementalWriterTest.pages("a.xhtml", "A", "b.xhtml", "B");
+    JSCIncrementalWriterTest.run(d, p);
+
+    final File a = new File(d, "a.xhtml");
+    final long time = JSCIncrementalWriterTest.age(a);
+    JSCIncrementalWriterTest.write(new File(d, "b.xhtml"), "Modified");
+    JSCIncrementalWriterTest.write(
+      new File(d, JSCIncrementalWriter.MANIFEST_NAME),
+      "garbage\n\n0000 x y a.xhtml\nffff b.xhtml\n");
+
+    final JSCIncrementalWriter.Changes c = JSCIncrementalWriterTest.run(d, p);
+    Assert.assertEquals(Collections.singletonList("b.xhtml"), c.getChanged());
+    Assert.assertEquals(time, a.lastModified());
+    Assert.assertEquals("B", JSCIncrementalWriterTest.read(
+      new File(d, "b.xhtml")));
+
+    final SortedMap<String, JSCIncrementalWriter.Entry> m =
+      JSCIncrementalWriter.readManifest(
+        new File(d, JSCIncrementalWriter.MANIFEST_NAME));
+    Assert.assertEquals(p.keySet(), m.keySet());
+    Assert.assertEquals(time, m.get("a.xhtml").getModified());
+    Assert.assertEquals(1L, m.get("a.xhtml").getSize());
+  }
+}
@@ -0,0 +1,439 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jstructural.tools;
+
+import com.io7m.jstructural.xom.SDocumentXHTMLPageSink;
+import nu.xom.Document;
+import nu.xom.Element;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+@SuppressWarnings({ "static-method", "unchecked" })
+public final class JSCProfileTest
+{
+  private static final String[] NAMES = {
+    "index.xhtml",
+    "a \"quoted\" \\ name",
+    "tab\tnewline\ncontrol\u0001",
+    "ünïcödé ☃",
+  };
+
+  private static File temporary()
+    throws IOException
+  {
+    final File f = File.createTempFile("jstructural-profile", ".json");
+    f.deleteOnExit();
+    return f;
+  }
+
+  private static String read(
+    final File file)
+    throws IOException
+  {
+    final InputStream in = new FileInputStream(file);
+    try {
+      final byte[] data = new byte[(int) file.length()];
+      int offset = 0;
+      while (offset < data.length) {
+        final int r = in.read(data, offset, data.length - offset);
+        Assert.assertTrue(r > 0);
+        offset += r;
+      }
+      return new String(data, "UTF-8");
+    } finally {
+      in.close();
+    }
+  }
+
+  private static Map<String, Object> parseJSON(
+    final File file)
+    throws IOException
+  {
+    final JSONReader r = new JSONReader(JSCProfileTest.read(file));
+    final Object v = r.value();
+    r.end();
+    return (Map<String, Object>) v;
+  }
+
+  private static JSCProfile profile(
+    final String[] names)
+  {
+    final JSCProfile p = new JSCProfile();
+    p.record(JSCProfile.PHASE_VALIDATE, null, p.mark());
+    for (final String name : names) {
+      p.record(JSCProfile.PHASE_RENDER, name, p.mark());
+    }
+    p.record(JSCProfile.PHASE_WRITE, "index.xhtml", p.mark());
+    return p;
+  }
+
+  private static Map<String, Map<String, Object>> phases(
+    final Map<String, Object> json)
+  {
+    final Map<String, Map<String, Object>> r =
+      new LinkedHashMap<String, Map<String, Object>>();
+    for (final Object o : (List<Object>) json.get("phases")) {
+      final Map<String, Object> m = (Map<String, Object>) o;
+      r.put((String) m.get("phase"), m);
+    }
+    return r;
+  }
+
+  private static List<String> itemNames(
+    final Map<String, Object> phase)
+  {
+    final List<String> r = new ArrayList<String>();
+    for (final Object o : (List<Object>) phase.get("items")) {
+      r.add((String) ((Map<String, Object>) o).get("name"));
+    }
+    return r;
+  }
+
+  private static long field(
+    final Map<String, Object> m,
+    final String name)
+  {
+    return ((Long) m.get(name)).longValue();
+  }
+
+  @Test public void testJSON()
+    throws Exception
+  {
+    final JSCProfile p = JSCProfileTest.profile(JSCProfileTest.NAMES);
+    final File document = new File("/some \"odd\" dir\\doc.xml");
+    final File file = JSCProfileTest.temporary();
+    p.writeJSON(file, document);
+
+    final Map<String, Object> json = JSCProfileTest.parseJSON(file);
+    Assert.assertEquals(Long.valueOf(1L), json.get("version"));
+    Assert.assertEquals(document.toString(), json.get("document"));
+
+    final Map<String, Map<String, Object>> phases =
+      JSCProfileTest.phases(json);
+    Assert.assertEquals(
+      Arrays.asList(
+        JSCProfile.PHASE_VALIDATE,
+        JSCProfile.PHASE_RENDER,
+        JSCProfile.PHASE_WRITE),
+      new ArrayList<String>(phases.keySet()));
+
+    final Map<String, Object> validate =
+      phases.get(JSCProfile.PHASE_VALIDATE);
+    Assert.assertEquals(1L, JSCProfileTest.field(validate, "count"));
+    Assert.assertEquals(
+      new ArrayList<String>(), JSCProfileTest.itemNames(validate));
+
+    final Map<String, Object> render = phases.get(JSCProfile.PHASE_RENDER);
+    Assert.assertEquals(
+      (long) JSCProfileTest.NAMES.length,
+      JSCProfileTest.field(render, "count"));
+    Assert.assertEquals(
+      Arrays.asList(JSCProfileTest.NAMES), JSCProfileTest.itemNames(render));
+
+    final Map<String, Object> write = phases.get(JSCProfile.PHASE_WRITE);
+    Assert.assertEquals(1L, JSCProfileTest.field(write, "count"));
+    Assert.assertEquals(
+      Arrays.asList("index.xhtml"), JSCProfileTest.itemNames(write));
+
+    long wall = 0L;
+    for (final Map<String, Object> phase : phases.values()) {
+      Assert.assertTrue(JSCProfileTest.field(phase, "wall_ns") >= 0L);
+      Assert.assertTrue(JSCProfileTest.field(phase, "cpu_ns") >= -1L);
+      Assert.assertTrue(
+        JSCProfileTest.field(phase, "allocated_bytes") >= -1L);
+      wall += JSCProfileTest.field(phase, "wall_ns");
+    }
+
+    final Map<String, Object> total = (Map<String, Object>) json.get("total");
+    Assert.assertEquals(wall, JSCProfileTest.field(total, "wall_ns"));
+  }
+
+  @Test public void testPageSink()
+    throws Exception
+  {
+    final JSCProfile p = new JSCProfile();
+    final Map<String, byte[]> received = new TreeMap<String, byte[]>();
+    final SDocumentXHTMLPageSink sink = p.pageSink(
+      new JSCPageBytesSink()
+      {
+        @Override public void onPage(
+          final String name,
+          final byte[] data)
+        {
+          received.put(name, data);
+        }
+      });
+
+    final Document d0 = new Document(new Element("a"));
+    final Document d1 = new Document(new Element("b"));
+    sink.onPage("0.xhtml", d0);
+    sink.onPage("1.xhtml", d1);
+
+    Assert.assertEquals(2, received.size());
+    Assert.assertArrayEquals(
+      JSCMain.serialize(d0), received.get("0.xhtml"));
+    Assert.assertArrayEquals(
+      JSCMain.serialize(d1), received.get("1.xhtml"));
+
+    final File file = JSCProfileTest.temporary();
+    p.writeJSON(file, new File("doc.xml"));
+    final Map<String, Map<String, Object>> phases =
+      JSCProfileTest.phases(JSCProfileTest.parseJSON(file));
+
+    Assert.assertEquals(
+      Arrays.asList(
+        JSCProfile.PHASE_RENDER,
+        JSCProfile.PHASE_SERIALIZE,
+        JSCProfile.PHASE_WRITE),
+      new ArrayList<String>(phases.keySet()));
+    for (final Map<String, Object> phase : phases.values()) {
+      Assert.assertEquals(2L, JSCProfileTest.field(phase, "count"));
+      Assert.assertEquals(
+        Arrays.asList("0.xhtml", "1.xhtml"),
+        JSCProfileTest.itemNames(phase));
+    }
+  }
+
+  @Test public void testSummary()
+  {
+    /*
+     * The summary prints item names as they are, so names containing line
+     * breaks are avoided here.
+     */
+
+    final String[] names = { "a.xhtml", "b.xhtml", "c.xhtml" };
+    final JSCProfile p = JSCProfileTest.profile(names);
+    final StringWriter text = new StringWriter();
+    p.writeSummary(new PrintWriter(text));
+
+    final String[] lines = text.toString().split("\\r?\\n");
+    Assert.assertEquals(5, lines.length);
+
+    final String[] header = lines[0].trim().split("\\s{2,}");
+    Assert.assertEquals(
+      Arrays.asList(
+        "phase", "count", "wall ms", "cpu ms", "alloc MiB", "slowest"),
+      Arrays.asList(header));
+
+    final String[] validate = lines[1].trim().split("\\s+");
+    Assert.assertEquals(JSCProfile.PHASE_VALIDATE, validate[0]);
+    Assert.assertEquals("1", validate[1]);
+    Assert.assertEquals(5, validate.length);
+
+    final String[] render = lines[2].trim().split("\\s+");
+    Assert.assertEquals(JSCProfile.PHASE_RENDER, render[0]);
+    Assert.assertEquals(Integer.toString(names.length), render[1]);
+    Assert.assertTrue(lines[2], lines[2].endsWith(" ms)"));
+    Assert.assertTrue(lines[2], lines[2].contains(".xhtml ("));
+
+    final String[] write = lines[3].trim().split("\\s+");
+    Assert.assertEquals(JSCProfile.PHASE_WRITE, write[0]);
+    Assert.assertEquals("1", write[1]);
+    Assert.assertEquals(5, write.length);
+
+    Assert.assertTrue(lines[4], lines[4].startsWith("total "));
+  }
+
+  /**
+   * A minimal JSON reader, sufficient to check the profile output.
+   */
+
+  private static final class JSONReader
+  {
+    private final String text;
+    private int          position;
+
+    JSONReader(
+      final String in_text)
+    {
+      this.text = in_text;
+      this.position = 0;
+    }
+
+    private void whitespace()
+    {
+      while (this.position < this.text.length()
+             && Character.isWhitespace(this.text.charAt(this.position))) {
+        ++this.position;
+      }
+    }
+
+    private char next()
+    {
+      Assert.assertTrue(
+        "Unexpected end of JSON", this.position < this.text.length());
+      final char c = this.text.charAt(this.position);
+      ++this.position;
+      return c;
+    }
+
+    private void expect(
+      final char c)
+    {
+      this.whitespace();
+      final int at = this.position;
+      Assert.assertEquals("At offset " + at, c, this.next());
+    }
+
+    private boolean peek(
+      final char c)
+    {
+      this.whitespace();
+      return this.position < this.text.length()
+             && this.text.charAt(this.position) == c;
+    }
+
+    void end()
+    {
+      this.whitespace();
+      Assert.assertEquals(this.text.length(), this.position);
+    }
+
+    Object value()
+    {
+      this.whitespace();
+      final char c = this.text.charAt(this.position);
+      switch (c) {
+        case '{':
+          return this.object();
+        case '[':
+          return this.array();
+        case '"':
+          return this.string();
+        default:
+          return this.number();
+      }
+    }
+
+    private Map<String, Object> object()
+    {
+      final Map<String, Object> m = new LinkedHashMap<String, Object>();
+      this.expect('{');
+      if (this.peek('}')) {
+        this.expect('}');
+        return m;
+      }
+      while (true) {
+        this.whitespace();
+        final String key = this.string();
+        Assert.assertFalse("Duplicate key " + key, m.containsKey(key));
+        this.expect(':');
+        m.put(key, this.value());
+        if (this.peek(',')) {
+          this.expect(',');
+        } else {
+          this.expect('}');
+          return m;
+        }
+      }
+    }
+
+    private List<Object> array()
+    {
+      final List<Object> l = new ArrayList<Object>();
+      this.expect('[');
+      if (this.peek(']')) {
+        this.expect(']');
+        return l;
+      }
+      while (true) {
+        l.add(this.value());
+        if (this.peek(',')) {
+          this.expect(',');
+        } else {
+          this.expect(']');
+          return l;
+        }
+      }
+    }
+
+    private String string()
+    {
+      this.expect('"');
+      final StringBuilder b = new StringBuilder();
+      while (true) {
+        final char c = this.next();
+        Assert.assertTrue("Unescaped control character", c >= 0x20);
+        if (c == '"') {
+          return b.toString();
+        }
+        if (c != '\\') {
+          b.append(c);
+          continue;
+        }
+        final char e = this.next();
+        switch (e) {
+          case '"':
+          case '\\':
+          case '/':
+            b.append(e);
+            break;
+          case 'b':
+            b.append('\b');
+            break;
+          case 'f':
+            b.append('\f');
+            break;
+          case 'n':
+            b.append('\n');
+            break;
+          case 'r':
+            b.append('\r');
+            break;
+          case 't':
+            b.append('\t');
+            break;
+          case 'u':
+            b.append(
+              (char) Integer.parseInt(
+                this.text.substring(this.position, this.position + 4), 16));
+            this.position += 4;
+            break;
+          default:
+            Assert.fail("Bad escape: " + e);
+        }
+      }
+    }
+
+    private Long number()
+    {
+      final int start = this.position;
+      if (this.text.charAt(this.position) == '-') {
+        ++this.position;
+      }
+      while (this.position < this.text.length()
+             && Character.isDigit(this.text.charAt(this.position))) {
+        ++this.position;
+      }
+      Assert.assertTrue("Expected a number at " + start, this.position > start);
+      return Long.valueOf(this.text.substring(start, this.position));
+    }
+  }
+}
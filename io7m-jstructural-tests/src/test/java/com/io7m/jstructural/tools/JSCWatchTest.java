@@ -0,0 +1,188 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jstructural.tools;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+@SuppressWarnings("static-method")
+public final class JSCWatchTest
+{
+  private static File directory()
+    throws IOException
+  {
+    final File d = File.createTempFile("jstructural-watch", "");
+    Assert.assertTrue(d.delete());
+    Assert.assertTrue(d.mkdirs());
+    d.deleteOnExit();
+    return d;
+  }
+
+  private static File write(
+    final File file,
+    final String text)
+    throws IOException
+  {
+    Assert.assertTrue(file.getParentFile().isDirectory()
+                      || file.getParentFile().mkdirs());
+    file.deleteOnExit();
+    final OutputStream out = new FileOutputStream(file);
+    try {
+      out.write(text.getBytes("UTF-8"));
+    } finally {
+      out.close();
+    }
+    return file;
+  }
+
+  private static File xml(
+    final File file,
+    final String content)
+    throws IOException
+  {
+    return JSCWatchTest.write(
+      file,
+      "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+      + "<x xmlns:xi=\"http://www.w3.org/2001/XInclude\">"
+      + content
+      + "</x>\n");
+  }
+
+  private static String include(
+    final String href)
+  {
+    return "<xi:include href=\"" + href + "\"/>";
+  }
+
+  private static Set<Path> paths(
+    final File... files)
+  {
+    final Set<Path> r = new HashSet<Path>(files.length);
+    for (final File f : files) {
+      r.add(f.toPath().toAbsolutePath().normalize());
+    }
+    return r;
+  }
+
+  @Test public void testRelative()
+    throws Exception
+  {
+    final File d = JSCWatchTest.directory();
+    final File doc = JSCWatchTest.xml(
+      new File(d, "doc.xml"), JSCWatchTest.include("sub/a.xml"));
+    final File a = JSCWatchTest.xml(
+      new File(d, "sub/a.xml"),
+      JSCWatchTest.include("../b.xml")
+      + "<xi:include href=\"c.txt\" parse=\"text\"/>"
+      + JSCWatchTest.include("./../sub/../b.xml"));
+    final File b = JSCWatchTest.xml(new File(d, "b.xml"), "");
+
+    /*
+     * Text includes are returned but not parsed, so the include in the
+     * text of c.txt is not followed.
+     */
+
+    final File c = JSCWatchTest.write(
+      new File(d, "sub/c.txt"), JSCWatchTest.include("d.xml"));
+    JSCWatchTest.xml(new File(d, "sub/d.xml"), "");
+
+    Assert.assertEquals(
+      JSCWatchTest.paths(doc, a, b, c), JSCWatch.discover(doc.toPath()));
+  }
+
+  @Test public void testRelativeRoot()
+    throws Exception
+  {
+    final File d = JSCWatchTest.directory();
+    final File doc = JSCWatchTest.xml(
+      new File(d, "doc.xml"), JSCWatchTest.include("a.xml"));
+    final File a = JSCWatchTest.xml(new File(d, "a.xml"), "");
+
+    final Path cwd = new File("").getAbsoluteFile().toPath();
+    final Path relative = cwd.relativize(doc.getAbsoluteFile().toPath());
+    Assert.assertFalse(relative.isAbsolute());
+    Assert.assertEquals(
+      JSCWatchTest.paths(doc, a), JSCWatch.discover(relative));
+  }
+
+  @Test public void testCycle()
+    throws Exception
+  {
+    final File d = JSCWatchTest.directory();
+    final File a = JSCWatchTest.xml(
+      new File(d, "a.xml"), JSCWatchTest.include("b.xml"));
+    final File b = JSCWatchTest.xml(
+      new File(d, "b.xml"),
+      JSCWatchTest.include("a.xml") + JSCWatchTest.include("b.xml"));
+
+    Assert.assertEquals(
+      JSCWatchTest.paths(a, b), JSCWatch.discover(a.toPath()));
+  }
+
+  @Test public void testUnreadable()
+    throws Exception
+  {
+    final File d = JSCWatchTest.directory();
+    final File missing = new File(d, "missing.xml");
+    final File directory = new File(d, "directory.xml");
+    Assert.assertTrue(directory.mkdir());
+    directory.deleteOnExit();
+
+    /*
+     * The malformed file is returned with the include that precedes the
+     * error, but not the include that follows it.
+     */
+
+    final File broken = JSCWatchTest.write(
+      new File(d, "broken.xml"),
+      "<x xmlns:xi=\"http://www.w3.org/2001/XInclude\">"
+      + JSCWatchTest.include("before.xml")
+      + "<y z>"
+      + JSCWatchTest.include("after.xml")
+      + "</x>");
+    final File before = JSCWatchTest.xml(new File(d, "before.xml"), "");
+    JSCWatchTest.xml(new File(d, "after.xml"), "");
+
+    final File doc = JSCWatchTest.xml(
+      new File(d, "doc.xml"),
+      JSCWatchTest.include("missing.xml")
+      + JSCWatchTest.include("directory.xml")
+      + JSCWatchTest.include("broken.xml")
+      + JSCWatchTest.include("")
+      + JSCWatchTest.include("http://example.com/remote.xml"));
+
+    Assert.assertEquals(
+      JSCWatchTest.paths(doc, missing, directory, broken, before),
+      JSCWatch.discover(doc.toPath()));
+  }
+
+  @Test public void testRootMissing()
+    throws Exception
+  {
+    final File doc = new File(JSCWatchTest.directory(), "doc.xml");
+    Assert.assertEquals(
+      JSCWatchTest.paths(doc), JSCWatch.discover(doc.toPath()));
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.jstructural.tools;
+
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jnull.NullCheck;
+import com.io7m.junreachable.UnreachableCodeException;
+import org.apache.commons.cli.ParseException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Functions to parse batch manifests.</p>
+ *
+ * <p>A batch manifest is a text file containing one entry per line. Empty
+ * lines and lines beginning with {@code #} are ignored. Each entry has the
+ * form {@code pagination document outdir [body-start=file] [body-end=file]},
+ * where {@code pagination} is either {@code single} or {@code multi}. Fields
+ * are separated by whitespace, and relative paths are resolved against the
+ * directory containing the manifest.</p>
+ *
+ * <p>The documents in a batch are compiled with a single {@link
+ * JSCCompiler}.</p>
+ */
+
+final class JSCBatch
+{
+  private JSCBatch()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * Parse a batch manifest.
+   *
+   * @param manifest The manifest file
+   *
+   * @return The list of compilations described by the manifest
+   *
+   * @throws IOException    On I/O errors
+   * @throws ParseException On malformed entries
+   */
+
+  static List<JSCCompilation> parseManifest(
+    final File manifest)
+    throws IOException, ParseException
+  {
+    NullCheck.notNull(manifest, "Manifest");
+
+    final File base = manifest.getAbsoluteFile().getParentFile();
+    final List<JSCCompilation> entries = new ArrayList<JSCCompilation>();
+    final BufferedReader reader = new BufferedReader(
+      new InputStreamReader(new FileInputStream(manifest), "UTF-8"));
+
+    try {
+      int line_number = 0;
+      while (true) {
+        final String line = reader.readLine();
+        if (line == null) {
+          break;
+        }
+        ++line_number;
+
+        final String trimmed = line.trim();
+        if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+          continue;
+        }
+
+        entries.add(
+          JSCBatch.parseEntry(
+            base, manifest + ":" + line_number, trimmed.split("\\s+")));
+      }
+    } finally {
+      reader.close();
+    }
+
+    if (entries.isEmpty()) {
+      throw new ParseException(manifest + ": Manifest contains no entries");
+    }
+    return entries;
+  }
+
+  private static JSCCompilation parseEntry(
+    final File base,
+    final String position,
+    final String[] fields)
+    throws ParseException
+  {
+    if (fields.length < 3) {
+      throw new ParseException(
+        position + ": Expected: pagination document outdir [options]");
+    }
+
+    final JSCPagination pagination;
+    if ("multi".equals(fields[0])) {
+      pagination = JSCPagination.XHTML_MULTI;
+    } else if ("single".equals(fields[0])) {
+      pagination = JSCPagination.XHTML_SINGLE;
+    } else {
+      throw new ParseException(
+        position + ": Pagination must be 'single' or 'multi', got: "
+        + fields[0]);
+    }
+
+    OptionType<File> body_start = Option.none();
+    OptionType<File> body_end = Option.none();
+    for (int index = 3; index < fields.length; ++index) {
+      final String field = fields[index];
+      if (field.startsWith("body-start=")) {
+        body_start = Option.some(
+          JSCBatch.resolve(base, field.substring("body-start=".length())));
+      } else if (field.startsWith("body-end=")) {
+        body_end = Option.some(
+          JSCBatch.resolve(base, field.substring("body-end=".length())));
+      } else {
+        throw new ParseException(position + ": Unknown option: " + field);
+      }
+    }
+
+    return JSCCompilation.compilation(
+      JSCBatch.resolve(base, fields[1]),
+      JSCBatch.resolve(base, fields[2]),
+      pagination,
+      body_start,
+      body_end);
+  }
+
+  private static File resolve(
+    final File base,
+    final String name)
+  {
+    final File file = new File(name);
+    if (file.isAbsolute()) {
+      return file;
+    }
+    return new File(base, name);
+  }
+}
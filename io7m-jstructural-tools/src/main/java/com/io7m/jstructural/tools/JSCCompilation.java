@@ -0,0 +1,170 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jstructural.tools;
+
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+
+import java.io.File;
+
+/**
+ * A description of a single document to be compiled.
+ */
+
+public final class JSCCompilation
+{
+  private final OptionType<File> body_end;
+  private final OptionType<File> body_start;
+  private final File             document;
+  private final File             outdir;
+  private final JSCPagination    pagination;
+
+  private JSCCompilation(
+    final File in_document,
+    final File in_outdir,
+    final JSCPagination in_pagination,
+    final OptionType<File> in_body_start,
+    final OptionType<File> in_body_end)
+  {
+    this.document = NullCheck.notNull(in_document, "Document");
+    this.outdir = NullCheck.notNull(in_outdir, "Output directory");
+    this.pagination = NullCheck.notNull(in_pagination, "Pagination");
+    this.body_start = NullCheck.notNull(in_body_start, "Body start");
+    this.body_end = NullCheck.notNull(in_body_end, "Body end");
+  }
+
+  /**
+   * Describe a compilation.
+   *
+   * @param in_document   The document
+   * @param in_outdir     The directory that will contain generated files
+   * @param in_pagination The type of pagination
+   * @param in_body_start An XML file that will be inserted at the start of the
+   *                      body of each generated page, if any
+   * @param in_body_end   An XML file that will be inserted at the end of the
+   *                      body of each generated page, if any
+   *
+   * @return A new compilation
+   */
+
+  public static JSCCompilation compilation(
+    final File in_document,
+    final File in_outdir,
+    final JSCPagination in_pagination,
+    final OptionType<File> in_body_start,
+    final OptionType<File> in_body_end)
+  {
+    return new JSCCompilation(
+      in_document, in_outdir, in_pagination, in_body_start, in_body_end);
+  }
+
+  @Override public boolean equals(
+    final @Nullable Object obj)
+  {
+    if (this == obj) {
+      return true;
+    }
+    if (obj == null) {
+      return false;
+    }
+    if (this.getClass() != obj.getClass()) {
+      return false;
+    }
+    final JSCCompilation other = (JSCCompilation) obj;
+    return this.document.equals(other.document)
+           && this.outdir.equals(other.outdir)
+           && this.pagination == other.pagination
+           && this.body_start.equals(other.body_start)
+           && this.body_end.equals(other.body_end);
+  }
+
+  /**
+   * @return The XML file inserted at the end of the body of each page, if any
+   */
+
+  public OptionType<File> getBodyEnd()
+  {
+    return this.body_end;
+  }
+
+  /**
+   * @return The XML file inserted at the start of the body of each page, if
+   * any
+   */
+
+  public OptionType<File> getBodyStart()
+  {
+    return this.body_start;
+  }
+
+  /**
+   * @return The document
+   */
+
+  public File getDocument()
+  {
+    return this.document;
+  }
+
+  /**
+   * @return The directory that will contain generated files
+   */
+
+  public File getOutputDirectory()
+  {
+    return this.outdir;
+  }
+
+  /**
+   * @return The type of pagination
+   */
+
+  public JSCPagination getPagination()
+  {
+    return this.pagination;
+  }
+
+  @Override public int hashCode()
+  {
+    final int prime = 31;
+    int result = 1;
+    result = (prime * result) + this.document.hashCode();
+    result = (prime * result) + this.outdir.hashCode();
+    result = (prime * result) + this.pagination.hashCode();
+    result = (prime * result) + this.body_start.hashCode();
+    result = (prime * result) + this.body_end.hashCode();
+    return result;
+  }
+
+  @Override public String toString()
+  {
+    final StringBuilder b = new StringBuilder(128);
+    b.append("[JSCCompilation ");
+    b.append(this.document);
+    b.append(" ");
+    b.append(this.outdir);
+    b.append(" ");
+    b.append(this.pagination);
+    b.append(" ");
+    b.append(this.body_start);
+    b.append(" ");
+    b.append(this.body_end);
+    b.append("]");
+    return b.toString();
+  }
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jstructural.tools;
+
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Some;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.jstructural.annotated.SADocument;
+import com.io7m.jstructural.xom.SDocumentParserContext;
+import com.io7m.jstructural.xom.SDocumentXHTMLWriter;
+import com.io7m.jstructural.xom.SDocumentXHTMLWriterMulti;
+import com.io7m.jstructural.xom.SDocumentXHTMLWriterSingle;
+import net.jcip.annotations.ThreadSafe;
+import nu.xom.Builder;
+import nu.xom.Element;
+import nu.xom.ParsingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>A compiler that transforms documents to XHTML.</p>
+ *
+ * <p>A compiler holds a parser context, so that the schema is compiled once
+ * per compiler rather than once per document, and a cache of the XML files
+ * inserted into generated pages. Inserts are reloaded when their files
+ * change. Independent documents are compiled concurrently on a bounded pool
+ * of worker threads, and a failure to compile one document does not prevent
+ * the compilation of the others.</p>
+ *
+ * <p>Compilers are immutable apart from their caches, and are safe to use
+ * from multiple threads.</p>
+ */
+
+@ThreadSafe public final class JSCCompiler
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = LoggerFactory.getLogger(JSCCompiler.class);
+  }
+
+  private final SDocumentParserContext           context;
+  private final int                              document_threads;
+  private final boolean                          incremental;
+  private final ConcurrentMap<File, CachedInsert> inserts;
+  private final int                              page_threads;
+
+  private JSCCompiler(
+    final int in_document_threads,
+    final int in_page_threads,
+    final boolean in_incremental)
+  {
+    if (in_document_threads < 1) {
+      throw new IllegalArgumentException(
+        "Document thread count must be at least 1");
+    }
+    if (in_page_threads < 1) {
+      throw new IllegalArgumentException(
+        "Page thread count must be at least 1");
+    }
+
+    this.document_threads = in_document_threads;
+    this.page_threads = in_page_threads;
+    this.incremental = in_incremental;
+    this.context = SDocumentParserContext.getDefault();
+    this.inserts = new ConcurrentHashMap<File, CachedInsert>(8);
+  }
+
+  /**
+   * Construct a new compiler.
+   *
+   * @param in_document_threads The maximum number of documents that will be
+   *                            compiled at once
+   * @param in_page_threads     The number of threads that will be used to
+   *                            render the pages of each multi-page document
+   * @param in_incremental      {@code true} if only files whose content has
+   *                            changed should be written
+   *
+   * @return A new compiler
+   */
+
+  public static JSCCompiler newCompiler(
+    final int in_document_threads,
+    final int in_page_threads,
+    final boolean in_incremental)
+  {
+    return new JSCCompiler(
+      in_document_threads, in_page_threads, in_incremental);
+  }
+
+  /**
+   * Compile a single document.
+   *
+   * @param c The compilation
+   *
+   * @return The names of the files produced, relative to the output directory
+   *
+   * @throws IOException If the document failed to compile
+   */
+
+  public SortedSet<String> compile(
+    final JSCCompilation c)
+    throws IOException
+  {
+    return this.compileAll(
+      Collections.singletonList(NullCheck.notNull(c, "c"))).get(0);
+  }
+
+  /**
+   * Compile all of the given documents. Every document is compiled, even if
+   * compiling an earlier document fails.
+   *
+   * @param cs The compilations
+   *
+   * @return The names of the files produced by each compilation, relative to
+   * its output directory, in the order of {@code cs}
+   *
+   * @throws IOException If any document failed to compile
+   */
+
+  public List<SortedSet<String>> compileAll(
+    final List<JSCCompilation> cs)
+    throws IOException
+  {
+    NullCheck.notNull(cs, "Compilations");
+    if (cs.isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    final int workers = Math.min(this.document_threads, cs.size());
+    JSCCompiler.LOG.info(
+      "compiling {} documents using {} threads",
+      Integer.valueOf(cs.size()),
+      Integer.valueOf(workers));
+
+    final List<Future<SortedSet<String>>> futures =
+      new ArrayList<Future<SortedSet<String>>>(cs.size());
+    final List<SortedSet<String>> results =
+      new ArrayList<SortedSet<String>>(cs.size());
+    final ExecutorService exec = Executors.newFixedThreadPool(workers);
+    try {
+      for (final JSCCompilation c : cs) {
+        futures.add(exec.submit(new Task(this, c)));
+      }
+
+      int failures = 0;
+      Throwable first = null;
+      for (int index = 0; index < futures.size(); ++index) {
+        final Throwable e =
+          JSCCompiler.await(cs.get(index), futures.get(index), results);
+        if (e != null) {
+          ++failures;
+          if (first == null) {
+            first = e;
+          }
+        }
+      }
+
+      if (failures > 0) {
+        throw new IOException(
+          String.format(
+            "%d of %d documents failed to compile",
+            Integer.valueOf(failures),
+            Integer.valueOf(cs.size())), first);
+      }
+      return results;
+    } finally {
+      exec.shutdownNow();
+    }
+  }
+
+  private static @Nullable Throwable await(
+    final JSCCompilation c,
+    final Future<SortedSet<String>> f,
+    final List<SortedSet<String>> results)
+    throws InterruptedIOException
+  {
+    try {
+      results.add(f.get());
+      return null;
+    } catch (final InterruptedException x) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted whilst compiling");
+    } catch (final ExecutionException x) {
+      final Throwable cause = x.getCause();
+      JSCCompiler.LOG.error("{}: {}", c.getDocument(), cause.getMessage());
+      JSCCompiler.LOG.debug("{}: ", c.getDocument(), cause);
+      return cause;
+    }
+  }
+
+  private OptionType<Element> insert(
+    final OptionType<File> file_opt)
+    throws IOException, ParsingException
+  {
+    if (file_opt.isSome()) {
+      final File file = ((Some<File>) file_opt).get().getAbsoluteFile();
+      final long modified = file.lastModified();
+      final long length = file.length();
+
+      final CachedInsert cached = this.inserts.get(file);
+      if (cached != null
+          && cached.modified == modified
+          && cached.length == length) {
+        return Option.some(cached.element);
+      }
+
+      final Builder b = new Builder();
+      final Element e = b.build(file).getRootElement();
+      this.inserts.put(file, new CachedInsert(e, modified, length));
+      return Option.some(e);
+    }
+    return Option.none();
+  }
+
+  private SDocumentXHTMLWriter newWriter(
+    final JSCPagination pagination)
+  {
+    switch (pagination) {
+      case XHTML_SINGLE:
+        return new SDocumentXHTMLWriterSingle();
+      case XHTML_MULTI:
+        return new SDocumentXHTMLWriterMulti(
+          SDocumentXHTMLWriterMulti.DEFAULT_FRONT_PAGE_NAME,
+          this.page_threads);
+    }
+    throw new IllegalArgumentException("Unknown pagination: " + pagination);
+  }
+
+  private static final class CachedInsert
+  {
+    private final Element element;
+    private final long    length;
+    private final long    modified;
+
+    CachedInsert(
+      final Element in_element,
+      final long in_modified,
+      final long in_length)
+    {
+      this.element = in_element;
+      this.modified = in_modified;
+      this.length = in_length;
+    }
+  }
+
+  private static final class Task implements Callable<SortedSet<String>>
+  {
+    private final JSCCompilation compilation;
+    private final JSCCompiler    compiler;
+
+    Task(
+      final JSCCompiler in_compiler,
+      final JSCCompilation in_compilation)
+    {
+      this.compiler = in_compiler;
+      this.compilation = in_compilation;
+    }
+
+    @Override
+    public SortedSet<String> call()
+      throws Exception
+    {
+      final long start = System.nanoTime();
+      final File file = this.compilation.getDocument();
+      final SADocument doc =
+        JSCMain.compileDocument(this.compiler.context, file, null);
+
+      final JSCMain.XMLInserts xi = new JSCMain.XMLInserts(
+        this.compiler.insert(this.compilation.getBodyStart()),
+        this.compiler.insert(this.compilation.getBodyEnd()));
+
+      final SortedSet<String> names = JSCMain.writePages(
+        this.compilation.getOutputDirectory(),
+        this.compiler.newWriter(this.compilation.getPagination()),
+        JSCMain.getXHTMLWriterCallbacks(xi),
+        doc,
+        this.compiler.incremental,
+        null,
+        null);
+
+      JSCCompiler.LOG.info(
+        "compiled {} in {}ms",
+        file,
+        Long.valueOf(
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+      return names;
+    }
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jstructural.tools;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jranges.RangeCheckException;
+import com.io7m.jstructural.core.SDocument;
+import com.io7m.jstructural.core.SDocumentGenerator;
+import com.io7m.jstructural.xom.SDocumentSerializer;
+import com.io7m.junreachable.UnreachableCodeException;
+import nu.xom.Document;
+import nu.xom.Serializer;
+import org.apache.commons.cli.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Functions to generate synthetic documents from the command line.
+ */
+
+final class JSCGenerate
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = LoggerFactory.getLogger(JSCGenerate.class);
+  }
+
+  private JSCGenerate()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * Configure a generator from the given {@code name=value} options.
+   *
+   * @param options The options
+   *
+   * @return A configured generator
+   *
+   * @throws ParseException On unknown options or unparseable values
+   */
+
+  static SDocumentGenerator configure(
+    final Properties options)
+    throws ParseException
+  {
+    NullCheck.notNull(options, "Options");
+
+    final SDocumentGenerator g = new SDocumentGenerator();
+    for (final Map.Entry<Object, Object> e : options.entrySet()) {
+      final String name = (String) e.getKey();
+      final String value = (String) e.getValue();
+      try {
+        JSCGenerate.configureOne(g, name, value);
+      } catch (final NumberFormatException x) {
+        throw new ParseException(
+          "Could not parse value for generator option " + name + ": " + value);
+      } catch (final RangeCheckException x) {
+        throw new ParseException(
+          "Invalid value for generator option " + name + ": " + value);
+      }
+    }
+    return g;
+  }
+
+  private static void configureOne(
+    final SDocumentGenerator g,
+    final String name,
+    final String value)
+    throws ParseException
+  {
+    if ("seed".equals(name)) {
+      g.setSeed(Long.parseLong(value));
+    } else if ("parts".equals(name)) {
+      g.setParts(Integer.parseInt(value));
+    } else if ("sections".equals(name)) {
+      g.setSections(Integer.parseInt(value));
+    } else if ("subsections".equals(name)) {
+      g.setSubsections(Integer.parseInt(value));
+    } else if ("paragraphs".equals(name)) {
+      g.setParagraphs(Integer.parseInt(value));
+    } else if ("footnotes".equals(name)) {
+      g.setFootnotes(Integer.parseInt(value));
+    } else if ("formal-items".equals(name)) {
+      g.setFormalItems(Integer.parseInt(value));
+    } else if ("tables".equals(name)) {
+      g.setTables(Integer.parseInt(value));
+    } else if ("links".equals(name)) {
+      g.setLinks(Integer.parseInt(value));
+    } else if ("ids".equals(name)) {
+      g.setIDs(Integer.parseInt(value));
+    } else {
+      throw new ParseException("Unknown generator option: " + name);
+    }
+  }
+
+  /**
+   * Generate a document and write it to the given file.
+   *
+   * @param g    The generator
+   * @param file The output file
+   *
+   * @throws IOException On I/O errors
+   */
+
+  static void write(
+    final SDocumentGenerator g,
+    final File file)
+    throws IOException
+  {
+    NullCheck.notNull(g, "Generator");
+    NullCheck.notNull(file, "File");
+
+    final SDocument doc = g.generate();
+    JSCGenerate.LOG.info("writing " + file);
+
+    final OutputStream stream =
+      new BufferedOutputStream(new FileOutputStream(file));
+    try {
+      final Serializer s = new Serializer(stream, "UTF-8");
+      s.setIndent(2);
+      s.write(new Document(SDocumentSerializer.document(doc)));
+      s.flush();
+    } finally {
+      stream.close();
+    }
+  }
+}
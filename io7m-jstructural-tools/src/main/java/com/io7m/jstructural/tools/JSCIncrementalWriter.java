@@ -0,0 +1,421 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jstructural.tools;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jstructural.events.SEventWriteFile;
+import com.io7m.jstructural.events.SEvents;
+import com.io7m.junreachable.UnreachableCodeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * <p>A page sink that only writes pages whose content has changed.</p>
+ *
+ * <p>A SHA-256 hash of each serialized page is compared against the hash of
+ * the existing file. The manifest left in the output directory by the
+ * previous run records the hash, size and modification time of each file
+ * that it wrote; the recorded hash is trusted only if the size and
+ * modification time of the existing file still match the manifest, and
+ * otherwise the existing file is hashed again. Pages that
+ * have not changed are not written, and so retain their modification times.
+ * Files that were recorded in the previous manifest but that were not
+ * produced by the current run are deleted.</p>
+ */
+
+final class JSCIncrementalWriter implements JSCPageBytesSink
+{
+  /**
+   * The name of the manifest file in the output directory.
+   */
+
+  static final String MANIFEST_NAME = ".jstructural-manifest";
+
+  private static final Logger LOG;
+
+  static {
+    LOG = LoggerFactory.getLogger(JSCIncrementalWriter.class);
+  }
+
+  private final File                      outdir;
+  private final SortedMap<String, Entry> previous;
+  private final SortedMap<String, Entry> current;
+  private final List<String>             changed;
+  private final MessageDigest            digest;
+
+  JSCIncrementalWriter(
+    final File in_outdir)
+    throws IOException
+  {
+    this.outdir = NullCheck.notNull(in_outdir, "Output directory");
+    this.previous = JSCIncrementalWriter.readManifest(
+      new File(this.outdir, JSCIncrementalWriter.MANIFEST_NAME));
+    this.current = new TreeMap<String, Entry>();
+    this.changed = new ArrayList<String>(32);
+    this.digest = JSCIncrementalWriter.newDigest();
+  }
+
+  private static MessageDigest newDigest()
+  {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (final NoSuchAlgorithmException e) {
+      throw new UnreachableCodeException(e);
+    }
+  }
+
+  /**
+   * Read the manifest in the given file. Lines that cannot be parsed are
+   * ignored, so the files they describe are simply hashed again.
+   */
+
+  static SortedMap<String, Entry> readManifest(
+    final File file)
+    throws IOException
+  {
+    final SortedMap<String, Entry> m = new TreeMap<String, Entry>();
+    if (file.isFile() == false) {
+      return m;
+    }
+
+    final BufferedReader reader = new BufferedReader(
+      new InputStreamReader(new FileInputStream(file), "UTF-8"));
+    try {
+      while (true) {
+        final String line = reader.readLine();
+        if (line == null) {
+          break;
+        }
+        final String[] fields = line.split(" ", 4);
+        if (fields.length == 4) {
+          try {
+            m.put(
+              fields[3], new Entry(
+                fields[0],
+                Long.parseLong(fields[1]),
+                Long.parseLong(fields[2])));
+          } catch (final NumberFormatException e) {
+            JSCIncrementalWriter.LOG.debug("ignoring manifest line: {}", line);
+          }
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return m;
+  }
+
+  private static String hex(
+    final byte[] data)
+  {
+    final StringBuilder sb = new StringBuilder(data.length * 2);
+    for (final byte b : data) {
+      sb.append(String.format("%02x", Integer.valueOf(b & 0xff)));
+    }
+    return sb.toString();
+  }
+
+  private String hashBytes(
+    final byte[] data)
+  {
+    this.digest.reset();
+    return JSCIncrementalWriter.hex(this.digest.digest(data));
+  }
+
+  private String hashFile(
+    final File file)
+    throws IOException
+  {
+    this.digest.reset();
+    final InputStream stream =
+      new BufferedInputStream(new FileInputStream(file));
+    try {
+      final byte[] buffer = new byte[8192];
+      while (true) {
+        final int r = stream.read(buffer);
+        if (r == -1) {
+          break;
+        }
+        this.digest.update(buffer, 0, r);
+      }
+    } finally {
+      stream.close();
+    }
+    return JSCIncrementalWriter.hex(this.digest.digest());
+  }
+
+  private boolean isUnchanged(
+    final String name,
+    final File file,
+    final String hash)
+    throws IOException
+  {
+    if (file.isFile() == false) {
+      return false;
+    }
+
+    final Entry recorded = this.previous.get(name);
+    if (recorded != null
+      && recorded.getSize() == file.length()
+      && recorded.getModified() == file.lastModified()) {
+      return recorded.getHash().equals(hash);
+    }
+    return this.hashFile(file).equals(hash);
+  }
+
+  @Override public void onPage(
+    final String name,
+    final byte[] data)
+    throws IOException
+  {
+    NullCheck.notNull(name, "Name");
+    NullCheck.notNull(data, "Data");
+
+    final String hash = this.hashBytes(data);
+    final File file = new File(this.outdir, name);
+
+    if (this.isUnchanged(name, file, hash)) {
+      JSCIncrementalWriter.LOG.debug("unchanged {}", file);
+      this.current.put(
+        name, new Entry(hash, file.length(), file.lastModified()));
+      return;
+    }
+
+    JSCIncrementalWriter.LOG.info("writing " + file);
+    final SEventWriteFile event =
+      SEvents.AVAILABLE ? SEventWriteFile.start() : null;
+    final OutputStream out = new FileOutputStream(file);
+    try {
+      out.write(data);
+      out.flush();
+    } finally {
+      out.close();
+    }
+
+    if (event != null) {
+      event.end();
+      if (event.shouldCommit()) {
+        event.setPath(file.toString());
+        event.setBytes((long) data.length);
+        event.commit();
+      }
+    }
+    this.current.put(
+      name, new Entry(hash, file.length(), file.lastModified()));
+    this.changed.add(name);
+  }
+
+  /**
+   * Finish writing. Files listed in the previous manifest that were not
+   * produced by this run are deleted, and the new manifest is written.
+   *
+   * @return The changes made to the output directory
+   *
+   * @throws IOException On I/O errors
+   */
+
+  Changes finish()
+    throws IOException
+  {
+    final List<String> removed = new ArrayList<String>(8);
+    for (final String name : this.previous.keySet()) {
+      if (this.current.containsKey(name) == false) {
+        final File file = new File(this.outdir, name);
+        if (file.isFile()) {
+          JSCIncrementalWriter.LOG.info("removing " + file);
+          if (file.delete() == false) {
+            throw new IOException("Could not delete " + file);
+          }
+        }
+        removed.add(name);
+      }
+    }
+
+    final File manifest =
+      new File(this.outdir, JSCIncrementalWriter.MANIFEST_NAME);
+    final File manifest_tmp =
+      new File(this.outdir, JSCIncrementalWriter.MANIFEST_NAME + ".tmp");
+    final Writer writer = new BufferedWriter(
+      new OutputStreamWriter(new FileOutputStream(manifest_tmp), "UTF-8"));
+    try {
+      for (final Map.Entry<String, Entry> e : this.current.entrySet()) {
+        final Entry entry = e.getValue();
+        writer.write(entry.getHash());
+        writer.write(' ');
+        writer.write(Long.toString(entry.getSize()));
+        writer.write(' ');
+        writer.write(Long.toString(entry.getModified()));
+        writer.write(' ');
+        writer.write(e.getKey());
+        writer.write('\n');
+      }
+      writer.flush();
+    } finally {
+      writer.close();
+    }
+
+    if (manifest.isFile() && manifest.delete() == false) {
+      throw new IOException("Could not delete " + manifest);
+    }
+    if (manifest_tmp.renameTo(manifest) == false) {
+      throw new IOException("Could not rename " + manifest_tmp);
+    }
+
+    return new Changes(this.changed, removed);
+  }
+
+  /**
+   * A manifest entry: the hash, size and modification time of a file as it
+   * was left by a run.
+   */
+
+  static final class Entry
+  {
+    private final String hash;
+    private final long   size;
+    private final long   modified;
+
+    Entry(
+      final String in_hash,
+      final long in_size,
+      final long in_modified)
+    {
+      this.hash = NullCheck.notNull(in_hash, "Hash");
+      this.size = in_size;
+      this.modified = in_modified;
+    }
+
+    /**
+     * @return The SHA-256 hash of the file, in lowercase hexadecimal
+     */
+
+    String getHash()
+    {
+      return this.hash;
+    }
+
+    /**
+     * @return The size of the file in bytes
+     */
+
+    long getSize()
+    {
+      return this.size;
+    }
+
+    /**
+     * @return The modification time of the file
+     */
+
+    long getModified()
+    {
+      return this.modified;
+    }
+  }
+
+  /**
+   * The set of changes made to an output directory.
+   */
+
+  static final class Changes
+  {
+    private final List<String> changed;
+    private final List<String> removed;
+
+    Changes(
+      final List<String> in_changed,
+      final List<String> in_removed)
+    {
+      this.changed = Collections.unmodifiableList(
+        new ArrayList<String>(NullCheck.notNull(in_changed, "Changed")));
+      this.removed = Collections.unmodifiableList(
+        new ArrayList<String>(NullCheck.notNull(in_removed, "Removed")));
+    }
+
+    /**
+     * @return The names of the files that were written
+     */
+
+    List<String> getChanged()
+    {
+      return this.changed;
+    }
+
+    /**
+     * @return The names of the files that were removed
+     */
+
+    List<String> getRemoved()
+    {
+      return this.removed;
+    }
+
+    /**
+     * Write the list of changes to the given file. Each line consists of
+     * either {@code changed} or {@code removed}, followed by a single space,
+     * followed by a file name relative to the output directory.
+     *
+     * @param file The output file
+     *
+     * @throws IOException On I/O errors
+     */
+
+    void write(
+      final File file)
+      throws IOException
+    {
+      final Writer writer = new BufferedWriter(
+        new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+      try {
+        for (final String name : this.changed) {
+          writer.write("changed ");
+          writer.write(name);
+          writer.write('\n');
+        }
+        for (final String name : this.removed) {
+          writer.write("removed ");
+          writer.write(name);
+          writer.write('\n');
+        }
+        writer.flush();
+      } finally {
+        writer.close();
+      }
+    }
+  }
+}
@@ -23,8 +23,15 @@ import com.io7m.jnull.Nullable;
 import com.io7m.jstructural.annotated.SADocument;
 import com.io7m.jstructural.annotated.SAnnotator;
 import com.io7m.jstructural.core.SDocument;
+import com.io7m.jstructural.core.SDocumentGenerator;
 import com.io7m.jstructural.core.SResources;
+import com.io7m.jstructural.events.SEventWriteFile;
+import com.io7m.jstructural.events.SEvents;
+import com.io7m.jstructural.xom.SDocumentFragmentCache;
 import com.io7m.jstructural.xom.SDocumentParser;
+import com.io7m.jstructural.xom.SDocumentParserContext;
+import com.io7m.jstructural.xom.SDocumentXHTMLPageSink;
+import com.io7m.jstructural.xom.SDocumentXHTMLWriter;
 import com.io7m.jstructural.xom.SDocumentXHTMLWriterCallbacks;
 import com.io7m.jstructural.xom.SDocumentXHTMLWriterMulti;
 import com.io7m.jstructural.xom.SDocumentXHTMLWriterSingle;
@@ -53,7 +60,7 @@ import org.xml.sax.SAXException;
 
 import javax.xml.parsers.ParserConfigurationException;
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -63,7 +70,11 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.URISyntaxException;
-import java.util.SortedMap;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * The {@code jstructural} compiler frontend.
@@ -72,13 +83,22 @@ import java.util.SortedMap;
 public final class JSCMain
 {
   private static final Logger LOG;
+  private static final String CMD_BATCH = "batch";
   private static final String CMD_CHECK = "check";
+  private static final String CMD_GENERATE = "generate";
   private static final String CMD_XHTML_MULTI = "xhtml-multi";
   private static final String CMD_XHTML_SINGLE = "xhtml-single";
   private static final String OPT_DEBUG = "debug";
+  private static final String OPT_GENERATE_OPTION = "generate-option";
+  private static final String OPT_PROFILE = "profile";
+  private static final String OPT_PROFILE_JSON = "profile-json";
+  private static final String OPT_THREADS = "threads";
   private static final String OPT_VERSION = "version";
+  private static final String OPT_WATCH = "watch";
   private static final String OPT_XHTML_BODY_END = "xhtml-body-end";
   private static final String OPT_XHTML_BODY_START = "xhtml-body-start";
+  private static final String OPT_XHTML_CHANGES = "xhtml-changes";
+  private static final String OPT_XHTML_INCREMENTAL = "xhtml-incremental";
   private static final Options OPTIONS;
 
   static {
@@ -100,12 +120,23 @@ public final class JSCMain
     throws FileNotFoundException,
     IOException
   {
+    final SEventWriteFile event =
+      SEvents.AVAILABLE ? SEventWriteFile.start() : null;
     final FileOutputStream out = new FileOutputStream(file);
     try {
       JSCMain.copyStreams(in, out);
     } finally {
       out.close();
     }
+
+    if (event != null) {
+      event.end();
+      if (event.shouldCommit()) {
+        event.setPath(file.toString());
+        event.setBytes(file.length());
+        event.commit();
+      }
+    }
   }
 
   private static void copyStreams(
@@ -137,6 +168,75 @@ public final class JSCMain
     }
   }
 
+  /**
+   * Find the given document and all of the local files that it includes,
+   * directly or indirectly, via XInclude. Files that cannot be read or parsed
+   * are returned, but the files that they include are not.
+   *
+   * @param document The document
+   *
+   * @return The document and its included files, as absolute paths
+   *
+   * @throws SAXException                 On XML parser errors
+   * @throws ParserConfigurationException On parser configuration errors
+   */
+
+  public static SortedSet<File> findDocumentFiles(
+    final File document)
+    throws SAXException, ParserConfigurationException
+  {
+    final SortedSet<File> files = new TreeSet<File>();
+    for (final Path p : JSCWatch.discover(document.toPath())) {
+      files.add(p.toFile());
+    }
+    return files;
+  }
+
+  private static JSCPageBytesSink getFileSink(
+    final File outdir)
+  {
+    return new JSCPageBytesSink()
+    {
+      @Override
+      public void onPage(
+        final String name,
+        final byte[] data)
+        throws IOException
+      {
+        JSCMain.writeFile(new File(outdir, name), data);
+      }
+    };
+  }
+
+  private static int getThreads(
+    final CommandLine line,
+    final int default_threads)
+    throws ParseException
+  {
+    if (line.hasOption(JSCMain.OPT_THREADS)) {
+      final String text = line.getOptionValue(JSCMain.OPT_THREADS);
+      try {
+        final int count = Integer.parseInt(text);
+        if (count < 1) {
+          throw new ParseException("Thread count must be at least 1");
+        }
+        return count;
+      } catch (final NumberFormatException e) {
+        throw new ParseException("Could not parse thread count: " + text);
+      }
+    }
+    return default_threads;
+  }
+
+  private static @Nullable File getChangesFile(
+    final CommandLine line)
+  {
+    if (line.hasOption(JSCMain.OPT_XHTML_CHANGES)) {
+      return new File(line.getOptionValue(JSCMain.OPT_XHTML_CHANGES));
+    }
+    return null;
+  }
+
   private static String getVersion()
   {
     final String pack = JSCMain.class.getPackage().getImplementationVersion();
@@ -146,7 +246,7 @@ public final class JSCMain
     return pack;
   }
 
-  private static SDocumentXHTMLWriterCallbacks getXHTMLWriterCallbacks(
+  static SDocumentXHTMLWriterCallbacks getXHTMLWriterCallbacks(
     final XMLInserts inserts)
   {
     return new SDocumentXHTMLWriterCallbacks()
@@ -266,6 +366,36 @@ public final class JSCMain
       opts.addOptionGroup(og);
     }
 
+    {
+      final OptionGroup og = new OptionGroup();
+      OptionBuilder.withLongOpt(JSCMain.CMD_BATCH);
+      OptionBuilder
+        .withDescription(
+          "Compile all of the documents listed in the given manifest file");
+      og.addOption(OptionBuilder.create());
+      opts.addOptionGroup(og);
+    }
+
+    {
+      final OptionGroup og = new OptionGroup();
+      OptionBuilder.withLongOpt(JSCMain.CMD_GENERATE);
+      OptionBuilder
+        .withDescription("Generate a synthetic document for testing");
+      og.addOption(OptionBuilder.create());
+      opts.addOptionGroup(og);
+    }
+
+    {
+      OptionBuilder.withLongOpt(JSCMain.OPT_GENERATE_OPTION);
+      OptionBuilder.hasArgs(2);
+      OptionBuilder.withValueSeparator();
+      OptionBuilder.withArgName("name=value");
+      OptionBuilder
+        .withDescription(
+          "Set a generator option (seed, parts, sections, subsections, paragraphs, footnotes, formal-items, tables, links, ids)");
+      opts.addOption(OptionBuilder.create());
+    }
+
     {
       final OptionGroup og = new OptionGroup();
       OptionBuilder.withLongOpt(JSCMain.OPT_VERSION);
@@ -282,6 +412,46 @@ public final class JSCMain
       opts.addOption(OptionBuilder.create());
     }
 
+    JSCMain.makeProfileOptions(opts);
+    JSCMain.makeXHTMLOptions(opts);
+    return opts;
+  }
+
+  private static void makeProfileOptions(
+    final Options opts)
+  {
+    {
+      OptionBuilder.withLongOpt(JSCMain.OPT_PROFILE);
+      OptionBuilder
+        .withDescription(
+          "Measure the time and memory spent in each phase of compilation, and print a summary");
+      opts.addOption(OptionBuilder.create());
+    }
+
+    {
+      OptionBuilder.withLongOpt(JSCMain.OPT_PROFILE_JSON);
+      OptionBuilder.hasArg();
+      OptionBuilder.withArgName("file");
+      OptionBuilder
+        .withDescription(
+          "Write the profile as JSON to the given file (implies --profile)");
+      opts.addOption(OptionBuilder.create());
+    }
+  }
+
+  private static void makeXHTMLOptions(
+    final Options opts)
+  {
+    {
+      OptionBuilder.withLongOpt(JSCMain.OPT_THREADS);
+      OptionBuilder.hasArg();
+      OptionBuilder.withArgName("count");
+      OptionBuilder
+        .withDescription(
+          "Render XHTML pages (or with --batch, documents) using the given number of threads (default: 1, or with --batch, the processor count)");
+      opts.addOption(OptionBuilder.create());
+    }
+
     {
       OptionBuilder.withLongOpt(JSCMain.OPT_XHTML_BODY_START);
       OptionBuilder.hasArg();
@@ -302,7 +472,31 @@ public final class JSCMain
       opts.addOption(OptionBuilder.create());
     }
 
-    return opts;
+    {
+      OptionBuilder.withLongOpt(JSCMain.OPT_XHTML_INCREMENTAL);
+      OptionBuilder
+        .withDescription(
+          "Only write XHTML files whose content has changed, and remove files produced by previous runs that are no longer produced");
+      opts.addOption(OptionBuilder.create());
+    }
+
+    {
+      OptionBuilder.withLongOpt(JSCMain.OPT_WATCH);
+      OptionBuilder
+        .withDescription(
+          "After compiling, recompile whenever the document or any file that it includes changes");
+      opts.addOption(OptionBuilder.create());
+    }
+
+    {
+      OptionBuilder.withLongOpt(JSCMain.OPT_XHTML_CHANGES);
+      OptionBuilder.hasArg();
+      OptionBuilder.withArgName("file");
+      OptionBuilder
+        .withDescription(
+          "Write the list of changed and removed XHTML files to the given file (requires --xhtml-incremental)");
+      opts.addOption(OptionBuilder.create());
+    }
   }
 
   /**
@@ -360,6 +554,33 @@ public final class JSCMain
     }
   }
 
+  private static void checkOptions(
+    final CommandLine line)
+    throws ParseException
+  {
+    if (line.hasOption(JSCMain.OPT_XHTML_CHANGES)) {
+      if (line.hasOption(JSCMain.OPT_XHTML_INCREMENTAL) == false) {
+        throw new ParseException(
+          "--xhtml-changes requires --xhtml-incremental");
+      }
+      if (line.hasOption(JSCMain.CMD_BATCH)) {
+        throw new ParseException("--xhtml-changes cannot be used with --batch");
+      }
+    }
+
+    if (JSCMain.isProfiling(line) && line.hasOption(JSCMain.CMD_BATCH)) {
+      throw new ParseException("--profile cannot be used with --batch");
+    }
+
+    if (line.hasOption(JSCMain.OPT_WATCH)) {
+      if ((line.hasOption(JSCMain.CMD_XHTML_SINGLE)
+           || line.hasOption(JSCMain.CMD_XHTML_MULTI)) == false) {
+        throw new ParseException(
+          "--watch requires --xhtml-single or --xhtml-multi");
+      }
+    }
+  }
+
   private static void runActual(
     final String[] args)
     throws ParseException,
@@ -390,12 +611,18 @@ public final class JSCMain
       root.setLevel(Level.ALL);
     }
 
+    JSCMain.checkOptions(line);
+
     if (line.hasOption(JSCMain.CMD_XHTML_SINGLE)) {
       JSCMain.runCommandCompileXHTMLSingle(line);
     } else if (line.hasOption(JSCMain.CMD_XHTML_MULTI)) {
       JSCMain.runCommandCompileXHTMLMulti(line);
     } else if (line.hasOption(JSCMain.CMD_CHECK)) {
       JSCMain.runCommandCheck(line);
+    } else if (line.hasOption(JSCMain.CMD_BATCH)) {
+      JSCMain.runCommandBatch(line);
+    } else if (line.hasOption(JSCMain.CMD_GENERATE)) {
+      JSCMain.runCommandGenerate(line);
     } else if (line.hasOption(JSCMain.OPT_VERSION)) {
       JSCMain.runShowVersion(line);
     } else {
@@ -422,23 +649,110 @@ public final class JSCMain
       throw new ParseException("Too few arguments");
     }
 
-    final String name = args[0];
-    final File file = new File(name);
+    final File file = new File(args[0]);
+    final JSCProfile profile = JSCMain.newProfile(line);
+    final SADocument doc = JSCMain.compileDocument(
+      SDocumentParserContext.getDefault(), file, profile);
+    JSCMain.reportProfile(line, profile, file);
+    return doc;
+  }
+
+  /**
+   * Parse, validate and annotate the given document.
+   *
+   * @param context The parser context
+   * @param file    The document file
+   * @param profile The profile in which to record each phase, if any
+   *
+   * @return An annotated document
+   *
+   * @throws SAXException                 On XML parse errors
+   * @throws ParserConfigurationException On parser configuration errors
+   * @throws ValidityException            On XML validation errors
+   * @throws ParsingException             On parser errors
+   * @throws IOException                  On I/O errors
+   * @throws URISyntaxException           On failing to parse a URI
+   * @throws XIncludeException            If an xinclude fails
+   * @throws NoIncludeLocationException   If an xinclude fails
+   * @throws InclusionLoopException       If an xinclude fails
+   * @throws BadParseAttributeException   If an xinclude fails
+   */
 
+  static SADocument compileDocument(
+    final SDocumentParserContext context,
+    final File file,
+    final @Nullable JSCProfile profile)
+    throws ValidityException,
+    BadParseAttributeException,
+    InclusionLoopException,
+    NoIncludeLocationException,
+    SAXException,
+    ParserConfigurationException,
+    ParsingException,
+    IOException,
+    URISyntaxException,
+    XIncludeException
+  {
     final BufferedInputStream stream =
       new BufferedInputStream(new FileInputStream(file));
 
     try {
-      final SDocument doc =
-        SDocumentParser.fromStream(stream, file.toURI());
-      return SAnnotator.document(doc);
+      if (profile == null) {
+        final SDocument doc =
+          SDocumentParser.fromStream(context, stream, file.toURI());
+        return SAnnotator.document(doc);
+      }
+
+      final JSCProfile.Mark validate = profile.mark();
+      final Document xml =
+        SDocumentParser.fromStreamValidate(context, stream, file.toURI());
+      profile.record(JSCProfile.PHASE_VALIDATE, null, validate);
+
+      final JSCProfile.Mark construct = profile.mark();
+      final SDocument doc = SDocumentParser.fromValidatedDocument(xml);
+      profile.record(JSCProfile.PHASE_CONSTRUCT, null, construct);
+
+      final JSCProfile.Mark annotate = profile.mark();
+      final SADocument annotated = SAnnotator.document(doc);
+      profile.record(JSCProfile.PHASE_ANNOTATE, null, annotate);
+      return annotated;
     } finally {
       stream.close();
     }
   }
 
-  private static void runCommandCompileXHTMLMulti(
-    final CommandLine line)
+  /**
+   * Parse, validate and annotate the given document, reusing the files and
+   * sections that are unchanged since the previous compilation. Files are
+   * parsed separately and held in {@code cache}, and the sections of
+   * {@code previous}, if any, are reused where possible.
+   *
+   * @param context  The parser context
+   * @param cache    The fragment cache
+   * @param previous The result of the previous compilation, if any
+   * @param file     The document file
+   * @param profile  The profile in which to record each phase, if any
+   *
+   * @return An annotated document
+   *
+   * @throws SAXException                 On XML parse errors
+   * @throws ParserConfigurationException On parser configuration errors
+   * @throws ValidityException            On XML validation errors
+   * @throws ParsingException             On parser errors
+   * @throws IOException                  On I/O errors
+   * @throws URISyntaxException           On failing to parse a URI
+   * @throws XIncludeException            If an xinclude fails
+   * @throws NoIncludeLocationException   If an xinclude fails
+   * @throws InclusionLoopException       If an xinclude fails
+   * @throws BadParseAttributeException   If an xinclude fails
+   */
+
+  static SADocument compileDocumentIncremental(
+    final SDocumentParserContext context,
+    final SDocumentFragmentCache cache,
+    final @Nullable SADocument previous,
+    final File file,
+    final @Nullable JSCProfile profile)
     throws ValidityException,
     BadParseAttributeException,
     InclusionLoopException,
@@ -448,30 +762,131 @@ public final class JSCMain
     ParsingException,
     IOException,
     URISyntaxException,
-    XIncludeException,
-    ParseException
+    XIncludeException
+  {
+    final BufferedInputStream stream =
+      new BufferedInputStream(new FileInputStream(file));
+
+    try {
+      /*
+       * Fragments are validated and constructed together, so the whole
+       * parse is recorded as the validate phase.
+       */
+
+      final JSCProfile.Mark validate = profile != null ? profile.mark() : null;
+      final SDocument doc = SDocumentParser.fromStreamFragments(
+        context, cache, stream, file.toURI());
+      if (profile != null && validate != null) {
+        profile.record(JSCProfile.PHASE_VALIDATE, null, validate);
+      }
+
+      final JSCProfile.Mark annotate = profile != null ? profile.mark() : null;
+      final SADocument annotated;
+      if (previous != null) {
+        annotated = SAnnotator.documentIncremental(previous, doc);
+      } else {
+        annotated = SAnnotator.documentRetainingSources(doc);
+      }
+      if (profile != null && annotate != null) {
+        profile.record(JSCProfile.PHASE_ANNOTATE, null, annotate);
+      }
+      return annotated;
+    } finally {
+      stream.close();
+    }
+  }
+
+  private static boolean isProfiling(
+    final CommandLine line)
+  {
+    return line.hasOption(JSCMain.OPT_PROFILE)
+           || line.hasOption(JSCMain.OPT_PROFILE_JSON);
+  }
+
+  private static @Nullable JSCProfile newProfile(
+    final CommandLine line)
+  {
+    if (JSCMain.isProfiling(line)) {
+      return new JSCProfile();
+    }
+    return null;
+  }
+
+  private static void reportProfile(
+    final CommandLine line,
+    final @Nullable JSCProfile profile,
+    final File file)
+    throws IOException
+  {
+    if (profile != null) {
+      profile.writeSummary(new PrintWriter(System.err));
+      if (line.hasOption(JSCMain.OPT_PROFILE_JSON)) {
+        profile.writeJSON(
+          new File(line.getOptionValue(JSCMain.OPT_PROFILE_JSON)), file);
+      }
+    }
+  }
+
+  private static void runCommandBatch(
+    final CommandLine line)
+    throws ParseException,
+    IOException
   {
     final String[] args = line.getArgs();
-    if (args.length < 2) {
+    if (args.length < 1) {
       throw new ParseException("Too few arguments");
     }
 
-    final XMLInserts inserts = JSCMain.loadXMLInserts(line);
-    final File outdir = new File(args[1]);
-    final SADocument doc = JSCMain.runCommandCheck(line);
-    final SDocumentXHTMLWriterMulti writer = new SDocumentXHTMLWriterMulti();
-
-    final SortedMap<String, Document> results =
-      writer.writeDocuments(JSCMain.getXHTMLWriterCallbacks(inserts), doc);
+    final List<JSCCompilation> entries =
+      JSCBatch.parseManifest(new File(args[0]));
+    final int threads =
+      JSCMain.getThreads(line, Runtime.getRuntime().availableProcessors());
 
-    JSCMain.createOutdir(outdir);
+    final JSCCompiler compiler = JSCCompiler.newCompiler(
+      threads, 1, line.hasOption(JSCMain.OPT_XHTML_INCREMENTAL));
+    compiler.compileAll(entries);
+  }
 
-    for (final String name : results.keySet()) {
-      final File outfile = new File(outdir, name);
-      JSCMain.writeFile(outfile, results.get(name));
+  private static void runCommandGenerate(
+    final CommandLine line)
+    throws ParseException,
+    IOException
+  {
+    final String[] args = line.getArgs();
+    if (args.length < 1) {
+      throw new ParseException("Too few arguments");
     }
 
-    JSCMain.writeCSS(outdir);
+    final SDocumentGenerator g = JSCGenerate.configure(
+      line.getOptionProperties(JSCMain.OPT_GENERATE_OPTION));
+    JSCGenerate.write(g, new File(args[0]));
+  }
+
+  private static void runCommandCompileXHTMLMulti(
+    final CommandLine line)
+    throws ValidityException,
+    BadParseAttributeException,
+    InclusionLoopException,
+    NoIncludeLocationException,
+    SAXException,
+    ParserConfigurationException,
+    ParsingException,
+    IOException,
+    URISyntaxException,
+    XIncludeException,
+    ParseException
+  {
+    final int threads = JSCMain.getThreads(line, 1);
+    final boolean profiling = JSCMain.isProfiling(line);
+    if (profiling && threads > 1) {
+      JSCMain.LOG.warn(
+        "--profile: rendering pages on one thread so that the cost of each page can be measured");
+    }
+    JSCMain.runCompileXHTML(
+      line,
+      new SDocumentXHTMLWriterMulti(
+        SDocumentXHTMLWriterMulti.DEFAULT_FRONT_PAGE_NAME,
+        profiling ? 1 : threads));
   }
 
   private static void runCommandCompileXHTMLSingle(
@@ -487,27 +902,77 @@ public final class JSCMain
     URISyntaxException,
     XIncludeException,
     ParseException
+  {
+    JSCMain.runCompileXHTML(line, new SDocumentXHTMLWriterSingle());
+  }
+
+  private static void runCompileXHTML(
+    final CommandLine line,
+    final SDocumentXHTMLWriter writer)
+    throws ValidityException,
+    BadParseAttributeException,
+    InclusionLoopException,
+    NoIncludeLocationException,
+    SAXException,
+    ParserConfigurationException,
+    ParsingException,
+    IOException,
+    URISyntaxException,
+    XIncludeException,
+    ParseException
   {
     final String[] args = line.getArgs();
     if (args.length < 2) {
       throw new ParseException("Too few arguments");
     }
 
-    final XMLInserts inserts = JSCMain.loadXMLInserts(line);
+    final File file = new File(args[0]);
     final File outdir = new File(args[1]);
-    final File outfile = new File(outdir, "index.xhtml");
-
-    final SADocument doc = JSCMain.runCommandCheck(line);
-    final SDocumentXHTMLWriterSingle writer =
-      new SDocumentXHTMLWriterSingle();
-
-    final SortedMap<String, Document> results =
-      writer.writeDocuments(JSCMain.getXHTMLWriterCallbacks(inserts), doc);
-
-    JSCMain.createOutdir(outdir);
+    final SDocumentXHTMLWriterCallbacks callbacks =
+      JSCMain.getXHTMLWriterCallbacks(JSCMain.loadXMLInserts(line));
+    final boolean incremental = line.hasOption(JSCMain.OPT_XHTML_INCREMENTAL);
+    final File changes = JSCMain.getChangesFile(line);
+    final SDocumentParserContext context = SDocumentParserContext.getDefault();
+
+    final JSCProfile profile = JSCMain.newProfile(line);
+
+    if (line.hasOption(JSCMain.OPT_WATCH) == false) {
+      final SADocument doc = JSCMain.compileDocument(context, file, profile);
+      JSCMain.writePages(
+        outdir, writer, callbacks, doc, incremental, changes, profile);
+      JSCMain.reportProfile(line, profile, file);
+      return;
+    }
 
-    JSCMain.writeFile(outfile, results.get(results.firstKey()));
-    JSCMain.writeCSS(outdir);
+    /*
+     * When watching, the parsed files and the annotated document are kept
+     * between rebuilds, so that each rebuild only parses the files that
+     * changed and only annotates the sections that changed.
+     */
+
+    final SDocumentFragmentCache cache = SDocumentFragmentCache.newCache();
+    final AtomicReference<SADocument> last = new AtomicReference<SADocument>(
+      JSCMain.compileDocumentIncremental(context, cache, null, file, profile));
+    JSCMain.writePages(
+      outdir, writer, callbacks, last.get(), incremental, changes, profile);
+    JSCMain.reportProfile(line, profile, file);
+
+    JSCWatch.watch(
+      file.toPath(), new JSCWatch.Rebuild()
+      {
+        @Override
+        public void rebuild()
+          throws Exception
+        {
+          final JSCProfile rp = JSCMain.newProfile(line);
+          final SADocument r = JSCMain.compileDocumentIncremental(
+            context, cache, last.get(), file, rp);
+          last.set(r);
+          JSCMain.writePages(
+            outdir, writer, callbacks, r, incremental, changes, rp);
+          JSCMain.reportProfile(line, rp, file);
+        }
+      });
   }
 
   @SuppressWarnings("unused")
@@ -526,6 +991,8 @@ public final class JSCMain
     pw.println("jsc: [options] --check        file");
     pw.println("  or [options] --xhtml-single file outdir");
     pw.println("  or [options] --xhtml-multi  file outdir");
+    pw.println("  or [options] --batch        manifest");
+    pw.println("  or [options] --generate     outfile");
     pw.println("  or [options] --version");
     pw.println();
     formatter.printOptions(pw, 120, JSCMain.OPTIONS, 2, 4);
@@ -535,11 +1002,122 @@ public final class JSCMain
     pw.flush();
   }
 
+  /**
+   * Write the pages of the given document to the output directory.
+   *
+   * @param outdir       The output directory
+   * @param writer       The XHTML writer
+   * @param callbacks    The XHTML writer callbacks
+   * @param doc          The document
+   * @param incremental  {@code true} if only changed files should be written
+   * @param changes_file The file to which the list of changed files should be
+   *                     written, if any
+   * @param profile      The profile in which to record each page, if any
+   *
+   * @return The names of the files produced, relative to {@code outdir}
+   *
+   * @throws IOException On I/O errors
+   */
+
+  static SortedSet<String> writePages(
+    final File outdir,
+    final SDocumentXHTMLWriter writer,
+    final SDocumentXHTMLWriterCallbacks callbacks,
+    final SADocument doc,
+    final boolean incremental,
+    final @Nullable File changes_file,
+    final @Nullable JSCProfile profile)
+    throws IOException
+  {
+    JSCMain.createOutdir(outdir);
+
+    final SortedSet<String> names = new TreeSet<String>();
+    if (incremental) {
+      final JSCIncrementalWriter sink = new JSCIncrementalWriter(outdir);
+      JSCMain.writePagesTo(
+        writer, callbacks, doc, new RecordingSink(sink, names), profile);
+
+      final JSCIncrementalWriter.Changes changes = sink.finish();
+      JSCMain.LOG.info(
+        "{} files changed, {} files removed",
+        Integer.valueOf(changes.getChanged().size()),
+        Integer.valueOf(changes.getRemoved().size()));
+
+      if (changes_file != null) {
+        changes.write(changes_file);
+      }
+    } else {
+      JSCMain.writePagesTo(
+        writer,
+        callbacks,
+        doc,
+        new RecordingSink(JSCMain.getFileSink(outdir), names),
+        profile);
+    }
+
+    if (profile != null) {
+      final JSCProfile.Mark css = profile.mark();
+      JSCMain.writeCSS(outdir, names);
+      profile.record(JSCProfile.PHASE_WRITE, null, css);
+    } else {
+      JSCMain.writeCSS(outdir, names);
+    }
+    return names;
+  }
+
+  private static void writePagesTo(
+    final SDocumentXHTMLWriter writer,
+    final SDocumentXHTMLWriterCallbacks callbacks,
+    final SADocument doc,
+    final JSCPageBytesSink sink,
+    final @Nullable JSCProfile profile)
+    throws IOException
+  {
+    if (profile != null) {
+      writer.writeDocumentsTo(callbacks, doc, profile.pageSink(sink));
+    } else {
+      writer.writeDocumentsTo(callbacks, doc, new SDocumentXHTMLPageSink()
+      {
+        @Override
+        public void onPage(
+          final String name,
+          final Document page)
+          throws IOException
+        {
+          sink.onPage(name, JSCMain.serialize(page));
+        }
+      });
+    }
+  }
+
+  /**
+   * Serialize the given page.
+   *
+   * @param page The page
+   *
+   * @return The page as {@code UTF-8} bytes
+   *
+   * @throws IOException On I/O errors
+   */
+
+  static byte[] serialize(
+    final Document page)
+    throws IOException
+  {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream(16384);
+    final Serializer s = new Serializer(bytes, "UTF-8");
+    s.write(page);
+    s.flush();
+    return bytes.toByteArray();
+  }
+
   private static void writeCSS(
-    final File outdir)
+    final File outdir,
+    final SortedSet<String> names)
     throws IOException
   {
     final File layout = new File(outdir, "jstructural-2.0.0-layout.css");
+    names.add(layout.getName());
     if (layout.exists() == false) {
       JSCMain.LOG.info("creating " + layout);
 
@@ -553,6 +1131,7 @@ public final class JSCMain
     }
 
     final File colour = new File(outdir, "jstructural-2.0.0-colour.css");
+    names.add(colour.getName());
     if (colour.exists() == false) {
       JSCMain.LOG.info("creating " + colour);
 
@@ -568,25 +1147,62 @@ public final class JSCMain
 
   private static void writeFile(
     final File file,
-    final Document document)
+    final byte[] data)
     throws IOException
   {
     JSCMain.LOG.info("writing " + file);
 
-    final BufferedOutputStream stream =
-      new BufferedOutputStream(new FileOutputStream(file));
-
+    final SEventWriteFile event =
+      SEvents.AVAILABLE ? SEventWriteFile.start() : null;
+    final OutputStream stream = new FileOutputStream(file);
     try {
-      final Serializer s = new Serializer(stream);
-      s.write(document);
-      s.flush();
-    } finally {
+      stream.write(data);
       stream.flush();
+    } finally {
       stream.close();
     }
+
+    if (event != null) {
+      event.end();
+      if (event.shouldCommit()) {
+        event.setPath(file.toString());
+        event.setBytes(file.length());
+        event.commit();
+      }
+    }
+  }
+
+  /**
+   * A sink that records the name of each page passed to it.
+   */
+
+  private static final class RecordingSink implements JSCPageBytesSink
+  {
+    private final JSCPageBytesSink  sink;
+    private final SortedSet<String> names;
+
+    RecordingSink(
+      final JSCPageBytesSink in_sink,
+      final SortedSet<String> in_names)
+    {
+      this.sink = in_sink;
+      this.names = in_names;
+    }
+
+    @Override
+    public void onPage(
+      final String name,
+      final byte[] data)
+      throws IOException
+    {
+      this.sink.onPage(name, data);
+      synchronized (this.names) {
+        this.names.add(name);
+      }
+    }
   }
 
-  private static final class XMLInserts
+  static final class XMLInserts
   {
     private final OptionType<Element> body_end;
     private final OptionType<Element> body_start;
@@ -599,12 +1215,12 @@ public final class JSCMain
       this.body_end = in_be;
     }
 
-    public OptionType<Element> getBodyEnd()
+    OptionType<Element> getBodyEnd()
     {
       return this.body_end;
     }
 
-    public OptionType<Element> getBodyStart()
+    OptionType<Element> getBodyStart()
     {
       return this.body_start;
     }
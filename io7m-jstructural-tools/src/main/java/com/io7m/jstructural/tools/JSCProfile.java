@@ -0,0 +1,584 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.jstructural.tools;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.jstructural.xom.SDocumentXHTMLPageSink;
+import nu.xom.Document;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>A record of the time and memory spent in each phase of a compilation.</p>
+ *
+ * <p>For each measured step, the profile records the elapsed wall-clock time,
+ * the CPU time consumed by the current thread, and the number of bytes
+ * allocated by the current thread. CPU time and allocation are only
+ * available on virtual machines that support measuring them, and are
+ * recorded as {@code -1} otherwise. The {@code render}, {@code serialize}
+ * and {@code write} phases are measured per page; the {@code render}
+ * measurement of the first page also includes any work the XHTML writer
+ * performs before producing its first page.</p>
+ */
+
+final class JSCProfile
+{
+  /**
+   * Parsing, XInclude processing and schema validation.
+   */
+
+  static final String PHASE_VALIDATE = "validate";
+
+  /**
+   * Construction of the document model from validated XML.
+   */
+
+  static final String PHASE_CONSTRUCT = "construct";
+
+  /**
+   * Annotation of the document model.
+   */
+
+  static final String PHASE_ANNOTATE = "annotate";
+
+  /**
+   * Construction of XHTML pages.
+   */
+
+  static final String PHASE_RENDER = "render";
+
+  /**
+   * Serialization of XHTML pages to bytes.
+   */
+
+  static final String PHASE_SERIALIZE = "serialize";
+
+  /**
+   * Writing of files.
+   */
+
+  static final String PHASE_WRITE = "write";
+
+  private static final double NANOS_PER_MILLI = 1000000.0;
+  private static final double BYTES_PER_MIB   = 1024.0 * 1024.0;
+
+  private final @Nullable AllocationCounter allocations;
+  private final Map<String, Phase>           phases;
+  private final @Nullable ThreadMXBean       threads;
+
+  JSCProfile()
+  {
+    final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+    if (bean.isCurrentThreadCpuTimeSupported()) {
+      bean.setThreadCpuTimeEnabled(true);
+      this.threads = bean;
+    } else {
+      this.threads = null;
+    }
+
+    this.allocations = JSCProfile.allocationCounter(bean);
+    this.phases = new LinkedHashMap<String, Phase>();
+  }
+
+  /**
+   * Allocation counting is an extension of the HotSpot management API. The
+   * extension interface is only referenced from {@link SunAllocationCounter},
+   * which is not loaded unless the interface exists and is implemented by the
+   * given bean, so that profiling still works (without allocation counts) on
+   * virtual machines that do not provide it.
+   */
+
+  private static @Nullable AllocationCounter allocationCounter(
+    final ThreadMXBean bean)
+  {
+    try {
+      final Class<?> c = Class.forName(
+        "com.sun.management.ThreadMXBean",
+        false,
+        JSCProfile.class.getClassLoader());
+      if (c.isInstance(bean)) {
+        return SunAllocationCounter.create(bean);
+      }
+    } catch (final ClassNotFoundException e) {
+      // Allocation counting is not supported
+    } catch (final LinkageError e) {
+      // Allocation counting is not supported
+    }
+    return null;
+  }
+
+  private static String escape(
+    final String text)
+  {
+    final StringBuilder b = new StringBuilder(text.length() + 2);
+    b.append('"');
+    for (int index = 0; index < text.length(); ++index) {
+      final char c = text.charAt(index);
+      switch (c) {
+        case '"':
+          b.append("\\\"");
+          break;
+        case '\\':
+          b.append("\\\\");
+          break;
+        default:
+          if (c < 0x20) {
+            b.append(String.format("\\u%04x", Integer.valueOf(c)));
+          } else {
+            b.append(c);
+          }
+          break;
+      }
+    }
+    b.append('"');
+    return b.toString();
+  }
+
+  private static String formatMillis(
+    final long nanos)
+  {
+    if (nanos < 0L) {
+      return "-";
+    }
+    return String.format("%.1f", Double.valueOf(nanos / JSCProfile.NANOS_PER_MILLI));
+  }
+
+  private static String formatMiB(
+    final long bytes)
+  {
+    if (bytes < 0L) {
+      return "-";
+    }
+    return String.format("%.1f", Double.valueOf(bytes / JSCProfile.BYTES_PER_MIB));
+  }
+
+  private static void writeRow(
+    final PrintWriter out,
+    final String phase,
+    final String count,
+    final String wall,
+    final String cpu,
+    final String allocated,
+    final String slowest)
+  {
+    out.printf(
+      "%-10s %6s %10s %10s %10s", phase, count, wall, cpu, allocated);
+    if (slowest.isEmpty() == false) {
+      out.print("  ");
+      out.print(slowest);
+    }
+    out.println();
+  }
+
+  private static void writeMeasurementFields(
+    final Writer w,
+    final Measurement m)
+    throws IOException
+  {
+    w.write("\"wall_ns\": ");
+    w.write(Long.toString(m.wall));
+    w.write(", \"cpu_ns\": ");
+    w.write(Long.toString(m.cpu));
+    w.write(", \"allocated_bytes\": ");
+    w.write(Long.toString(m.allocated));
+  }
+
+  /**
+   * @return A mark recording the current time and allocation counters
+   */
+
+  Mark mark()
+  {
+    final Thread current = Thread.currentThread();
+
+    final long cpu;
+    if (this.threads != null) {
+      cpu = this.threads.getCurrentThreadCpuTime();
+    } else {
+      cpu = -1L;
+    }
+
+    final long allocated;
+    if (this.allocations != null) {
+      allocated = this.allocations.getAllocatedBytes(current.getId());
+    } else {
+      allocated = -1L;
+    }
+
+    return new Mark(System.nanoTime(), cpu, allocated);
+  }
+
+  /**
+   * Record the cost of a step that began at the given mark and ended now.
+   *
+   * @param phase The phase
+   * @param item  The item within the phase, such as a page name, if any
+   * @param start The mark taken at the start of the step
+   */
+
+  void record(
+    final String phase,
+    final @Nullable String item,
+    final Mark start)
+  {
+    NullCheck.notNull(phase, "Phase");
+    NullCheck.notNull(start, "Start");
+
+    final Mark end = this.mark();
+    final long cpu;
+    if (start.cpu >= 0L && end.cpu >= 0L) {
+      cpu = end.cpu - start.cpu;
+    } else {
+      cpu = -1L;
+    }
+
+    final long allocated;
+    if (start.allocated >= 0L && end.allocated >= 0L) {
+      allocated = end.allocated - start.allocated;
+    } else {
+      allocated = -1L;
+    }
+
+    Phase p = this.phases.get(phase);
+    if (p == null) {
+      p = new Phase(phase);
+      this.phases.put(phase, p);
+    }
+    p.add(new Measurement(item, end.wall - start.wall, cpu, allocated));
+  }
+
+  /**
+   * Return a page sink that measures the serialization and writing of each
+   * page, and the rendering of each page as the time between successive
+   * pages, and passes each serialized page on to {@code target}.
+   *
+   * @param target The sink that receives serialized pages
+   *
+   * @return A page sink
+   */
+
+  SDocumentXHTMLPageSink pageSink(
+    final JSCPageBytesSink target)
+  {
+    return new ProfilingPageSink(this, NullCheck.notNull(target, "Target"));
+  }
+
+  /**
+   * Write a summary table of the profile.
+   *
+   * @param out The output
+   */
+
+  void writeSummary(
+    final PrintWriter out)
+  {
+    JSCProfile.writeRow(
+      out, "phase", "count", "wall ms", "cpu ms", "alloc MiB", "slowest");
+
+    final Measurement total = new Measurement(null, 0L, 0L, 0L);
+    for (final Phase p : this.phases.values()) {
+      final Measurement sum = p.getTotal();
+      total.add(sum);
+
+      final Measurement slowest = p.getSlowest();
+      final String slowest_text;
+      if (slowest != null && p.items.size() > 1) {
+        slowest_text = String.format(
+          "%s (%s ms)",
+          slowest.name,
+          JSCProfile.formatMillis(slowest.wall));
+      } else {
+        slowest_text = "";
+      }
+
+      JSCProfile.writeRow(
+        out,
+        p.name,
+        Integer.toString(p.items.size()),
+        JSCProfile.formatMillis(sum.wall),
+        JSCProfile.formatMillis(sum.cpu),
+        JSCProfile.formatMiB(sum.allocated),
+        slowest_text);
+    }
+
+    JSCProfile.writeRow(
+      out,
+      "total",
+      "",
+      JSCProfile.formatMillis(total.wall),
+      JSCProfile.formatMillis(total.cpu),
+      JSCProfile.formatMiB(total.allocated),
+      "");
+    out.flush();
+  }
+
+  /**
+   * Write the profile as JSON to the given file.
+   *
+   * @param file     The output file
+   * @param document The document that was compiled
+   *
+   * @throws IOException On I/O errors
+   */
+
+  void writeJSON(
+    final File file,
+    final File document)
+    throws IOException
+  {
+    NullCheck.notNull(file, "File");
+    NullCheck.notNull(document, "Document");
+
+    final Writer w = new BufferedWriter(
+      new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+    try {
+      final Measurement total = new Measurement(null, 0L, 0L, 0L);
+
+      w.write("{\n");
+      w.write("  \"version\": 1,\n");
+      w.write("  \"document\": ");
+      w.write(JSCProfile.escape(document.toString()));
+      w.write(",\n");
+      w.write("  \"phases\": [");
+
+      boolean first_phase = true;
+      for (final Phase p : this.phases.values()) {
+        final Measurement sum = p.getTotal();
+        total.add(sum);
+
+        w.write(first_phase ? "\n" : ",\n");
+        first_phase = false;
+        w.write("    { \"phase\": ");
+        w.write(JSCProfile.escape(p.name));
+        w.write(", \"count\": ");
+        w.write(Integer.toString(p.items.size()));
+        w.write(", ");
+        JSCProfile.writeMeasurementFields(w, sum);
+        w.write(", \"items\": [");
+
+        boolean first_item = true;
+        for (final Measurement m : p.items) {
+          if (m.name != null) {
+            w.write(first_item ? "\n" : ",\n");
+            first_item = false;
+            w.write("        { \"name\": ");
+            w.write(JSCProfile.escape(m.name));
+            w.write(", ");
+            JSCProfile.writeMeasurementFields(w, m);
+            w.write(" }");
+          }
+        }
+        w.write(first_item ? "] }" : "\n      ] }");
+      }
+
+      w.write("\n  ],\n");
+      w.write("  \"total\": { ");
+      JSCProfile.writeMeasurementFields(w, total);
+      w.write(" }\n");
+      w.write("}\n");
+      w.flush();
+    } finally {
+      w.close();
+    }
+  }
+
+  /**
+   * A source of per-thread allocation counts.
+   */
+
+  private interface AllocationCounter
+  {
+    long getAllocatedBytes(
+      final long thread);
+  }
+
+  /**
+   * An allocation counter based on the HotSpot management extension.
+   */
+
+  private static final class SunAllocationCounter implements AllocationCounter
+  {
+    private final com.sun.management.ThreadMXBean bean;
+
+    private SunAllocationCounter(
+      final com.sun.management.ThreadMXBean in_bean)
+    {
+      this.bean = in_bean;
+    }
+
+    static @Nullable AllocationCounter create(
+      final ThreadMXBean in_bean)
+    {
+      final com.sun.management.ThreadMXBean b =
+        (com.sun.management.ThreadMXBean) in_bean;
+      if (b.isThreadAllocatedMemorySupported()) {
+        b.setThreadAllocatedMemoryEnabled(true);
+        return new SunAllocationCounter(b);
+      }
+      return null;
+    }
+
+    @Override public long getAllocatedBytes(
+      final long thread)
+    {
+      return this.bean.getThreadAllocatedBytes(thread);
+    }
+  }
+
+  /**
+   * The time and allocation counters of the current thread at a point in
+   * time.
+   */
+
+  static final class Mark
+  {
+    private final long allocated;
+    private final long cpu;
+    private final long wall;
+
+    Mark(
+      final long in_wall,
+      final long in_cpu,
+      final long in_allocated)
+    {
+      this.wall = in_wall;
+      this.cpu = in_cpu;
+      this.allocated = in_allocated;
+    }
+  }
+
+  private static final class Measurement
+  {
+    private final @Nullable String name;
+    private long                   allocated;
+    private long                   cpu;
+    private long                   wall;
+
+    Measurement(
+      final @Nullable String in_name,
+      final long in_wall,
+      final long in_cpu,
+      final long in_allocated)
+    {
+      this.name = in_name;
+      this.wall = in_wall;
+      this.cpu = in_cpu;
+      this.allocated = in_allocated;
+    }
+
+    void add(
+      final Measurement m)
+    {
+      this.wall += m.wall;
+      this.cpu = (this.cpu < 0L || m.cpu < 0L) ? -1L : this.cpu + m.cpu;
+      this.allocated = (this.allocated < 0L || m.allocated < 0L)
+                       ? -1L
+                       : this.allocated + m.allocated;
+    }
+  }
+
+  private static final class Phase
+  {
+    private final List<Measurement> items;
+    private final String            name;
+
+    Phase(
+      final String in_name)
+    {
+      this.name = in_name;
+      this.items = new ArrayList<Measurement>();
+    }
+
+    void add(
+      final Measurement m)
+    {
+      this.items.add(m);
+    }
+
+    @Nullable
+    Measurement getSlowest()
+    {
+      Measurement slowest = null;
+      for (final Measurement m : this.items) {
+        if (m.name != null && (slowest == null || m.wall > slowest.wall)) {
+          slowest = m;
+        }
+      }
+      return slowest;
+    }
+
+    Measurement getTotal()
+    {
+      final Measurement sum = new Measurement(null, 0L, 0L, 0L);
+      for (final Measurement m : this.items) {
+        sum.add(m);
+      }
+      return sum;
+    }
+  }
+
+  private static final class ProfilingPageSink implements
+    SDocumentXHTMLPageSink
+  {
+    private final JSCProfile       profile;
+    private final JSCPageBytesSink target;
+    private Mark                   render;
+
+    ProfilingPageSink(
+      final JSCProfile in_profile,
+      final JSCPageBytesSink in_target)
+    {
+      this.profile = in_profile;
+      this.target = in_target;
+      this.render = in_profile.mark();
+    }
+
+    @Override
+    public void onPage(
+      final String name,
+      final Document page)
+      throws IOException
+    {
+      this.profile.record(JSCProfile.PHASE_RENDER, name, this.render);
+
+      final Mark serialize = this.profile.mark();
+      final byte[] data = JSCMain.serialize(page);
+      this.profile.record(JSCProfile.PHASE_SERIALIZE, name, serialize);
+
+      final Mark write = this.profile.mark();
+      this.target.onPage(name, data);
+      this.profile.record(JSCProfile.PHASE_WRITE, name, write);
+
+      this.render = this.profile.mark();
+    }
+  }
+}
@@ -0,0 +1,344 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.jstructural.tools;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.junreachable.UnreachableCodeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Functions to watch a document and the files that it includes, and to
+ * rebuild the document whenever any of them change.</p>
+ *
+ * <p>Rebuilds take place in the same process, so the compiled schema, the
+ * parser factories and the code compiled by the JIT stay warm between
+ * rebuilds. Callers are expected to keep the parsed files and the annotated
+ * document between rebuilds, so that only what changed is parsed and
+ * annotated again. The set of included files is recomputed after every
+ * rebuild, so that newly included files are watched and files that are no
+ * longer included are not.</p>
+ */
+
+final class JSCWatch
+{
+  private static final Logger LOG;
+  private static final long   SETTLE_MS = 50L;
+  private static final String XINCLUDE_URI =
+    "http://www.w3.org/2001/XInclude";
+
+  static {
+    LOG = LoggerFactory.getLogger(JSCWatch.class);
+  }
+
+  private JSCWatch()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * <p>Find the given document and all of the local files that it includes,
+   * directly or indirectly, via XInclude. Relative {@code href} values are
+   * resolved against the including file. Files included with {@code
+   * parse="text"} are returned but are not examined further. Files that
+   * cannot be read or parsed are returned, along with any files that they
+   * were found to include before the failure. Includes of files other than
+   * local files are ignored.</p>
+   *
+   * @param root The document
+   *
+   * @return The document and its included files
+   *
+   * @throws SAXException                 On XML parser errors
+   * @throws ParserConfigurationException On parser configuration errors
+   */
+
+  static Set<Path> discover(
+    final Path root)
+    throws SAXException, ParserConfigurationException
+  {
+    NullCheck.notNull(root, "Root");
+
+    final SAXParserFactory factory = SAXParserFactory.newInstance();
+    factory.setNamespaceAware(true);
+    factory.setValidating(false);
+    factory.setXIncludeAware(false);
+    final SAXParser parser = factory.newSAXParser();
+
+    final Set<Path> found = new HashSet<Path>();
+    final Deque<Path> pending = new ArrayDeque<Path>();
+    pending.add(JSCWatch.normalize(root));
+
+    while (pending.isEmpty() == false) {
+      final Path file = pending.remove();
+      if (found.add(file) == false) {
+        continue;
+      }
+
+      final IncludeHandler handler = new IncludeHandler(file.toUri());
+      try {
+        parser.reset();
+        parser.parse(file.toFile(), handler);
+      } catch (final IOException e) {
+        JSCWatch.LOG.debug("{}: {}", file, e.getMessage());
+      } catch (final SAXException e) {
+        JSCWatch.LOG.debug("{}: {}", file, e.getMessage());
+      }
+
+      found.addAll(handler.getTextIncludes());
+      pending.addAll(handler.getXMLIncludes());
+    }
+
+    return Collections.unmodifiableSet(found);
+  }
+
+  private static Path normalize(
+    final Path p)
+  {
+    return p.toAbsolutePath().normalize();
+  }
+
+  /**
+   * Watch the given document and all of the files that it includes, calling
+   * {@code rebuild} each time any of them change. Failures of {@code rebuild}
+   * are logged, and watching continues. This method only returns by raising
+   * an exception.
+   *
+   * @param root    The document
+   * @param rebuild The rebuild function
+   *
+   * @throws IOException                  On I/O errors, or if the current
+   *                                      thread is interrupted
+   * @throws SAXException                 On XML parser errors
+   * @throws ParserConfigurationException On parser configuration errors
+   */
+
+  static void watch(
+    final Path root,
+    final Rebuild rebuild)
+    throws IOException, SAXException, ParserConfigurationException
+  {
+    NullCheck.notNull(root, "Root");
+    NullCheck.notNull(rebuild, "Rebuild");
+
+    final WatchService service = FileSystems.getDefault().newWatchService();
+    try {
+      final Set<Path> directories = new HashSet<Path>();
+      Set<Path> files = JSCWatch.discover(root);
+      JSCWatch.register(service, directories, files);
+
+      while (true) {
+        if (JSCWatch.waitForChanges(service, files) == false) {
+          continue;
+        }
+
+        final long start = System.nanoTime();
+        try {
+          rebuild.rebuild();
+          JSCWatch.LOG.info(
+            "rebuilt in {}ms",
+            Long.valueOf(
+              TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+        } catch (final Exception e) {
+          JSCWatch.LOG.error("rebuild failed: {}", e.getMessage());
+          JSCWatch.LOG.debug("rebuild failed: ", e);
+        }
+
+        files = JSCWatch.discover(root);
+        JSCWatch.register(service, directories, files);
+      }
+    } finally {
+      service.close();
+    }
+  }
+
+  private static void register(
+    final WatchService service,
+    final Set<Path> directories,
+    final Set<Path> files)
+    throws IOException
+  {
+    for (final Path file : files) {
+      final Path directory = file.getParent();
+      if (directory != null && directories.contains(directory) == false) {
+        JSCWatch.LOG.debug("watching {}", directory);
+        directory.register(
+          service,
+          StandardWatchEventKinds.ENTRY_CREATE,
+          StandardWatchEventKinds.ENTRY_MODIFY,
+          StandardWatchEventKinds.ENTRY_DELETE);
+        directories.add(directory);
+      }
+    }
+
+    JSCWatch.LOG.info(
+      "watching {} files for changes", Integer.valueOf(files.size()));
+  }
+
+  /**
+   * Wait until at least one watched directory reports changes, and then
+   * until no more changes are reported for a short period, so that editors
+   * that write files in several steps cause only one rebuild.
+   *
+   * @return {@code true} if any of the given files changed
+   */
+
+  private static boolean waitForChanges(
+    final WatchService service,
+    final Set<Path> files)
+    throws InterruptedIOException
+  {
+    try {
+      boolean changed = JSCWatch.check(service.take(), files);
+      while (true) {
+        final WatchKey key =
+          service.poll(JSCWatch.SETTLE_MS, TimeUnit.MILLISECONDS);
+        if (key == null) {
+          return changed;
+        }
+        changed = JSCWatch.check(key, files) || changed;
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted whilst watching files");
+    }
+  }
+
+  private static boolean check(
+    final WatchKey key,
+    final Set<Path> files)
+  {
+    final Path directory = (Path) key.watchable();
+
+    boolean changed = false;
+    for (final WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+        changed = true;
+      } else {
+        final Path file = directory.resolve((Path) event.context());
+        if (files.contains(file)) {
+          JSCWatch.LOG.debug("changed: {}", file);
+          changed = true;
+        }
+      }
+    }
+
+    key.reset();
+    return changed;
+  }
+
+  /**
+   * A function that rebuilds a document.
+   */
+
+  interface Rebuild
+  {
+    /**
+     * Rebuild the document.
+     *
+     * @throws Exception On errors
+     */
+
+    void rebuild()
+      throws Exception;
+  }
+
+  private static final class IncludeHandler extends DefaultHandler
+  {
+    private final URI        base;
+    private final List<Path> text_includes;
+    private final List<Path> xml_includes;
+
+    IncludeHandler(
+      final URI in_base)
+    {
+      this.base = in_base;
+      this.text_includes = new ArrayList<Path>();
+      this.xml_includes = new ArrayList<Path>();
+    }
+
+    List<Path> getTextIncludes()
+    {
+      return this.text_includes;
+    }
+
+    List<Path> getXMLIncludes()
+    {
+      return this.xml_includes;
+    }
+
+    @Override
+    public void startElement(
+      final String uri,
+      final String local_name,
+      final String qualified_name,
+      final Attributes attributes)
+    {
+      if (JSCWatch.XINCLUDE_URI.equals(uri)
+          && "include".equals(local_name)) {
+        final String href = attributes.getValue("href");
+        if (href == null || href.isEmpty()) {
+          return;
+        }
+
+        final Path file;
+        try {
+          final URI target = this.base.resolve(href);
+          if ("file".equals(target.getScheme()) == false) {
+            return;
+          }
+          file = JSCWatch.normalize(Paths.get(target));
+        } catch (final IllegalArgumentException e) {
+          JSCWatch.LOG.debug("{}: {}", this.base, e.getMessage());
+          return;
+        }
+
+        if ("text".equals(attributes.getValue("parse"))) {
+          this.text_includes.add(file);
+        } else {
+          this.xml_includes.add(file);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jstructural.xom;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import net.jcip.annotations.ThreadSafe;
+import nu.xom.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>A cache of parsed document fragments, for use with {@link
+ * SDocumentParser#fromStreamFragments(SDocumentParserContext,
+ * SDocumentFragmentCache, java.io.InputStream, java.net.URI)}.</p>
+ *
+ * <p>Each file included into a document with {@code xi:include} is parsed,
+ * validated and converted to a document model separately, and the result is
+ * stored under a hash of the bytes of the file and of everything that the
+ * file includes. Parsing a document again with the same cache therefore only
+ * parses the files that have changed, and the files that include them.</p>
+ *
+ * <p>A cache may optionally be backed by a directory, so that work is shared
+ * between processes. The document model has no serialized form, so the
+ * directory records which fragments have been found to be valid: such a
+ * fragment is parsed and converted again in a new process, but is not
+ * validated again.</p>
+ *
+ * <p>Each parse evicts the entries that it did not reach, so that a cache
+ * held across repeated parses of a document holds only the fragments of the
+ * most recent version of that document. A parse that fails evicts nothing,
+ * and a cache is therefore best used for one document at a time. Caches may
+ * nevertheless be safely shared between threads; use {@link #clear()} to
+ * discard all entries.</p>
+ *
+ * <p>Entries in a cache directory record the hash of the schema against
+ * which they were validated, and are ignored if the schema changes.</p>
+ */
+
+@ThreadSafe
+public final class SDocumentFragmentCache
+{
+  private static final Logger  LOG;
+  private static final Charset UTF8;
+
+  static {
+    LOG = LoggerFactory.getLogger(SDocumentFragmentCache.class);
+    UTF8 = NullCheck.notNull(Charset.forName("UTF-8"));
+  }
+
+  private final ConcurrentMap<String, Document>                     raw;
+  private final ConcurrentMap<String, SDocumentFragments.Fragment> fragments;
+  private final @Nullable File                                      directory;
+  private final @Nullable String                                    header;
+
+  private SDocumentFragmentCache(
+    final @Nullable File in_directory,
+    final @Nullable String in_header)
+  {
+    this.raw = new ConcurrentHashMap<String, Document>(256);
+    this.fragments =
+      new ConcurrentHashMap<String, SDocumentFragments.Fragment>(256);
+    this.directory = in_directory;
+    this.header = in_header;
+  }
+
+  /**
+   * @return A new, empty, in-memory cache
+   */
+
+  public static SDocumentFragmentCache newCache()
+  {
+    return new SDocumentFragmentCache(null, null);
+  }
+
+  /**
+   * Create a new cache backed by the given directory. The directory is
+   * created if it does not already exist.
+   *
+   * @param directory The cache directory
+   *
+   * @return A new cache
+   *
+   * @throws IOException If the directory cannot be created, or the schema
+   *                     cannot be read
+   */
+
+  public static SDocumentFragmentCache newCacheWithDirectory(
+    final File directory)
+    throws IOException
+  {
+    NullCheck.notNull(directory, "Directory");
+
+    if (directory.isDirectory() == false && directory.mkdirs() == false) {
+      throw new IOException("Could not create directory " + directory);
+    }
+    return new SDocumentFragmentCache(
+      directory, "jstructural-fragment 2 " + SDocumentFragments.schemaHash());
+  }
+
+  /**
+   * Discard all in-memory entries. The contents of the cache directory, if
+   * any, are not affected.
+   */
+
+  public void clear()
+  {
+    this.raw.clear();
+    this.fragments.clear();
+  }
+
+  /**
+   * @return The number of fragments currently held in memory
+   */
+
+  public int size()
+  {
+    return this.fragments.size();
+  }
+
+  /**
+   * Discard all in-memory entries other than those given.
+   *
+   * @param raw_keep       The hashes of the parsed files to keep
+   * @param fragments_keep The keys of the fragments to keep
+   */
+
+  void retain(
+    final Set<String> raw_keep,
+    final Set<String> fragments_keep)
+  {
+    this.raw.keySet().retainAll(raw_keep);
+    this.fragments.keySet().retainAll(fragments_keep);
+  }
+
+  @Nullable Document getRaw(
+    final String hash)
+  {
+    return this.raw.get(hash);
+  }
+
+  void putRaw(
+    final String hash,
+    final Document doc)
+  {
+    this.raw.putIfAbsent(hash, doc);
+  }
+
+  @Nullable SDocumentFragments.Fragment get(
+    final String key)
+  {
+    return this.fragments.get(key);
+  }
+
+  SDocumentFragments.Fragment put(
+    final String key,
+    final SDocumentFragments.Fragment f)
+  {
+    final SDocumentFragments.Fragment existing =
+      this.fragments.putIfAbsent(key, f);
+    if (existing != null) {
+      return existing;
+    }
+    return f;
+  }
+
+  /**
+   * @param key The fragment key
+   *
+   * @return {@code true} if the cache directory records that the fragment
+   * with the given key is valid
+   */
+
+  boolean isValidated(
+    final String key)
+  {
+    final File dir = this.directory;
+    if (dir == null) {
+      return false;
+    }
+
+    final File file = new File(dir, key);
+    if (file.isFile() == false) {
+      return false;
+    }
+
+    try {
+      final BufferedReader r = new BufferedReader(
+        new InputStreamReader(
+          new FileInputStream(file), SDocumentFragmentCache.UTF8));
+      try {
+        return NullCheck.notNull(this.header, "Header").equals(r.readLine());
+      } finally {
+        r.close();
+      }
+    } catch (final IOException e) {
+      SDocumentFragmentCache.LOG.debug("ignoring unreadable entry {}", file);
+      return false;
+    }
+  }
+
+  /**
+   * Record in the cache directory, if there is one, that the fragment with
+   * the given key is valid.
+   *
+   * @param key The fragment key
+   *
+   * @throws IOException On I/O errors
+   */
+
+  void setValidated(
+    final String key)
+    throws IOException
+  {
+    final File dir = this.directory;
+    if (dir == null) {
+      return;
+    }
+
+    final File file = new File(dir, key);
+    final File file_tmp = File.createTempFile(key, ".tmp", dir);
+    final Writer w = new OutputStreamWriter(
+      new FileOutputStream(file_tmp), SDocumentFragmentCache.UTF8);
+    try {
+      w.write(NullCheck.notNull(this.header, "Header"));
+      w.write('\n');
+      w.flush();
+    } finally {
+      w.close();
+    }
+
+    if (file_tmp.renameTo(file) == false) {
+      if (file.isFile()) {
+        file_tmp.delete();
+        return;
+      }
+      throw new IOException("Could not rename " + file_tmp);
+    }
+  }
+}
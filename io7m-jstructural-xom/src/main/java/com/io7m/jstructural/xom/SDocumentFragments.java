@@ -0,0 +1,1377 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jstructural.xom;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.jstructural.core.SDocument;
+import com.io7m.jstructural.core.SXML;
+import com.io7m.jstructural.events.SEventXInclude;
+import com.io7m.jstructural.events.SEvents;
+import com.io7m.jstructural.schema.SSchema;
+import com.io7m.junreachable.UnimplementedCodeException;
+import com.io7m.junreachable.UnreachableCodeException;
+import nu.xom.Attribute;
+import nu.xom.Builder;
+import nu.xom.Document;
+import nu.xom.Element;
+import nu.xom.Elements;
+import nu.xom.Node;
+import nu.xom.ParentNode;
+import nu.xom.ParsingException;
+import nu.xom.Text;
+import nu.xom.ValidityException;
+import nu.xom.converters.SAXConverter;
+import nu.xom.xinclude.BadParseAttributeException;
+import nu.xom.xinclude.InclusionLoopException;
+import nu.xom.xinclude.NoIncludeLocationException;
+import nu.xom.xinclude.XIncludeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.LocatorImpl;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.validation.ValidatorHandler;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>Functions for parsing documents one included file at a time.</p>
+ *
+ * <p>Each file is parsed without processing XIncludes. The {@code
+ * xi:include} elements are then resolved by hand: an included file is
+ * itself parsed, validated and converted to a document model, and the
+ * resulting {@link Fragment} is cached under a key derived from the bytes of
+ * the file and the keys of everything that it includes. Because every
+ * element of the {@code structural} schema is declared globally, an included
+ * element is valid in its including document if and only if it is valid on
+ * its own, so an included part, section, subsection, paragraph or formal
+ * item is replaced in the including document by a {@link Placeholder} that
+ * carries the converted model and just enough content to remain valid.
+ * Other included elements are copied into the including document and
+ * validated along with it.</p>
+ *
+ * <p>IDs and ID references span files, so the schema validator is told not
+ * to check them, and the IDs declared and referenced by each fragment are
+ * instead checked once the whole document has been assembled.</p>
+ */
+
+final class SDocumentFragments
+{
+  private static final Logger LOG;
+  private static final String XINCLUDE_URI;
+  private static final String XML_NAMESPACE_URI;
+
+  static {
+    LOG = LoggerFactory.getLogger(SDocumentFragments.class);
+    XINCLUDE_URI = "http://www.w3.org/2001/XInclude";
+    XML_NAMESPACE_URI = "http://www.w3.org/XML/1998/namespace";
+  }
+
+  private SDocumentFragments()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * Parse a document from the given stream, one included file at a time.
+   *
+   * @param context The parser context
+   * @param cache   The fragment cache
+   * @param stream  The stream
+   * @param uri     The base URI of the document
+   *
+   * @return A document
+   *
+   * @throws SAXException                 On XML parse and validation errors
+   * @throws ParserConfigurationException On parser configuration errors
+   * @throws ValidityException            On XML validation errors
+   * @throws ParsingException             On parser errors
+   * @throws IOException                  On I/O errors
+   * @throws URISyntaxException           On failing to parse a URI
+   * @throws XIncludeException            If an xinclude fails
+   * @throws NoIncludeLocationException   If an xinclude fails
+   * @throws InclusionLoopException       If an xinclude fails
+   * @throws BadParseAttributeException   If an xinclude fails
+   */
+
+  static SDocument parse(
+    final SDocumentParserContext context,
+    final SDocumentFragmentCache cache,
+    final InputStream stream,
+    final URI uri)
+    throws
+    SAXException,
+    ParserConfigurationException,
+    ValidityException,
+    ParsingException,
+    IOException,
+    URISyntaxException,
+    BadParseAttributeException,
+    InclusionLoopException,
+    NoIncludeLocationException,
+    XIncludeException
+  {
+    final byte[] bytes = SDocumentFragments.readAll(stream);
+
+    final Graph g = new Graph(context, cache);
+    final Fragment f;
+    try {
+      f = g.run(uri, bytes);
+    } catch (final UnsupportedIncludeException e) {
+      SDocumentFragments.LOG.debug(
+        "{}: {}: parsing the whole document instead", uri, e.getMessage());
+      g.sweep();
+      return SDocumentParser.fromStream(
+        context, new ByteArrayInputStream(bytes), uri);
+    }
+
+    g.sweep();
+
+    SDocumentFragments.checkIDs(f.getIDs(), uri);
+
+    final Object model = f.getModel();
+    if (model instanceof SDocument) {
+      return (SDocument) model;
+    }
+    throw new UnimplementedCodeException();
+  }
+
+  /**
+   * @param e The element
+   * @param c The expected model class
+   * @param <T> The type of model
+   *
+   * @return The model carried by {@code e}, if {@code e} is a placeholder for
+   * an included fragment, or {@code null} otherwise
+   */
+
+  static @Nullable <T> T cached(
+    final Element e,
+    final Class<T> c)
+  {
+    if (e instanceof Placeholder) {
+      return c.cast(((Placeholder) e).model);
+    }
+    return null;
+  }
+
+  private static void checkIDs(
+    final FragmentIDs f_ids,
+    final URI uri)
+    throws SAXParseException
+  {
+    final Set<String> declared = new HashSet<String>(f_ids.ids.size());
+    String duplicate = null;
+    for (final String id : f_ids.ids) {
+      if (declared.add(id) == false) {
+        duplicate = id;
+      }
+    }
+
+    String missing = null;
+    for (final String ref : f_ids.refs) {
+      if (declared.contains(ref) == false) {
+        missing = ref;
+      }
+    }
+
+    if (missing != null) {
+      throw SDocumentFragments.error(
+        uri,
+        String.format(
+          "cvc-id.1: There is no ID/IDREF binding for IDREF '%s'.", missing));
+    }
+    if (duplicate != null) {
+      throw SDocumentFragments.error(
+        uri,
+        String.format(
+          "cvc-id.2: There are multiple occurrences of ID value '%s'.",
+          duplicate));
+    }
+  }
+
+  private static SAXParseException error(
+    final URI uri,
+    final String message)
+  {
+    final SAXParseException e =
+      new SAXParseException(message, null, uri.toString(), -1, -1);
+    SDocumentFragments.LOG.error(e + ": " + e.getMessage());
+    return e;
+  }
+
+  private static byte[] readAll(
+    final InputStream stream)
+    throws IOException
+  {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream(16384);
+    final byte[] buffer = new byte[8192];
+    while (true) {
+      final int r = stream.read(buffer);
+      if (r < 0) {
+        break;
+      }
+      out.write(buffer, 0, r);
+    }
+    final byte[] r = out.toByteArray();
+    assert r != null;
+    return r;
+  }
+
+  private static byte[] readURI(
+    final URI uri)
+    throws IOException
+  {
+    final SEventXInclude event =
+      SEvents.AVAILABLE ? SEventXInclude.start() : null;
+
+    final InputStream stream = uri.toURL().openStream();
+    final byte[] bytes;
+    try {
+      bytes = SDocumentFragments.readAll(stream);
+    } finally {
+      stream.close();
+    }
+
+    if (event != null) {
+      event.end();
+      if (event.shouldCommit()) {
+        event.setURI(uri.toString());
+        event.setBytes((long) bytes.length);
+        event.commit();
+      }
+    }
+    return bytes;
+  }
+
+  /**
+   * @return A hash of the {@code structural} schema files
+   *
+   * @throws IOException On I/O errors
+   */
+
+  static String schemaHash()
+    throws IOException
+  {
+    final MessageDigest digest = SDocumentFragments.newDigest();
+    final URI[] uris = {
+      SSchema.getSchemaXMLXSDLocation(), SSchema.getSchemaXSDLocation(),
+    };
+    for (final URI uri : uris) {
+      final InputStream stream = uri.toURL().openStream();
+      try {
+        digest.update(SDocumentFragments.readAll(stream));
+      } finally {
+        stream.close();
+      }
+    }
+    return SDocumentFragments.hex(digest.digest());
+  }
+
+  private static MessageDigest newDigest()
+  {
+    try {
+      final MessageDigest d = MessageDigest.getInstance("SHA-256");
+      assert d != null;
+      return d;
+    } catch (final NoSuchAlgorithmException e) {
+      throw new UnreachableCodeException(e);
+    }
+  }
+
+  private static String hex(
+    final byte[] data)
+  {
+    final StringBuilder sb = new StringBuilder(data.length * 2);
+    for (int index = 0; index < data.length; ++index) {
+      final int x = data[index] & 0xff;
+      sb.append(Character.forDigit(x >>> 4, 16));
+      sb.append(Character.forDigit(x & 0xf, 16));
+    }
+    final String r = sb.toString();
+    assert r != null;
+    return r;
+  }
+
+  private static void digestString(
+    final MessageDigest d,
+    final String s)
+  {
+    final byte[] b = s.getBytes(SDocumentFragments.utf8());
+    d.update((byte) (b.length >>> 24));
+    d.update((byte) (b.length >>> 16));
+    d.update((byte) (b.length >>> 8));
+    d.update((byte) b.length);
+    d.update(b);
+  }
+
+  private static Charset utf8()
+  {
+    return NullCheck.notNull(Charset.forName("UTF-8"));
+  }
+
+  /**
+   * @param root The root element
+   *
+   * @return The {@code xi:include} elements within {@code root}, in document
+   * order
+   */
+
+  private static List<Element> includes(
+    final Element root)
+  {
+    final List<Element> r = new ArrayList<Element>();
+    final Deque<Element> pending = new ArrayDeque<Element>();
+    pending.push(root);
+    while (pending.isEmpty() == false) {
+      final Element e = pending.pop();
+      if (SDocumentFragments.isInclude(e)) {
+        r.add(e);
+        continue;
+      }
+      final Elements children = e.getChildElements();
+      for (int index = children.size() - 1; index >= 0; --index) {
+        pending.push(children.get(index));
+      }
+    }
+    return r;
+  }
+
+  private static boolean isInclude(
+    final Element e)
+  {
+    return "include".equals(e.getLocalName())
+      && SDocumentFragments.XINCLUDE_URI.equals(e.getNamespaceURI());
+  }
+
+  /**
+   * Collapse whitespace in all attribute values, and in the content of
+   * {@code document-style} elements, in the same manner as the schema
+   * validator does when parsing a whole document. All of the attributes, and
+   * the only element, that the {@code structural} schema types as something
+   * other than {@code xs:string} have whitespace collapsed.
+   *
+   * @param e The root element
+   * @param f_ids The IDs declared and referenced by the fragment
+   */
+
+  private static void normalize(
+    final Element e,
+    final FragmentIDs f_ids)
+  {
+    if (SDocumentFragments.isInclude(e)) {
+      return;
+    }
+
+    final boolean structural = SXML.XML_URI.toString().equals(
+      e.getNamespaceURI());
+
+    for (int index = 0; index < e.getAttributeCount(); ++index) {
+      final Attribute a = e.getAttribute(index);
+      final String ns = a.getNamespaceURI();
+      if (SDocumentFragments.XML_NAMESPACE_URI.equals(ns)
+        || SXML.XML_URI.toString().equals(ns)) {
+        a.setValue(SDocumentFragments.collapse(a.getValue()));
+      }
+    }
+
+    if (structural) {
+      SDocumentFragments.normalizeStructural(e, f_ids);
+    }
+
+    final Elements children = e.getChildElements();
+    for (int index = 0; index < children.size(); ++index) {
+      SDocumentFragments.normalize(children.get(index), f_ids);
+    }
+  }
+
+  private static void normalizeStructural(
+    final Element e,
+    final FragmentIDs f_ids)
+  {
+    final Attribute id =
+      e.getAttribute("id", SDocumentFragments.XML_NAMESPACE_URI);
+    if (id != null) {
+      f_ids.ids.add(id.getValue());
+    }
+
+    final String name = e.getLocalName();
+    if ("link".equals(name)) {
+      final Attribute target =
+        e.getAttribute("target", SXML.XML_URI.toString());
+      if (target != null) {
+        f_ids.refs.add(target.getValue());
+      }
+    } else if ("document-style".equals(name) && e.getChildCount() == 1) {
+      final Node c = e.getChild(0);
+      if (c instanceof Text) {
+        final Text t = (Text) c;
+        t.setValue(SDocumentFragments.collapse(t.getValue()));
+      }
+    }
+  }
+
+  private static String collapse(
+    final String s)
+  {
+    final StringBuilder sb = new StringBuilder(s.length());
+    boolean space = false;
+    for (int index = 0; index < s.length(); ++index) {
+      final char c = s.charAt(index);
+      if (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+        space = sb.length() > 0;
+      } else {
+        if (space) {
+          sb.append(' ');
+          space = false;
+        }
+        sb.append(c);
+      }
+    }
+    final String r = sb.toString();
+    assert r != null;
+    return r;
+  }
+
+  /**
+   * Replace the given include with text, merging the text with any adjacent
+   * text nodes as the parser does when it processes the include itself.
+   */
+
+  private static void replaceWithText(
+    final Element include,
+    final String text)
+  {
+    final ParentNode p = include.getParent();
+    int at = p.indexOf(include);
+    p.removeChild(at);
+
+    final StringBuilder sb = new StringBuilder(text);
+    if (at > 0 && p.getChild(at - 1) instanceof Text) {
+      sb.insert(0, p.getChild(at - 1).getValue());
+      p.removeChild(at - 1);
+      --at;
+    }
+    if (at < p.getChildCount() && p.getChild(at) instanceof Text) {
+      sb.append(p.getChild(at).getValue());
+      p.removeChild(at);
+    }
+    if (sb.length() > 0) {
+      p.insertChild(new Text(sb.toString()), at);
+    }
+  }
+
+  private static @Nullable Object model(
+    final Element root)
+    throws URISyntaxException
+  {
+    final String name = root.getLocalName();
+    if ("document".equals(name)) {
+      return SDocumentParser.document(root);
+    }
+    if ("part".equals(name)) {
+      return SDocumentParser.part(root);
+    }
+    if ("section".equals(name)) {
+      return SDocumentParser.section(root);
+    }
+    if ("subsection".equals(name)) {
+      return SDocumentParser.subsection(root);
+    }
+    if ("paragraph".equals(name)) {
+      return SDocumentParser.paragraph(root);
+    }
+    if ("formal-item".equals(name)) {
+      return SDocumentParser.formalItem(root);
+    }
+    return null;
+  }
+
+  /**
+   * The IDs declared and referenced by a fragment and everything it
+   * includes.
+   */
+
+  static final class FragmentIDs
+  {
+    private final List<String> ids;
+    private final List<String> refs;
+
+    FragmentIDs(
+      final List<String> in_ids,
+      final List<String> in_refs)
+    {
+      this.ids = NullCheck.notNull(in_ids, "IDs");
+      this.refs = NullCheck.notNull(in_refs, "References");
+    }
+
+    List<String> getIDs()
+    {
+      final List<String> r = Collections.unmodifiableList(this.ids);
+      assert r != null;
+      return r;
+    }
+
+    List<String> getReferences()
+    {
+      final List<String> r = Collections.unmodifiableList(this.refs);
+      assert r != null;
+      return r;
+    }
+  }
+
+  /**
+   * A parsed, validated and converted fragment.
+   */
+
+  static final class Fragment
+  {
+    private final String           key;
+    private final @Nullable Object model;
+    private final Element          element;
+    private final FragmentIDs      ids;
+
+    Fragment(
+      final String in_key,
+      final @Nullable Object in_model,
+      final Element in_element,
+      final FragmentIDs in_ids)
+    {
+      this.key = NullCheck.notNull(in_key, "Key");
+      this.model = in_model;
+      this.element = NullCheck.notNull(in_element, "Element");
+      this.ids = NullCheck.notNull(in_ids, "IDs");
+    }
+
+    /**
+     * @return The key of the fragment, derived from its bytes and the keys
+     * of everything it includes
+     */
+
+    String getKey()
+    {
+      return this.key;
+    }
+
+    /**
+     * @return The converted model, or {@code null} if the root element of
+     * the fragment is not a block-level element
+     */
+
+    @Nullable Object getModel()
+    {
+      return this.model;
+    }
+
+    FragmentIDs getIDs()
+    {
+      return this.ids;
+    }
+
+    /**
+     * @return A new node that can replace an include of this fragment
+     */
+
+    Element newNode()
+    {
+      final Object m = this.model;
+      if (m != null) {
+        return Placeholder.newPlaceholder(this.element, m);
+      }
+      return (Element) this.element.copy();
+    }
+  }
+
+  /**
+   * An element that stands in for an included block-level element that has
+   * already been validated and converted.
+   */
+
+  static final class Placeholder extends Element
+  {
+    private final Object model;
+
+    private Placeholder(
+      final String name,
+      final String uri,
+      final Object in_model)
+    {
+      super(name, uri);
+      this.model = NullCheck.notNull(in_model, "Model");
+    }
+
+    static Placeholder newPlaceholder(
+      final Element shape,
+      final Object model)
+    {
+      final String uri = shape.getNamespaceURI();
+      final Placeholder p =
+        new Placeholder(shape.getQualifiedName(), uri, model);
+      for (int index = 0; index < shape.getAttributeCount(); ++index) {
+        p.addAttribute((Attribute) shape.getAttribute(index).copy());
+      }
+
+      final String prefix = shape.getNamespacePrefix();
+      final String name = shape.getLocalName();
+      if ("part".equals(name)) {
+        p.appendChild(Placeholder.stub(prefix, uri, "part-title"));
+        final Element s = Placeholder.stub(prefix, uri, "section");
+        s.appendChild(Placeholder.stub(prefix, uri, "section-title"));
+        s.appendChild(Placeholder.stub(prefix, uri, "paragraph"));
+        p.appendChild(s);
+      } else if ("section".equals(name) || "subsection".equals(name)) {
+        p.appendChild(Placeholder.stub(prefix, uri, name + "-title"));
+        p.appendChild(Placeholder.stub(prefix, uri, "paragraph"));
+      } else if ("formal-item".equals(name)) {
+        p.appendChild(Placeholder.stub(prefix, uri, "formal-item-title"));
+        p.appendChild(Placeholder.stub(prefix, uri, "verbatim"));
+      }
+      return p;
+    }
+
+    private static Element stub(
+      final String prefix,
+      final String uri,
+      final String name)
+    {
+      if (prefix.isEmpty()) {
+        return new Element(name, uri);
+      }
+      return new Element(prefix + ":" + name, uri);
+    }
+
+    @Override protected Element shallowCopy()
+    {
+      return new Placeholder(
+        this.getQualifiedName(), this.getNamespaceURI(), this.model);
+    }
+  }
+
+  /**
+   * Raised when a document uses XInclude features that are not handled
+   * here, in which case the whole document is parsed in the usual way.
+   */
+
+  private static final class UnsupportedIncludeException extends Exception
+  {
+    private static final long serialVersionUID = 1L;
+
+    UnsupportedIncludeException(
+      final String message)
+    {
+      super(message);
+    }
+  }
+
+  /**
+   * An include that could not be processed. As when the parser processes
+   * includes itself, the failure is reported by each including file in
+   * turn.
+   */
+
+  private static final class IncludeFailedException extends ParsingException
+  {
+    private static final long serialVersionUID = 1L;
+
+    IncludeFailedException(
+      final String message,
+      final URI uri,
+      final Exception cause)
+    {
+      super(message, uri.toString(), -1, -1, cause);
+    }
+  }
+
+  /**
+   * The XML reader and validator used by a single parse. They are created
+   * on first use and reused for every fragment that the parse processes.
+   */
+
+  private static final class Parsers
+  {
+    private final SDocumentParserContext context;
+    private @Nullable XMLReader          reader;
+    private @Nullable Builder            builder;
+    private @Nullable ValidatorHandler   validator;
+
+    Parsers(
+      final SDocumentParserContext in_context)
+    {
+      this.context = NullCheck.notNull(in_context, "Context");
+    }
+
+    Document parse(
+      final URI uri,
+      final byte[] bytes)
+      throws
+      SAXException,
+      ParserConfigurationException,
+      ParsingException,
+      IOException
+    {
+      final SDocumentParser.TrivialErrorHandler handler =
+        new SDocumentParser.TrivialErrorHandler();
+      XMLReader r = this.reader;
+      Builder b = this.builder;
+      if (r == null || b == null) {
+        r = this.context.newRawXMLReader(handler);
+        b = new Builder(r);
+        this.reader = r;
+        this.builder = b;
+      }
+      r.setErrorHandler(handler);
+
+      final Document doc =
+        b.build(new ByteArrayInputStream(bytes), uri.toString());
+
+      final SAXParseException ex = handler.getException();
+      if (ex != null) {
+        throw ex;
+      }
+      return doc;
+    }
+
+    void validate(
+      final URI uri,
+      final Document doc)
+      throws SAXException
+    {
+      final SDocumentParser.TrivialErrorHandler handler =
+        new SDocumentParser.TrivialErrorHandler();
+      ValidatorHandler v = this.validator;
+      if (v == null) {
+        v = this.context.newValidatorHandler(handler);
+        this.validator = v;
+      }
+      v.setErrorHandler(handler);
+
+      final LocatorImpl locator = new LocatorImpl();
+      locator.setSystemId(uri.toString());
+      v.setDocumentLocator(locator);
+      new SAXConverter(v).convert(doc);
+
+      final SAXParseException ex = handler.getException();
+      if (ex != null) {
+        throw ex;
+      }
+    }
+  }
+
+  /**
+   * An {@code xi:include} element.
+   */
+
+  private static final class Include
+  {
+    private final String           href;
+    private @Nullable URI          target;
+    private @Nullable IncludedFile node;
+    private @Nullable String       text;
+    private @Nullable Exception    failure;
+
+    Include(
+      final String in_href)
+    {
+      this.href = NullCheck.notNull(in_href, "Href");
+    }
+  }
+
+  /**
+   * A file in the include graph. Each file is read, parsed and converted
+   * once per parse, however many times it is included.
+   */
+
+  private static final class IncludedFile
+  {
+    private final URI                 uri;
+    private final boolean             included;
+    private @Nullable byte[]          bytes;
+    private @Nullable String          hash;
+    private @Nullable Element         raw_root;
+    private final List<Include>       includes;
+    private @Nullable IOException     read_failure;
+    private @Nullable Exception       parse_failure;
+    private @Nullable Exception       make_failure;
+    private @Nullable Fragment        fragment;
+
+    IncludedFile(
+      final URI in_uri,
+      final boolean in_included)
+    {
+      this.uri = NullCheck.notNull(in_uri, "URI");
+      this.included = in_included;
+      this.includes = new ArrayList<Include>();
+    }
+  }
+
+  /**
+   * <p>The state of a single parse.</p>
+   *
+   * <p>Files are processed in three passes. First, the include graph is
+   * discovered breadth-first: every file at a given depth is read, hashed
+   * and parsed, yielding the files at the next depth. Second, fragments are
+   * made, starting with the files that include nothing, and proceeding to
+   * each file once everything that it includes has been made. Failures in
+   * either pass are recorded rather than thrown.
+   * Finally, the graph is walked depth-first in document order, exactly as
+   * a sequential parser would process it, so that include loops and other
+   * failures are reported as they would be if the files had been processed
+   * one at a time.</p>
+   */
+
+  private static final class Graph
+  {
+    private final SDocumentParserContext    context;
+    private final SDocumentFragmentCache    cache;
+    private final Map<String, IncludedFile> nodes;
+    private @Nullable Parsers               parsers;
+
+    Graph(
+      final SDocumentParserContext in_context,
+      final SDocumentFragmentCache in_cache)
+    {
+      this.context = NullCheck.notNull(in_context, "Context");
+      this.cache = NullCheck.notNull(in_cache, "Cache");
+      this.nodes = new HashMap<String, IncludedFile>(64);
+    }
+
+    Fragment run(
+      final URI uri,
+      final byte[] bytes)
+      throws
+      SAXException,
+      ParserConfigurationException,
+      ParsingException,
+      IOException,
+      URISyntaxException,
+      UnsupportedIncludeException
+    {
+      final IncludedFile root = new IncludedFile(uri, false);
+      root.bytes = bytes;
+      this.nodes.put(uri.toString(), root);
+
+      this.discover(root);
+      this.makeAll(root);
+
+      return this.resolve(
+        root,
+        new ArrayDeque<String>(),
+        new HashSet<IncludedFile>(this.nodes.size()));
+    }
+
+    /**
+     * Evict from the cache everything that this parse did not reach.
+     */
+
+    void sweep()
+    {
+      final Set<String> hashes = new HashSet<String>(this.nodes.size());
+      final Set<String> keys = new HashSet<String>(this.nodes.size());
+      for (final IncludedFile n : this.nodes.values()) {
+        final String hash = n.hash;
+        if (hash != null) {
+          hashes.add(hash);
+        }
+        final Fragment f = n.fragment;
+        if (f != null) {
+          keys.add(f.getKey());
+        }
+      }
+      this.cache.retain(hashes, keys);
+    }
+
+    private Parsers getParsers()
+    {
+      final Parsers current = this.parsers;
+      if (current != null) {
+        return current;
+      }
+      final Parsers p = new Parsers(this.context);
+      this.parsers = p;
+      return p;
+    }
+
+    /**
+     * Discover the include graph, one level at a time.
+     */
+
+    private void discover(
+      final IncludedFile root)
+    {
+      List<IncludedFile> frontier = Collections.singletonList(root);
+      while (frontier.isEmpty() == false) {
+        for (final IncludedFile n : frontier) {
+          assert n != null;
+          this.load(n);
+        }
+
+        final List<IncludedFile> next = new ArrayList<IncludedFile>();
+        for (final IncludedFile n : frontier) {
+          for (final Include i : n.includes) {
+            final URI target = i.target;
+            if (i.failure != null || i.text != null || target == null) {
+              continue;
+            }
+            IncludedFile c = this.nodes.get(target.toString());
+            if (c == null) {
+              c = new IncludedFile(target, true);
+              this.nodes.put(target.toString(), c);
+              next.add(c);
+            }
+            i.node = c;
+          }
+        }
+        frontier = next;
+      }
+    }
+
+    private void load(
+      final IncludedFile n)
+    {
+      try {
+        if (n.bytes == null) {
+          n.bytes = SDocumentFragments.readURI(n.uri);
+        }
+      } catch (final IOException e) {
+        n.read_failure = e;
+        return;
+      }
+
+      try {
+        final byte[] bytes = NullCheck.notNull(n.bytes, "Bytes");
+        final String hash = SDocumentFragments.hex(
+          SDocumentFragments.newDigest().digest(bytes));
+
+        Document raw = this.cache.getRaw(hash);
+        if (raw == null) {
+          raw = this.getParsers().parse(n.uri, bytes);
+          this.cache.putRaw(hash, raw);
+        }
+
+        final Element raw_root = raw.getRootElement();
+        if (SDocumentFragments.isInclude(raw_root)) {
+          throw new UnsupportedIncludeException("Root element is an include");
+        }
+
+        for (final Element e : SDocumentFragments.includes(raw_root)) {
+          assert e != null;
+          n.includes.add(Graph.describe(n.uri, e));
+        }
+        n.hash = hash;
+        n.raw_root = raw_root;
+      } catch (final Exception e) {
+        n.parse_failure = e;
+      }
+    }
+
+    private static Include describe(
+      final URI uri,
+      final Element e)
+    {
+      final String href = e.getAttributeValue("href");
+      final Include i = new Include(href == null ? "" : href);
+      try {
+        final String parse = e.getAttributeValue("parse");
+        if (href == null || href.isEmpty()
+          || e.getAttribute("xpointer") != null
+          || e.getChildElements().size() > 0) {
+          throw new UnsupportedIncludeException("Unsupported include");
+        }
+
+        final URI target = new URL(uri.toURL(), href).toURI();
+        i.target = target;
+        if ("text".equals(parse)) {
+          i.text = Graph.readText(e, target);
+        } else if (parse != null && "xml".equals(parse) == false) {
+          throw new UnsupportedIncludeException("Unsupported parse attribute");
+        }
+      } catch (final Exception x) {
+        i.failure = x;
+      }
+      return i;
+    }
+
+    private static String readText(
+      final Element e,
+      final URI target)
+      throws IOException, UnsupportedIncludeException
+    {
+      String encoding = e.getAttributeValue("encoding");
+      if (encoding == null) {
+        encoding = "UTF-8";
+      }
+
+      final Charset charset;
+      try {
+        charset = Charset.forName(encoding);
+      } catch (final IllegalCharsetNameException x) {
+        throw new UnsupportedIncludeException("Unsupported encoding");
+      } catch (final UnsupportedCharsetException x) {
+        throw new UnsupportedIncludeException("Unsupported encoding");
+      }
+
+      return new String(SDocumentFragments.readURI(target), charset);
+    }
+
+    /**
+     * Make all fragments that can be made: those whose files, and the files
+     * they include, were parsed without failure and do not include
+     * themselves. A fragment is made once the fragments of all of the files
+     * that it includes have been made.
+     */
+
+    private void makeAll(
+      final IncludedFile root)
+    {
+      final Map<IncludedFile, Integer> heights =
+        new HashMap<IncludedFile, Integer>(this.nodes.size() * 2);
+      Graph.height(root, new HashSet<IncludedFile>(), heights);
+
+      final List<List<IncludedFile>> levels =
+        new ArrayList<List<IncludedFile>>();
+      for (final Map.Entry<IncludedFile, Integer> e : heights.entrySet()) {
+        final int h = e.getValue().intValue();
+        if (h < 0) {
+          continue;
+        }
+        while (levels.size() <= h) {
+          levels.add(new ArrayList<IncludedFile>());
+        }
+        levels.get(h).add(e.getKey());
+      }
+
+      for (final List<IncludedFile> level : levels) {
+        for (final IncludedFile n : level) {
+          assert n != null;
+          if (Graph.childrenMade(n)) {
+            this.make(n);
+          }
+        }
+      }
+    }
+
+    /**
+     * @return The height of {@code n} in the include graph, or {@code -1} if
+     * {@code n} cannot be made
+     */
+
+    private static int height(
+      final IncludedFile n,
+      final Set<IncludedFile> active,
+      final Map<IncludedFile, Integer> heights)
+    {
+      final Integer known = heights.get(n);
+      if (known != null) {
+        return known.intValue();
+      }
+
+      int h = -1;
+      if (n.read_failure == null && n.parse_failure == null) {
+        active.add(n);
+        h = Graph.heightIncludes(n, active, heights);
+        active.remove(n);
+      }
+
+      heights.put(n, Integer.valueOf(h));
+      return h;
+    }
+
+    private static int heightIncludes(
+      final IncludedFile n,
+      final Set<IncludedFile> active,
+      final Map<IncludedFile, Integer> heights)
+    {
+      int h = 0;
+      for (final Include i : n.includes) {
+        if (i.failure != null) {
+          return -1;
+        }
+        final IncludedFile c = i.node;
+        if (c == null) {
+          continue;
+        }
+        if (active.contains(c)) {
+          return -1;
+        }
+        final int ch = Graph.height(c, active, heights);
+        if (ch < 0) {
+          return -1;
+        }
+        h = Math.max(h, ch + 1);
+      }
+      return h;
+    }
+
+    private static boolean childrenMade(
+      final IncludedFile n)
+    {
+      for (final Include i : n.includes) {
+        final IncludedFile c = i.node;
+        if (c != null && c.fragment == null) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private void make(
+      final IncludedFile n)
+    {
+      final MessageDigest digest = SDocumentFragments.newDigest();
+      SDocumentFragments.digestString(digest, n.included ? "i" : "d");
+      SDocumentFragments.digestString(
+        digest, NullCheck.notNull(n.hash, "Hash"));
+
+      final List<Object> children = new ArrayList<Object>(n.includes.size());
+      for (final Include i : n.includes) {
+        final IncludedFile c = i.node;
+        if (c != null) {
+          final Fragment cf = NullCheck.notNull(c.fragment, "Fragment");
+          SDocumentFragments.digestString(digest, "x");
+          SDocumentFragments.digestString(digest, cf.getKey());
+          children.add(cf);
+        } else {
+          final String text = NullCheck.notNull(i.text, "Text");
+          SDocumentFragments.digestString(digest, "t");
+          SDocumentFragments.digestString(digest, text);
+          children.add(text);
+        }
+      }
+
+      final String key = SDocumentFragments.hex(digest.digest());
+      try {
+        Fragment f = this.cache.get(key);
+        if (f == null) {
+          f = this.cache.put(key, this.makeFragment(n, key, children));
+        }
+        n.fragment = f;
+      } catch (final Exception e) {
+        n.make_failure = e;
+      }
+    }
+
+    private Fragment makeFragment(
+      final IncludedFile n,
+      final String key,
+      final List<Object> children)
+      throws SAXException, IOException, URISyntaxException
+    {
+      SDocumentFragments.LOG.debug("fragment: {}", n.uri);
+
+      final Element raw_root = NullCheck.notNull(n.raw_root, "Root");
+      final Element root = (Element) raw_root.copy();
+      final FragmentIDs own =
+        new FragmentIDs(new ArrayList<String>(), new ArrayList<String>());
+      SDocumentFragments.normalize(root, own);
+
+      final List<Element> incs = SDocumentFragments.includes(root);
+      for (int index = 0; index < incs.size(); ++index) {
+        final Element inc = incs.get(index);
+        final Object c = children.get(index);
+        if (c instanceof Fragment) {
+          final Fragment cf = (Fragment) c;
+          inc.getParent().replaceChild(inc, cf.newNode());
+          own.ids.addAll(cf.ids.ids);
+          own.refs.addAll(cf.ids.refs);
+        } else {
+          SDocumentFragments.replaceWithText(inc, (String) c);
+        }
+      }
+
+      if (n.included) {
+        root.addAttribute(
+          new Attribute(
+            "xml:base",
+            SDocumentFragments.XML_NAMESPACE_URI,
+            n.uri.toString()));
+      }
+
+      final Document doc = new Document(root);
+      if (this.cache.isValidated(key) == false) {
+        this.getParsers().validate(n.uri, doc);
+        this.cache.setValidated(key);
+      }
+
+      final Object model = SDocumentFragments.model(root);
+      final Element element;
+      if (model != null) {
+        element = new Element(root.getQualifiedName(), root.getNamespaceURI());
+        for (int index = 0; index < root.getAttributeCount(); ++index) {
+          element.addAttribute((Attribute) root.getAttribute(index).copy());
+        }
+      } else {
+        element = root;
+      }
+
+      return new Fragment(key, model, element, own);
+    }
+
+    /**
+     * Walk the graph depth-first in document order, reporting the first
+     * failure that a sequential parser would have encountered.
+     */
+
+    private Fragment resolve(
+      final IncludedFile n,
+      final Deque<String> stack,
+      final Set<IncludedFile> resolved)
+      throws
+      SAXException,
+      ParserConfigurationException,
+      ParsingException,
+      IOException,
+      URISyntaxException,
+      UnsupportedIncludeException
+    {
+      if (resolved.contains(n)) {
+        return NullCheck.notNull(n.fragment, "Fragment");
+      }
+
+      final Exception parse_failure = n.parse_failure;
+      if (parse_failure != null) {
+        Graph.rethrow(parse_failure);
+      }
+
+      stack.push(n.uri.toString());
+      try {
+        for (final Include i : n.includes) {
+          assert i != null;
+          this.resolveInclude(n, i, stack, resolved);
+        }
+      } finally {
+        stack.pop();
+      }
+
+      final Exception make_failure = n.make_failure;
+      if (make_failure != null) {
+        Graph.rethrow(make_failure);
+      }
+
+      resolved.add(n);
+      return NullCheck.notNull(n.fragment, "Fragment");
+    }
+
+    private void resolveInclude(
+      final IncludedFile n,
+      final Include i,
+      final Deque<String> stack,
+      final Set<IncludedFile> resolved)
+      throws
+      SAXException,
+      ParserConfigurationException,
+      ParsingException,
+      IOException,
+      URISyntaxException,
+      UnsupportedIncludeException
+    {
+      final Exception failure = i.failure;
+      if (failure != null) {
+        Graph.rethrow(failure);
+      }
+
+      final IncludedFile c = i.node;
+      if (c == null) {
+        return;
+      }
+
+      final String message = String.format(
+        "Error attempting to parse XML file (href='%s').", i.href);
+
+      if (stack.contains(c.uri.toString())) {
+        final SAXParseException e = SDocumentFragments.error(
+          c.uri,
+          String.format(
+            "Recursive include detected.  Document '%s' was already "
+            + "processed.", c.uri));
+        throw new IncludeFailedException(message, n.uri, e);
+      }
+
+      final IOException read_failure = c.read_failure;
+      if (read_failure != null) {
+        SDocumentFragments.LOG.error(c.uri + ": " + read_failure.getMessage());
+        throw new IncludeFailedException(
+          "An 'include' failed, and no 'fallback' element was found.",
+          n.uri,
+          read_failure);
+      }
+
+      try {
+        this.resolve(c, stack, resolved);
+      } catch (final IncludeFailedException e) {
+        SDocumentFragments.LOG.error(e + ": " + e.getMessage());
+        throw new IncludeFailedException(message, n.uri, e);
+      }
+    }
+
+    private static void rethrow(
+      final Exception e)
+      throws
+      SAXException,
+      ParserConfigurationException,
+      ParsingException,
+      IOException,
+      URISyntaxException,
+      UnsupportedIncludeException
+    {
+      if (e instanceof SAXException) {
+        throw (SAXException) e;
+      }
+      if (e instanceof ParserConfigurationException) {
+        throw (ParserConfigurationException) e;
+      }
+      if (e instanceof ParsingException) {
+        throw (ParsingException) e;
+      }
+      if (e instanceof IOException) {
+        throw (IOException) e;
+      }
+      if (e instanceof URISyntaxException) {
+        throw (URISyntaxException) e;
+      }
+      if (e instanceof UnsupportedIncludeException) {
+        throw (UnsupportedIncludeException) e;
+      }
+      if (e instanceof RuntimeException) {
+        throw (RuntimeException) e;
+      }
+      throw new UnreachableCodeException(e);
+    }
+  }
+}
@@ -62,7 +62,9 @@ import com.io7m.jstructural.core.STerm;
 import com.io7m.jstructural.core.SText;
 import com.io7m.jstructural.core.SVerbatim;
 import com.io7m.jstructural.core.SXML;
-import com.io7m.jstructural.schema.SSchema;
+import com.io7m.jstructural.events.SEventParse;
+import com.io7m.jstructural.events.SEventValidate;
+import com.io7m.jstructural.events.SEvents;
 import com.io7m.junreachable.UnimplementedCodeException;
 import com.io7m.junreachable.UnreachableCodeException;
 import nu.xom.Attribute;
@@ -81,27 +83,26 @@ import nu.xom.xinclude.XIncludeException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 import org.xml.sax.XMLReader;
 
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
-import javax.xml.transform.Source;
-import javax.xml.transform.stream.StreamSource;
-import javax.xml.validation.SchemaFactory;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
 
 /**
  * <p>A document parser that uses XOM to process documents.</p>
  *
+ * <p>The parser holds no state of its own; all configuration is held by the
+ * given {@link SDocumentParserContext}. Any number of documents may be parsed
+ * concurrently, with the same context or with different contexts.</p>
+ *
  * <p>Note: This is not a public API and is subject to change without
  * warning.</p>
  */
@@ -199,7 +200,7 @@ public final class SDocumentParser
       title, style, contents, content);
   }
 
-  private static SDocument documentWithPartsMake(
+  static SDocument documentWithPartsMake(
     final SDocumentTitle title,
     final @Nullable SDocumentStyle style,
     final boolean contents,
@@ -241,7 +242,7 @@ public final class SDocumentParser
       title, style, contents, content);
   }
 
-  private static SDocumentWithSections documentWithSectionsMake(
+  static SDocumentWithSections documentWithSectionsMake(
     final SDocumentTitle title,
     final @Nullable SDocumentStyle style,
     final boolean contents,
@@ -313,10 +314,16 @@ public final class SDocumentParser
     throw new UnreachableCodeException();
   }
 
-  private static SFormalItem formalItem(
+  static SFormalItem formalItem(
     final Element e)
     throws URISyntaxException
   {
+    final SFormalItem cached =
+      SDocumentFragments.cached(e, SFormalItem.class);
+    if (cached != null) {
+      return cached;
+    }
+
     final String type = SDocumentParser.typeAttribute(e);
     final String kind = SDocumentParser.kindAttribute(e);
     assert kind != null;
@@ -370,7 +377,7 @@ public final class SDocumentParser
     return SFormalItemList.formalItemList(kind);
   }
 
-  private static SFormalItem formalItemMake(
+  static SFormalItem formalItemMake(
     final @Nullable String type,
     final String kind,
     final @Nullable SID id,
@@ -401,7 +408,8 @@ public final class SDocumentParser
   }
 
   /**
-   * Parse a document from a validated stream.
+   * Parse a document from a validated stream, using the default parser
+   * context.
    *
    * @param uri    The base URI of the document
    * @param stream The stream
@@ -435,9 +443,86 @@ public final class SDocumentParser
     NoIncludeLocationException,
     XIncludeException
   {
-    final Document doc = SDocumentParser.fromStreamValidate(stream, uri);
-    final Element root = doc.getRootElement();
+    return SDocumentParser.fromStream(
+      SDocumentParserContext.getDefault(), stream, uri);
+  }
+
+  /**
+   * Parse a document from a validated stream.
+   *
+   * @param context The parser context
+   * @param uri     The base URI of the document
+   * @param stream  The stream
+   *
+   * @return A document
+   *
+   * @throws SAXException                 On XML parse errors
+   * @throws ParserConfigurationException On parser configuration errors
+   * @throws ValidityException            On XML validation errors
+   * @throws ParsingException             On parser errors
+   * @throws IOException                  On I/O errors
+   * @throws URISyntaxException           On failing to parse a URI
+   * @throws XIncludeException            If an xinclude fails
+   * @throws NoIncludeLocationException   If an xinclude fails
+   * @throws InclusionLoopException       If an xinclude fails
+   * @throws BadParseAttributeException   If an xinclude fails
+   */
+
+  public static SDocument fromStream(
+    final SDocumentParserContext context,
+    final InputStream stream,
+    final URI uri)
+    throws
+    ValidityException,
+    SAXException,
+    ParserConfigurationException,
+    ParsingException,
+    IOException,
+    URISyntaxException,
+    BadParseAttributeException,
+    InclusionLoopException,
+    NoIncludeLocationException,
+    XIncludeException
+  {
+    final SEventParse event = SEvents.AVAILABLE ? SEventParse.start() : null;
+    if (event == null) {
+      return SDocumentParser.fromValidatedDocument(
+        SDocumentParser.fromStreamValidate(context, stream, uri));
+    }
+
+    final SEventSupport.CountingInputStream counted =
+      new SEventSupport.CountingInputStream(stream);
+    final SDocument doc = SDocumentParser.fromValidatedDocument(
+      SDocumentParser.fromStreamValidate(context, counted, uri));
+
+    event.end();
+    if (event.shouldCommit()) {
+      event.setURI(uri.toString());
+      event.setBytes(counted.getCount());
+      event.commit();
+    }
+    return doc;
+  }
 
+  /**
+   * Construct a document from an XML document that has already been parsed
+   * and validated by {@link #fromStreamValidate(SDocumentParserContext,
+   * InputStream, URI)}.
+   *
+   * @param doc The validated XML document
+   *
+   * @return A document
+   *
+   * @throws URISyntaxException On failing to parse a URI
+   */
+
+  public static SDocument fromValidatedDocument(
+    final Document doc)
+    throws URISyntaxException
+  {
+    NullCheck.notNull(doc, "Document");
+
+    final Element root = doc.getRootElement();
     if ("document".equals(root.getLocalName())) {
       return SDocumentParser.document(root);
     }
@@ -446,92 +531,305 @@ public final class SDocumentParser
   }
 
   /**
-   * Parse and validate a document from the given stream.
+   * <p>Parse a document from a validated stream one included file at a time,
+   * using the default parser context.</p>
    *
-   * @param stream An input stream
-   * @param uri    The document URI
+   * @param cache  The fragment cache
+   * @param uri    The base URI of the document
+   * @param stream The stream
    *
-   * @return A parsed and validated document
+   * @return A document
    *
    * @throws SAXException                 On XML parse errors
    * @throws ParserConfigurationException On parser configuration errors
    * @throws ValidityException            On XML validation errors
    * @throws ParsingException             On parser errors
    * @throws IOException                  On I/O errors
+   * @throws URISyntaxException           On failing to parse a URI
    * @throws XIncludeException            If an xinclude fails
    * @throws NoIncludeLocationException   If an xinclude fails
    * @throws InclusionLoopException       If an xinclude fails
    * @throws BadParseAttributeException   If an xinclude fails
+   * @see #fromStreamFragments(SDocumentParserContext,
+   * SDocumentFragmentCache, InputStream, URI)
    */
 
-  static Document fromStreamValidate(
+  public static SDocument fromStreamFragments(
+    final SDocumentFragmentCache cache,
     final InputStream stream,
     final URI uri)
     throws
+    ValidityException,
     SAXException,
-
     ParserConfigurationException,
+    ParsingException,
+    IOException,
+    URISyntaxException,
+    BadParseAttributeException,
+    InclusionLoopException,
+    NoIncludeLocationException,
+    XIncludeException
+  {
+    return SDocumentParser.fromStreamFragments(
+      SDocumentParserContext.getDefault(), cache, stream, uri);
+  }
+
+  /**
+   * <p>Parse a document from a validated stream one included file at a
+   * time.</p>
+   *
+   * <p>Rather than having the XML parser process XIncludes, each file
+   * included with {@code xi:include} is parsed, validated and converted
+   * separately, and the result is stored in the given cache under a hash of
+   * the bytes of the file and of everything that it includes. Parsing the
+   * document again with the same cache only parses those files that have
+   * changed, and the files that include them. The result is equal to that
+   * produced by {@link #fromStream(SDocumentParserContext, InputStream,
+   * URI)}.</p>
+   *
+   * <p>Includes that use {@code xpointer} or {@code xi:fallback} are not
+   * handled separately; if the document contains any, the whole document is
+   * parsed with {@link #fromStream(SDocumentParserContext, InputStream,
+   * URI)} instead.</p>
+   *
+   * @param context The parser context
+   * @param cache   The fragment cache
+   * @param uri     The base URI of the document
+   * @param stream  The stream
+   *
+   * @return A document
+   *
+   * @throws SAXException                 On XML parse errors
+   * @throws ParserConfigurationException On parser configuration errors
+   * @throws ValidityException            On XML validation errors
+   * @throws ParsingException             On parser errors
+   * @throws IOException                  On I/O errors
+   * @throws URISyntaxException           On failing to parse a URI
+   * @throws XIncludeException            If an xinclude fails
+   * @throws NoIncludeLocationException   If an xinclude fails
+   * @throws InclusionLoopException       If an xinclude fails
+   * @throws BadParseAttributeException   If an xinclude fails
+   */
+
+  public static SDocument fromStreamFragments(
+    final SDocumentParserContext context,
+    final SDocumentFragmentCache cache,
+    final InputStream stream,
+    final URI uri)
+    throws
     ValidityException,
+    SAXException,
+    ParserConfigurationException,
     ParsingException,
     IOException,
+    URISyntaxException,
     BadParseAttributeException,
     InclusionLoopException,
     NoIncludeLocationException,
     XIncludeException
   {
+    NullCheck.notNull(context, "Context");
+    NullCheck.notNull(cache, "Cache");
     NullCheck.notNull(stream, "Stream");
+    NullCheck.notNull(uri, "URI");
 
-    SDocumentParser.LOG.debug("xml: creating sax parser");
+    final SEventParse event = SEvents.AVAILABLE ? SEventParse.start() : null;
+    if (event == null) {
+      return SDocumentFragments.parse(context, cache, stream, uri);
+    }
 
-    final SAXParserFactory factory = SAXParserFactory.newInstance();
-    factory.setValidating(false);
-    factory.setNamespaceAware(true);
-    factory.setXIncludeAware(true);
-    factory.setFeature("http://apache.org/xml/features/xinclude", true);
+    final SEventSupport.CountingInputStream counted =
+      new SEventSupport.CountingInputStream(stream);
+    final SDocument doc =
+      SDocumentFragments.parse(context, cache, counted, uri);
 
-    SDocumentParser.LOG.debug("xml: opening xml.xsd");
+    event.end();
+    if (event.shouldCommit()) {
+      event.setURI(uri.toString());
+      event.setBytes(counted.getCount());
+      event.commit();
+    }
+    return doc;
+  }
 
-    final InputStream xml_xsd =
-      new URL(SSchema.getSchemaXMLXSDLocation().toString()).openStream();
+  /**
+   * <p>Parse a document from a validated stream without constructing an
+   * intermediate XOM tree, using the default parser context.</p>
+   *
+   * @param uri    The base URI of the document
+   * @param stream The stream
+   *
+   * @return A document
+   *
+   * @throws SAXException                 On XML parse and validation errors
+   * @throws ParserConfigurationException On parser configuration errors
+   * @throws IOException                  On I/O errors
+   * @throws URISyntaxException           On failing to parse a URI
+   * @see #fromStreamStreaming(SDocumentParserContext, InputStream, URI)
+   */
 
-    try {
-      SDocumentParser.LOG.debug("xml: opening schema.xsd");
+  public static SDocument fromStreamStreaming(
+    final InputStream stream,
+    final URI uri)
+    throws
+    SAXException,
+    ParserConfigurationException,
+    IOException,
+    URISyntaxException
+  {
+    return SDocumentParser.fromStreamStreaming(
+      SDocumentParserContext.getDefault(), stream, uri);
+  }
+
+  /**
+   * <p>Parse a document from a validated stream without constructing an
+   * intermediate XOM tree.</p>
+   *
+   * <p>The document is validated and XIncludes are processed in the same
+   * pass that constructs the document, and the result is equal to that
+   * produced by {@link #fromStream(SDocumentParserContext, InputStream,
+   * URI)}. Only the document being constructed is held in memory, which
+   * makes this method preferable for very large documents. Unlike {@link
+   * #fromStream(SDocumentParserContext, InputStream, URI)}, parsing stops at
+   * the first validation error.</p>
+   *
+   * @param context The parser context
+   * @param uri     The base URI of the document
+   * @param stream  The stream
+   *
+   * @return A document
+   *
+   * @throws SAXException                 On XML parse and validation errors
+   * @throws ParserConfigurationException On parser configuration errors
+   * @throws IOException                  On I/O errors
+   * @throws URISyntaxException           On failing to parse a URI
+   */
 
-      final InputStream schema_xsd =
-        new URL(SSchema.getSchemaXSDLocation().toString()).openStream();
+  public static SDocument fromStreamStreaming(
+    final SDocumentParserContext context,
+    final InputStream stream,
+    final URI uri)
+    throws
+    SAXException,
+    ParserConfigurationException,
+    IOException,
+    URISyntaxException
+  {
+    NullCheck.notNull(context, "Context");
+    NullCheck.notNull(stream, "Stream");
+    NullCheck.notNull(uri, "URI");
 
-      try {
-        SDocumentParser.LOG.debug("xml: creating schema handler");
+    final SEventParse event = SEvents.AVAILABLE ? SEventParse.start() : null;
+    final SEventSupport.CountingInputStream counted;
+    final InputSource source;
+    if (event != null) {
+      counted = new SEventSupport.CountingInputStream(stream);
+      source = new InputSource(counted);
+    } else {
+      counted = null;
+      source = new InputSource(stream);
+    }
+    source.setSystemId(uri.toString());
 
-        final SchemaFactory schema_factory =
-          SchemaFactory.newInstance("http://www.w3.org/2001/XMLSchema");
+    final SDocumentStreamingHandler handler = new SDocumentStreamingHandler();
+    final XMLReader reader = context.newXMLReader(handler);
+    reader.setContentHandler(handler);
 
-        final Source[] sources = new Source[2];
-        sources[0] = new StreamSource(xml_xsd);
-        sources[1] = new StreamSource(schema_xsd);
-        factory.setSchema(schema_factory.newSchema(sources));
+    SDocumentParser.LOG.debug("xml: parsing and validating (streaming)");
 
-        final TrivialErrorHandler handler = new TrivialErrorHandler();
-        final SAXParser parser = factory.newSAXParser();
-        final XMLReader reader = parser.getXMLReader();
-        reader.setErrorHandler(handler);
+    try {
+      reader.parse(source);
+    } catch (final SAXException e) {
+      final Exception cause = e.getException();
+      if (cause instanceof URISyntaxException) {
+        throw (URISyntaxException) cause;
+      }
+      throw e;
+    }
 
-        SDocumentParser.LOG.debug("xml: parsing and validating");
-        final Builder builder = new Builder(reader);
-        final Document doc = builder.build(stream, uri.toString());
+    final SAXParseException ex = handler.getWarning();
+    if (ex != null) {
+      throw ex;
+    }
 
-        final SAXParseException ex = handler.getException();
-        if (ex != null) {
-          throw ex;
+    final Object root = handler.getResult();
+    if (root instanceof SDocument) {
+      if (event != null) {
+        event.end();
+        if (event.shouldCommit()) {
+          event.setURI(uri.toString());
+          event.setBytes(NullCheck.notNull(counted, "Counter").getCount());
+          event.commit();
         }
+      }
+      return (SDocument) root;
+    }
 
-        return doc;
-      } finally {
-        schema_xsd.close();
+    throw new UnimplementedCodeException();
+  }
+
+  /**
+   * Parse and validate a document from the given stream.
+   *
+   * @param context The parser context
+   * @param stream  An input stream
+   * @param uri     The document URI
+   *
+   * @return A parsed and validated document
+   *
+   * @throws SAXException                 On XML parse errors
+   * @throws ParserConfigurationException On parser configuration errors
+   * @throws ValidityException            On XML validation errors
+   * @throws ParsingException             On parser errors
+   * @throws IOException                  On I/O errors
+   * @throws XIncludeException            If an xinclude fails
+   * @throws NoIncludeLocationException   If an xinclude fails
+   * @throws InclusionLoopException       If an xinclude fails
+   * @throws BadParseAttributeException   If an xinclude fails
+   */
+
+  public static Document fromStreamValidate(
+    final SDocumentParserContext context,
+    final InputStream stream,
+    final URI uri)
+    throws
+    SAXException,
+    ParserConfigurationException,
+    ValidityException,
+    ParsingException,
+    IOException,
+    BadParseAttributeException,
+    InclusionLoopException,
+    NoIncludeLocationException,
+    XIncludeException
+  {
+    NullCheck.notNull(context, "Context");
+    NullCheck.notNull(stream, "Stream");
+    NullCheck.notNull(uri, "URI");
+
+    final SEventValidate event =
+      SEvents.AVAILABLE ? SEventValidate.start() : null;
+    final TrivialErrorHandler handler = new TrivialErrorHandler();
+    final XMLReader reader = context.newXMLReader(handler);
+
+    SDocumentParser.LOG.debug("xml: parsing and validating");
+    final Builder builder = new Builder(reader);
+    final Document doc = builder.build(stream, uri.toString());
+
+    final SAXParseException ex = handler.getException();
+    if (ex != null) {
+      throw ex;
+    }
+
+    if (event != null) {
+      event.end();
+      if (event.shouldCommit()) {
+        event.setURI(uri.toString());
+        event.setElements(SEventSupport.countElements(doc));
+        event.commit();
       }
-    } finally {
-      xml_xsd.close();
     }
+    return doc;
   }
 
   private static
@@ -598,7 +896,17 @@ public final class SDocumentParser
     final Integer width = SDocumentParser.widthAttribute(ec);
     final Integer height = SDocumentParser.heightAttribute(ec);
     final String text = ec.getValue();
+    assert text != null;
+    return SDocumentParser.imageMake(type, source, width, height, text);
+  }
 
+  static SImage imageMake(
+    final @Nullable String type,
+    final URI source,
+    final @Nullable Integer width,
+    final @Nullable Integer height,
+    final String text)
+  {
     if (type != null) {
       if (width != null) {
         if (height != null) {
@@ -824,6 +1132,12 @@ public final class SDocumentParser
     final Element e)
     throws URISyntaxException
   {
+    final SParagraph cached =
+      SDocumentFragments.cached(e, SParagraph.class);
+    if (cached != null) {
+      return cached;
+    }
+
     SDocumentParser.LOG.debug("paragraph: starting");
 
     final SID id = SDocumentParser.idAttribute(e);
@@ -888,7 +1202,7 @@ public final class SDocumentParser
     throw new UnreachableCodeException();
   }
 
-  private static SParagraph paragraphMake(
+  static SParagraph paragraphMake(
     final @Nullable SID id,
     final @Nullable String type,
     final SNonEmptyList<SParagraphContent> content)
@@ -912,10 +1226,16 @@ public final class SDocumentParser
     return SParagraph.paragraph(content);
   }
 
-  private static SPart part(
+  static SPart part(
     final Element pe)
     throws URISyntaxException
   {
+    final SPart cached =
+      SDocumentFragments.cached(pe, SPart.class);
+    if (cached != null) {
+      return cached;
+    }
+
     SDocumentParser.LOG.debug("part: starting");
 
     final SPartTitle title = SDocumentParser.partTitleRoot(pe);
@@ -953,7 +1273,7 @@ public final class SDocumentParser
     return e != null;
   }
 
-  private static SPart partMake(
+  static SPart partMake(
     final SPartTitle title,
     final boolean contents,
     final @Nullable SID id,
@@ -1006,10 +1326,16 @@ public final class SDocumentParser
     return SPartTitle.partTitle(r.getValue());
   }
 
-  private static SSection section(
+  static SSection section(
     final Element section)
     throws URISyntaxException
   {
+    final SSection cached =
+      SDocumentFragments.cached(section, SSection.class);
+    if (cached != null) {
+      return cached;
+    }
+
     SDocumentParser.LOG.debug("section: starting");
 
     final SSectionTitle title = SDocumentParser.sectionTitleRoot(section);
@@ -1074,7 +1400,7 @@ public final class SDocumentParser
       title, contents, id, type, content);
   }
 
-  private static SSectionWithParagraphs sectionWithParagraphsMake(
+  static SSectionWithParagraphs sectionWithParagraphsMake(
     final SSectionTitle title,
     final boolean contents,
     final @Nullable SID id,
@@ -1155,7 +1481,7 @@ public final class SDocumentParser
       title, contents, id, type, content);
   }
 
-  private static SSectionWithSubsections sectionWithSubsectionsMake(
+  static SSectionWithSubsections sectionWithSubsectionsMake(
     final SSectionTitle title,
     final boolean contents,
     final @Nullable SID id,
@@ -1212,10 +1538,16 @@ public final class SDocumentParser
     return new URI(a.getValue());
   }
 
-  private static SSubsection subsection(
+  static SSubsection subsection(
     final Element e)
     throws URISyntaxException
   {
+    final SSubsection cached =
+      SDocumentFragments.cached(e, SSubsection.class);
+    if (cached != null) {
+      return cached;
+    }
+
     SDocumentParser.LOG.debug("subsection: starting");
 
     final SSubsectionTitle title = SDocumentParser.subsectionTitleRoot(e);
@@ -1256,7 +1588,7 @@ public final class SDocumentParser
     throw new UnreachableCodeException();
   }
 
-  private static SSubsection subsectionMake(
+  static SSubsection subsectionMake(
     final SSubsectionTitle title,
     final @Nullable SID id,
     final @Nullable String type,
@@ -1494,11 +1826,11 @@ public final class SDocumentParser
     return Integer.valueOf(a.getValue());
   }
 
-  private static final class TrivialErrorHandler implements ErrorHandler
+  static final class TrivialErrorHandler implements ErrorHandler
   {
     private @Nullable SAXParseException exception;
 
-    private TrivialErrorHandler()
+    TrivialErrorHandler()
     {
 
     }
@@ -0,0 +1,257 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jstructural.xom;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jstructural.events.SEvents;
+import com.io7m.jstructural.schema.SSchema;
+import com.io7m.junreachable.UnreachableCodeException;
+import net.jcip.annotations.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.ValidatorHandler;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+/**
+ * <p>A reusable parser context.</p>
+ *
+ * <p>A context holds the compiled {@code structural} schema, so that the
+ * comparatively expensive step of compiling the schema is performed once per
+ * context rather than once per parsed document. Contexts may be safely shared
+ * between threads.</p>
+ */
+
+@ThreadSafe
+public final class SDocumentParserContext
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = LoggerFactory.getLogger(SDocumentParserContext.class);
+  }
+
+  private final Schema                        schema;
+  private final ThreadLocal<SAXParserFactory> factories;
+  private final ThreadLocal<SAXParserFactory> raw_factories;
+
+  private SDocumentParserContext(
+    final Schema in_schema)
+  {
+    this.schema = NullCheck.notNull(in_schema, "Schema");
+    this.factories = new ThreadLocal<SAXParserFactory>();
+    this.raw_factories = new ThreadLocal<SAXParserFactory>();
+  }
+
+  /**
+   * Create a new parser context, compiling the {@code structural} schema.
+   *
+   * @return A new parser context
+   *
+   * @throws SAXException On errors compiling the schema
+   * @throws IOException  On I/O errors
+   */
+
+  public static SDocumentParserContext newContext()
+    throws SAXException, IOException
+  {
+    SDocumentParserContext.LOG.debug("xml: opening xml.xsd");
+
+    final InputStream xml_xsd =
+      new URL(SSchema.getSchemaXMLXSDLocation().toString()).openStream();
+
+    try {
+      SDocumentParserContext.LOG.debug("xml: opening schema.xsd");
+
+      final InputStream schema_xsd =
+        new URL(SSchema.getSchemaXSDLocation().toString()).openStream();
+
+      try {
+        SDocumentParserContext.LOG.debug("xml: compiling schema");
+
+        final SchemaFactory schema_factory =
+          SchemaFactory.newInstance("http://www.w3.org/2001/XMLSchema");
+
+        final Source[] sources = new Source[2];
+        sources[0] = new StreamSource(xml_xsd);
+        sources[1] = new StreamSource(schema_xsd);
+        final Schema s = schema_factory.newSchema(sources);
+        assert s != null;
+        return new SDocumentParserContext(s);
+      } finally {
+        schema_xsd.close();
+      }
+    } finally {
+      xml_xsd.close();
+    }
+  }
+
+  /**
+   * <p>Retrieve the shared default parser context. The context is created
+   * on first use.</p>
+   *
+   * @return The default parser context
+   */
+
+  public static SDocumentParserContext getDefault()
+  {
+    return DefaultHolder.DEFAULT;
+  }
+
+  /**
+   * @return The compiled {@code structural} schema
+   */
+
+  public Schema getSchema()
+  {
+    return this.schema;
+  }
+
+  /**
+   * Create a new validating, XInclude-aware XML reader.
+   *
+   * @param handler The error handler for the reader
+   *
+   * @return A new XML reader
+   *
+   * @throws SAXException                 On XML parser errors
+   * @throws ParserConfigurationException On parser configuration errors
+   */
+
+  XMLReader newXMLReader(
+    final ErrorHandler handler)
+    throws SAXException, ParserConfigurationException
+  {
+    NullCheck.notNull(handler, "Handler");
+
+    final XMLReader reader =
+      this.getParserFactory().newSAXParser().getXMLReader();
+    reader.setErrorHandler(handler);
+    if (SEvents.AVAILABLE) {
+      reader.setEntityResolver(new SEventSupport.ResolveEntityListener());
+    }
+    return reader;
+  }
+
+  /**
+   * Create a new XML reader that neither validates nor processes XIncludes.
+   *
+   * @param handler The error handler for the reader
+   *
+   * @return A new XML reader
+   *
+   * @throws SAXException                 On XML parser errors
+   * @throws ParserConfigurationException On parser configuration errors
+   */
+
+  XMLReader newRawXMLReader(
+    final ErrorHandler handler)
+    throws SAXException, ParserConfigurationException
+  {
+    NullCheck.notNull(handler, "Handler");
+
+    SAXParserFactory factory = this.raw_factories.get();
+    if (factory == null) {
+      SDocumentParserContext.LOG.debug("xml: creating raw sax parser factory");
+      factory = SAXParserFactory.newInstance();
+      factory.setValidating(false);
+      factory.setNamespaceAware(true);
+      factory.setXIncludeAware(false);
+      this.raw_factories.set(factory);
+    }
+
+    final XMLReader reader = factory.newSAXParser().getXMLReader();
+    reader.setErrorHandler(handler);
+    return reader;
+  }
+
+  /**
+   * Create a new validator for individual document fragments. The validator
+   * does not check that IDs are unique or that ID references can be
+   * resolved, as both may involve other fragments.
+   *
+   * @param handler The error handler for the validator
+   *
+   * @return A new validator
+   *
+   * @throws SAXException On errors configuring the validator
+   */
+
+  ValidatorHandler newValidatorHandler(
+    final ErrorHandler handler)
+    throws SAXException
+  {
+    NullCheck.notNull(handler, "Handler");
+
+    final ValidatorHandler v = this.schema.newValidatorHandler();
+    v.setFeature(
+      "http://apache.org/xml/features/validation/id-idref-checking", false);
+    v.setErrorHandler(handler);
+    return v;
+  }
+
+  private SAXParserFactory getParserFactory()
+    throws SAXException, ParserConfigurationException
+  {
+    final SAXParserFactory current = this.factories.get();
+    if (current != null) {
+      return current;
+    }
+
+    SDocumentParserContext.LOG.debug("xml: creating sax parser factory");
+
+    final SAXParserFactory factory = SAXParserFactory.newInstance();
+    factory.setValidating(false);
+    factory.setNamespaceAware(true);
+    factory.setXIncludeAware(true);
+    factory.setFeature("http://apache.org/xml/features/xinclude", true);
+    factory.setSchema(this.schema);
+    this.factories.set(factory);
+    return factory;
+  }
+
+  private static final class DefaultHolder
+  {
+    private static final SDocumentParserContext DEFAULT;
+
+    static {
+      try {
+        DEFAULT = SDocumentParserContext.newContext();
+      } catch (final SAXException e) {
+        throw new UnreachableCodeException(e);
+      } catch (final IOException e) {
+        throw new UnreachableCodeException(e);
+      }
+    }
+
+    private DefaultHolder()
+    {
+      throw new UnreachableCodeException();
+    }
+  }
+}
@@ -0,0 +1,700 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jstructural.xom;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.jstructural.core.SDocumentStyle;
+import com.io7m.jstructural.core.SDocumentTitle;
+import com.io7m.jstructural.core.SFootnote;
+import com.io7m.jstructural.core.SFootnoteContent;
+import com.io7m.jstructural.core.SFormalItemContent;
+import com.io7m.jstructural.core.SFormalItemList;
+import com.io7m.jstructural.core.SFormalItemTitle;
+import com.io7m.jstructural.core.SID;
+import com.io7m.jstructural.core.SLink;
+import com.io7m.jstructural.core.SLinkContent;
+import com.io7m.jstructural.core.SLinkExternal;
+import com.io7m.jstructural.core.SListItem;
+import com.io7m.jstructural.core.SListItemContent;
+import com.io7m.jstructural.core.SListOrdered;
+import com.io7m.jstructural.core.SListUnordered;
+import com.io7m.jstructural.core.SNonEmptyList;
+import com.io7m.jstructural.core.SParagraphContent;
+import com.io7m.jstructural.core.SPart;
+import com.io7m.jstructural.core.SPartTitle;
+import com.io7m.jstructural.core.SSection;
+import com.io7m.jstructural.core.SSectionTitle;
+import com.io7m.jstructural.core.SSubsection;
+import com.io7m.jstructural.core.SSubsectionContent;
+import com.io7m.jstructural.core.SSubsectionTitle;
+import com.io7m.jstructural.core.STable;
+import com.io7m.jstructural.core.STableBody;
+import com.io7m.jstructural.core.STableCell;
+import com.io7m.jstructural.core.STableCellContent;
+import com.io7m.jstructural.core.STableColumnName;
+import com.io7m.jstructural.core.STableHead;
+import com.io7m.jstructural.core.STableRow;
+import com.io7m.jstructural.core.STableSummary;
+import com.io7m.jstructural.core.STerm;
+import com.io7m.jstructural.core.SText;
+import com.io7m.jstructural.core.SVerbatim;
+import com.io7m.jstructural.core.SXML;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>A SAX handler that builds a document directly from the events produced
+ * by a validating parser, without constructing an intermediate XOM tree.</p>
+ *
+ * <p>Each open element is represented by a frame that accumulates the
+ * already-constructed values of its children. Adjacent character data in
+ * mixed content is coalesced into a single text node, and the text of
+ * elements such as titles is accumulated in exactly the manner of {@link
+ * nu.xom.Element#getValue()}, so that the resulting documents are equal to
+ * those produced by the XOM-based parser in {@link SDocumentParser}.</p>
+ */
+
+final class SDocumentStreamingHandler extends DefaultHandler
+{
+  private static final Logger            LOG;
+  private static final String            XML_NAMESPACE;
+  private static final Map<String, Kind> KINDS;
+
+  static {
+    LOG = LoggerFactory.getLogger(SDocumentStreamingHandler.class);
+    XML_NAMESPACE = "http://www.w3.org/XML/1998/namespace";
+    KINDS = new HashMap<String, Kind>(64);
+    for (final Kind k : Kind.values()) {
+      SDocumentStreamingHandler.KINDS.put(k.name, k);
+    }
+  }
+
+  private final     Deque<Frame>      stack;
+  private @Nullable Object            result;
+  private @Nullable SAXParseException warning;
+
+  SDocumentStreamingHandler()
+  {
+    this.stack = new ArrayDeque<Frame>(32);
+  }
+
+  /**
+   * @return The value constructed for the root element, if any
+   */
+
+  @Nullable Object getResult()
+  {
+    return this.result;
+  }
+
+  /**
+   * @return The last warning raised by the parser, if any
+   */
+
+  @Nullable SAXParseException getWarning()
+  {
+    return this.warning;
+  }
+
+  @Override
+  public void startElement(
+    final @Nullable String uri,
+    final @Nullable String local_name,
+    final @Nullable String q_name,
+    final @Nullable Attributes attributes)
+    throws SAXException
+  {
+    NullCheck.notNull(attributes, "Attributes");
+
+    if (!SXML.XML_URI.toString().equals(uri)) {
+      throw new SAXException(
+        String.format("Unexpected element {%s}%s", uri, local_name));
+    }
+
+    final Kind kind = SDocumentStreamingHandler.KINDS.get(local_name);
+    if (kind == null) {
+      throw new SAXException(
+        String.format("Unexpected element {%s}%s", uri, local_name));
+    }
+
+    final Frame parent = this.stack.peek();
+    final boolean collecting;
+    if (parent != null) {
+      parent.flushText();
+      collecting = parent.collecting || kind.content_type == Content.VALUE;
+    } else {
+      collecting = kind.content_type == Content.VALUE;
+    }
+
+    this.stack.push(
+      new Frame(kind, new AttributesImpl(attributes), collecting));
+  }
+
+  @Override
+  public void endElement(
+    final @Nullable String uri,
+    final @Nullable String local_name,
+    final @Nullable String q_name)
+    throws SAXException
+  {
+    final Frame frame = this.stack.pop();
+    final Frame parent = this.stack.peek();
+
+    if (parent != null && parent.collecting) {
+      parent.text.append(frame.text);
+      return;
+    }
+
+    frame.flushText();
+
+    try {
+      final Object value = frame.kind.make(frame);
+      if (parent != null) {
+        parent.children.add(value);
+      } else {
+        this.result = value;
+      }
+    } catch (final URISyntaxException e) {
+      throw new SAXException(e);
+    }
+  }
+
+  @Override
+  public void characters(
+    final @Nullable char[] ch,
+    final int start,
+    final int length)
+    throws SAXException
+  {
+    final Frame frame = this.stack.peek();
+    if (frame != null && frame.acceptsText()) {
+      frame.text.append(ch, start, length);
+    }
+  }
+
+  @Override
+  public void ignorableWhitespace(
+    final @Nullable char[] ch,
+    final int start,
+    final int length)
+    throws SAXException
+  {
+    this.characters(ch, start, length);
+  }
+
+  @Override
+  public void warning(
+    final @Nullable SAXParseException e)
+    throws SAXException
+  {
+    assert e != null;
+    SDocumentStreamingHandler.LOG.warn(e + ": " + e.getMessage());
+    this.warning = e;
+  }
+
+  @Override
+  public void error(
+    final @Nullable SAXParseException e)
+    throws SAXException
+  {
+    assert e != null;
+    SDocumentStreamingHandler.LOG.error(e + ": " + e.getMessage());
+    throw e;
+  }
+
+  @Override
+  public void fatalError(
+    final @Nullable SAXParseException e)
+    throws SAXException
+  {
+    assert e != null;
+    SDocumentStreamingHandler.LOG.error(e + ": " + e.getMessage());
+    throw e;
+  }
+
+  private enum Content
+  {
+    ELEMENTS,
+    MIXED,
+    VALUE
+  }
+
+  private enum Marker
+  {
+    CONTENTS
+  }
+
+  private enum Kind
+  {
+    DOCUMENT("document", Content.ELEMENTS) {
+      @Override Object make(final Frame f)
+      {
+        final SDocumentTitle title = f.find(SDocumentTitle.class);
+        assert title != null;
+        final SDocumentStyle style = f.find(SDocumentStyle.class);
+        final boolean contents = f.has(Marker.CONTENTS);
+
+        final List<SSection> sections = f.filter(SSection.class);
+        if (!sections.isEmpty()) {
+          return SDocumentParser.documentWithSectionsMake(
+            title, style, contents, SNonEmptyList.newList(sections));
+        }
+        return SDocumentParser.documentWithPartsMake(
+          title, style, contents, SNonEmptyList.newList(f.filter(SPart.class)));
+      }
+    },
+
+    DOCUMENT_CONTENTS("document-contents", Content.ELEMENTS) {
+      @Override Object make(final Frame f)
+      {
+        return Marker.CONTENTS;
+      }
+    },
+
+    DOCUMENT_STYLE("document-style", Content.VALUE) {
+      @Override Object make(final Frame f)
+        throws URISyntaxException
+      {
+        return SDocumentStyle.documentStyle(new URI(f.value()));
+      }
+    },
+
+    DOCUMENT_TITLE("document-title", Content.VALUE) {
+      @Override Object make(final Frame f)
+      {
+        return SDocumentTitle.documentTitle(f.value());
+      }
+    },
+
+    FOOTNOTE("footnote", Content.MIXED) {
+      @Override Object make(final Frame f)
+      {
+        return SFootnote.footnote(
+          SNonEmptyList.newList(f.filter(SFootnoteContent.class)));
+      }
+    },
+
+    FORMAL_ITEM("formal-item", Content.ELEMENTS) {
+      @Override Object make(final Frame f)
+      {
+        final SFormalItemTitle title = f.find(SFormalItemTitle.class);
+        assert title != null;
+        final SFormalItemContent content = f.find(SFormalItemContent.class);
+        assert content != null;
+        return SDocumentParser.formalItemMake(
+          f.attribute("type"), f.kind(), f.id(), title, content);
+      }
+    },
+
+    FORMAL_ITEM_LIST("formal-item-list", Content.ELEMENTS) {
+      @Override Object make(final Frame f)
+      {
+        return SFormalItemList.formalItemList(f.kind());
+      }
+    },
+
+    FORMAL_ITEM_TITLE("formal-item-title", Content.VALUE) {
+      @Override Object make(final Frame f)
+      {
+        return SFormalItemTitle.formalItemTitle(f.value());
+      }
+    },
+
+    IMAGE("image", Content.VALUE) {
+      @Override Object make(final Frame f)
+        throws URISyntaxException
+      {
+        final String source = f.attribute("source");
+        assert source != null;
+        return SDocumentParser.imageMake(
+          f.attribute("type"),
+          new URI(source),
+          f.integerAttribute("width"),
+          f.integerAttribute("height"),
+          f.value());
+      }
+    },
+
+    LINK("link", Content.MIXED) {
+      @Override Object make(final Frame f)
+      {
+        final String target = f.attribute("target");
+        assert target != null;
+        return SLink.link(
+          target, SNonEmptyList.newList(f.filter(SLinkContent.class)));
+      }
+    },
+
+    LINK_EXTERNAL("link-external", Content.MIXED) {
+      @Override Object make(final Frame f)
+        throws URISyntaxException
+      {
+        final String target = f.attribute("target");
+        assert target != null;
+        return SLinkExternal.link(
+          new URI(target), SNonEmptyList.newList(f.filter(SLinkContent.class)));
+      }
+    },
+
+    LIST_ITEM("list-item", Content.MIXED) {
+      @Override Object make(final Frame f)
+      {
+        final String type = f.attribute("type");
+        final SNonEmptyList<SListItemContent> content =
+          SNonEmptyList.newList(f.filter(SListItemContent.class));
+        if (type != null) {
+          return SListItem.listItemTyped(type, content);
+        }
+        return SListItem.listItem(content);
+      }
+    },
+
+    LIST_ORDERED("list-ordered", Content.ELEMENTS) {
+      @Override Object make(final Frame f)
+      {
+        final String type = f.attribute("type");
+        final SNonEmptyList<SListItem> content =
+          SNonEmptyList.newList(f.filter(SListItem.class));
+        if (type != null) {
+          return SListOrdered.listTyped(type, content);
+        }
+        return SListOrdered.list(content);
+      }
+    },
+
+    LIST_UNORDERED("list-unordered", Content.ELEMENTS) {
+      @Override Object make(final Frame f)
+      {
+        final String type = f.attribute("type");
+        final SNonEmptyList<SListItem> content =
+          SNonEmptyList.newList(f.filter(SListItem.class));
+        if (type != null) {
+          return SListUnordered.listTyped(type, content);
+        }
+        return SListUnordered.list(content);
+      }
+    },
+
+    PARAGRAPH("paragraph", Content.MIXED) {
+      @Override Object make(final Frame f)
+      {
+        return SDocumentParser.paragraphMake(
+          f.id(),
+          f.attribute("type"),
+          SNonEmptyList.newList(f.filter(SParagraphContent.class)));
+      }
+    },
+
+    PART("part", Content.ELEMENTS) {
+      @Override Object make(final Frame f)
+      {
+        final SPartTitle title = f.find(SPartTitle.class);
+        assert title != null;
+        return SDocumentParser.partMake(
+          title,
+          f.has(Marker.CONTENTS),
+          f.id(),
+          f.attribute("type"),
+          SNonEmptyList.newList(f.filter(SSection.class)));
+      }
+    },
+
+    PART_CONTENTS("part-contents", Content.ELEMENTS) {
+      @Override Object make(final Frame f)
+      {
+        return Marker.CONTENTS;
+      }
+    },
+
+    PART_TITLE("part-title", Content.VALUE) {
+      @Override Object make(final Frame f)
+      {
+        return SPartTitle.partTitle(f.value());
+      }
+    },
+
+    SECTION("section", Content.ELEMENTS) {
+      @Override Object make(final Frame f)
+      {
+        final SSectionTitle title = f.find(SSectionTitle.class);
+        assert title != null;
+        final boolean contents = f.has(Marker.CONTENTS);
+        final SID id = f.id();
+        final String type = f.attribute("type");
+
+        final List<SSubsection> subsections = f.filter(SSubsection.class);
+        if (!subsections.isEmpty()) {
+          return SDocumentParser.sectionWithSubsectionsMake(
+            title, contents, id, type, SNonEmptyList.newList(subsections));
+        }
+        return SDocumentParser.sectionWithParagraphsMake(
+          title,
+          contents,
+          id,
+          type,
+          SNonEmptyList.newList(f.filter(SSubsectionContent.class)));
+      }
+    },
+
+    SECTION_CONTENTS("section-contents", Content.ELEMENTS) {
+      @Override Object make(final Frame f)
+      {
+        return Marker.CONTENTS;
+      }
+    },
+
+    SECTION_TITLE("section-title", Content.VALUE) {
+      @Override Object make(final Frame f)
+      {
+        return SSectionTitle.sectionTitle(f.value());
+      }
+    },
+
+    SUBSECTION("subsection", Content.ELEMENTS) {
+      @Override Object make(final Frame f)
+      {
+        final SSubsectionTitle title = f.find(SSubsectionTitle.class);
+        assert title != null;
+        return SDocumentParser.subsectionMake(
+          title,
+          f.id(),
+          f.attribute("type"),
+          SNonEmptyList.newList(f.filter(SSubsectionContent.class)));
+      }
+    },
+
+    SUBSECTION_TITLE("subsection-title", Content.VALUE) {
+      @Override Object make(final Frame f)
+      {
+        return SSubsectionTitle.subsectionTitle(f.value());
+      }
+    },
+
+    TABLE("table", Content.ELEMENTS) {
+      @Override Object make(final Frame f)
+      {
+        final STableSummary summary = f.find(STableSummary.class);
+        assert summary != null;
+        final STableHead head = f.find(STableHead.class);
+        final STableBody body = f.find(STableBody.class);
+        assert body != null;
+        if (head != null) {
+          return STable.tableHeader(summary, head, body);
+        }
+        return STable.table(summary, body);
+      }
+    },
+
+    TABLE_BODY("table-body", Content.ELEMENTS) {
+      @Override Object make(final Frame f)
+      {
+        return STableBody.tableBody(
+          SNonEmptyList.newList(f.filter(STableRow.class)));
+      }
+    },
+
+    TABLE_CELL("table-cell", Content.MIXED) {
+      @Override Object make(final Frame f)
+      {
+        return STableCell.tableCell(f.filter(STableCellContent.class));
+      }
+    },
+
+    TABLE_COLUMN_NAME("table-column-name", Content.VALUE) {
+      @Override Object make(final Frame f)
+      {
+        return STableColumnName.tableColumnName(f.value());
+      }
+    },
+
+    TABLE_HEAD("table-head", Content.ELEMENTS) {
+      @Override Object make(final Frame f)
+      {
+        return STableHead.tableHead(
+          SNonEmptyList.newList(f.filter(STableColumnName.class)));
+      }
+    },
+
+    TABLE_ROW("table-row", Content.ELEMENTS) {
+      @Override Object make(final Frame f)
+      {
+        return STableRow.tableRow(
+          SNonEmptyList.newList(f.filter(STableCell.class)));
+      }
+    },
+
+    TABLE_SUMMARY("table-summary", Content.VALUE) {
+      @Override Object make(final Frame f)
+      {
+        return STableSummary.tableSummary(f.value());
+      }
+    },
+
+    TERM("term", Content.VALUE) {
+      @Override Object make(final Frame f)
+      {
+        final String type = f.attribute("type");
+        final SText text = SText.text(f.value());
+        if (type != null) {
+          return STerm.termTyped(text, type);
+        }
+        return STerm.term(text);
+      }
+    },
+
+    VERBATIM("verbatim", Content.VALUE) {
+      @Override Object make(final Frame f)
+      {
+        final String type = f.attribute("type");
+        if (type != null) {
+          return SVerbatim.verbatimTyped(f.value(), type);
+        }
+        return SVerbatim.verbatim(f.value());
+      }
+    };
+
+    private final String  name;
+    private final Content content_type;
+
+    Kind(
+      final String in_name,
+      final Content in_content)
+    {
+      this.name = NullCheck.notNull(in_name, "Name");
+      this.content_type = NullCheck.notNull(in_content, "Content");
+    }
+
+    abstract Object make(final Frame f)
+      throws URISyntaxException;
+  }
+
+  private static final class Frame
+  {
+    private final Kind           kind;
+    private final Attributes     attributes;
+    private final boolean        collecting;
+    private final StringBuilder  text;
+    private final List<Object>   children;
+
+    private Frame(
+      final Kind in_kind,
+      final Attributes in_attributes,
+      final boolean in_collecting)
+    {
+      this.kind = NullCheck.notNull(in_kind, "Kind");
+      this.attributes = NullCheck.notNull(in_attributes, "Attributes");
+      this.collecting = in_collecting;
+      this.text = new StringBuilder(64);
+      this.children = new ArrayList<Object>(8);
+    }
+
+    private boolean acceptsText()
+    {
+      return this.collecting || this.kind.content_type == Content.MIXED;
+    }
+
+    private void flushText()
+    {
+      if (this.kind.content_type == Content.MIXED && this.text.length() > 0) {
+        this.children.add(SText.text(this.text.toString()));
+        this.text.setLength(0);
+      }
+    }
+
+    private String value()
+    {
+      return this.text.toString();
+    }
+
+    private @Nullable String attribute(
+      final String name)
+    {
+      return this.attributes.getValue(SXML.XML_URI.toString(), name);
+    }
+
+    private @Nullable Integer integerAttribute(
+      final String name)
+    {
+      final String v = this.attribute(name);
+      if (v == null) {
+        return null;
+      }
+      return Integer.valueOf(v);
+    }
+
+    private String kind()
+    {
+      final String r = this.attribute("kind");
+      assert r != null;
+      return r;
+    }
+
+    private @Nullable SID id()
+    {
+      final String v = this.attributes.getValue(
+        SDocumentStreamingHandler.XML_NAMESPACE, "id");
+      if (v == null) {
+        return null;
+      }
+      return SID.newID(v);
+    }
+
+    private boolean has(
+      final Object marker)
+    {
+      return this.children.contains(marker);
+    }
+
+    private @Nullable <T> T find(
+      final Class<T> c)
+    {
+      for (final Object o : this.children) {
+        if (c.isInstance(o)) {
+          return c.cast(o);
+        }
+      }
+      return null;
+    }
+
+    private <T> List<T> filter(
+      final Class<T> c)
+    {
+      final List<T> r = new ArrayList<T>(this.children.size());
+      for (final Object o : this.children) {
+        if (c.isInstance(o)) {
+          r.add(c.cast(o));
+        }
+      }
+      return r;
+    }
+  }
+}
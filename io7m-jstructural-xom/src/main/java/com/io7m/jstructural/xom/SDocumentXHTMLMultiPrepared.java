@@ -0,0 +1,210 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jstructural.xom;
+
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jstructural.annotated.SADocument;
+import com.io7m.jstructural.annotated.SASegmentNumber;
+import com.io7m.junreachable.UnreachableCodeException;
+import net.jcip.annotations.Immutable;
+import nu.xom.Document;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * A document prepared for rendering by an {@link SDocumentXHTMLWriterMulti}.
+ * </p>
+ * <p>
+ * The link targets, tables of contents and navigation data for the document
+ * are computed once, when the document is prepared, and are shared by every
+ * page rendered from it. Individual pages may therefore be rendered on demand
+ * without the cost of rendering the rest of the document. The content of a
+ * page rendered on demand is identical to that of the page of the same name
+ * produced by
+ * {@link SDocumentXHTMLWriterMulti#writeDocuments(SDocumentXHTMLWriterCallbacks, SADocument)}.
+ * </p>
+ * <p>
+ * Prepared documents are immutable, and any number of pages may be rendered
+ * from the same prepared document concurrently.
+ * </p>
+ *
+ * @see SDocumentXHTMLWriterMulti#prepare(SADocument)
+ */
+
+@Immutable public final class SDocumentXHTMLMultiPrepared
+{
+  private final SADocument                                     document;
+  private final SDocumentXHTMLWriterMulti.Page                 front;
+  private final Map<String, SDocumentXHTMLWriterMulti.Page>    names;
+  private final List<SDocumentXHTMLWriterMulti.Page>           pages;
+  private final Map<SASegmentNumber, SDocumentXHTMLWriterMulti.Page> segments;
+
+  SDocumentXHTMLMultiPrepared(
+    final SADocument in_document,
+    final SDocumentXHTMLWriterMulti.Page in_front,
+    final Map<SASegmentNumber, SDocumentXHTMLWriterMulti.Page> in_segments)
+  {
+    this.document = NullCheck.notNull(in_document, "Document");
+    this.front = NullCheck.notNull(in_front, "Front page");
+    this.segments = NullCheck.notNull(in_segments, "Segments");
+
+    final List<SDocumentXHTMLWriterMulti.Page> p =
+      new ArrayList<SDocumentXHTMLWriterMulti.Page>(this.segments.size() + 1);
+    p.add(this.front);
+    p.addAll(this.segments.values());
+    this.pages = Collections.unmodifiableList(p);
+
+    final Map<String, SDocumentXHTMLWriterMulti.Page> n =
+      new HashMap<String, SDocumentXHTMLWriterMulti.Page>(this.pages.size());
+    for (final SDocumentXHTMLWriterMulti.Page page : this.pages) {
+      n.put(page.getName(), page);
+    }
+    this.names = n;
+  }
+
+  private static Document write(
+    final SDocumentXHTMLWriterMulti.Page page,
+    final SDocumentXHTMLWriterCallbacks callbacks)
+  {
+    try {
+      return page.write(NullCheck.notNull(callbacks, "Callbacks"));
+    } catch (final Exception e) {
+      throw new UnreachableCodeException(e);
+    }
+  }
+
+  /**
+   * @return The document
+   */
+
+  public SADocument getDocument()
+  {
+    return this.document;
+  }
+
+  /**
+   * @return The name of the front page
+   */
+
+  public String getFrontPageName()
+  {
+    return this.front.getName();
+  }
+
+  /**
+   * @return The names of all pages, in the order in which they would be
+   *         produced by a writer
+   */
+
+  public List<String> getPageNames()
+  {
+    final List<String> r = new ArrayList<String>(this.pages.size());
+    for (final SDocumentXHTMLWriterMulti.Page page : this.pages) {
+      r.add(page.getName());
+    }
+    return r;
+  }
+
+  List<SDocumentXHTMLWriterMulti.Page> getPages()
+  {
+    return this.pages;
+  }
+
+  /**
+   * @param n
+   *          The segment number
+   * @return The name of the page for the given segment, if the segment
+   *         exists
+   */
+
+  public OptionType<String> getSegmentPageName(
+    final SASegmentNumber n)
+  {
+    final SDocumentXHTMLWriterMulti.Page page =
+      this.segments.get(NullCheck.notNull(n, "Segment"));
+    if (page != null) {
+      return Option.some(page.getName());
+    }
+    return Option.none();
+  }
+
+  /**
+   * Render the front page.
+   *
+   * @param callbacks
+   *          A set of callbacks for document customisation
+   * @return The front page
+   */
+
+  public Document writeFrontPage(
+    final SDocumentXHTMLWriterCallbacks callbacks)
+  {
+    return SDocumentXHTMLMultiPrepared.write(this.front, callbacks);
+  }
+
+  /**
+   * Render the page with the given name.
+   *
+   * @param callbacks
+   *          A set of callbacks for document customisation
+   * @param name
+   *          The name of the page
+   * @return The page, or nothing if the document has no page with the given
+   *         name
+   */
+
+  public OptionType<Document> writePage(
+    final SDocumentXHTMLWriterCallbacks callbacks,
+    final String name)
+  {
+    final SDocumentXHTMLWriterMulti.Page page =
+      this.names.get(NullCheck.notNull(name, "Name"));
+    if (page != null) {
+      return Option.some(SDocumentXHTMLMultiPrepared.write(page, callbacks));
+    }
+    return Option.none();
+  }
+
+  /**
+   * Render the page for the given segment.
+   *
+   * @param callbacks
+   *          A set of callbacks for document customisation
+   * @param n
+   *          The segment number
+   * @return The page, or nothing if the document has no such segment
+   */
+
+  public OptionType<Document> writeSegment(
+    final SDocumentXHTMLWriterCallbacks callbacks,
+    final SASegmentNumber n)
+  {
+    final SDocumentXHTMLWriterMulti.Page page =
+      this.segments.get(NullCheck.notNull(n, "Segment"));
+    if (page != null) {
+      return Option.some(SDocumentXHTMLMultiPrepared.write(page, callbacks));
+    }
+    return Option.none();
+  }
+}
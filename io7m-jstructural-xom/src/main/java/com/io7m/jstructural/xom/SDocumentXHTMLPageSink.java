@@ -0,0 +1,47 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jstructural.xom;
+
+import java.io.IOException;
+
+import nu.xom.Document;
+
+/**
+ * A receiver of XHTML pages. Writers deliver each page to the sink as soon as
+ * the page has been generated, and retain no reference to the page
+ * afterwards.
+ */
+
+public interface SDocumentXHTMLPageSink
+{
+  /**
+   * Called when a page has been generated. Pages are delivered in document
+   * order, and each file name is delivered at most once.
+   * 
+   * @param name
+   *          The file name of the page
+   * @param page
+   *          The page
+   * @throws IOException
+   *           If the page cannot be consumed
+   */
+
+  void onPage(
+    final String name,
+    final Document page)
+    throws IOException;
+}
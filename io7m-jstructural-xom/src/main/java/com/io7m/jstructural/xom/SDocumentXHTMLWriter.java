@@ -16,6 +16,7 @@
 
 package com.io7m.jstructural.xom;
 
+import java.io.IOException;
 import java.util.SortedMap;
 
 import nu.xom.Document;
@@ -23,7 +24,12 @@ import nu.xom.Document;
 import com.io7m.jstructural.annotated.SADocument;
 
 /**
- * The interface supported by document writers.
+ * <p>The interface supported by document writers.</p>
+ *
+ * <p>The writers in this package are immutable, and a single writer may be
+ * used to write any number of documents concurrently. Callbacks passed to a
+ * writer may be called from the thread that invoked the writer, or from a
+ * thread managed by the writer.</p>
  */
 
 public interface SDocumentXHTMLWriter
@@ -41,4 +47,26 @@ public interface SDocumentXHTMLWriter
   SortedMap<String, Document> writeDocuments(
     final SDocumentXHTMLWriterCallbacks callbacks,
     final SADocument doc);
+
+  /**
+   * Transform the given document into at least one XHTML file, delivering
+   * each file to the given sink as soon as it has been generated. Unlike
+   * {@link #writeDocuments(SDocumentXHTMLWriterCallbacks, SADocument)}, the
+   * writer does not retain any of the generated files.
+   * 
+   * @param callbacks
+   *          A set of callbacks for document customisation
+   * @param doc
+   *          The document
+   * @param sink
+   *          The receiver of generated files
+   * @throws IOException
+   *           If the sink raises {@link IOException}
+   */
+
+  void writeDocumentsTo(
+    final SDocumentXHTMLWriterCallbacks callbacks,
+    final SADocument doc,
+    final SDocumentXHTMLPageSink sink)
+    throws IOException;
 }
@@ -16,8 +16,20 @@
 
 package com.io7m.jstructural.xom;
 
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import nu.xom.Attribute;
 import nu.xom.Document;
@@ -29,6 +41,7 @@ import com.io7m.jfunctional.OptionType;
 import com.io7m.jfunctional.Some;
 import com.io7m.jfunctional.Unit;
 import com.io7m.jnull.NullCheck;
+import com.io7m.jranges.RangeCheck;
 import com.io7m.jstructural.annotated.SADocument;
 import com.io7m.jstructural.annotated.SADocumentTitle;
 import com.io7m.jstructural.annotated.SADocumentVisitor;
@@ -36,7 +49,6 @@ import com.io7m.jstructural.annotated.SADocumentWithParts;
 import com.io7m.jstructural.annotated.SADocumentWithSections;
 import com.io7m.jstructural.annotated.SAFormalItem;
 import com.io7m.jstructural.annotated.SAFormalItemNumber;
-import com.io7m.jstructural.annotated.SAFormalItemsByKindReadable;
 import com.io7m.jstructural.annotated.SAID;
 import com.io7m.jstructural.annotated.SAIDMapReadable;
 import com.io7m.jstructural.annotated.SAIDTargetContent;
@@ -61,19 +73,36 @@ import com.io7m.jstructural.core.SDocumentStyle;
 import com.io7m.jstructural.core.SNonEmptyList;
 import com.io7m.jstructural.core.SPartContents;
 import com.io7m.jstructural.core.SSectionContents;
+import com.io7m.jstructural.events.SEventRenderPage;
+import com.io7m.jstructural.events.SEvents;
 import com.io7m.junreachable.UnreachableCodeException;
+import net.jcip.annotations.Immutable;
 
 /**
+ * <p>
  * An XHTML writer that produces XHTML 1.0 Strict documents, creating new
  * pages on parts and sections.
+ * </p>
+ * <p>
+ * Writers are immutable and may be shared between threads: any number of
+ * documents may be written concurrently with the same writer.
+ * </p>
  */
 
+@Immutable
 @SuppressWarnings("synthetic-access") public final class SDocumentXHTMLWriterMulti implements
   SDocumentXHTMLWriter
 {
+  /**
+   * The default name of the "front page" of the produced pages.
+   */
+
+  public static final String DEFAULT_FRONT_PAGE_NAME;
+
   private static final OptionType<SASegmentNumber> NO_NUMBER;
 
   static {
+    DEFAULT_FRONT_PAGE_NAME = "index-m." + SXHTML.OUTPUT_FILE_SUFFIX;
     NO_NUMBER = Option.none();
   }
 
@@ -479,12 +508,10 @@ import com.io7m.junreachable.UnreachableCodeException;
     return etc;
   }
 
-  private void part(
-    final SortedMap<String, Document> documents,
+  private Document partPage(
     final SLinkProvider link_provider,
     final SDocumentXHTMLWriterCallbacks callbacks,
     final SXHTMLPartContents part_contents,
-    final SXHTMLSectionContents section_contents,
     final SADocument doc,
     final SAPart p)
     throws Exception
@@ -534,27 +561,14 @@ import com.io7m.junreachable.UnreachableCodeException;
     container
       .appendChild(this.navigationBar(link_provider, doc, some, false));
     callbacks.onBodyEnd(container);
-
-    final String name = SXHTMLAnchors.getPartFile(number);
-    assert documents.containsKey(name) == false;
-    documents.put(name, page.getDocument());
-
-    for (final SASection s : p.getSections().getElements()) {
-      this.section(
-        documents,
-        link_provider,
-        callbacks,
-        section_contents,
-        doc,
-        s);
-    }
+    return page.getDocument();
   }
 
-  private void section(
-    final SortedMap<String, Document> documents,
+  private Document sectionPage(
     final SLinkProvider link_provider,
     final SDocumentXHTMLWriterCallbacks callbacks,
     final SXHTMLSectionContents section_contents,
+    final SXHTMLFormalItemLists formals,
     final SADocument document,
     final SASection s)
     throws Exception
@@ -599,7 +613,7 @@ import com.io7m.junreachable.UnreachableCodeException;
           .getElements()) {
           section_main.appendChild(SXHTML.subsectionContent(
             link_provider,
-            document.getFormals(),
+            formals,
             c));
         }
 
@@ -629,7 +643,7 @@ import com.io7m.junreachable.UnreachableCodeException;
         for (final SASubsection ss : sws.getSubsections().getElements()) {
           section_main.appendChild(SXHTML.subsection(
             link_provider,
-            document.getFormals(),
+            formals,
             ss));
         }
 
@@ -639,7 +653,7 @@ import com.io7m.junreachable.UnreachableCodeException;
 
     SXHTML.footnotes(
       link_provider,
-      document.getFormals(),
+      formals,
       s.getFootnotes(),
       container);
 
@@ -650,150 +664,405 @@ import com.io7m.junreachable.UnreachableCodeException;
       false));
 
     callbacks.onBodyEnd(container);
+    return page.getDocument();
+  }
+
+  private Document frontPage(
+    final SLinkProvider link_provider,
+    final SDocumentXHTMLWriterCallbacks callbacks,
+    final SXHTMLDocumentContents doc_contents,
+    final SADocument doc)
+    throws Exception
+  {
+    final SXHTMLPage page =
+      SXHTML.newPage(doc.getTitle().getActual(), doc.getStyle());
+
+    callbacks.onHead(page.getHead());
+
+    final Element container = page.getBodyContainer();
+    final Element rbody = callbacks.onBodyStart(container);
+    SXHTMLReparent.reparentBodyNode(container, rbody);
+
+    container.appendChild(this.navigationBar(
+      link_provider,
+      doc,
+      SDocumentXHTMLWriterMulti.NO_NUMBER,
+      true));
+
+    doc.documentAccept(new SADocumentVisitor<Unit>() {
+      @Override public Unit visitDocumentWithParts(
+        final SADocumentWithParts dwp)
+        throws Exception
+      {
+        final SNonEmptyList<SAPart> parts = dwp.getParts();
+        container.appendChild(SXHTML.documentTitle(dwp));
+
+        doc.getContents().map(new FunctionType<SDocumentContents, Unit>() {
+          @Override public Unit call(
+            final SDocumentContents x)
+          {
+            container.appendChild(doc_contents
+              .getTableOfContentsParts(parts));
+            return Unit.unit();
+          }
+        });
+        return Unit.unit();
+      }
+
+      @Override public Unit visitDocumentWithSections(
+        final SADocumentWithSections dws)
+        throws Exception
+      {
+        final SNonEmptyList<SASection> sections = dws.getSections();
+        container.appendChild(SXHTML.documentTitle(dws));
+
+        doc.getContents().map(new FunctionType<SDocumentContents, Unit>() {
+          @Override public Unit call(
+            final SDocumentContents x)
+          {
+            container.appendChild(doc_contents
+              .getTableOfContentsSections(sections));
+            return Unit.unit();
+          }
+        });
+        return Unit.unit();
+      }
+    });
+
+    container.appendChild(this.navigationBar(
+      link_provider,
+      doc,
+      SDocumentXHTMLWriterMulti.NO_NUMBER,
+      false));
+    callbacks.onBodyEnd(container);
+    return page.getDocument();
+  }
 
-    final String name = SXHTMLAnchors.getSectionFile(number);
-    assert documents.containsKey(name) == false;
-    documents.put(name, page.getDocument());
+  private Page sectionPageRenderer(
+    final SLinkProvider link_provider,
+    final SXHTMLSectionContents section_contents,
+    final SXHTMLFormalItemLists formals,
+    final SADocument doc,
+    final SASection s)
+    throws Exception
+  {
+    return new Page(
+      SXHTMLAnchors.getSectionFile(s.getNumber()),
+      s.getNumber().sectionNumberFormat()) {
+      @Override Document render(
+        final SDocumentXHTMLWriterCallbacks callbacks)
+        throws Exception
+      {
+        return SDocumentXHTMLWriterMulti.this.sectionPage(
+          link_provider, callbacks, section_contents, formals, doc, s);
+      }
+    };
   }
 
-  private String front_page;
+  /**
+   * Render the given pages, delivering them to the sink in the order in which
+   * they appear in the list. If more than one thread is configured, at most
+   * {@code 2 * threads} pages are rendered ahead of the page that is next to
+   * be delivered, so that only a bounded number of pages are held in memory
+   * at any given time.
+   */
+
+  private void renderPages(
+    final List<Page> pages,
+    final SDocumentXHTMLWriterCallbacks callbacks,
+    final SDocumentXHTMLPageSink sink)
+    throws Exception
+  {
+    if (this.threads == 1) {
+      for (final Page p : pages) {
+        sink.onPage(p.getName(), p.write(callbacks));
+      }
+      return;
+    }
+
+    final ExecutorService exec = Executors.newFixedThreadPool(this.threads);
+    try {
+      final int window = this.threads * 2;
+      final Deque<String> names = new ArrayDeque<String>(window);
+      final Deque<Future<Document>> pending =
+        new ArrayDeque<Future<Document>>(window);
+
+      for (final Page p : pages) {
+        if (pending.size() >= window) {
+          sink.onPage(
+            names.remove(),
+            SDocumentXHTMLWriterMulti.await(pending.remove()));
+        }
+        names.add(p.getName());
+        pending.add(exec.submit(new PageTask(p, callbacks)));
+      }
+
+      while (pending.isEmpty() == false) {
+        sink.onPage(
+          names.remove(),
+          SDocumentXHTMLWriterMulti.await(pending.remove()));
+      }
+    } finally {
+      exec.shutdownNow();
+    }
+  }
+
+  private static Document await(
+    final Future<Document> f)
+    throws Exception
+  {
+    try {
+      return f.get();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted whilst rendering pages");
+    } catch (final ExecutionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof Exception) {
+        throw (Exception) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new UnreachableCodeException(cause);
+    }
+  }
+
+  private final String front_page;
+  private final int    threads;
 
   /**
-   * Construct a new XHTML writer.
+   * Construct a new XHTML writer that renders pages on a single thread and
+   * uses {@link #DEFAULT_FRONT_PAGE_NAME} as the name of the front page.
    */
 
   public SDocumentXHTMLWriterMulti()
   {
-    this.front_page = "index-m." + SXHTML.OUTPUT_FILE_SUFFIX;
+    this(SDocumentXHTMLWriterMulti.DEFAULT_FRONT_PAGE_NAME, 1);
   }
 
   /**
    * <p>
-   * Set the name that will be used for the "front page" of the produced
-   * pages.
+   * Construct a new XHTML writer.
    * </p>
    * <p>
-   * Defaults to: {@code "index-m." + {@link SXHTML#OUTPUT_FILE_SUFFIX}}
+   * Pages are always delivered in the same order, and with the same content,
+   * regardless of the number of threads used. If more than one thread is
+   * used, the given {@link SDocumentXHTMLWriterCallbacks} may be called from
+   * multiple threads concurrently, and must therefore be thread-safe.
    * </p>
    *
-   * @param name
-   *          The file name.
+   * @param in_front_page
+   *          The name that will be used for the "front page" of the produced
+   *          pages
+   * @param in_threads
+   *          The number of threads that will be used to render the pages of
+   *          each document, must be {@code >= 1}
+   */
+
+  public SDocumentXHTMLWriterMulti(
+    final String in_front_page,
+    final int in_threads)
+  {
+    this.front_page = NullCheck.notNull(in_front_page, "Front page name");
+    this.threads =
+      RangeCheck.checkGreaterEqualInteger(
+        in_threads,
+        "Thread count",
+        1,
+        "Minimum thread count");
+  }
+
+  /**
+   * @return The name that will be used for the "front page" of the produced
+   *         pages
    */
 
-  public void setFrontPageName(
-    final String name)
+  public String getFrontPageName()
   {
-    this.front_page = NullCheck.notNull(name, "Name");
+    return this.front_page;
+  }
+
+  /**
+   * @return The number of threads that will be used to render the pages of
+   *         each document
+   */
+
+  public int getThreads()
+  {
+    return this.threads;
   }
 
   @Override public SortedMap<String, Document> writeDocuments(
     final SDocumentXHTMLWriterCallbacks callbacks,
     final SADocument doc)
   {
-    try {
-      NullCheck.notNull(callbacks, "Callbacks");
-      NullCheck.notNull(doc, "Document");
+    final SortedMap<String, Document> documents =
+      new TreeMap<String, Document>();
 
-      final SLinkProvider link_provider = new SLinkProvider() {
-        @Override public String getFormalItemLinkTarget(
-          final SAFormalItemNumber f)
+    try {
+      this.writeDocumentsTo(callbacks, doc, new SDocumentXHTMLPageSink() {
+        @Override public void onPage(
+          final String name,
+          final Document page)
         {
-          try {
-            return SDocumentXHTMLWriterMulti.getFormalItemLinkTarget(f);
-          } catch (final Exception e) {
-            throw new UnreachableCodeException(e);
-          }
+          assert documents.containsKey(name) == false;
+          documents.put(name, page);
         }
+      });
+    } catch (final IOException e) {
+      throw new UnreachableCodeException(e);
+    }
 
-        @Override public String getLinkTargetForID(
-          final SAID id)
-        {
-          try {
-            final SAIDMapReadable map = doc.getIDMappings();
-            final SAIDTargetContent k = map.get(id);
-            assert k != null;
-            return k
-              .targetContentAccept(new SAIDTargetContentVisitor<String>() {
-                @Override public String visitParagraph(
-                  final SAParagraph paragraph)
-                  throws Exception
-                {
-                  return SDocumentXHTMLWriterMulti
-                    .getParagraphLinkTarget(paragraph.getNumber());
-                }
-
-                @Override public String visitPart(
-                  final SAPart part)
-                  throws Exception
-                {
-                  return SDocumentXHTMLWriterMulti.getPartLinkTarget(part
-                    .getNumber());
-                }
-
-                @Override public String visitSection(
-                  final SASection section)
-                  throws Exception
-                {
-                  return SDocumentXHTMLWriterMulti
-                    .getSectionLinkTarget(section.getNumber());
-                }
-
-                @Override public String visitSubsection(
-                  final SASubsection subsection)
-                  throws Exception
-                {
-                  return SDocumentXHTMLWriterMulti
-                    .getSubsectionLinkTarget(subsection.getNumber());
-                }
-
-                @Override public String visitFormalItem(
-                  final SAFormalItem f)
-                  throws Exception
-                {
-                  return getFormalItemLinkTarget(f.getNumber());
-                }
-              });
-          } catch (final Exception x) {
-            throw new UnreachableCodeException(x);
-          }
+    return documents;
+  }
+
+  private static SLinkProvider computedLinks(
+    final SADocument doc)
+  {
+    return new SLinkProvider() {
+      @Override public String getFormalItemLinkTarget(
+        final SAFormalItemNumber f)
+      {
+        try {
+          return SDocumentXHTMLWriterMulti.getFormalItemLinkTarget(f);
+        } catch (final Exception e) {
+          throw new UnreachableCodeException(e);
         }
+      }
 
-        @Override public String getPartLinkTarget(
-          final SAPartNumber p)
-        {
-          return SDocumentXHTMLWriterMulti.getPartLinkTarget(p);
+      @Override public String getLinkTargetForID(
+        final SAID id)
+      {
+        try {
+          final SAIDMapReadable map = doc.getIDMappings();
+          final SAIDTargetContent k = map.get(id);
+          assert k != null;
+          return k
+            .targetContentAccept(new SAIDTargetContentVisitor<String>() {
+              @Override public String visitParagraph(
+                final SAParagraph paragraph)
+                throws Exception
+              {
+                return SDocumentXHTMLWriterMulti
+                  .getParagraphLinkTarget(paragraph.getNumber());
+              }
+
+              @Override public String visitPart(
+                final SAPart part)
+                throws Exception
+              {
+                return SDocumentXHTMLWriterMulti.getPartLinkTarget(part
+                  .getNumber());
+              }
+
+              @Override public String visitSection(
+                final SASection section)
+                throws Exception
+              {
+                return SDocumentXHTMLWriterMulti
+                  .getSectionLinkTarget(section.getNumber());
+              }
+
+              @Override public String visitSubsection(
+                final SASubsection subsection)
+                throws Exception
+              {
+                return SDocumentXHTMLWriterMulti
+                  .getSubsectionLinkTarget(subsection.getNumber());
+              }
+
+              @Override public String visitFormalItem(
+                final SAFormalItem f)
+                throws Exception
+              {
+                return getFormalItemLinkTarget(f.getNumber());
+              }
+            });
+        } catch (final Exception x) {
+          throw new UnreachableCodeException(x);
         }
+      }
 
-        @Override public String getSectionLinkTarget(
-          final SASectionNumber s)
-        {
-          try {
-            return SDocumentXHTMLWriterMulti.getSectionLinkTarget(s);
-          } catch (final Exception e) {
-            throw new UnreachableCodeException(e);
-          }
+      @Override public String getPartLinkTarget(
+        final SAPartNumber p)
+      {
+        return SDocumentXHTMLWriterMulti.getPartLinkTarget(p);
+      }
+
+      @Override public String getSectionLinkTarget(
+        final SASectionNumber s)
+      {
+        try {
+          return SDocumentXHTMLWriterMulti.getSectionLinkTarget(s);
+        } catch (final Exception e) {
+          throw new UnreachableCodeException(e);
         }
+      }
 
-        @Override public String getSegmentLinkTarget(
-          final SASegmentNumber segment)
-        {
-          try {
-            return SDocumentXHTMLWriterMulti.getSegmentLinkTarget(segment);
-          } catch (final Exception e) {
-            throw new UnreachableCodeException(e);
-          }
+      @Override public String getSegmentLinkTarget(
+        final SASegmentNumber segment)
+      {
+        try {
+          return SDocumentXHTMLWriterMulti.getSegmentLinkTarget(segment);
+        } catch (final Exception e) {
+          throw new UnreachableCodeException(e);
         }
+      }
 
-        @Override public String getSubsectionLinkTarget(
-          final SASubsectionNumber s)
-        {
-          try {
-            return SDocumentXHTMLWriterMulti.getSubsectionLinkTarget(s);
-          } catch (final Exception e) {
-            throw new UnreachableCodeException(e);
-          }
+      @Override public String getSubsectionLinkTarget(
+        final SASubsectionNumber s)
+      {
+        try {
+          return SDocumentXHTMLWriterMulti.getSubsectionLinkTarget(s);
+        } catch (final Exception e) {
+          throw new UnreachableCodeException(e);
         }
-      };
+      }
+    };
+  }
+
+  @Override public void writeDocumentsTo(
+    final SDocumentXHTMLWriterCallbacks callbacks,
+    final SADocument doc,
+    final SDocumentXHTMLPageSink sink)
+    throws IOException
+  {
+    NullCheck.notNull(callbacks, "Callbacks");
+    NullCheck.notNull(doc, "Document");
+    NullCheck.notNull(sink, "Sink");
+
+    try {
+      this.renderPages(this.prepare(doc).getPages(), callbacks, sink);
+    } catch (final IOException e) {
+      throw e;
+    } catch (final Exception e) {
+      throw new UnreachableCodeException(e);
+    }
+  }
+
+  /**
+   * <p>
+   * Prepare the given document for rendering. The link targets, tables of
+   * contents and navigation data for the document are computed once, and are
+   * shared by every page subsequently rendered from the returned value. This
+   * allows individual pages to be rendered on demand without rendering the
+   * rest of the document.
+   * </p>
+   *
+   * @param doc
+   *          The document
+   * @return A prepared document
+   */
+
+  public SDocumentXHTMLMultiPrepared prepare(
+    final SADocument doc)
+  {
+    NullCheck.notNull(doc, "Document");
+
+    try {
+      final SLinkProvider link_provider = SXHTMLLinkTable.newTable(
+        doc, SDocumentXHTMLWriterMulti.computedLinks(doc));
 
       final SXHTMLDocumentContents doc_contents =
         new SXHTMLDocumentContents(link_provider);
@@ -801,68 +1070,47 @@ import com.io7m.junreachable.UnreachableCodeException;
         new SXHTMLPartContents(link_provider);
       final SXHTMLSectionContents section_contents =
         new SXHTMLSectionContents(link_provider);
-      final SAFormalItemsByKindReadable formals = doc.getFormals();
+      final SXHTMLFormalItemLists formals =
+        new SXHTMLFormalItemLists(link_provider, doc.getFormals());
 
-      final SortedMap<String, Document> documents =
-        new TreeMap<String, Document>();
+      final Page front = new Page(this.front_page, "") {
+        @Override Document render(
+          final SDocumentXHTMLWriterCallbacks callbacks)
+          throws Exception
+        {
+          return SDocumentXHTMLWriterMulti.this.frontPage(
+            link_provider, callbacks, doc_contents, doc);
+        }
+      };
+
+      final Map<SASegmentNumber, Page> segments =
+        new LinkedHashMap<SASegmentNumber, Page>(64);
 
       doc.documentAccept(new SADocumentVisitor<Unit>() {
         @Override public Unit visitDocumentWithParts(
           final SADocumentWithParts dwp)
           throws Exception
         {
-          final SXHTMLPage page =
-            SXHTML.newPage(doc.getTitle().getActual(), doc.getStyle());
-
-          callbacks.onHead(page.getHead());
-
-          final Element container = page.getBodyContainer();
-          final Element rbody = callbacks.onBodyStart(container);
-          SXHTMLReparent.reparentBodyNode(container, rbody);
-
-          container.appendChild(SDocumentXHTMLWriterMulti.this.navigationBar(
-            link_provider,
-            doc,
-            SDocumentXHTMLWriterMulti.NO_NUMBER,
-            true));
-
-          final SNonEmptyList<SAPart> parts = dwp.getParts();
-          container.appendChild(SXHTML.documentTitle(dwp));
-
-          doc.getContents().map(new FunctionType<SDocumentContents, Unit>() {
-            @Override public Unit call(
-              final SDocumentContents x)
-            {
-              container.appendChild(doc_contents
-                .getTableOfContentsParts(parts));
-              return Unit.unit();
+          for (final SAPart p : dwp.getParts().getElements()) {
+            segments.put(p.getNumber(), new Page(
+              SXHTMLAnchors.getPartFile(p.getNumber()),
+              Integer.toString(p.getNumber().getActual())) {
+              @Override Document render(
+                final SDocumentXHTMLWriterCallbacks callbacks)
+                throws Exception
+              {
+                return SDocumentXHTMLWriterMulti.this.partPage(
+                  link_provider, callbacks, part_contents, doc, p);
+              }
+            });
+
+            for (final SASection s : p.getSections().getElements()) {
+              segments.put(
+                s.getNumber(),
+                SDocumentXHTMLWriterMulti.this.sectionPageRenderer(
+                  link_provider, section_contents, formals, doc, s));
             }
-          });
-
-          container.appendChild(SDocumentXHTMLWriterMulti.this.navigationBar(
-            link_provider,
-            doc,
-            SDocumentXHTMLWriterMulti.NO_NUMBER,
-            false));
-          callbacks.onBodyEnd(container);
-
-          assert documents
-            .containsKey(SDocumentXHTMLWriterMulti.this.front_page) == false;
-          documents.put(
-            SDocumentXHTMLWriterMulti.this.front_page,
-            page.getDocument());
-
-          for (final SAPart p : parts.getElements()) {
-            SDocumentXHTMLWriterMulti.this.part(
-              documents,
-              link_provider,
-              callbacks,
-              part_contents,
-              section_contents,
-              doc,
-              p);
           }
-
           return Unit.unit();
         }
 
@@ -870,65 +1118,86 @@ import com.io7m.junreachable.UnreachableCodeException;
           final SADocumentWithSections dws)
           throws Exception
         {
-          final SXHTMLPage page =
-            SXHTML.newPage(doc.getTitle().getActual(), doc.getStyle());
-
-          final SNonEmptyList<SASection> sections = dws.getSections();
-
-          callbacks.onHead(page.getHead());
-
-          final Element container = page.getBodyContainer();
-          final Element rbody = callbacks.onBodyStart(container);
-          SXHTMLReparent.reparentBodyNode(container, rbody);
-
-          container.appendChild(SDocumentXHTMLWriterMulti.this.navigationBar(
-            link_provider,
-            doc,
-            SDocumentXHTMLWriterMulti.NO_NUMBER,
-            true));
-
-          container.appendChild(SXHTML.documentTitle(dws));
-
-          doc.getContents().map(new FunctionType<SDocumentContents, Unit>() {
-            @Override public Unit call(
-              final SDocumentContents x)
-            {
-              container.appendChild(doc_contents
-                .getTableOfContentsSections(sections));
-              return Unit.unit();
-            }
-          });
-
-          container.appendChild(SDocumentXHTMLWriterMulti.this.navigationBar(
-            link_provider,
-            doc,
-            SDocumentXHTMLWriterMulti.NO_NUMBER,
-            false));
-          callbacks.onBodyEnd(container);
-
-          assert documents
-            .containsKey(SDocumentXHTMLWriterMulti.this.front_page) == false;
-          documents.put(
-            SDocumentXHTMLWriterMulti.this.front_page,
-            page.getDocument());
-
-          for (final SASection s : sections.getElements()) {
-            SDocumentXHTMLWriterMulti.this.section(
-              documents,
-              link_provider,
-              callbacks,
-              section_contents,
-              doc,
-              s);
+          for (final SASection s : dws.getSections().getElements()) {
+            segments.put(
+              s.getNumber(),
+              SDocumentXHTMLWriterMulti.this.sectionPageRenderer(
+                link_provider, section_contents, formals, doc, s));
           }
-
           return Unit.unit();
         }
       });
 
-      return documents;
+      return new SDocumentXHTMLMultiPrepared(doc, front, segments);
     } catch (final Exception e) {
       throw new UnreachableCodeException(e);
     }
   }
+
+  /**
+   * A renderer for a single page of a prepared document.
+   */
+
+  abstract static class Page
+  {
+    private final String name;
+    private final String segment;
+
+    Page(
+      final String in_name,
+      final String in_segment)
+    {
+      this.name = NullCheck.notNull(in_name, "Name");
+      this.segment = NullCheck.notNull(in_segment, "Segment");
+    }
+
+    final String getName()
+    {
+      return this.name;
+    }
+
+    final Document write(
+      final SDocumentXHTMLWriterCallbacks callbacks)
+      throws Exception
+    {
+      final SEventRenderPage event =
+        SEvents.AVAILABLE ? SEventRenderPage.start() : null;
+      final Document page = this.render(callbacks);
+
+      if (event != null) {
+        event.end();
+        if (event.shouldCommit()) {
+          event.setPage(this.name);
+          event.setSegment(this.segment);
+          event.setElements(SEventSupport.countElements(page));
+          event.commit();
+        }
+      }
+      return page;
+    }
+
+    abstract Document render(
+      SDocumentXHTMLWriterCallbacks callbacks)
+      throws Exception;
+  }
+
+  private static final class PageTask implements Callable<Document>
+  {
+    private final SDocumentXHTMLWriterCallbacks callbacks;
+    private final Page                          page;
+
+    PageTask(
+      final Page in_page,
+      final SDocumentXHTMLWriterCallbacks in_callbacks)
+    {
+      this.page = in_page;
+      this.callbacks = in_callbacks;
+    }
+
+    @Override public Document call()
+      throws Exception
+    {
+      return this.page.write(this.callbacks);
+    }
+  }
 }
@@ -16,6 +16,7 @@
 
 package com.io7m.jstructural.xom;
 
+import java.io.IOException;
 import java.util.SortedMap;
 import java.util.TreeMap;
 
@@ -31,7 +32,6 @@ import com.io7m.jstructural.annotated.SADocumentWithParts;
 import com.io7m.jstructural.annotated.SADocumentWithSections;
 import com.io7m.jstructural.annotated.SAFormalItem;
 import com.io7m.jstructural.annotated.SAFormalItemNumber;
-import com.io7m.jstructural.annotated.SAFormalItemsByKindReadable;
 import com.io7m.jstructural.annotated.SAID;
 import com.io7m.jstructural.annotated.SAIDMapReadable;
 import com.io7m.jstructural.annotated.SAIDTargetContent;
@@ -55,15 +55,31 @@ import com.io7m.jstructural.core.SDocumentContents;
 import com.io7m.jstructural.core.SNonEmptyList;
 import com.io7m.jstructural.core.SPartContents;
 import com.io7m.jstructural.core.SSectionContents;
+import com.io7m.jstructural.events.SEventRenderPage;
+import com.io7m.jstructural.events.SEvents;
 import com.io7m.junreachable.UnreachableCodeException;
+import net.jcip.annotations.Immutable;
 
 /**
+ * <p>
  * An XHTML writer that produces XHTML 1.0 Strict documents, as a single page.
+ * </p>
+ * <p>
+ * Writers are immutable and may be shared between threads: any number of
+ * documents may be written concurrently with the same writer.
+ * </p>
  */
 
+@Immutable
 @SuppressWarnings("synthetic-access") public final class SDocumentXHTMLWriterSingle implements
   SDocumentXHTMLWriter
 {
+  private static final String FILE_NAME;
+
+  static {
+    FILE_NAME = "index." + SXHTML.OUTPUT_FILE_SUFFIX;
+  }
+
   private static String getFormalItemLinkTarget(
     final SAFormalItemNumber f)
     throws Exception
@@ -138,7 +154,7 @@ import com.io7m.junreachable.UnreachableCodeException;
     final SXHTMLPartContents part_contents_writer,
     final SXHTMLSectionContents section_contents_writer,
     final SLinkProvider link_provider,
-    final SAFormalItemsByKindReadable formals,
+    final SXHTMLFormalItemLists formals,
     final SAPart part)
     throws Exception
   {
@@ -172,7 +188,7 @@ import com.io7m.junreachable.UnreachableCodeException;
   private static Element section(
     final SXHTMLSectionContents section_contents_writer,
     final SLinkProvider link_provider,
-    final SAFormalItemsByKindReadable formals,
+    final SXHTMLFormalItemLists formals,
     final SASection s)
     throws Exception
   {
@@ -210,7 +226,7 @@ import com.io7m.junreachable.UnreachableCodeException;
 
   private static void sectionWithParagraphs(
     final SLinkProvider link_provider,
-    final SAFormalItemsByKindReadable formals,
+    final SXHTMLFormalItemLists formals,
     final SASectionWithParagraphs swp,
     final Element e)
     throws Exception
@@ -241,7 +257,7 @@ import com.io7m.junreachable.UnreachableCodeException;
   private static void sectionWithSubsections(
     final SXHTMLSectionContents section_contents_writer,
     final SLinkProvider link_provider,
-    final SAFormalItemsByKindReadable formals,
+    final SXHTMLFormalItemLists formals,
     final SASectionWithSubsections sws,
     final Element e)
     throws Exception
@@ -274,12 +290,56 @@ import com.io7m.junreachable.UnreachableCodeException;
   @Override public SortedMap<String, Document> writeDocuments(
     final SDocumentXHTMLWriterCallbacks callbacks,
     final SADocument doc)
+  {
+    final SortedMap<String, Document> documents =
+      new TreeMap<String, Document>();
+    documents.put(
+      SDocumentXHTMLWriterSingle.FILE_NAME,
+      SDocumentXHTMLWriterSingle.writeDocument(callbacks, doc));
+    return documents;
+  }
+
+  @Override public void writeDocumentsTo(
+    final SDocumentXHTMLWriterCallbacks callbacks,
+    final SADocument doc,
+    final SDocumentXHTMLPageSink sink)
+    throws IOException
+  {
+    NullCheck.notNull(sink, "Sink");
+    sink.onPage(
+      SDocumentXHTMLWriterSingle.FILE_NAME,
+      SDocumentXHTMLWriterSingle.writeDocument(callbacks, doc));
+  }
+
+  private static Document writeDocument(
+    final SDocumentXHTMLWriterCallbacks callbacks,
+    final SADocument doc)
+  {
+    final SEventRenderPage event =
+      SEvents.AVAILABLE ? SEventRenderPage.start() : null;
+    final Document page =
+      SDocumentXHTMLWriterSingle.renderDocument(callbacks, doc);
+
+    if (event != null) {
+      event.end();
+      if (event.shouldCommit()) {
+        event.setPage(SDocumentXHTMLWriterSingle.FILE_NAME);
+        event.setElements(SEventSupport.countElements(page));
+        event.commit();
+      }
+    }
+    return page;
+  }
+
+  private static Document renderDocument(
+    final SDocumentXHTMLWriterCallbacks callbacks,
+    final SADocument doc)
   {
     try {
       NullCheck.notNull(callbacks, "Callbacks");
       NullCheck.notNull(doc, "Document");
 
-      final SLinkProvider link_provider = new SLinkProvider() {
+      final SLinkProvider computed = new SLinkProvider() {
         @Override public String getFormalItemLinkTarget(
           final SAFormalItemNumber f)
         {
@@ -381,13 +441,17 @@ import com.io7m.junreachable.UnreachableCodeException;
         }
       };
 
+      final SLinkProvider link_provider =
+        SXHTMLLinkTable.newTable(doc, computed);
+
       final SXHTMLDocumentContents doc_contents =
         new SXHTMLDocumentContents(link_provider);
       final SXHTMLPartContents part_contents =
         new SXHTMLPartContents(link_provider);
       final SXHTMLSectionContents section_contents =
         new SXHTMLSectionContents(link_provider);
-      final SAFormalItemsByKindReadable formals = doc.getFormals();
+      final SXHTMLFormalItemLists formals =
+        new SXHTMLFormalItemLists(link_provider, doc.getFormals());
 
       final SXHTMLPage page =
         SXHTML.newPage(doc.getTitle().getActual(), doc.getStyle());
@@ -457,10 +521,7 @@ import com.io7m.junreachable.UnreachableCodeException;
       SXHTML.footnotes(link_provider, formals, doc.getFootnotes(), container);
       callbacks.onBodyEnd(container);
 
-      final SortedMap<String, Document> documents =
-        new TreeMap<String, Document>();
-      documents.put("index.xhtml", page.getDocument());
-      return documents;
+      return page.getDocument();
     } catch (final Exception e) {
       throw new UnreachableCodeException(e);
     }
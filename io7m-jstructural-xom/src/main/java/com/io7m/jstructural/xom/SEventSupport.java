@@ -0,0 +1,172 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.jstructural.xom;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.jstructural.events.SEventResolveEntity;
+import com.io7m.junreachable.UnreachableCodeException;
+import nu.xom.Element;
+import nu.xom.Node;
+import nu.xom.ParentNode;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Functions used when emitting events.
+ */
+
+final class SEventSupport
+{
+  private SEventSupport()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * @param root The root node
+   *
+   * @return The number of elements in the tree rooted at {@code root}
+   */
+
+  static int countElements(
+    final ParentNode root)
+  {
+    int count = 0;
+    final Deque<ParentNode> pending = new ArrayDeque<ParentNode>();
+    pending.push(root);
+
+    while (pending.isEmpty() == false) {
+      final ParentNode p = pending.pop();
+      if (p instanceof Element) {
+        ++count;
+      }
+      for (int index = 0; index < p.getChildCount(); ++index) {
+        final Node c = p.getChild(index);
+        if (c instanceof ParentNode) {
+          pending.push((ParentNode) c);
+        }
+      }
+    }
+
+    return count;
+  }
+
+  /**
+   * An input stream that counts the bytes read from it.
+   */
+
+  static final class CountingInputStream extends FilterInputStream
+  {
+    private long count;
+
+    CountingInputStream(
+      final InputStream in_stream)
+    {
+      super(NullCheck.notNull(in_stream, "Stream"));
+    }
+
+    long getCount()
+    {
+      return this.count;
+    }
+
+    @Override
+    public int read()
+      throws IOException
+    {
+      final int r = super.read();
+      if (r >= 0) {
+        ++this.count;
+      }
+      return r;
+    }
+
+    @Override
+    public int read(
+      final byte[] b,
+      final int off,
+      final int len)
+      throws IOException
+    {
+      final int r = super.read(b, off, len);
+      if (r >= 0) {
+        this.count += r;
+      }
+      return r;
+    }
+
+    @Override
+    public long skip(
+      final long n)
+      throws IOException
+    {
+      final long r = super.skip(n);
+      this.count += r;
+      return r;
+    }
+
+    @Override
+    public boolean markSupported()
+    {
+      return false;
+    }
+  }
+
+  /**
+   * <p>An entity resolver that emits an {@link SEventResolveEntity} event for
+   * each external resource that the parser resolves, when that event is
+   * enabled.</p>
+   *
+   * <p>The resolver always returns {@code null}, and so never affects how
+   * resources are resolved or read.</p>
+   */
+
+  static final class ResolveEntityListener implements EntityResolver
+  {
+    ResolveEntityListener()
+    {
+      // Nothing
+    }
+
+    @Override
+    public @Nullable InputSource resolveEntity(
+      final @Nullable String public_id,
+      final @Nullable String system_id)
+    {
+      if (system_id != null) {
+        final SEventResolveEntity event = SEventResolveEntity.start();
+        if (event != null) {
+          event.end();
+          if (event.shouldCommit()) {
+            event.setURI(system_id);
+            event.setPublicID(public_id);
+            event.commit();
+          }
+        }
+      }
+      return null;
+    }
+  }
+}
@@ -190,7 +190,7 @@ public final class SXHTML
 
   static Element footnoteBody(
     final SLinkProvider link_provider,
-    final SAFormalItemsByKindReadable formals,
+    final SXHTMLFormalItemLists formals,
     final SAFootnote f)
     throws Exception
   {
@@ -212,7 +212,7 @@ public final class SXHTML
 
   static Element footnoteContainer(
     final SLinkProvider link_provider,
-    final SAFormalItemsByKindReadable formals,
+    final SXHTMLFormalItemLists formals,
     final SAFootnote f)
   {
     final String[] sect_classes = new String[1];
@@ -242,7 +242,7 @@ public final class SXHTML
 
   static Node footnoteContent(
     final SLinkProvider link_provider,
-    final SAFormalItemsByKindReadable formals,
+    final SXHTMLFormalItemLists formals,
     final SAFootnoteContent c)
     throws Exception
   {
@@ -316,7 +316,7 @@ public final class SXHTML
 
   static SNonEmptyList<Node> footnoteContentList(
     final SLinkProvider link_provider,
-    final SAFormalItemsByKindReadable formals,
+    final SXHTMLFormalItemLists formals,
     final SNonEmptyList<SAFootnoteContent> contents)
     throws Exception
   {
@@ -345,7 +345,7 @@ public final class SXHTML
 
   static void footnotes(
     final SLinkProvider link_provider,
-    final SAFormalItemsByKindReadable formals,
+    final SXHTMLFormalItemLists formals,
     final List<SAFootnote> footnotes,
     final Element body)
     throws Exception
@@ -367,7 +367,7 @@ public final class SXHTML
 
   static Element formalItem(
     final SLinkProvider link_provider,
-    final SAFormalItemsByKindReadable formals,
+    final SXHTMLFormalItemLists formals,
     final SAFormalItem formal)
     throws Exception
   {
@@ -404,7 +404,7 @@ public final class SXHTML
 
   static Element formalItemContent(
     final SLinkProvider link_provider,
-    final SAFormalItemsByKindReadable formals,
+    final SXHTMLFormalItemLists formals,
     final SAFormalItemContent content)
     throws Exception
   {
@@ -414,7 +414,7 @@ public final class SXHTML
           final SAFormalItemList list)
           throws Exception
         {
-          return SXHTML.formalItemList(link_provider, formals, list);
+          return formals.getFormalItemList(list);
         }
 
         @Override public Element visitImage(
@@ -470,8 +470,7 @@ public final class SXHTML
     final SortedMap<SAFormalItemNumber, SAFormalItem> f =
       formals.get(list.getKind());
 
-    for (final SAFormalItemNumber p : f.keySet()) {
-      final SAFormalItem formal = f.get(p);
+    for (final SAFormalItem formal : f.values()) {
 
       final String[] el_classes = new String[1];
       el_classes[0] = "formal_item_list_item";
@@ -852,7 +851,7 @@ public final class SXHTML
 
   static Element paragraph(
     final SLinkProvider link_provider,
-    final SAFormalItemsByKindReadable formals,
+    final SXHTMLFormalItemLists formals,
     final SAParagraph paragraph)
     throws Exception
   {
@@ -901,7 +900,7 @@ public final class SXHTML
 
   static Node paragraphContent(
     final SLinkProvider link_provider,
-    final SAFormalItemsByKindReadable formals,
+    final SXHTMLFormalItemLists formals,
     final SAParagraphContent c)
     throws Exception
   {
@@ -917,7 +916,7 @@ public final class SXHTML
         final SAFormalItemList list)
         throws Exception
       {
-        return SXHTML.formalItemList(link_provider, formals, list);
+        return formals.getFormalItemList(list);
       }
 
       @Override public Node visitImage(
@@ -987,7 +986,7 @@ public final class SXHTML
 
   static SNonEmptyList<Node> paragraphContentList(
     final SLinkProvider link_provider,
-    final SAFormalItemsByKindReadable formals,
+    final SXHTMLFormalItemLists formals,
     final SNonEmptyList<SAParagraphContent> contents)
     throws Exception
   {
@@ -1078,7 +1077,7 @@ public final class SXHTML
 
   static Element subsection(
     final SLinkProvider link_provider,
-    final SAFormalItemsByKindReadable formals,
+    final SXHTMLFormalItemLists formals,
     final SASubsection ss)
     throws Exception
   {
@@ -1131,7 +1130,7 @@ public final class SXHTML
 
   static Element subsectionContent(
     final SLinkProvider link_provider,
-    final SAFormalItemsByKindReadable formals,
+    final SXHTMLFormalItemLists formals,
     final SASubsectionContent c)
     throws Exception
   {
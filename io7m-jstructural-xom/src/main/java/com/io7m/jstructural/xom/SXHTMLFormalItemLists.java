@@ -0,0 +1,72 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ * 
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jstructural.xom;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jstructural.annotated.SAFormalItemList;
+import com.io7m.jstructural.annotated.SAFormalItemsByKindReadable;
+import net.jcip.annotations.ThreadSafe;
+import nu.xom.Element;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The formal items of a document, and a cache of rendered formal item lists.
+ * A list of formal items of a given kind is rendered once per document and is
+ * copied each time it appears in the output.
+ */
+
+@ThreadSafe final class SXHTMLFormalItemLists
+{
+  private final SLinkProvider                  callbacks;
+  private final SAFormalItemsByKindReadable    formals;
+  private final ConcurrentMap<String, Element> lists;
+
+  SXHTMLFormalItemLists(
+    final SLinkProvider in_callbacks,
+    final SAFormalItemsByKindReadable in_formals)
+  {
+    this.callbacks = NullCheck.notNull(in_callbacks, "Callbacks");
+    this.formals = NullCheck.notNull(in_formals, "Formals");
+    this.lists = new ConcurrentHashMap<String, Element>(16);
+  }
+
+  /**
+   * @param list The formal item list
+   *
+   * @return A fresh copy of the rendered formal item list
+   */
+
+  Element getFormalItemList(
+    final SAFormalItemList list)
+  {
+    final String kind = list.getKind();
+    Element e = this.lists.get(kind);
+    if (e == null) {
+      e = SXHTML.formalItemList(this.callbacks, this.formals, list);
+      final Element p = this.lists.putIfAbsent(kind, e);
+      if (p != null) {
+        e = p;
+      }
+    }
+
+    final Element r = (Element) e.copy();
+    assert r != null;
+    return r;
+  }
+}
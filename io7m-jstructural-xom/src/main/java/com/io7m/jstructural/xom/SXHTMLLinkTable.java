@@ -0,0 +1,279 @@
+/*
+ * Copyright © 2014 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.jstructural.xom;
+
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Some;
+import com.io7m.jfunctional.Unit;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jstructural.annotated.SADocument;
+import com.io7m.jstructural.annotated.SADocumentVisitor;
+import com.io7m.jstructural.annotated.SADocumentWithParts;
+import com.io7m.jstructural.annotated.SADocumentWithSections;
+import com.io7m.jstructural.annotated.SAFormalItem;
+import com.io7m.jstructural.annotated.SAFormalItemNumber;
+import com.io7m.jstructural.annotated.SAID;
+import com.io7m.jstructural.annotated.SAParagraph;
+import com.io7m.jstructural.annotated.SAPart;
+import com.io7m.jstructural.annotated.SAPartNumber;
+import com.io7m.jstructural.annotated.SASection;
+import com.io7m.jstructural.annotated.SASectionNumber;
+import com.io7m.jstructural.annotated.SASectionVisitor;
+import com.io7m.jstructural.annotated.SASectionWithParagraphs;
+import com.io7m.jstructural.annotated.SASectionWithSubsections;
+import com.io7m.jstructural.annotated.SASegmentNumber;
+import com.io7m.jstructural.annotated.SASubsection;
+import com.io7m.jstructural.annotated.SASubsectionContent;
+import com.io7m.jstructural.annotated.SASubsectionContentVisitor;
+import com.io7m.jstructural.annotated.SASubsectionNumber;
+import com.io7m.jstructural.core.SNonEmptyList;
+import com.io7m.junreachable.UnreachableCodeException;
+import net.jcip.annotations.Immutable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>A link provider that resolves every link target in a document once, up
+ * front.</p>
+ *
+ * <p>The table is populated by asking an underlying provider for the link
+ * target of every part, section, subsection, formal item and ID in the
+ * document. Subsequent lookups are simple map lookups, and return the same
+ * strings as the underlying provider would have. Targets that are not present
+ * in the table are delegated to the underlying provider.</p>
+ *
+ * <p>A table is built once per render, or once per prepared document, rather
+ * than being cached across renders of the same document: building it is a
+ * single traversal that costs a small fraction of rendering the pages, and
+ * caching it would give the otherwise immutable writers mutable state that
+ * keeps the last document reachable.</p>
+ */
+
+@Immutable final class SXHTMLLinkTable implements SLinkProvider
+{
+  private final SLinkProvider                   base;
+  private final Map<SASegmentNumber, String>    segments;
+  private final Map<SASubsectionNumber, String> subsections;
+  private final Map<SAFormalItemNumber, String> formals;
+  private final Map<SAID, String>               ids;
+
+  private SXHTMLLinkTable(
+    final SLinkProvider in_base)
+  {
+    this.base = in_base;
+    this.segments = new HashMap<SASegmentNumber, String>(64);
+    this.subsections = new HashMap<SASubsectionNumber, String>(256);
+    this.formals = new HashMap<SAFormalItemNumber, String>(64);
+    this.ids = new HashMap<SAID, String>(256);
+  }
+
+  /**
+   * Resolve all of the link targets in the given document.
+   *
+   * @param doc  The document
+   * @param base The provider used to compute each link target
+   *
+   * @return A link table
+   */
+
+  static SXHTMLLinkTable newTable(
+    final SADocument doc,
+    final SLinkProvider base)
+  {
+    NullCheck.notNull(doc, "Document");
+    NullCheck.notNull(base, "Base");
+
+    final SXHTMLLinkTable t = new SXHTMLLinkTable(base);
+    try {
+      doc.documentAccept(new SADocumentVisitor<Unit>()
+      {
+        @Override public Unit visitDocumentWithParts(
+          final SADocumentWithParts d)
+          throws Exception
+        {
+          for (final SAPart p : d.getParts().getElements()) {
+            t.addPart(p);
+          }
+          return Unit.unit();
+        }
+
+        @Override public Unit visitDocumentWithSections(
+          final SADocumentWithSections d)
+          throws Exception
+        {
+          t.addSections(d.getSections());
+          return Unit.unit();
+        }
+      });
+    } catch (final Exception e) {
+      throw new UnreachableCodeException(e);
+    }
+    return t;
+  }
+
+  private void addID(
+    final OptionType<SAID> id)
+  {
+    if (id.isSome()) {
+      final SAID i = ((Some<SAID>) id).get();
+      this.ids.put(i, this.base.getLinkTargetForID(i));
+    }
+  }
+
+  private void addPart(
+    final SAPart p)
+    throws Exception
+  {
+    final SAPartNumber n = p.getNumber();
+    this.segments.put(n, this.base.getPartLinkTarget(n));
+    this.addID(p.getID());
+    this.addSections(p.getSections());
+  }
+
+  private void addSections(
+    final SNonEmptyList<SASection> sections)
+    throws Exception
+  {
+    for (final SASection s : sections.getElements()) {
+      final SASectionNumber n = s.getNumber();
+      this.segments.put(n, this.base.getSectionLinkTarget(n));
+      this.addID(s.getID());
+
+      s.sectionAccept(new SASectionVisitor<Unit>()
+      {
+        @Override public Unit visitSectionWithParagraphs(
+          final SASectionWithParagraphs swp)
+          throws Exception
+        {
+          SXHTMLLinkTable.this.addContent(swp.getSectionContent());
+          return Unit.unit();
+        }
+
+        @Override public Unit visitSectionWithSubsections(
+          final SASectionWithSubsections sws)
+          throws Exception
+        {
+          for (final SASubsection ss : sws.getSubsections().getElements()) {
+            SXHTMLLinkTable.this.addSubsection(ss);
+          }
+          return Unit.unit();
+        }
+      });
+    }
+  }
+
+  private void addSubsection(
+    final SASubsection ss)
+    throws Exception
+  {
+    final SASubsectionNumber n = ss.getNumber();
+    this.subsections.put(n, this.base.getSubsectionLinkTarget(n));
+    this.addID(ss.getID());
+    this.addContent(ss.getContent());
+  }
+
+  private void addContent(
+    final SNonEmptyList<SASubsectionContent> content)
+    throws Exception
+  {
+    final SASubsectionContentVisitor<Unit> v =
+      new SASubsectionContentVisitor<Unit>()
+      {
+        @Override public Unit visitFormalItem(
+          final SAFormalItem f)
+        {
+          final SAFormalItemNumber n = f.getNumber();
+          SXHTMLLinkTable.this.formals.put(
+            n, SXHTMLLinkTable.this.base.getFormalItemLinkTarget(n));
+          SXHTMLLinkTable.this.addID(f.getID());
+          return Unit.unit();
+        }
+
+        @Override public Unit visitParagraph(
+          final SAParagraph p)
+        {
+          SXHTMLLinkTable.this.addID(p.getID());
+          return Unit.unit();
+        }
+      };
+
+    for (final SASubsectionContent c : content.getElements()) {
+      c.subsectionContentAccept(v);
+    }
+  }
+
+  @Override public String getFormalItemLinkTarget(
+    final SAFormalItemNumber f)
+  {
+    final String r = this.formals.get(f);
+    if (r != null) {
+      return r;
+    }
+    return this.base.getFormalItemLinkTarget(f);
+  }
+
+  @Override public String getLinkTargetForID(
+    final SAID id)
+  {
+    final String r = this.ids.get(id);
+    if (r != null) {
+      return r;
+    }
+    return this.base.getLinkTargetForID(id);
+  }
+
+  @Override public String getPartLinkTarget(
+    final SAPartNumber p)
+  {
+    final String r = this.segments.get(p);
+    if (r != null) {
+      return r;
+    }
+    return this.base.getPartLinkTarget(p);
+  }
+
+  @Override public String getSectionLinkTarget(
+    final SASectionNumber s)
+  {
+    final String r = this.segments.get(s);
+    if (r != null) {
+      return r;
+    }
+    return this.base.getSectionLinkTarget(s);
+  }
+
+  @Override public String getSegmentLinkTarget(
+    final SASegmentNumber segment)
+  {
+    final String r = this.segments.get(segment);
+    if (r != null) {
+      return r;
+    }
+    return this.base.getSegmentLinkTarget(segment);
+  }
+
+  @Override public String getSubsectionLinkTarget(
+    final SASubsectionNumber s)
+  {
+    final String r = this.subsections.get(s);
+    if (r != null) {
+      return r;
+    }
+    return this.base.getSubsectionLinkTarget(s);
+  }
+}